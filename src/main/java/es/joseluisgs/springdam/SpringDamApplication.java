@@ -2,6 +2,7 @@ package es.joseluisgs.springdam;
 
 import es.joseluisgs.springdam.models.Producto;
 import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import es.joseluisgs.springdam.services.productos.ProductosRevisiones;
 import es.joseluisgs.springdam.services.uploads.StorageService;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
@@ -31,17 +32,18 @@ public class SpringDamApplication {
 
     // Iniciamos la base de datos
     // OJO!!! Tambien podemos iniciar los datos cargándolos desed aqui
+    // Cada uno con su revisión, para que se sincronicen (ver ProductosRevisiones)
     @Bean
-    public CommandLineRunner initProductos(ProductosRepository productosRepository) {
+    public CommandLineRunner initProductos(ProductosRepository productosRepository, ProductosRevisiones productosRevisiones) {
         return (args) -> {
-            productosRepository.save(
+            productosRevisiones.escribir(revision -> productosRepository.save(
                     Producto.builder().nombre("Init").precio(1.5).stock(5).createdAt(LocalDateTime.now()).imagen("https://api.lorem.space/image?w=150&h=180")
-                            .build()
-            );
-            productosRepository.save(
+                            .updatedAt(LocalDateTime.now()).revision(revision).build()
+            ));
+            productosRevisiones.escribir(revision -> productosRepository.save(
                     Producto.builder().nombre("Init2").precio(5.55).stock(25).createdAt(LocalDateTime.now()).imagen("https://api.lorem.space/image?w=150&h=180")
-                            .build()
-            );
+                            .updatedAt(LocalDateTime.now()).revision(revision).build()
+            ));
         };
     }
 
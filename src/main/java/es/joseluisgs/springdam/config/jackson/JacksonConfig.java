@@ -0,0 +1,27 @@
+package es.joseluisgs.springdam.config.jackson;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+@Configuration
+public class JacksonConfig {
+
+    // Formatos binarios además de JSON: con Accept: application/cbor o application/x-jackson-smile
+    // las respuestas (y con Content-Type, las peticiones) van en ese formato, con los mismos DTO.
+    // Los ObjectMapper salen del builder de Spring Boot, así tienen la misma configuración (spring.jackson.*) que el de JSON.
+    // Spring Boot los coloca detrás del conversor de JSON, que sigue siendo el formato por defecto
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+    }
+
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2SmileHttpMessageConverter(builder.factory(new SmileFactory()).build());
+    }
+}
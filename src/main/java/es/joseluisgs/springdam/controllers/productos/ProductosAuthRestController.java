@@ -10,17 +10,19 @@ import es.joseluisgs.springdam.errors.productos.ProductoNotFoundException;
 import es.joseluisgs.springdam.errors.productos.ProductosNotFoundException;
 import es.joseluisgs.springdam.mappers.ProductoMapper;
 import es.joseluisgs.springdam.models.Producto;
+import es.joseluisgs.springdam.repositories.productos.ProductosCampos;
+import es.joseluisgs.springdam.repositories.productos.ProductosFiltro;
 import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import es.joseluisgs.springdam.services.productos.ProductosService;
 import es.joseluisgs.springdam.services.uploads.StorageService;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -37,6 +39,7 @@ public class ProductosAuthRestController {
     private final ProductosRepository productosRepository;
     private final StorageService storageService;
     private final ProductoMapper productoMapper;
+    private final ProductosService productosService;
 
     @ApiOperation(value = "test", notes = "Mensaje de bienvenida")
     @ApiResponses(value = {
@@ -56,28 +59,52 @@ public class ProductosAuthRestController {
             @ApiResponse(code = 403, message = "No autorizado")
     })
     @GetMapping("/")
-    public ResponseEntity<?> findAll(@RequestParam(name = "limit") Optional<String> limit,
-                                     @RequestParam(name = "nombre") Optional<String> nombre) {
-        List<Producto> productos = null;
+    public ResponseEntity<byte[]> findAll(@RequestParam(name = "limit") Optional<String> limit,
+                                          @RequestParam(name = "nombre") Optional<String> nombre,
+                                          @RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept)
+            throws HttpMediaTypeNotAcceptableException {
+        MediaType formato = productosService.formato(accept);
         try {
-            if (nombre.isPresent()) {
-                productos = productosRepository.findByNombreContainsIgnoreCase(nombre.get());
-            } else {
-                productos = productosRepository.findAll();
-            }
-
-            if (limit.isPresent() && !productos.isEmpty() && productos.size() > Integer.parseInt(limit.get())) {
-
-                return ResponseEntity.ok(productoMapper.toDTO(
-                        productos.subList(0, Integer.parseInt(limit.get())))
-                );
+            // El límite se lo pasamos a la base de datos, así solo leemos las filas que vamos a devolver
+            // y la consulta ya nos da los DTO, sin cargar entidades. En JSON salen ya serializados de ProductosFragmentos
+            byte[] productos = productosService.findAllJson(nombre.orElse(null), limit.map(Integer::parseInt).orElse(null), formato)
+                    .orElseThrow(ProductosNotFoundException::new);
+            return ResponseEntity.ok()
+                    .contentType(formato)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                    .body(productos);
+        } catch (Exception e) {
+            throw new GeneralBadRequestException("Selección de Datos", "Parámetros de consulta incorrectos");
+        }
+    }
 
+    @ApiOperation(value = "Obtener todos los productos con algunos campos", notes = "Como obtener todos los productos, con solo los campos pedidos en fields (fields=id,nombre,precio o fields=lista)")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "OK", response = ProductoDTO.class, responseContainer = "List"),
+            @ApiResponse(code = 404, message = "Not Found", response = ProductosNotFoundException.class),
+            @ApiResponse(code = 400, message = "Bad Request", response = GeneralBadRequestException.class),
+            @ApiResponse(code = 401, message = "No autenticado"),
+            @ApiResponse(code = 403, message = "No autorizado")
+    })
+    @GetMapping(value = "/", params = "fields")
+    public ResponseEntity<byte[]> findAll(@RequestParam(required = false, name = "limit") Optional<String> limit,
+                                          @RequestParam(required = false, name = "nombre") Optional<String> nombre,
+                                          @RequestParam(name = "fields") String fields,
+                                          @RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept)
+            throws HttpMediaTypeNotAcceptableException {
+        MediaType formato = productosService.formato(accept);
+        try {
+            // La consulta solo lee esas columnas y el JSON solo lleva esas propiedades
+            ProductosCampos campos = ProductosCampos.of(fields);
+            List<ProductoDTO> productos = productosService.findAll(nombre.orElse(null),
+                    limit.map(Integer::parseInt).orElse(null), campos);
+            if (!productos.isEmpty()) {
+                return ResponseEntity.ok()
+                        .contentType(formato)
+                        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                        .body(productosService.serializar(productos, campos, formato));
             } else {
-                if (!productos.isEmpty()) {
-                    return ResponseEntity.ok(productoMapper.toDTO(productos));
-                } else {
-                    throw new ProductosNotFoundException();
-                }
+                throw new ProductosNotFoundException();
             }
         } catch (Exception e) {
             throw new GeneralBadRequestException("Selección de Datos", "Parámetros de consulta incorrectos");
@@ -94,11 +121,12 @@ public class ProductosAuthRestController {
     })
     @GetMapping("/{id}")
     public ResponseEntity<?> findById(@PathVariable Long id) {
-        Producto producto = productosRepository.findById(id).orElse(null);
+        // Proyección: solo lectura, directamente el DTO
+        ProductoDTO producto = productosService.findById(id).orElse(null);
         if (producto == null) {
             throw new ProductoNotFoundException(id);
         } else {
-            return ResponseEntity.ok(productoMapper.toDTO(producto));
+            return ResponseEntity.ok(producto);
         }
     }
 
@@ -115,7 +143,7 @@ public class ProductosAuthRestController {
             // Comprobamos los campos obligatorios
             Producto producto = productoMapper.fromDTO(productoDTO);
             checkProductoData(producto);
-            Producto productoInsertado = productosRepository.save(producto);
+            Producto productoInsertado = productosService.save(producto);
             return ResponseEntity.ok(productoMapper.toDTO(productoInsertado));
         } catch (Exception e) {
             throw new GeneralBadRequestException("Insertar", "Error al insertar el producto. Campos incorrectos");
@@ -144,7 +172,7 @@ public class ProductosAuthRestController {
                 productoActualizado.setPrecio(producto.getPrecio());
                 productoActualizado.setStock(producto.getStock());
 
-                productoActualizado = productosRepository.save(productoActualizado);
+                productoActualizado = productosService.save(productoActualizado);
                 return ResponseEntity.ok(productoMapper.toDTO(productoActualizado));
             }
         } catch (Exception e) {
@@ -167,7 +195,7 @@ public class ProductosAuthRestController {
             if (producto == null) {
                 throw new ProductoNotFoundException(id);
             } else {
-                productosRepository.delete(producto);
+                productosService.delete(producto);
                 return ResponseEntity.ok(productoMapper.toDTO(producto));
             }
         } catch (Exception e) {
@@ -218,7 +246,7 @@ public class ProductosAuthRestController {
                 String urlImagen = storageService.getUrl(imagen);
                 producto.setImagen(urlImagen);
             }
-            Producto productoInsertado = productosRepository.save(producto);
+            Producto productoInsertado = productosService.save(producto);
             return ResponseEntity.ok(productoMapper.toDTO(productoInsertado));
         } catch (ProductoNotFoundException ex) {
             throw new GeneralBadRequestException("Insertar", "Error al insertar el producto. Campos incorrectos");
@@ -227,7 +255,7 @@ public class ProductosAuthRestController {
     }
 
 
-    @ApiOperation(value = "Obtiene una lista de productos", notes = "Obtiene una lista de productos paginada, filtrada y ordenada")
+    @ApiOperation(value = "Obtiene una lista de productos", notes = "Obtiene una lista de productos paginada (por número de página o por cursor con after), filtrada y ordenada")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "OK", response = ListProductoPageDTO.class),
             @ApiResponse(code = 400, message = "Bad Request", response = GeneralBadRequestException.class),
@@ -236,35 +264,33 @@ public class ProductosAuthRestController {
     })
     @GetMapping("/all")
     public ResponseEntity<?> listado(
-            // Podemos buscar por los campos que quieramos... nombre, precio... así construir consultas
-            @RequestParam(required = false, name = "nombre") Optional<String> nombre,
-            @RequestParam(required = false, name = "precio") Optional<Double> precio,
+            // Podemos buscar por los campos que quieramos: nombre, precio (mínimo), precioMax, stockMin, stockMax,
+            // createdAtDesde y createdAtHasta. Spring rellena el filtro con los parámetros del mismo nombre
+            // Con fuzzy=1 el nombre admite errores y se ordena por parecido
+            ProductosFiltro filtro,
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "10") int size
-    ) {
-        // Consulto en base a las páginas
-        Pageable paging = PageRequest.of(page, size);
-        Page<Producto> pagedResult;
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(defaultValue = "id") String sort,
+            // Si viene after paginamos por cursor (vacío para la primera página) en vez de por número de página
+            @RequestParam(required = false, name = "after") Optional<String> after,
+            // true: total exacto (count). false: sin count, solo hasNext. cached: total aproximado guardado por filtro
+            @RequestParam(defaultValue = "true", name = "count") String count,
+            // Solo esos campos de cada producto: fields=id,nombre,precio o fields=lista. El id va siempre
+            @RequestParam(required = false, name = "fields") Optional<String> fields,
+            // JSON por defecto; CBOR o Smile si el cliente los pide
+            @RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept
+    ) throws HttpMediaTypeNotAcceptableException {
+        // Si no acepta ninguno de nuestros formatos, 406 (no un 400)
+        MediaType formato = productosService.formato(accept);
         try {
-            if (nombre.isPresent() && precio.isPresent()) {
-                pagedResult = productosRepository.findByNombreContainsIgnoreCaseAndPrecioGreaterThanEqualOrderByNombreAsc(nombre.get(), precio.get(), paging);
-            } else if (nombre.isPresent()) {
-                pagedResult = productosRepository.findByNombreContainsIgnoreCase(nombre.get(), paging);
-            } else if (precio.isPresent()) {
-                pagedResult = productosRepository.findByPrecioGreaterThanEqualOrderByNombreAsc(precio.get(), paging);
-            } else {
-                pagedResult = productosRepository.findAll(paging);
-            }
-            // De la página saco la lista de productos
-            //List<Producto> productos = pagedResult.getContent();
-            // Mapeo al DTO. Si quieres ver toda la info de las paginas pon pageResult.
-            ListProductoPageDTO listProductoPageDTO = ListProductoPageDTO.builder()
-                    .data(productoMapper.toDTO(pagedResult.getContent()))
-                    .totalPages(pagedResult.getTotalPages())
-                    .totalElements(pagedResult.getTotalElements())
-                    .currentPage(pagedResult.getNumber())
-                    .build();
-            return ResponseEntity.ok(listProductoPageDTO);
+            // Una sola consulta con todos los filtros, la misma para los dos controladores de productos
+            // La respuesta ya viene serializada (y guardada en caché hasta la siguiente escritura)
+            // Según el Accept cambia el cuerpo: Vary para que las cachés HTTP no mezclen formatos
+            return ResponseEntity.ok()
+                    .contentType(formato)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                    .body(productosService.listadoJson(filtro, page, size, sort, after.orElse(null), count,
+                            ProductosCampos.of(fields.orElse(null)), formato));
         } catch (Exception e) {
             throw new GeneralBadRequestException("Selección de Datos", "Parámetros de consulta incorrectos");
         }
@@ -3,28 +3,41 @@ package es.joseluisgs.springdam.controllers.productos;
 import es.joseluisgs.springdam.config.APIConfig;
 import es.joseluisgs.springdam.dto.productos.CreateProductoDTO;
 import es.joseluisgs.springdam.dto.productos.ListProductoPageDTO;
+import es.joseluisgs.springdam.dto.productos.ProductoBatchDTO;
+import es.joseluisgs.springdam.dto.productos.ProductoCambioDTO;
 import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.dto.productos.ProductoSuggestDTO;
+import es.joseluisgs.springdam.dto.productos.ProductosBitmapIndexStatsDTO;
+import es.joseluisgs.springdam.dto.productos.ProductosCacheStatsDTO;
+import es.joseluisgs.springdam.dto.productos.ProductosPrecioQuantilesDTO;
+import es.joseluisgs.springdam.dto.productos.ProductoStockAlertaDTO;
+import es.joseluisgs.springdam.dto.productos.ProductosStatsDTO;
+import es.joseluisgs.springdam.dto.productos.ProductosSyncDTO;
 import es.joseluisgs.springdam.errors.GeneralBadRequestException;
 import es.joseluisgs.springdam.errors.productos.ProductoBadRequestException;
 import es.joseluisgs.springdam.errors.productos.ProductoNotFoundException;
 import es.joseluisgs.springdam.errors.productos.ProductosNotFoundException;
 import es.joseluisgs.springdam.mappers.ProductoMapper;
 import es.joseluisgs.springdam.models.Producto;
+import es.joseluisgs.springdam.repositories.productos.ProductosCampos;
+import es.joseluisgs.springdam.repositories.productos.ProductosFiltro;
 import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import es.joseluisgs.springdam.services.productos.ProductosExportService;
+import es.joseluisgs.springdam.services.productos.ProductosService;
 import es.joseluisgs.springdam.services.uploads.StorageService;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import io.swagger.v3.oas.annotations.Operation;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
 import java.util.Optional;
@@ -37,16 +50,21 @@ public class ProductosRestController {
     private final ProductosRepository productosRepository;
     private final StorageService storageService;
     private final ProductoMapper productoMapper;
+    private final ProductosExportService productosExportService;
+    private final ProductosService productosService;
 
     // Inyección de dependencias por constructor
     // Es el método recomendado con el setter y no usando en el campo
     // Podríamos usar Lombok para inyectar las dependencias
     // https://blog.marcnuri.com/inyeccion-de-campos-desaconsejada-field-injection-not-recommended-spring-ioc
     @Autowired
-    public ProductosRestController(ProductosRepository productosRepository, StorageService storageService, ProductoMapper productoMapper) {
+    public ProductosRestController(ProductosRepository productosRepository, StorageService storageService, ProductoMapper productoMapper,
+                                   ProductosExportService productosExportService, ProductosService productosService) {
         this.productosRepository = productosRepository;
         this.storageService = storageService;
         this.productoMapper = productoMapper;
+        this.productosExportService = productosExportService;
+        this.productosService = productosService;
     }
 
     // @CrossOrigin(origins = "http://localhost:6969") //
@@ -71,28 +89,50 @@ public class ProductosRestController {
             @ApiResponse(code = 400, message = "Bad Request", response = GeneralBadRequestException.class)
     })
     @GetMapping("/")
-    public ResponseEntity<List<ProductoDTO>> findAll(@RequestParam(required = false, name = "limit") Optional<String> limit,
-                                                     @RequestParam(required = false, name = "nombre") Optional<String> nombre) {
-        List<Producto> productos = null;
+    public ResponseEntity<byte[]> findAll(@RequestParam(required = false, name = "limit") Optional<String> limit,
+                                          @RequestParam(required = false, name = "nombre") Optional<String> nombre,
+                                          @RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept)
+            throws HttpMediaTypeNotAcceptableException {
+        MediaType formato = productosService.formato(accept);
         try {
-            if (nombre.isPresent()) {
-                productos = productosRepository.findByNombreContainsIgnoreCase(nombre.get());
-            } else {
-                productos = productosRepository.findAll();
-            }
-
-            if (limit.isPresent() && !productos.isEmpty() && productos.size() > Integer.parseInt(limit.get())) {
-
-                return ResponseEntity.ok(productoMapper.toDTO(
-                        productos.subList(0, Integer.parseInt(limit.get())))
-                );
+            // El límite se lo pasamos a la base de datos, así solo leemos las filas que vamos a devolver
+            // y la consulta ya nos da los DTO, sin cargar entidades. En JSON salen ya serializados de ProductosFragmentos
+            byte[] productos = productosService.findAllJson(nombre.orElse(null), limit.map(Integer::parseInt).orElse(null), formato)
+                    .orElseThrow(ProductosNotFoundException::new);
+            return ResponseEntity.ok()
+                    .contentType(formato)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                    .body(productos);
+        } catch (Exception e) {
+            throw new GeneralBadRequestException("Selección de Datos", "Parámetros de consulta incorrectos");
+        }
+    }
 
+    @ApiOperation(value = "Obtener todos los productos con algunos campos", notes = "Como obtener todos los productos, con solo los campos pedidos en fields (fields=id,nombre,precio o fields=lista)")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "OK", response = ProductoDTO.class, responseContainer = "List"),
+            @ApiResponse(code = 404, message = "Not Found", response = ProductosNotFoundException.class),
+            @ApiResponse(code = 400, message = "Bad Request", response = GeneralBadRequestException.class)
+    })
+    @GetMapping(value = "/", params = "fields")
+    public ResponseEntity<byte[]> findAll(@RequestParam(required = false, name = "limit") Optional<String> limit,
+                                          @RequestParam(required = false, name = "nombre") Optional<String> nombre,
+                                          @RequestParam(name = "fields") String fields,
+                                          @RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept)
+            throws HttpMediaTypeNotAcceptableException {
+        MediaType formato = productosService.formato(accept);
+        try {
+            // La consulta solo lee esas columnas y el JSON solo lleva esas propiedades
+            ProductosCampos campos = ProductosCampos.of(fields);
+            List<ProductoDTO> productos = productosService.findAll(nombre.orElse(null),
+                    limit.map(Integer::parseInt).orElse(null), campos);
+            if (!productos.isEmpty()) {
+                return ResponseEntity.ok()
+                        .contentType(formato)
+                        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                        .body(productosService.serializar(productos, campos, formato));
             } else {
-                if (!productos.isEmpty()) {
-                    return ResponseEntity.ok(productoMapper.toDTO(productos));
-                } else {
-                    throw new ProductosNotFoundException();
-                }
+                throw new ProductosNotFoundException();
             }
         } catch (Exception e) {
             throw new GeneralBadRequestException("Selección de Datos", "Parámetros de consulta incorrectos");
@@ -100,6 +140,201 @@ public class ProductosRestController {
     }
 
 
+    @ApiOperation(value = "Exportar todos los productos", notes = "Exporta el catálogo completo en NDJSON (por defecto) o CSV según se lee de la base de datos")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "OK", response = StreamingResponseBody.class),
+            @ApiResponse(code = 400, message = "Bad Request", response = GeneralBadRequestException.class)
+    })
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> export(@RequestParam(defaultValue = "ndjson", name = "format") String format,
+                                                        // Solo esas columnas: fields=id,nombre,precio o fields=lista
+                                                        @RequestParam(required = false, name = "fields") String fields) {
+        ProductosCampos campos;
+        try {
+            campos = ProductosCampos.of(fields);
+        } catch (IllegalArgumentException e) {
+            throw new GeneralBadRequestException("Exportar", e.getMessage());
+        }
+        // Se escribe en la respuesta mientras se recorre el cursor, sin tener el catálogo en memoria
+        switch (format.toLowerCase()) {
+            case "ndjson":
+                return ResponseEntity.ok()
+                        .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                        .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"productos.ndjson\"")
+                        .body(out -> productosExportService.exportNdjson(out, campos));
+            case "csv":
+                return ResponseEntity.ok()
+                        .contentType(MediaType.parseMediaType("text/csv; charset=UTF-8"))
+                        .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"productos.csv\"")
+                        .body(out -> productosExportService.exportCsv(out, campos));
+            default:
+                throw new GeneralBadRequestException("Exportar", "Formato no soportado: " + format);
+        }
+    }
+
+    @ApiOperation(value = "Autocompletado de nombres de productos", notes = "Productos con alguna palabra del nombre que empieza por q, en orden alfabético")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "OK", response = ProductoSuggestDTO.class, responseContainer = "List"),
+            @ApiResponse(code = 400, message = "Bad Request", response = GeneralBadRequestException.class)
+    })
+    @GetMapping("/suggest")
+    public ResponseEntity<List<ProductoSuggestDTO>> suggest(@RequestParam(name = "q") String q,
+                                                            @RequestParam(defaultValue = "10", name = "limit") int limit) {
+        try {
+            // Sale de un trie en memoria, no de la base de datos
+            return ResponseEntity.ok(productosService.suggest(q, limit));
+        } catch (IllegalArgumentException e) {
+            throw new GeneralBadRequestException("Autocompletado", e.getMessage());
+        }
+    }
+
+    @ApiOperation(value = "Estadísticas del inventario", notes = "Unidades, valor del stock, precios y stock de los productos que cumplen los filtros del listado y, si se piden, productos por rango de precio")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "OK", response = ProductosStatsDTO.class),
+            @ApiResponse(code = 400, message = "Bad Request", response = GeneralBadRequestException.class)
+    })
+    @GetMapping("/stats")
+    public ResponseEntity<ProductosStatsDTO> stats(
+            // Los mismos filtros que el listado
+            ProductosFiltro filtro,
+            // Límites de los rangos de precio, de menor a mayor: rangos=5,10,20
+            @RequestParam(defaultValue = "", name = "rangos") List<Double> rangos
+    ) {
+        try {
+            // Sale de una copia por columnas en memoria, no de la base de datos
+            return ResponseEntity.ok(productosService.stats(filtro, rangos));
+        } catch (IllegalArgumentException e) {
+            throw new GeneralBadRequestException("Estadísticas", e.getMessage());
+        }
+    }
+
+    @ApiOperation(value = "Sincronización", notes = "Productos creados, actualizados y borrados después de una revisión, para sincronizar los clientes sin descargar el catálogo. Los borrados se recuerdan unos días: si la revisión es anterior, recargar indica que hay que volver a empezar desde 0")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "OK", response = ProductosSyncDTO.class),
+            @ApiResponse(code = 400, message = "Bad Request", response = GeneralBadRequestException.class)
+    })
+    @GetMapping("/sync")
+    public ResponseEntity<ProductosSyncDTO> sync(
+            // La revision de la respuesta anterior. Sin ella, todo
+            @RequestParam(defaultValue = "0", name = "since") long since,
+            @RequestParam(defaultValue = "500", name = "limit") int limit
+    ) {
+        try {
+            return ResponseEntity.ok(productosService.sync(since, limit));
+        } catch (IllegalArgumentException e) {
+            throw new GeneralBadRequestException("Sincronización", e.getMessage());
+        }
+    }
+
+    @ApiOperation(value = "Canal de cambios", notes = "Conexión SSE con un evento por cada producto creado, actualizado o borrado. El id de cada evento es la revisión de la escritura: con la cabecera Last-Event-ID sigue desde ese evento, también tras reiniciar la aplicación, o manda recargar si ya no puede")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "OK", response = ProductoCambioDTO.class)
+    })
+    @GetMapping(value = "/changes/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter cambios(@RequestHeader(name = "Last-Event-ID", required = false) Long lastEventId) {
+        return productosService.cambios(lastEventId);
+    }
+
+    @ApiOperation(value = "Avisos de stock", notes = "Conexión SSE con un aviso cada vez que el stock de un producto baja del umbral, vuelve a él o se borra estando por debajo")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "OK", response = ProductoStockAlertaDTO.class),
+            @ApiResponse(code = 400, message = "Bad Request", response = GeneralBadRequestException.class)
+    })
+    @GetMapping(value = "/alerts/stock", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter alertasStock(@RequestParam(name = "threshold") int threshold) {
+        try {
+            return productosService.alertasStock(threshold);
+        } catch (IllegalArgumentException e) {
+            throw new GeneralBadRequestException("Avisos de stock", e.getMessage());
+        }
+    }
+
+    @ApiOperation(value = "Top de productos", notes = "Los primeros productos por precio o por stock (los más baratos, los que menos stock tienen...)")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "OK", response = ProductoDTO.class, responseContainer = "List"),
+            @ApiResponse(code = 400, message = "Bad Request", response = GeneralBadRequestException.class)
+    })
+    @GetMapping("/top")
+    public ResponseEntity<byte[]> top(
+            @RequestParam(defaultValue = "stock", name = "by") String by,
+            @RequestParam(defaultValue = "asc", name = "orden") String orden,
+            @RequestParam(defaultValue = "10", name = "n") int n,
+            @RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept
+    ) throws HttpMediaTypeNotAcceptableException {
+        MediaType formato = productosService.formato(accept);
+        try {
+            // Sale de conjuntos ordenados en memoria que se actualizan con cada escritura, no de la base de datos
+            return ResponseEntity.ok()
+                    .contentType(formato)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                    .body(productosService.topJson(by, orden, n, formato));
+        } catch (IllegalArgumentException e) {
+            throw new GeneralBadRequestException("Top de productos", e.getMessage());
+        }
+    }
+
+    @ApiOperation(value = "Percentiles e histograma de precios", notes = "Percentiles aproximados (error relativo del 1 %) de los precios de todos los productos o de los que tienen una palabra en el nombre")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "OK", response = ProductosPrecioQuantilesDTO.class),
+            @ApiResponse(code = 400, message = "Bad Request", response = GeneralBadRequestException.class)
+    })
+    @GetMapping("/stats/precio")
+    public ResponseEntity<ProductosPrecioQuantilesDTO> precioQuantiles(
+            // Una palabra del nombre: nombre=vino
+            @RequestParam(required = false, name = "nombre") String nombre,
+            @RequestParam(defaultValue = "0.5", name = "quantiles") List<Double> quantiles,
+            // Límites del histograma, de menor a mayor: rangos=5,10,20
+            @RequestParam(defaultValue = "", name = "rangos") List<Double> rangos
+    ) {
+        try {
+            // Sale de resúmenes de la distribución de precios en memoria, no de la base de datos
+            return ResponseEntity.ok(productosService.precioQuantiles(nombre, quantiles, rangos));
+        } catch (IllegalArgumentException e) {
+            throw new GeneralBadRequestException("Estadísticas de precio", e.getMessage());
+        }
+    }
+
+    @ApiOperation(value = "Obtener varios productos por id", notes = "Obtiene varios productos por id (ids=1,2,3), en el orden pedido y marcando los que no existen")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "OK", response = ProductoBatchDTO.class, responseContainer = "List"),
+            @ApiResponse(code = 400, message = "Bad Request", response = GeneralBadRequestException.class)
+    })
+    @GetMapping("/batch")
+    public ResponseEntity<byte[]> findAllById(@RequestParam(name = "ids") List<Long> ids,
+                                              @RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept)
+            throws HttpMediaTypeNotAcceptableException {
+        MediaType formato = productosService.formato(accept);
+        try {
+            // Una sola consulta con IN para los que no están en la caché, no una por producto
+            return ResponseEntity.ok()
+                    .contentType(formato)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                    .body(productosService.findAllByIdJson(ids, formato));
+        } catch (IllegalArgumentException e) {
+            throw new GeneralBadRequestException("Obtener varios productos", e.getMessage());
+        }
+    }
+
+    @ApiOperation(value = "Obtener varios productos por id", notes = "Como GET /batch, con la lista de ids en el cuerpo para cuando no caben en la URL")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "OK", response = ProductoBatchDTO.class, responseContainer = "List"),
+            @ApiResponse(code = 400, message = "Bad Request", response = GeneralBadRequestException.class)
+    })
+    @PostMapping("/batch")
+    public ResponseEntity<byte[]> findAllByIdPost(@RequestBody List<Long> ids,
+                                                  @RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept)
+            throws HttpMediaTypeNotAcceptableException {
+        MediaType formato = productosService.formato(accept);
+        try {
+            return ResponseEntity.ok()
+                    .contentType(formato)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                    .body(productosService.findAllByIdJson(ids, formato));
+        } catch (IllegalArgumentException e) {
+            throw new GeneralBadRequestException("Obtener varios productos", e.getMessage());
+        }
+    }
+
     @ApiOperation(value = "Obtener un producto por id", notes = "Obtiene un producto por id")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "OK", response = ProductoDTO.class),
@@ -107,14 +342,33 @@ public class ProductosRestController {
     })
     @GetMapping("/{id}")
     public ResponseEntity<ProductoDTO> findById(@PathVariable Long id) {
-        Producto producto = productosRepository.findById(id).orElse(null);
+        // Proyección: solo lectura, directamente el DTO
+        ProductoDTO producto = productosService.findById(id).orElse(null);
         if (producto == null) {
             throw new ProductoNotFoundException(id);
         } else {
-            return ResponseEntity.ok(productoMapper.toDTO(producto));
+            return ResponseEntity.ok(producto);
         }
     }
 
+    @ApiOperation(value = "Estadísticas de la caché de productos", notes = "Aciertos, fallos y expulsiones de la caché de productos por id")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "OK", response = ProductosCacheStatsDTO.class)
+    })
+    @GetMapping("/cache/stats")
+    public ResponseEntity<ProductosCacheStatsDTO> cacheStats() {
+        return ResponseEntity.ok(productosService.cacheStats());
+    }
+
+    @ApiOperation(value = "Estadísticas del índice de bitmaps", notes = "Número de bitmaps y memoria del índice de los filtros del listado")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "OK", response = ProductosBitmapIndexStatsDTO.class)
+    })
+    @GetMapping("/bitmap/stats")
+    public ResponseEntity<ProductosBitmapIndexStatsDTO> bitmapIndexStats() {
+        return ResponseEntity.ok(productosService.bitmapIndexStats());
+    }
+
     @ApiOperation(value = "Crear un producto", notes = "Crea un producto")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Created", response = ProductoDTO.class),
@@ -126,7 +380,7 @@ public class ProductosRestController {
         Producto producto = productoMapper.fromDTO(productoDTO);
         checkProductoData(producto);
         try {
-            Producto productoInsertado = productosRepository.save(producto);
+            Producto productoInsertado = productosService.save(producto);
             return ResponseEntity.ok(productoMapper.toDTO(productoInsertado));
         } catch (Exception e) {
             System.out.println(e.getMessage());
@@ -153,7 +407,7 @@ public class ProductosRestController {
         productoActualizado.setPrecio(producto.getPrecio());
         productoActualizado.setStock(producto.getStock());
         try {
-            productoActualizado = productosRepository.save(productoActualizado);
+            productoActualizado = productosService.save(productoActualizado);
             return ResponseEntity.ok(productoMapper.toDTO(productoActualizado));
         } catch (Exception e) {
             throw new GeneralBadRequestException("Actualizar", "Error al actualizar el producto. Campos incorrectos");
@@ -174,7 +428,7 @@ public class ProductosRestController {
             throw new ProductoNotFoundException(id);
         }
         try {
-            productosRepository.delete(producto);
+            productosService.delete(producto);
             return ResponseEntity.ok(productoMapper.toDTO(producto));
         } catch (Exception e) {
             throw new GeneralBadRequestException("Eliminar", "Error al borrar el producto");
@@ -223,7 +477,7 @@ public class ProductosRestController {
             producto.setImagen(urlImagen);
         }
         try {
-            Producto productoInsertado = productosRepository.save(producto);
+            Producto productoInsertado = productosService.save(producto);
             return ResponseEntity.ok(productoMapper.toDTO(productoInsertado));
         } catch (ProductoNotFoundException ex) {
             throw new GeneralBadRequestException("Insertar", "Error al insertar el producto. Campos incorrectos");
@@ -232,44 +486,40 @@ public class ProductosRestController {
     }
 
     @Operation(summary = "Obtiene la lista de productos existentes", description = "Obtiene la lista de productos existentes")
-    @ApiOperation(value = "Obtiene una lista de productos", notes = "Obtiene una lista de productos paginada, filtrada y ordenada")
+    @ApiOperation(value = "Obtiene una lista de productos", notes = "Obtiene una lista de productos paginada (por número de página o por cursor con after), filtrada y ordenada")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "OK: Lista de productos", response = ListProductoPageDTO.class),
             @ApiResponse(code = 400, message = "Bad Request: Lista no encontrada", response = GeneralBadRequestException.class)
     })
     @GetMapping("/all")
     public ResponseEntity<?> listado(
-            // Podemos buscar por los campos que quieramos... nombre, precio... así construir consultas
-            @RequestParam(required = false, name = "nombre") Optional<String> nombre,
-            @RequestParam(required = false, name = "precio") Optional<Double> precio,
+            // Podemos buscar por los campos que quieramos: nombre, precio (mínimo), precioMax, stockMin, stockMax,
+            // createdAtDesde y createdAtHasta. Spring rellena el filtro con los parámetros del mismo nombre
+            // Con fuzzy=1 el nombre admite errores y se ordena por parecido
+            ProductosFiltro filtro,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size,
-            @RequestParam(defaultValue = "id") String sort
-    ) {
-        // Consulto en base a las páginas
-        Pageable paging = PageRequest.of(page, size, Sort.Direction.ASC, sort);
-        Page<Producto> pagedResult;
+            @RequestParam(defaultValue = "id") String sort,
+            // Si viene after paginamos por cursor (vacío para la primera página) en vez de por número de página
+            @RequestParam(required = false, name = "after") Optional<String> after,
+            // true: total exacto (count). false: sin count, solo hasNext. cached: total aproximado guardado por filtro
+            @RequestParam(defaultValue = "true", name = "count") String count,
+            // Solo esos campos de cada producto: fields=id,nombre,precio o fields=lista. El id va siempre
+            @RequestParam(required = false, name = "fields") Optional<String> fields,
+            // JSON por defecto; CBOR o Smile si el cliente los pide
+            @RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept
+    ) throws HttpMediaTypeNotAcceptableException {
+        // Si no acepta ninguno de nuestros formatos, 406 (no un 400)
+        MediaType formato = productosService.formato(accept);
         try {
-            if (nombre.isPresent() && precio.isPresent()) {
-                pagedResult = productosRepository.findByNombreContainsIgnoreCaseAndPrecioGreaterThanEqualOrderByNombreAsc(nombre.get(), precio.get(), paging);
-            } else if (nombre.isPresent()) {
-                pagedResult = productosRepository.findByNombreContainsIgnoreCase(nombre.get(), paging);
-            } else if (precio.isPresent()) {
-                pagedResult = productosRepository.findByPrecioGreaterThanEqualOrderByNombreAsc(precio.get(), paging);
-            } else {
-                pagedResult = productosRepository.findAll(paging);
-            }
-            // De la página saco la lista de productos
-            //List<Producto> productos = pagedResult.getContent();
-            // Mapeo al DTO. Si quieres ver toda la info de las paginas pon pageResult.
-            ListProductoPageDTO listProductoPageDTO = ListProductoPageDTO.builder()
-                    .data(productoMapper.toDTO(pagedResult.getContent()))
-                    .totalPages(pagedResult.getTotalPages())
-                    .totalElements(pagedResult.getTotalElements())
-                    .currentPage(pagedResult.getNumber())
-                    .sort(pagedResult.getSort().toString())
-                    .build();
-            return ResponseEntity.ok(listProductoPageDTO);
+            // Una sola consulta con todos los filtros, la misma para los dos controladores de productos
+            // La respuesta ya viene serializada (y guardada en caché hasta la siguiente escritura)
+            // Según el Accept cambia el cuerpo: Vary para que las cachés HTTP no mezclen formatos
+            return ResponseEntity.ok()
+                    .contentType(formato)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                    .body(productosService.listadoJson(filtro, page, size, sort, after.orElse(null), count,
+                            ProductosCampos.of(fields.orElse(null)), formato));
         } catch (Exception e) {
             throw new GeneralBadRequestException("Selección de Datos", "Parámetros de consulta incorrectos");
         }
@@ -23,8 +23,13 @@ public class ListProductoPageDTO {
     private int currentPage;
 
     @Min(message = "El número de elementos por página debe ser mayor o igual a 1", value = 1)
-    private long totalElements;
+    // Sin count (count=false o por cursor) no sabemos el total y van a null
+    private Long totalElements;
 
-    private int totalPages;
+    private Integer totalPages;
+    private Boolean hasNext;
     private String sort;
+    // Solo en la paginación por cursor: lo que hay que pasar en after para obtener la página siguiente
+    // Si es null no hay más páginas
+    private String nextCursor;
 }
@@ -0,0 +1,17 @@
+package es.joseluisgs.springdam.dto.productos;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Resultado de un id en la petición de varios productos: el producto o encontrado a false (y sin producto)
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductoBatchDTO {
+    private Long id;
+    private boolean encontrado;
+    private ProductoDTO producto;
+}
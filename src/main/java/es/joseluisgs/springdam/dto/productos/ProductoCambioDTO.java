@@ -0,0 +1,25 @@
+package es.joseluisgs.springdam.dto.productos;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Cambio de un producto para el canal de cambios (GET /rest/productos/changes/stream): creado, actualizado
+// o borrado, con el producto como ha quedado (null en los borrados). También es el evento que publica
+// ProductosService en cada escritura, que escuchan las cachés y los índices en memoria de productos
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductoCambioDTO {
+    public static final String CREADO = "creado";
+    public static final String ACTUALIZADO = "actualizado";
+    public static final String BORRADO = "borrado";
+
+    private String tipo;
+    private Long id;
+    // Revisión de la escritura (ver ProductosRevisiones), que es también el id del evento
+    private Long revision;
+    private ProductoDTO producto;
+}
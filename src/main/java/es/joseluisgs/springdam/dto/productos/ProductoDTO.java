@@ -4,6 +4,7 @@ import lombok.*;
 
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
+import java.time.LocalDateTime;
 
 // Los DTO nos sirven entre otras cosas para filtrar información de una o varias clases, podría ser similar a las vistas
 @Getter
@@ -25,6 +26,13 @@ public class ProductoDTO {
 
     private String imagen;
     private String createdAt;
+
+    // Para las proyecciones (select new ProductoDTO(...)): la consulta devuelve el DTO directamente
+    // sin crear la entidad. También lo usa ProductoMapper. La fecha en ISO, con LocalDateTime.toString()
+    public ProductoDTO(Long id, String nombre, Double precio, Integer stock, String imagen, LocalDateTime createdAt) {
+        this(id, nombre, precio, stock, imagen, createdAt != null ? createdAt.toString() : null);
+    }
+
     // Por ejemplo sin en modelo de prodyuto este tuviese una categoria, y solo queremos devolver su nombre
     // Lo haríamos aquí, y luego en e mappers es donde cogeríamos el nombre. Ver...
     //private String categoria;
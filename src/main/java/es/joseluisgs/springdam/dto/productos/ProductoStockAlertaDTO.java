@@ -0,0 +1,22 @@
+package es.joseluisgs.springdam.dto.productos;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Aviso de que el stock de un producto ha cruzado el umbral de un suscriptor:
+// bajo (ha bajado de él o es nuevo por debajo), recuperado (vuelve a estar en el umbral o por encima)
+// o borrado (estaba por debajo y se ha borrado). El nombre no va en los borrados
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductoStockAlertaDTO {
+    private String tipo;
+    private Long id;
+    private String nombre;
+    private Integer stock;
+    private Integer stockAnterior;
+    private int umbral;
+}
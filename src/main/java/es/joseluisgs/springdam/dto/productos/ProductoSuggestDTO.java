@@ -0,0 +1,16 @@
+package es.joseluisgs.springdam.dto.productos;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Sugerencia del autocompletado: solo lo que necesita el cliente para mostrarla y pedir el producto
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductoSuggestDTO {
+    private Long id;
+    private String nombre;
+}
@@ -0,0 +1,26 @@
+package es.joseluisgs.springdam.dto.productos;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Tamaño del índice de bitmaps de productos
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductosBitmapIndexStatsDTO {
+    // Si ya está cargado (mientras no, los filtros van por SQL y el resto de campos están a 0)
+    private boolean cargado;
+    private int productos;
+    private int bitmaps;
+    private int trigramas;
+    private int tramosPrecio;
+    private int tramosStock;
+    // Ancho de los tramos de precio y de stock
+    private double anchoPrecio;
+    private int anchoStock;
+    // Memoria aproximada que ocupa
+    private long bytes;
+}
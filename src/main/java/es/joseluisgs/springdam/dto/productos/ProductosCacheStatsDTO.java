@@ -0,0 +1,27 @@
+package es.joseluisgs.springdam.dto.productos;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Estadísticas de la caché de productos por id
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductosCacheStatsDTO {
+    private int size;
+    private int maxSize;
+    // Milisegundos que dura un producto en la caché
+    private long ttl;
+    private long hits;
+    private long misses;
+    private double hitRate;
+    // Sacados por falta de sitio
+    private long evictions;
+    // Sacados por caducados
+    private long expirations;
+    // Sacados por escrituras
+    private long invalidations;
+}
@@ -0,0 +1,24 @@
+package es.joseluisgs.springdam.dto.productos;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+// Distribución aproximada de los precios: percentiles e histograma
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductosPrecioQuantilesDTO {
+    private long productos;
+    // Error relativo máximo de cada percentil (0.01 es un 1 %)
+    private double error;
+    // Percentil pedido (0.5, 0.9...) y su precio, o null si no hay productos
+    private Map<String, Double> quantiles;
+    // Productos por rango de precio, si se piden. Aproximado, con el mismo error en los límites
+    private List<ProductosRangoDTO> histograma;
+}
@@ -0,0 +1,20 @@
+package es.joseluisgs.springdam.dto.productos;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Productos con el precio en [desde, hasta). desde o hasta son null en los rangos de los extremos
+// (en el histograma de precios solo va el número de productos)
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductosRangoDTO {
+    private Double desde;
+    private Double hasta;
+    private long productos;
+    private long stockTotal;
+    private double valorStock;
+}
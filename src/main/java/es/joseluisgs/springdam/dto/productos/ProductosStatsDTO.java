@@ -0,0 +1,31 @@
+package es.joseluisgs.springdam.dto.productos;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// Estadísticas del inventario (los productos que cumplen los filtros del listado)
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductosStatsDTO {
+    private long productos;
+    // Unidades en stock y su valor (precio * stock)
+    private long stockTotal;
+    private double valorStock;
+    // Productos con stock 0
+    private long agotados;
+    // null si no hay productos
+    private Double precioMin;
+    private Double precioMax;
+    private Double precioMedio;
+    private Integer stockMin;
+    private Integer stockMax;
+    private Double stockMedio;
+    // Productos por rango de precio, si se piden
+    private List<ProductosRangoDTO> rangos;
+}
@@ -0,0 +1,24 @@
+package es.joseluisgs.springdam.dto.productos;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// Cambios desde una revisión (GET /rest/productos/sync): los productos creados o actualizados como están ahora
+// y los ids de los borrados. revision es la que hay que pedir la próxima vez (since) y si hayMas hay que
+// pedirla ya, porque no cabían todos. Si recargar, se han quitado marcas de borrado que el cliente no ha visto
+// (se guardan unos días, ver ProductosRevisiones): tiene que tirar lo que tiene y volver a empezar desde 0
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductosSyncDTO {
+    private long revision;
+    private boolean hayMas;
+    private boolean recargar;
+    private List<ProductoDTO> productos;
+    private List<Long> borrados;
+}
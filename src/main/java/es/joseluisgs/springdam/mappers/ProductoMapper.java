@@ -4,45 +4,66 @@ import es.joseluisgs.springdam.dto.productos.CreateProductoDTO;
 import es.joseluisgs.springdam.dto.productos.ListProductosDTO;
 import es.joseluisgs.springdam.dto.productos.ProductoDTO;
 import es.joseluisgs.springdam.models.Producto;
-import lombok.RequiredArgsConstructor;
-import org.modelmapper.ModelMapper;
 import org.springframework.stereotype.Component;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
-// Otra forma de hacer la inyección de dependencias con Lombok
-// Para ello usamos la anotacion @RequiredArgsConstructor y
-// private final con lo que queramos inyectar
+// Este lo hacemos a mano, como el de usuarios, en vez de con ModelMapper
+// ModelMapper resuelve las propiedades por reflexión y convierte la fecha en cada llamada,
+// y en los listados se nota. Aquí solo son getters y setters que compila el compilador
 @Component
-@RequiredArgsConstructor // Nos ahorramos el autowire
 public class ProductoMapper {
-    private final ModelMapper modelMapper;
-
 
     // Recibe un producto y lo trasforma en productoDTO
     public ProductoDTO toDTO(Producto producto) {
-        return modelMapper.map(producto, ProductoDTO.class);
-
+        return new ProductoDTO(
+                producto.getId(),
+                producto.getNombre(),
+                producto.getPrecio(),
+                producto.getStock(),
+                producto.getImagen(),
+                producto.getCreatedAt()
+        );
     }
 
     // Para convertir un prodtctoDTO en producto
     public Producto fromDTO(ProductoDTO productoDTO) {
-        return modelMapper.map(productoDTO, Producto.class);
+        Producto producto = new Producto();
+        producto.setId(productoDTO.getId());
+        producto.setNombre(productoDTO.getNombre());
+        producto.setPrecio(productoDTO.getPrecio());
+        producto.setStock(productoDTO.getStock());
+        producto.setImagen(productoDTO.getImagen());
+        // Si no viene fecha nos quedamos con la de creación del producto
+        if (productoDTO.getCreatedAt() != null) {
+            producto.setCreatedAt(LocalDateTime.parse(productoDTO.getCreatedAt()));
+        }
+        return producto;
     }
 
     // Una lista de productos a productosDTO
     public List<ProductoDTO> toDTO(List<Producto> productos) {
-        return productos.stream().map(this::toDTO).collect(Collectors.toList());
+        // Con el tamaño ya reservado la lista no tiene que crecer
+        List<ProductoDTO> productosDTO = new ArrayList<>(productos.size());
+        for (Producto producto : productos) {
+            productosDTO.add(toDTO(producto));
+        }
+        return productosDTO;
     }
 
     public Producto fromDTO(CreateProductoDTO productoDTO) {
-        return modelMapper.map(productoDTO, Producto.class);
+        Producto producto = new Producto();
+        producto.setNombre(productoDTO.getNombre());
+        producto.setPrecio(productoDTO.getPrecio());
+        producto.setStock(productoDTO.getStock());
+        return producto;
     }
 
     public ListProductosDTO toListDTO(List<Producto> productos) {
         ListProductosDTO listProductosDTO = new ListProductosDTO();
-        listProductosDTO.setData(productos.stream().map(this::toDTO).collect(Collectors.toList()));
+        listProductosDTO.setData(toDTO(productos));
         return listProductosDTO;
     }
 
@@ -6,20 +6,25 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.CreatedDate;
 
-import javax.persistence.Entity;
-import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
-import javax.persistence.Id;
+import javax.persistence.*;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 import java.time.LocalDateTime;
 
 @Entity
+// Índices de los campos por los que se puede filtrar y ordenar el listado
+@Table(indexes = {
+        @Index(columnList = "nombre"),
+        @Index(columnList = "precio"),
+        @Index(columnList = "stock"),
+        @Index(columnList = "createdAt"),
+        @Index(columnList = "revision", unique = true)
+})
 @NoArgsConstructor
 @AllArgsConstructor
 @Data
-@Builder
+@Builder(toBuilder = true)
 public class Producto {
     @Id
     @GeneratedValue(strategy = GenerationType.AUTO)
@@ -40,5 +45,10 @@ public class Producto {
     @CreatedDate
     private LocalDateTime createdAt = LocalDateTime.now();
 
+    // Para la sincronización de los clientes (ver ProductosRevisiones): cuándo se escribió por última vez
+    // y con qué revisión. Los productos escritos sin pasar por ProductosService no la tienen y no se sincronizan
+    private LocalDateTime updatedAt;
+    private Long revision;
+
 }
 
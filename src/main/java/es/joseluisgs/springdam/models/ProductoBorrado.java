@@ -0,0 +1,30 @@
+package es.joseluisgs.springdam.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.LocalDateTime;
+
+// Marca de un producto borrado para la sincronización de los clientes (ver ProductosRevisiones):
+// el producto se borra de su tabla y aquí queda su id con la revision del borrado
+@Entity
+@Table(indexes = {
+        @Index(columnList = "revision", unique = true)
+})
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class ProductoBorrado {
+    @Id
+    private Long id;
+
+    private Long revision;
+    private LocalDateTime deletedAt;
+}
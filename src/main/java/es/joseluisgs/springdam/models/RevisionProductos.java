@@ -0,0 +1,27 @@
+package es.joseluisgs.springdam.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+// Contador de las revisiones de los productos (ver ProductosRevisiones): una sola fila con la última revisión usada.
+// Cada escritura la bloquea (SELECT ... FOR UPDATE) y la incrementa en su transacción, así las revisiones
+// son únicas y se confirman en orden aunque escriban varias instancias de la aplicación
+@Entity
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+public class RevisionProductos {
+    public static final Long ID = 1L;
+
+    @Id
+    private Long id;
+
+    private Long ultima;
+
+    // Mayor revisión cuyas marcas de borrado se han quitado por antiguas (ver ProductosRevisiones.podarBorrados)
+    private Long borradosHasta;
+}
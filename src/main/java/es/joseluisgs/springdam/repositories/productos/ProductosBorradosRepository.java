@@ -0,0 +1,32 @@
+package es.joseluisgs.springdam.repositories.productos;
+
+import es.joseluisgs.springdam.models.ProductoBorrado;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+// Marcas de los productos borrados para la sincronización (ver ProductosRevisiones)
+public interface ProductosBorradosRepository extends JpaRepository<ProductoBorrado, Long> {
+
+    // Borrados después de la revisión, en orden (usa el índice de revision)
+    List<ProductoBorrado> findByRevisionGreaterThanOrderByRevision(Long revision, Pageable pageable);
+
+    @Query("select max(b.revision) from ProductoBorrado b")
+    Long maxRevision();
+
+    // Mayor revisión de los borrados antes de la fecha
+    @Query("select max(b.revision) from ProductoBorrado b where b.deletedAt < :fecha")
+    Long maxRevisionAntesDe(@Param("fecha") LocalDateTime fecha);
+
+    // Quita las marcas hasta la revisión (incluida)
+    @Modifying
+    @Query("delete from ProductoBorrado b where b.revision <= :revision")
+    int deleteHastaRevision(@Param("revision") Long revision);
+}
@@ -0,0 +1,109 @@
+package es.joseluisgs.springdam.repositories.productos;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Campos de ProductoDTO que pide el cliente (fields=id,nombre,precio). Con ellos la consulta selecciona
+ * solo esas columnas (ver ProductosRepositoryCustomImpl) y la respuesta solo lleva esas propiedades
+ * (ver ProductosJson), así las pantallas de listado no reciben la imagen ni la fecha si no las usan.
+ * <p>
+ * El id va siempre: es la clave con la que se juntan los productos leídos. fields=lista es la vista
+ * compacta de los listados (id, nombre y precio). Los campos se guardan en el orden de ProductoDTO.
+ */
+public class ProductosCampos {
+    // Los de ProductoDTO, que se llaman igual que los atributos de Producto
+    public static final List<String> CAMPOS = List.of("id", "nombre", "precio", "stock", "imagen", "createdAt");
+    public static final ProductosCampos TODOS = new ProductosCampos(Set.copyOf(CAMPOS));
+    public static final ProductosCampos LISTA = new ProductosCampos(Set.of("id", "nombre", "precio"));
+
+    private final Set<String> campos;
+
+    private ProductosCampos(Set<String> campos) {
+        Set<String> ordenados = new LinkedHashSet<>();
+        for (String campo : CAMPOS) {
+            if (campos.contains(campo)) {
+                ordenados.add(campo);
+            }
+        }
+        this.campos = Collections.unmodifiableSet(ordenados);
+    }
+
+    /**
+     * Campos pedidos en el parámetro fields
+     *
+     * @param fields Campos separados por comas, "lista" para la vista compacta o null para todos
+     * @return Campos
+     * @throws IllegalArgumentException Si algún campo no existe
+     */
+    public static ProductosCampos of(String fields) {
+        if (fields == null || fields.isBlank()) {
+            return TODOS;
+        }
+        if (fields.trim().toLowerCase(Locale.ROOT).equals("lista")) {
+            return LISTA;
+        }
+        Set<String> campos = new LinkedHashSet<>();
+        campos.add("id");
+        for (String campo : fields.split(",")) {
+            campo = campo.trim();
+            if (!CAMPOS.contains(campo)) {
+                throw new IllegalArgumentException("Campo no válido: " + campo + ". Campos: " + String.join(", ", CAMPOS));
+            }
+            campos.add(campo);
+        }
+        return new ProductosCampos(campos);
+    }
+
+    // Estos campos y además los indicados (el de ordenación para el cursor, por ejemplo)
+    public ProductosCampos con(String... otros) {
+        Set<String> todos = new LinkedHashSet<>(campos);
+        todos.addAll(List.of(otros));
+        return new ProductosCampos(todos);
+    }
+
+    public boolean isTodos() {
+        return campos.size() == CAMPOS.size();
+    }
+
+    public Set<String> getCampos() {
+        return campos;
+    }
+
+    // Para las claves de las cachés
+    public String toKey() {
+        return String.join(",", campos);
+    }
+
+    // Pone en el DTO el valor de una columna leída de la base de datos
+    static void set(ProductoDTO producto, String campo, Object valor) {
+        switch (campo) {
+            case "id":
+                producto.setId((Long) valor);
+                break;
+            case "nombre":
+                producto.setNombre((String) valor);
+                break;
+            case "precio":
+                producto.setPrecio((Double) valor);
+                break;
+            case "stock":
+                producto.setStock((Integer) valor);
+                break;
+            case "imagen":
+                producto.setImagen((String) valor);
+                break;
+            case "createdAt":
+                producto.setCreatedAt(valor != null ? valor.toString() : null);
+                break;
+            default:
+                throw new IllegalArgumentException("Campo no válido: " + campo);
+        }
+    }
+}
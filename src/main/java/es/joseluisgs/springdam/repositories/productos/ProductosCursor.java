@@ -0,0 +1,97 @@
+package es.joseluisgs.springdam.repositories.productos;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+/**
+ * Cursor de paginación por clave (keyset o seek). Guarda el valor del campo de ordenación
+ * y el id del último producto devuelto, de forma que la siguiente página se pide con
+ * "campo > valor o (campo = valor y id > id)" en vez de con un OFFSET, y la consulta cuesta
+ * lo mismo en la página 1 que en la 10000.
+ * <p>
+ * El valor puede ser null (un producto sin fecha de creación, por ejemplo): los nulos van los primeros en el orden
+ * (ver ProductosSpecifications.after) y en el cursor codificado no llevan valor, ni siquiera el separador.
+ * <p>
+ * Para el cliente es opaco: lo recibe codificado en Base64 en nextCursor y lo devuelve tal cual en after.
+ */
+@Getter
+@AllArgsConstructor
+public class ProductosCursor {
+    private static final String SEPARADOR = "|";
+
+    private final String sort;
+    private final Long id;
+    private final Comparable<?> value;
+
+    /**
+     * Crea el cursor que apunta justo detrás del producto indicado
+     *
+     * @param sort     Campo de ordenación
+     * @param producto Último producto de la página
+     * @return Cursor para pedir la página siguiente
+     */
+    public static ProductosCursor of(String sort, ProductoDTO producto) {
+        ProductosSpecifications.checkSort(sort);
+        return new ProductosCursor(sort, producto.getId(), valueOf(sort, producto));
+    }
+
+    /**
+     * Decodifica un cursor recibido del cliente
+     *
+     * @param cursor Cursor en Base64
+     * @return Cursor decodificado
+     * @throws IllegalArgumentException Si el cursor no es válido
+     */
+    public static ProductosCursor decode(String cursor) {
+        String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        // El valor va el último, porque puede contener el separador (un nombre, por ejemplo). Sin él es null
+        String[] partes = raw.split("\\" + SEPARADOR, 3);
+        if (partes.length < 2) {
+            throw new IllegalArgumentException("Cursor incorrecto: " + cursor);
+        }
+        String sort = partes[0];
+        ProductosSpecifications.checkSort(sort);
+        return new ProductosCursor(sort, Long.parseLong(partes[1]), partes.length == 3 ? parse(sort, partes[2]) : null);
+    }
+
+    private static Comparable<?> valueOf(String sort, ProductoDTO producto) {
+        switch (sort) {
+            case "nombre":
+                return producto.getNombre();
+            case "precio":
+                return producto.getPrecio();
+            case "stock":
+                return producto.getStock();
+            case "createdAt":
+                return producto.getCreatedAt() == null ? null : LocalDateTime.parse(producto.getCreatedAt());
+            default:
+                return producto.getId();
+        }
+    }
+
+    private static Comparable<?> parse(String sort, String value) {
+        switch (sort) {
+            case "nombre":
+                return value;
+            case "precio":
+                return Double.valueOf(value);
+            case "stock":
+                return Integer.valueOf(value);
+            case "createdAt":
+                return LocalDateTime.parse(value);
+            default:
+                return Long.valueOf(value);
+        }
+    }
+
+    // Codifica el cursor para devolverlo al cliente
+    public String encode() {
+        String raw = sort + SEPARADOR + id + (value == null ? "" : SEPARADOR + value);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,71 @@
+package es.joseluisgs.springdam.repositories.productos;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDateTime;
+
+/**
+ * Filtros del listado de productos. Spring rellena los campos con los parámetros de la petición
+ * del mismo nombre (/all?nombre=...&precio=...&stockMax=...) y ProductosSpecifications los
+ * convierte en una única consulta. Los que no vienen (null) no filtran.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductosFiltro {
+    // El nombre contiene este texto, sin distinguir mayúsculas
+    private String nombre;
+    // Con fuzzy=1 el nombre se busca palabra a palabra admitiendo errores y por parecido (ver ProductosFuzzyIndex)
+    private Boolean fuzzy;
+
+    // Precio mínimo (se llama precio por compatibilidad con el listado original)
+    private Double precio;
+    private Double precioMax;
+
+    private Integer stockMin;
+    private Integer stockMax;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime createdAtDesde;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime createdAtHasta;
+
+    public boolean isFuzzy() {
+        return Boolean.TRUE.equals(fuzzy);
+    }
+
+    public boolean hasFiltros() {
+        return nombre != null || hasFiltrosSinNombre();
+    }
+
+    // Si hay algún filtro además del nombre
+    public boolean hasFiltrosSinNombre() {
+        return precio != null || precioMax != null || stockMin != null || stockMax != null
+                || createdAtDesde != null || createdAtHasta != null;
+    }
+
+    public boolean hasFiltroPrecio() {
+        return precio != null || precioMax != null;
+    }
+
+    // Las fechas son lo único que no está en los índices en memoria
+    public boolean hasFiltrosFecha() {
+        return createdAtDesde != null || createdAtHasta != null;
+    }
+
+    // Si hay algún filtro que no sea de nombre ni de precio
+    public boolean hasFiltrosStockOFecha() {
+        return stockMin != null || stockMax != null || createdAtDesde != null || createdAtHasta != null;
+    }
+
+    // Clave para identificar el mismo filtro en las cachés (el nombre no distingue mayúsculas)
+    public String toKey() {
+        return (nombre == null ? "" : nombre.toLowerCase()) + "|" + isFuzzy() + "|" + precio + "|" + precioMax + "|"
+                + stockMin + "|" + stockMax + "|" + createdAtDesde + "|" + createdAtHasta;
+    }
+}
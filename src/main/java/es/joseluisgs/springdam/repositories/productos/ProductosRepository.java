@@ -1,9 +1,10 @@
 package es.joseluisgs.springdam.repositories.productos;
 
 import es.joseluisgs.springdam.models.Producto;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -11,18 +12,20 @@ import java.util.List;
 @Repository
 // Creamos el repositorio extendéndolo de JPA, siguiendo DAO
 // Con ello ya tenemos las operaciones básicas de CRUD y Paginación y Queries
-public interface ProductosRepository extends JpaRepository<Producto, Long> {
+// Los listados filtrados se construyen con Specification (ver ProductosSpecifications)
+// y las consultas hechas a mano (paginación por cursor...) las añadimos con ProductosRepositoryCustom
+public interface ProductosRepository extends JpaRepository<Producto, Long>, JpaSpecificationExecutor<Producto>, ProductosRepositoryCustom {
 
     // Buscamos los productos por su nombre
     List<Producto> findByNombre(String nombre);
 
-    // Por nombre y En Páginas
+    // Por nombre
     List<Producto> findByNombreContainsIgnoreCase(String nombre);
 
-    Page<Producto> findByNombreContainsIgnoreCase(String nombre, Pageable pageable);
+    // Escritos después de la revisión, en orden (usa el índice de revision). Para la sincronización
+    List<Producto> findByRevisionGreaterThanOrderByRevision(Long revision, Pageable pageable);
 
-    Page<Producto> findByPrecioGreaterThanEqualOrderByNombreAsc(double precio, Pageable pageable);
-
-    Page<Producto> findByNombreContainsIgnoreCaseAndPrecioGreaterThanEqualOrderByNombreAsc(String nombre, double precio, Pageable pageable);
+    @Query("select max(p.revision) from Producto p")
+    Long maxRevision();
 
 }
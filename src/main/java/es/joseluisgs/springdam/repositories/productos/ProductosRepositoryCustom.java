@@ -0,0 +1,127 @@
+package es.joseluisgs.springdam.repositories.productos;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.models.Producto;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+// Consultas que no podemos expresar con métodos derivados ni con JpaSpecificationExecutor
+// y que implementamos a mano con Criteria en ProductosRepositoryCustomImpl.
+// Spring Data las "mezcla" en ProductosRepository
+//
+// Son proyecciones: la consulta construye directamente los ProductoDTO (select new ProductoDTO(...)),
+// así en las lecturas no se crean entidades ni se guardan en el contexto de persistencia.
+// Las que reciben ProductosCampos solo seleccionan esas columnas; el resto del DTO queda a null
+public interface ProductosRepositoryCustom {
+
+    /**
+     * Producto por id como DTO
+     *
+     * @param id Id del producto
+     * @return El DTO o vacío si no existe
+     */
+    Optional<ProductoDTO> findDTOById(Long id);
+
+    /**
+     * Todos los productos que cumplen la especificación en el orden indicado
+     *
+     * @param spec Filtros de la consulta o null
+     * @param sort Orden
+     * @return Lista de productos
+     */
+    List<ProductoDTO> findDTO(Specification<Producto> spec, Sort sort);
+
+    /**
+     * Como findDTO, leyendo solo algunos campos
+     *
+     * @param spec   Filtros de la consulta o null
+     * @param sort   Orden
+     * @param campos Columnas a seleccionar
+     * @return Lista de productos
+     */
+    List<ProductoDTO> findDTO(Specification<Producto> spec, Sort sort, ProductosCampos campos);
+
+    /**
+     * Los primeros productos que cumplen la especificación en el orden indicado, sin OFFSET ni count.
+     * Junto con ProductosSpecifications.after es la paginación por clave (seek): el coste no depende
+     * de lo profunda que sea la página
+     *
+     * @param spec  Filtros de la consulta o null
+     * @param sort  Orden
+     * @param limit Número máximo de productos a devolver
+     * @return Lista de productos
+     */
+    List<ProductoDTO> findDTO(Specification<Producto> spec, Sort sort, int limit);
+
+    /**
+     * Como findDTO con límite, leyendo solo algunos campos
+     *
+     * @param spec   Filtros de la consulta o null
+     * @param sort   Orden
+     * @param limit  Número máximo de productos a devolver
+     * @param campos Columnas a seleccionar
+     * @return Lista de productos
+     */
+    List<ProductoDTO> findDTO(Specification<Producto> spec, Sort sort, int limit, ProductosCampos campos);
+
+    /**
+     * Página de productos filtrados con su total (count)
+     *
+     * @param spec     Filtros de la consulta o null
+     * @param pageable Página, tamaño y orden
+     * @return Página de productos
+     */
+    Page<ProductoDTO> findDTOPage(Specification<Producto> spec, Pageable pageable);
+
+    /**
+     * Como findDTOPage, leyendo solo algunos campos
+     *
+     * @param spec     Filtros de la consulta o null
+     * @param pageable Página, tamaño y orden
+     * @param campos   Columnas a seleccionar
+     * @return Página de productos
+     */
+    Page<ProductoDTO> findDTOPage(Specification<Producto> spec, Pageable pageable, ProductosCampos campos);
+
+    /**
+     * Página de productos filtrados sin hacer el count: solo sabemos si hay página siguiente
+     *
+     * @param spec     Filtros de la consulta o null
+     * @param pageable Página, tamaño y orden
+     * @return Slice con los productos de la página
+     */
+    Slice<ProductoDTO> findDTOSlice(Specification<Producto> spec, Pageable pageable);
+
+    /**
+     * Como findDTOSlice, leyendo solo algunos campos
+     *
+     * @param spec     Filtros de la consulta o null
+     * @param pageable Página, tamaño y orden
+     * @param campos   Columnas a seleccionar
+     * @return Slice con los productos de la página
+     */
+    Slice<ProductoDTO> findDTOSlice(Specification<Producto> spec, Pageable pageable, ProductosCampos campos);
+
+    /**
+     * Todos los productos en orden de id, leídos según se recorren (cursor de la base de datos).
+     * Para cargar los índices en memoria. Hay que cerrarlo y llamarlo dentro de una transacción
+     *
+     * @return Stream de productos
+     */
+    Stream<ProductoDTO> streamDTO();
+
+    /**
+     * Como streamDTO, leyendo solo algunos campos. Para exportar el catálogo
+     *
+     * @param campos Columnas a seleccionar
+     * @return Stream de productos
+     */
+    Stream<ProductoDTO> streamDTO(ProductosCampos campos);
+}
@@ -0,0 +1,177 @@
+package es.joseluisgs.springdam.repositories.productos;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.models.Producto;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.data.support.PageableExecutionUtils;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import javax.persistence.TupleElement;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
+// Implementación de las consultas a mano. Por convención Spring Data busca la clase
+// con el nombre del interfaz y el sufijo Impl
+public class ProductosRepositoryCustomImpl implements ProductosRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public Optional<ProductoDTO> findDTOById(Long id) {
+        Specification<Producto> spec = (root, query, cb) -> cb.equal(root.get("id"), id);
+        return query(spec, Sort.unsorted()).getResultList().stream().findFirst();
+    }
+
+    @Override
+    public List<ProductoDTO> findDTO(Specification<Producto> spec, Sort sort) {
+        return query(spec, sort).getResultList();
+    }
+
+    @Override
+    public List<ProductoDTO> findDTO(Specification<Producto> spec, Sort sort, ProductosCampos campos) {
+        return list(query(spec, sort, campos));
+    }
+
+    @Override
+    public List<ProductoDTO> findDTO(Specification<Producto> spec, Sort sort, int limit) {
+        return findDTO(spec, sort, limit, ProductosCampos.TODOS);
+    }
+
+    @Override
+    public List<ProductoDTO> findDTO(Specification<Producto> spec, Sort sort, int limit, ProductosCampos campos) {
+        return list(query(spec, sort, campos)
+                .setMaxResults(limit));
+    }
+
+    @Override
+    public Page<ProductoDTO> findDTOPage(Specification<Producto> spec, Pageable pageable) {
+        return findDTOPage(spec, pageable, ProductosCampos.TODOS);
+    }
+
+    @Override
+    public Page<ProductoDTO> findDTOPage(Specification<Producto> spec, Pageable pageable, ProductosCampos campos) {
+        List<ProductoDTO> productos = list(query(spec, pageable.getSort(), campos)
+                .setFirstResult((int) pageable.getOffset())
+                .setMaxResults(pageable.getPageSize()));
+        // Como Spring Data: si con la propia página ya sabemos el total no hace falta el count
+        return PageableExecutionUtils.getPage(productos, pageable, () -> count(spec));
+    }
+
+    @Override
+    public Slice<ProductoDTO> findDTOSlice(Specification<Producto> spec, Pageable pageable) {
+        return findDTOSlice(spec, pageable, ProductosCampos.TODOS);
+    }
+
+    @Override
+    public Slice<ProductoDTO> findDTOSlice(Specification<Producto> spec, Pageable pageable, ProductosCampos campos) {
+        // Pedimos uno más que el tamaño de página: si llega es que hay página siguiente
+        List<ProductoDTO> productos = list(query(spec, pageable.getSort(), campos)
+                .setFirstResult((int) pageable.getOffset())
+                .setMaxResults(pageable.getPageSize() + 1));
+        boolean hasNext = productos.size() > pageable.getPageSize();
+        if (hasNext) {
+            productos = productos.subList(0, pageable.getPageSize());
+        }
+        return new SliceImpl<>(productos, pageable, hasNext);
+    }
+
+    @Override
+    public Stream<ProductoDTO> streamDTO() {
+        return streamDTO(ProductosCampos.TODOS);
+    }
+
+    @Override
+    public Stream<ProductoDTO> streamDTO(ProductosCampos campos) {
+        return query(null, Sort.by("id"), campos)
+                // Filas que se traen de cada vez. Con MySQL, para que de verdad no traiga todo el resultado,
+                // hay que añadir useCursorFetch=true a la URL
+                .setHint(HINT_FETCH_SIZE, 500)
+                .setHint(HINT_READONLY, true)
+                .getResultStream()
+                .map(ProductosRepositoryCustomImpl::toDTO);
+    }
+
+    // Con todos los campos, la proyección al DTO; si no, solo las columnas pedidas (Tuple) que luego pasamos al DTO
+    private TypedQuery<?> query(Specification<Producto> spec, Sort sort, ProductosCampos campos) {
+        if (campos.isTodos()) {
+            return query(spec, sort);
+        }
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        Root<Producto> root = query.from(Producto.class);
+        query.multiselect(campos.getCampos().stream()
+                .map(campo -> root.get(campo).alias(campo))
+                .collect(Collectors.toList()));
+        where(spec, root, query, cb);
+        query.orderBy(QueryUtils.toOrders(sort, root, cb));
+        return entityManager.createQuery(query);
+    }
+
+    private List<ProductoDTO> list(TypedQuery<?> query) {
+        return query.getResultList().stream()
+                .map(ProductosRepositoryCustomImpl::toDTO)
+                .collect(Collectors.toList());
+    }
+
+    private static ProductoDTO toDTO(Object fila) {
+        if (fila instanceof ProductoDTO) {
+            return (ProductoDTO) fila;
+        }
+        Tuple tuple = (Tuple) fila;
+        ProductoDTO producto = new ProductoDTO();
+        for (TupleElement<?> columna : tuple.getElements()) {
+            ProductosCampos.set(producto, columna.getAlias(), tuple.get(columna));
+        }
+        return producto;
+    }
+
+    // select new ProductoDTO(p.id, p.nombre, p.precio, p.stock, p.imagen, p.createdAt) from Producto p where ... order by ...
+    private TypedQuery<ProductoDTO> query(Specification<Producto> spec, Sort sort) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<ProductoDTO> query = cb.createQuery(ProductoDTO.class);
+        Root<Producto> root = query.from(Producto.class);
+        query.select(cb.construct(ProductoDTO.class,
+                root.get("id"), root.get("nombre"), root.get("precio"),
+                root.get("stock"), root.get("imagen"), root.get("createdAt")));
+        where(spec, root, query, cb);
+        query.orderBy(QueryUtils.toOrders(sort, root, cb));
+        return entityManager.createQuery(query);
+    }
+
+    private long count(Specification<Producto> spec) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = cb.createQuery(Long.class);
+        Root<Producto> root = query.from(Producto.class);
+        query.select(cb.count(root));
+        where(spec, root, query, cb);
+        return entityManager.createQuery(query).getSingleResult();
+    }
+
+    private void where(Specification<Producto> spec, Root<Producto> root, CriteriaQuery<?> query, CriteriaBuilder cb) {
+        if (spec != null) {
+            Predicate predicate = spec.toPredicate(root, query, cb);
+            if (predicate != null) {
+                query.where(predicate);
+            }
+        }
+    }
+}
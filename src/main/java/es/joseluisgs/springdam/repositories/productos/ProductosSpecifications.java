@@ -0,0 +1,152 @@
+package es.joseluisgs.springdam.repositories.productos;
+
+import es.joseluisgs.springdam.models.Producto;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import javax.persistence.criteria.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Construimos las consultas del listado componiendo Specification (Criteria) en vez de tener
+ * un método derivado por cada combinación de filtros. Cada filtro que llega a null no añade nada,
+ * así cualquier combinación es una sola sentencia SQL.
+ */
+public final class ProductosSpecifications {
+    // Solo dejamos ordenar por columnas con índice (ver Producto), el id siempre desempata
+    public static final Set<String> SORT_FIELDS = Set.of("id", "nombre", "precio", "stock", "createdAt");
+
+    private ProductosSpecifications() {
+    }
+
+    /**
+     * Especificación con todos los filtros del listado
+     *
+     * @param filtro Filtros, los null no se aplican
+     * @return Especificación que combina con AND los filtros presentes
+     */
+    public static Specification<Producto> of(ProductosFiltro filtro) {
+        return of(filtro, nombreContiene(filtro.getNombre()));
+    }
+
+    /**
+     * Especificación con todos los filtros del listado, con el filtro por nombre ya resuelto
+     * (por ejemplo con el índice de nombres, ver ProductosService)
+     *
+     * @param filtro Filtros, los null no se aplican
+     * @param nombre Filtro por nombre o null
+     * @return Especificación que combina con AND los filtros presentes
+     */
+    public static Specification<Producto> of(ProductosFiltro filtro, Specification<Producto> nombre) {
+        return Specification.where(nombre)
+                .and(mayorOIgual("precio", filtro.getPrecio()))
+                .and(menorOIgual("precio", filtro.getPrecioMax()))
+                .and(mayorOIgual("stock", filtro.getStockMin()))
+                .and(menorOIgual("stock", filtro.getStockMax()))
+                .and(mayorOIgual("createdAt", filtro.getCreatedAtDesde()))
+                .and(menorOIgual("createdAt", filtro.getCreatedAtHasta()));
+    }
+
+    public static Specification<Producto> nombreContiene(String nombre) {
+        if (nombre == null) {
+            return null;
+        }
+        String patron = "%" + escapar(nombre) + "%";
+        return (root, query, cb) -> cb.like(cb.lower(root.get("nombre")), patron, '\\');
+    }
+
+    /**
+     * Productos con alguna palabra del nombre que empieza por el prefijo (el nombre empieza por él o lo tiene
+     * después de un espacio), como el autocompletado (ver ProductosSuggestIndex)
+     *
+     * @param prefijo Prefijo, sin distinguir mayúsculas
+     * @return Especificación
+     */
+    public static Specification<Producto> palabraEmpieza(String prefijo) {
+        String patron = escapar(prefijo) + "%";
+        return (root, query, cb) -> cb.or(
+                cb.like(cb.lower(root.get("nombre")), patron, '\\'),
+                cb.like(cb.lower(root.get("nombre")), "% " + patron, '\\'));
+    }
+
+    // En minúsculas y con los comodines del LIKE escapados, como hacen los métodos derivados Contains
+    private static String escapar(String texto) {
+        return texto.toLowerCase().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    // Productos con esos ids (por la clave primaria). Sin ids, ninguno
+    public static Specification<Producto> idIn(long[] ids) {
+        if (ids.length == 0) {
+            return (root, query, cb) -> cb.disjunction();
+        }
+        List<Long> valores = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            valores.add(id);
+        }
+        return (root, query, cb) -> root.get("id").in(valores);
+    }
+
+    public static Specification<Producto> noNulo(String campo) {
+        return (root, query, cb) -> cb.isNotNull(root.get(campo));
+    }
+
+    public static <T extends Comparable<? super T>> Specification<Producto> mayorOIgual(String campo, T valor) {
+        return valor == null ? null : (root, query, cb) -> cb.greaterThanOrEqualTo(root.get(campo), valor);
+    }
+
+    public static <T extends Comparable<? super T>> Specification<Producto> menorOIgual(String campo, T valor) {
+        return valor == null ? null : (root, query, cb) -> cb.lessThanOrEqualTo(root.get(campo), valor);
+    }
+
+    /**
+     * Productos que van detrás del cursor en el orden (campo, id): paginación por clave
+     * (campo > valor) OR (campo = valor AND id > id), el id desempata los valores repetidos.
+     * Los nulos van antes que cualquier valor (como en el ORDER BY de H2 y MySQL), así que detrás de un nulo están
+     * los nulos de id mayor y todos los que tienen valor: (campo IS NULL AND id > id) OR campo IS NOT NULL
+     *
+     * @param cursor Cursor del último producto leído o null
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static Specification<Producto> after(ProductosCursor cursor) {
+        if (cursor == null) {
+            return null;
+        }
+        return (root, query, cb) -> {
+            Path<Long> id = root.get("id");
+            if (cursor.getSort().equals("id")) {
+                return cb.greaterThan(id, cursor.getId());
+            }
+            Path<Comparable> campo = root.get(cursor.getSort());
+            Comparable value = cursor.getValue();
+            if (value == null) {
+                return cb.or(
+                        cb.and(cb.isNull(campo), cb.greaterThan(id, cursor.getId())),
+                        cb.isNotNull(campo)
+                );
+            }
+            return cb.or(
+                    cb.greaterThan(campo, value),
+                    cb.and(cb.equal(campo, value), cb.greaterThan(id, cursor.getId()))
+            );
+        };
+    }
+
+    /**
+     * Orden ascendente por el campo indicado y después por id, para que el orden sea estable
+     *
+     * @param campo Campo de ordenación, debe estar en SORT_FIELDS
+     * @throws IllegalArgumentException Si no se puede ordenar por ese campo
+     */
+    public static Sort sort(String campo) {
+        checkSort(campo);
+        return campo.equals("id") ? Sort.by("id") : Sort.by(campo, "id");
+    }
+
+    public static void checkSort(String campo) {
+        if (!SORT_FIELDS.contains(campo)) {
+            throw new IllegalArgumentException("No se puede ordenar por el campo: " + campo);
+        }
+    }
+}
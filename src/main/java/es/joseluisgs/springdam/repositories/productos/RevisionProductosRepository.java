@@ -0,0 +1,18 @@
+package es.joseluisgs.springdam.repositories.productos;
+
+import es.joseluisgs.springdam.models.RevisionProductos;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.LockModeType;
+import java.util.Optional;
+
+@Repository
+// Contador de las revisiones de los productos (ver ProductosRevisiones)
+public interface RevisionProductosRepository extends JpaRepository<RevisionProductos, Long> {
+
+    // SELECT ... FOR UPDATE: la fila queda bloqueada hasta que termine la transacción
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    Optional<RevisionProductos> findForUpdateById(Long id);
+}
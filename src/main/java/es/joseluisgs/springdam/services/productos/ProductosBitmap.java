@@ -0,0 +1,327 @@
+package es.joseluisgs.springdam.services.productos;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * Conjunto de ids de productos comprimido (al estilo de Roaring). Los ids se agrupan por sus bits altos
+ * (id >>> 16) y cada grupo guarda los 16 bits bajos en un contenedor: un array ordenado de char si hay
+ * pocos (2 bytes por id) o un mapa de 65536 bits si hay muchos (8 KB fijos). Así los conjuntos pequeños
+ * ocupan poco y los grandes se cruzan palabra a palabra.
+ * <p>
+ * No es thread-safe: lo protege el índice que lo usa (ver ProductosBitmapIndex).
+ */
+public class ProductosBitmap {
+    private long[] claves = new long[4];
+    private Contenedor[] contenedores = new Contenedor[4];
+    private int size = 0;
+
+    public void add(long id) {
+        int i = buscar(id >>> 16);
+        if (i < 0) {
+            i = -i - 1;
+            insertar(i, id >>> 16, new Contenedor());
+        }
+        contenedores[i].add((char) id);
+    }
+
+    public void remove(long id) {
+        int i = buscar(id >>> 16);
+        if (i >= 0) {
+            contenedores[i].remove((char) id);
+            if (contenedores[i].cardinality == 0) {
+                System.arraycopy(claves, i + 1, claves, i, size - i - 1);
+                System.arraycopy(contenedores, i + 1, contenedores, i, size - i - 1);
+                size--;
+            }
+        }
+    }
+
+    public boolean contains(long id) {
+        int i = buscar(id >>> 16);
+        return i >= 0 && contenedores[i].contains((char) id);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Número de ids, sin recorrerlos: cada contenedor lleva la cuenta
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            total += contenedores[i].cardinality;
+        }
+        return total;
+    }
+
+    // Intersección, en un bitmap nuevo
+    public ProductosBitmap and(ProductosBitmap otro) {
+        ProductosBitmap resultado = new ProductosBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size && j < otro.size) {
+            if (claves[i] < otro.claves[j]) {
+                i++;
+            } else if (claves[i] > otro.claves[j]) {
+                j++;
+            } else {
+                Contenedor c = contenedores[i].and(otro.contenedores[j]);
+                if (c.cardinality > 0) {
+                    resultado.insertar(resultado.size, claves[i], c);
+                }
+                i++;
+                j++;
+            }
+        }
+        return resultado;
+    }
+
+    // Unión, en un bitmap nuevo
+    public ProductosBitmap or(ProductosBitmap otro) {
+        ProductosBitmap resultado = new ProductosBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size || j < otro.size) {
+            if (j == otro.size || (i < size && claves[i] < otro.claves[j])) {
+                resultado.insertar(resultado.size, claves[i], contenedores[i].copy());
+                i++;
+            } else if (i == size || claves[i] > otro.claves[j]) {
+                resultado.insertar(resultado.size, otro.claves[j], otro.contenedores[j].copy());
+                j++;
+            } else {
+                resultado.insertar(resultado.size, claves[i], contenedores[i].or(otro.contenedores[j]));
+                i++;
+                j++;
+            }
+        }
+        return resultado;
+    }
+
+    // Los ids que cumplen la condición, en un bitmap nuevo
+    public ProductosBitmap filter(LongPredicate condicion) {
+        ProductosBitmap resultado = new ProductosBitmap();
+        for (long id : toArray()) {
+            if (condicion.test(id)) {
+                resultado.add(id);
+            }
+        }
+        return resultado;
+    }
+
+    // Los ids ordenados de menor a mayor
+    public long[] toArray() {
+        long[] ids = new long[cardinality()];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            n = contenedores[i].copyTo(claves[i] << 16, ids, n);
+        }
+        return ids;
+    }
+
+    // Memoria aproximada en bytes (arrays y cabeceras de objetos)
+    public long memoria() {
+        long bytes = 16 + 16 + claves.length * 8L + 16 + contenedores.length * 4L;
+        for (int i = 0; i < size; i++) {
+            bytes += contenedores[i].memoria();
+        }
+        return bytes;
+    }
+
+    private int buscar(long clave) {
+        return Arrays.binarySearch(claves, 0, size, clave);
+    }
+
+    private void insertar(int i, long clave, Contenedor contenedor) {
+        if (size == claves.length) {
+            claves = Arrays.copyOf(claves, size * 2);
+            contenedores = Arrays.copyOf(contenedores, size * 2);
+        }
+        System.arraycopy(claves, i, claves, i + 1, size - i);
+        System.arraycopy(contenedores, i, contenedores, i + 1, size - i);
+        claves[i] = clave;
+        contenedores[i] = contenedor;
+        size++;
+    }
+
+    /**
+     * Los 16 bits bajos de los ids de un grupo: array ordenado hasta MAX_ARRAY valores y mapa de bits
+     * a partir de ahí (con más de 4096 el array ya ocuparía más que los 8 KB del mapa)
+     */
+    private static class Contenedor {
+        private static final int MAX_ARRAY = 4096;
+
+        private char[] valores = new char[4];
+        private long[] bits;
+        private int cardinality = 0;
+
+        private void add(char v) {
+            if (bits != null) {
+                if ((bits[v >>> 6] & (1L << v)) == 0) {
+                    bits[v >>> 6] |= 1L << v;
+                    cardinality++;
+                }
+                return;
+            }
+            int i = Arrays.binarySearch(valores, 0, cardinality, v);
+            if (i >= 0) {
+                return;
+            }
+            i = -i - 1;
+            if (cardinality == MAX_ARRAY) {
+                toBits();
+                add(v);
+                return;
+            }
+            if (cardinality == valores.length) {
+                valores = Arrays.copyOf(valores, Math.min(cardinality * 2, MAX_ARRAY));
+            }
+            System.arraycopy(valores, i, valores, i + 1, cardinality - i);
+            valores[i] = v;
+            cardinality++;
+        }
+
+        private void remove(char v) {
+            if (bits != null) {
+                if ((bits[v >>> 6] & (1L << v)) != 0) {
+                    bits[v >>> 6] &= ~(1L << v);
+                    cardinality--;
+                    if (cardinality <= MAX_ARRAY / 2) {
+                        toArray();
+                    }
+                }
+                return;
+            }
+            int i = Arrays.binarySearch(valores, 0, cardinality, v);
+            if (i >= 0) {
+                System.arraycopy(valores, i + 1, valores, i, cardinality - i - 1);
+                cardinality--;
+            }
+        }
+
+        private boolean contains(char v) {
+            if (bits != null) {
+                return (bits[v >>> 6] & (1L << v)) != 0;
+            }
+            return Arrays.binarySearch(valores, 0, cardinality, v) >= 0;
+        }
+
+        private Contenedor and(Contenedor otro) {
+            Contenedor resultado = new Contenedor();
+            if (bits != null && otro.bits != null) {
+                resultado.bits = new long[1024];
+                for (int i = 0; i < 1024; i++) {
+                    resultado.bits[i] = bits[i] & otro.bits[i];
+                    resultado.cardinality += Long.bitCount(resultado.bits[i]);
+                }
+                if (resultado.cardinality <= MAX_ARRAY) {
+                    resultado.toArray();
+                }
+                return resultado;
+            }
+            // Al menos uno es un array: recorremos el más pequeño y preguntamos al otro
+            Contenedor pequeno = bits == null && (otro.bits != null || cardinality <= otro.cardinality) ? this : otro;
+            Contenedor grande = pequeno == this ? otro : this;
+            resultado.valores = new char[Math.max(1, pequeno.cardinality)];
+            for (int i = 0; i < pequeno.cardinality; i++) {
+                if (grande.contains(pequeno.valores[i])) {
+                    resultado.valores[resultado.cardinality++] = pequeno.valores[i];
+                }
+            }
+            return resultado;
+        }
+
+        private Contenedor or(Contenedor otro) {
+            if (bits == null && otro.bits == null && cardinality + otro.cardinality <= MAX_ARRAY) {
+                // Mezcla de dos arrays ordenados
+                Contenedor resultado = new Contenedor();
+                resultado.valores = new char[Math.max(1, cardinality + otro.cardinality)];
+                int i = 0;
+                int j = 0;
+                while (i < cardinality || j < otro.cardinality) {
+                    char v;
+                    if (j == otro.cardinality || (i < cardinality && valores[i] < otro.valores[j])) {
+                        v = valores[i++];
+                    } else if (i == cardinality || valores[i] > otro.valores[j]) {
+                        v = otro.valores[j++];
+                    } else {
+                        v = valores[i++];
+                        j++;
+                    }
+                    resultado.valores[resultado.cardinality++] = v;
+                }
+                return resultado;
+            }
+            Contenedor resultado = copy();
+            resultado.toBits();
+            if (otro.bits != null) {
+                resultado.cardinality = 0;
+                for (int i = 0; i < 1024; i++) {
+                    resultado.bits[i] |= otro.bits[i];
+                    resultado.cardinality += Long.bitCount(resultado.bits[i]);
+                }
+            } else {
+                for (int i = 0; i < otro.cardinality; i++) {
+                    resultado.add(otro.valores[i]);
+                }
+            }
+            return resultado;
+        }
+
+        private Contenedor copy() {
+            Contenedor copia = new Contenedor();
+            copia.cardinality = cardinality;
+            if (bits != null) {
+                copia.bits = bits.clone();
+            } else {
+                copia.valores = Arrays.copyOf(valores, Math.max(1, cardinality));
+            }
+            return copia;
+        }
+
+        private int copyTo(long base, long[] ids, int n) {
+            if (bits == null) {
+                for (int i = 0; i < cardinality; i++) {
+                    ids[n++] = base | valores[i];
+                }
+                return n;
+            }
+            for (int i = 0; i < 1024; i++) {
+                long palabra = bits[i];
+                while (palabra != 0) {
+                    ids[n++] = base | ((long) i << 6) | Long.numberOfTrailingZeros(palabra);
+                    palabra &= palabra - 1;
+                }
+            }
+            return n;
+        }
+
+        private void toBits() {
+            if (bits != null) {
+                return;
+            }
+            bits = new long[1024];
+            for (int i = 0; i < cardinality; i++) {
+                bits[valores[i] >>> 6] |= 1L << valores[i];
+            }
+            valores = null;
+        }
+
+        private void toArray() {
+            valores = new char[Math.max(1, cardinality)];
+            int n = 0;
+            for (int i = 0; i < 1024; i++) {
+                long palabra = bits[i];
+                while (palabra != 0) {
+                    valores[n++] = (char) ((i << 6) | Long.numberOfTrailingZeros(palabra));
+                    palabra &= palabra - 1;
+                }
+            }
+            bits = null;
+        }
+
+        private long memoria() {
+            return 24 + (bits != null ? 16 + bits.length * 8L : 16 + valores.length * 2L);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package es.joseluisgs.springdam.services.productos;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.dto.productos.ProductosBitmapIndexStatsDTO;
+import es.joseluisgs.springdam.repositories.productos.ProductosFiltro;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Índice de bitmaps (ver ProductosBitmap) para los filtros combinados del listado: un bitmap por cada
+ * trigrama del nombre, por cada tramo de precio y por cada tramo de stock con los productos que lo tienen.
+ * Un filtro nombre + precio + stock es cruzar (AND) los bitmaps de los trigramas con la unión (OR) de los
+ * tramos del rango de precio y la de los de stock, y el total exacto es el número de ids que quedan.
+ * <p>
+ * Los tramos de los extremos del rango tienen productos de fuera, así que esos se comprueban uno a uno con
+ * su valor, igual que el nombre (tener los trigramas no basta para contener el texto). Esos valores están en
+ * arrays por hueco (ver ProductosSlots).
+ * Las fechas no están en el índice: con filtros de fecha los ids son candidatos y los termina la consulta.
+ * El nombre se compara sin mayúsculas ni tildes (ProductosNombreIndex.normalizar), así que con filtro por nombre
+ * los ids también son candidatos (incluyen todos los del LIKE de la base de datos) y el LIKE decide.
+ */
+@Slf4j
+@Component
+public class ProductosBitmapIndex extends ProductosIndex<ProductosBitmapIndex.Bitmaps> {
+    private static final int N = 3;
+    // Ninguno en el hueco
+    private static final long NINGUNO = Long.MIN_VALUE;
+
+    private final double anchoPrecio;
+    private final int anchoStock;
+
+    public ProductosBitmapIndex(@Value("${productos.bitmap-index.ancho-precio:1}") double anchoPrecio,
+                                @Value("${productos.bitmap-index.ancho-stock:10}") int anchoStock) {
+        this.anchoPrecio = anchoPrecio;
+        this.anchoStock = anchoStock;
+    }
+
+    @Override
+    protected Bitmaps crear() {
+        return new Bitmaps();
+    }
+
+    @Override
+    protected void put(Bitmaps bitmaps, int slot, ProductoDTO producto) {
+        bitmaps.put(slot, producto);
+    }
+
+    @Override
+    protected void remove(Bitmaps bitmaps, int slot, long id) {
+        bitmaps.remove(slot);
+    }
+
+    @Override
+    protected void cargado(Bitmaps bitmaps) {
+        log.info("Índice de bitmaps cargado: {} productos, {} bitmaps, {} KB",
+                bitmaps.size, bitmaps.numBitmaps(), bitmaps.memoria() / 1024);
+    }
+
+    /**
+     * Productos que cumplen los filtros de nombre, precio y stock
+     *
+     * @param filtro Filtros del listado. Los de fecha no se tienen en cuenta y el nombre sin mayúsculas ni tildes
+     * @return Ids de los productos o null si el índice no puede contestar (no está cargado, no hay filtros
+     * de nombre, precio ni stock o el nombre tiene menos de tres caracteres)
+     */
+    public ProductosBitmap filter(ProductosFiltro filtro) {
+        String nombre = filtro.getNombre() == null ? null : ProductosNombreIndex.normalizar(filtro.getNombre());
+        boolean hayFiltros = nombre != null || filtro.getPrecio() != null || filtro.getPrecioMax() != null
+                || filtro.getStockMin() != null || filtro.getStockMax() != null;
+        if (!hayFiltros || (nombre != null && nombre.length() < N)) {
+            return null;
+        }
+        return read(bitmaps -> bitmaps.filter(nombre, filtro.getPrecio(), filtro.getPrecioMax(),
+                filtro.getStockMin(), filtro.getStockMax()));
+    }
+
+    /**
+     * Tamaño del índice
+     *
+     * @return Estadísticas
+     */
+    public ProductosBitmapIndexStatsDTO stats() {
+        ProductosBitmapIndexStatsDTO stats = read(bitmaps -> ProductosBitmapIndexStatsDTO.builder()
+                .cargado(true)
+                .productos(bitmaps.size)
+                .bitmaps(bitmaps.numBitmaps())
+                .trigramas(bitmaps.trigramas.size())
+                .tramosPrecio(bitmaps.precios.size())
+                .tramosStock(bitmaps.stocks.size())
+                .anchoPrecio(anchoPrecio)
+                .anchoStock(anchoStock)
+                .bytes(bitmaps.memoria())
+                .build());
+        return stats != null ? stats : ProductosBitmapIndexStatsDTO.builder()
+                .anchoPrecio(anchoPrecio)
+                .anchoStock(anchoStock)
+                .build();
+    }
+
+    private long tramoPrecio(double precio) {
+        return (long) Math.floor(precio / anchoPrecio);
+    }
+
+    private long tramoStock(int stock) {
+        return Math.floorDiv(stock, anchoStock);
+    }
+
+    class Bitmaps {
+        // Lo que hay que saber de cada producto para quitarlo de sus bitmaps y comprobar los extremos, por hueco:
+        // su id (NINGUNO si no hay), su nombre normalizado, su precio (NaN si no tiene) y su stock (MIN_VALUE si no tiene)
+        private long[] ids = new long[0];
+        private String[] nombres = new String[0];
+        private double[] preciosDe = new double[0];
+        private int[] stocksDe = new int[0];
+        private int size = 0;
+        private final Map<Long, ProductosBitmap> trigramas = new HashMap<>();
+        private final TreeMap<Long, ProductosBitmap> precios = new TreeMap<>();
+        private final TreeMap<Long, ProductosBitmap> stocks = new TreeMap<>();
+
+        private void put(int slot, ProductoDTO producto) {
+            long id = producto.getId();
+            remove(slot);
+            String nombre = producto.getNombre() == null ? null : ProductosNombreIndex.normalizar(producto.getNombre());
+            ids = ProductosSlots.asegurar(ids, slot, NINGUNO);
+            nombres = ProductosSlots.asegurar(nombres, slot);
+            preciosDe = ProductosSlots.asegurar(preciosDe, slot, Double.NaN);
+            stocksDe = ProductosSlots.asegurar(stocksDe, slot, Integer.MIN_VALUE);
+            ids[slot] = id;
+            nombres[slot] = nombre;
+            preciosDe[slot] = producto.getPrecio() == null ? Double.NaN : producto.getPrecio();
+            stocksDe[slot] = producto.getStock() == null ? Integer.MIN_VALUE : producto.getStock();
+            size++;
+            if (nombre != null) {
+                for (long trigrama : trigramas(nombre)) {
+                    trigramas.computeIfAbsent(trigrama, t -> new ProductosBitmap()).add(id);
+                }
+            }
+            if (producto.getPrecio() != null) {
+                precios.computeIfAbsent(tramoPrecio(producto.getPrecio()), t -> new ProductosBitmap()).add(id);
+            }
+            if (producto.getStock() != null) {
+                stocks.computeIfAbsent(tramoStock(producto.getStock()), t -> new ProductosBitmap()).add(id);
+            }
+        }
+
+        private void remove(int slot) {
+            if (slot >= ids.length || ids[slot] == NINGUNO) {
+                return;
+            }
+            long id = ids[slot];
+            if (nombres[slot] != null) {
+                for (long trigrama : trigramas(nombres[slot])) {
+                    quitar(trigramas, trigrama, id);
+                }
+            }
+            if (!Double.isNaN(preciosDe[slot])) {
+                quitar(precios, tramoPrecio(preciosDe[slot]), id);
+            }
+            if (stocksDe[slot] != Integer.MIN_VALUE) {
+                quitar(stocks, tramoStock(stocksDe[slot]), id);
+            }
+            ids[slot] = NINGUNO;
+            nombres[slot] = null;
+            size--;
+        }
+
+        // Hueco del producto en estos datos o -1
+        private int slotDe(long id) {
+            int slot = slot(id);
+            return slot >= 0 && slot < ids.length && ids[slot] == id ? slot : -1;
+        }
+
+        private void quitar(Map<Long, ProductosBitmap> bitmaps, long clave, long id) {
+            ProductosBitmap bitmap = bitmaps.get(clave);
+            if (bitmap != null) {
+                bitmap.remove(id);
+                if (bitmap.isEmpty()) {
+                    bitmaps.remove(clave);
+                }
+            }
+        }
+
+        private ProductosBitmap filter(String nombre, Double precioMin, Double precioMax, Integer stockMin, Integer stockMax) {
+            ProductosBitmap resultado = null;
+            if (nombre != null) {
+                for (long trigrama : trigramas(nombre)) {
+                    ProductosBitmap bitmap = trigramas.get(trigrama);
+                    if (bitmap == null) {
+                        return new ProductosBitmap();
+                    }
+                    resultado = resultado == null ? bitmap : resultado.and(bitmap);
+                }
+            }
+            if (precioMin != null || precioMax != null) {
+                resultado = and(resultado, rangoPrecio(precioMin, precioMax));
+            }
+            if (stockMin != null || stockMax != null) {
+                resultado = and(resultado, rangoStock(stockMin, stockMax));
+            }
+            if (nombre != null) {
+                // Comprobamos el nombre solo de los que quedan
+                resultado = resultado.filter(id -> {
+                    int slot = slotDe(id);
+                    return slot >= 0 && nombres[slot].contains(nombre);
+                });
+            }
+            return resultado;
+        }
+
+        private ProductosBitmap and(ProductosBitmap a, ProductosBitmap b) {
+            return a == null ? b : a.and(b);
+        }
+
+        // Unión de los tramos del rango. Los de dentro enteros; los de los extremos, comprobando el precio
+        private ProductosBitmap rangoPrecio(Double min, Double max) {
+            Long desde = min == null ? null : tramoPrecio(min);
+            Long hasta = max == null ? null : tramoPrecio(max);
+            ProductosBitmap resultado = new ProductosBitmap();
+            if (desde != null && hasta != null && desde > hasta) {
+                return resultado;
+            }
+            for (Map.Entry<Long, ProductosBitmap> tramo : subMap(precios, desde, hasta).entrySet()) {
+                ProductosBitmap bitmap = tramo.getValue();
+                if (tramo.getKey().equals(desde) || tramo.getKey().equals(hasta)) {
+                    bitmap = bitmap.filter(id -> {
+                        int slot = slotDe(id);
+                        return slot >= 0 && (min == null || preciosDe[slot] >= min) && (max == null || preciosDe[slot] <= max);
+                    });
+                }
+                resultado = resultado.or(bitmap);
+            }
+            return resultado;
+        }
+
+        private ProductosBitmap rangoStock(Integer min, Integer max) {
+            Long desde = min == null ? null : tramoStock(min);
+            Long hasta = max == null ? null : tramoStock(max);
+            ProductosBitmap resultado = new ProductosBitmap();
+            if (desde != null && hasta != null && desde > hasta) {
+                return resultado;
+            }
+            for (Map.Entry<Long, ProductosBitmap> tramo : subMap(stocks, desde, hasta).entrySet()) {
+                ProductosBitmap bitmap = tramo.getValue();
+                if (tramo.getKey().equals(desde) || tramo.getKey().equals(hasta)) {
+                    bitmap = bitmap.filter(id -> {
+                        int slot = slotDe(id);
+                        return slot >= 0 && (min == null || stocksDe[slot] >= min) && (max == null || stocksDe[slot] <= max);
+                    });
+                }
+                resultado = resultado.or(bitmap);
+            }
+            return resultado;
+        }
+
+        private SortedMap<Long, ProductosBitmap> subMap(TreeMap<Long, ProductosBitmap> tramos, Long desde, Long hasta) {
+            if (desde == null && hasta == null) {
+                return tramos;
+            }
+            if (desde == null) {
+                return tramos.headMap(hasta, true);
+            }
+            if (hasta == null) {
+                return tramos.tailMap(desde, true);
+            }
+            return tramos.subMap(desde, true, hasta, true);
+        }
+
+        private int numBitmaps() {
+            return trigramas.size() + precios.size() + stocks.size();
+        }
+
+        // Memoria aproximada de los bitmaps y de los valores de cada producto (sin contar los String de los nombres)
+        private long memoria() {
+            long bytes = 0;
+            for (Map<Long, ProductosBitmap> bitmaps : List.of(trigramas, precios, stocks)) {
+                for (ProductosBitmap bitmap : bitmaps.values()) {
+                    // Entrada del mapa y clave Long
+                    bytes += 32 + 16 + bitmap.memoria();
+                }
+            }
+            // Arrays por hueco: id, referencia al nombre, precio y stock
+            bytes += ids.length * (8L + 4 + 8 + 4);
+            return bytes;
+        }
+    }
+
+    // Trigramas distintos del texto, cada uno empaquetado en un long (16 bits por carácter), como en ProductosNombreIndex
+    private static Set<Long> trigramas(String texto) {
+        Set<Long> claves = new HashSet<>();
+        for (int i = 0; i + N <= texto.length(); i++) {
+            claves.add(((long) texto.charAt(i) << 32) | ((long) texto.charAt(i + 1) << 16) | texto.charAt(i + 2));
+        }
+        return claves;
+    }
+}
@@ -0,0 +1,185 @@
+package es.joseluisgs.springdam.services.productos;
+
+import es.joseluisgs.springdam.dto.productos.ProductoCambioDTO;
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.dto.productos.ProductosCacheStatsDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Caché en memoria de productos por id para findById. Está limitada en número de productos (se va
+ * el usado hace más tiempo, LRU) y cada producto caduca pasado un tiempo (ttl) desde que se cargó.
+ * Las escrituras de ProductosService la invalidan, así que el ttl solo cubre cambios hechos por fuera.
+ * Los productos que no existen no se guardan.
+ */
+@Component
+public class ProductosCache {
+    private final int maxSize;
+    private final long ttlMillis;
+    // En orden de acceso: el primero es el menos usado
+    private final LinkedHashMap<Long, Entrada> productos;
+    // Cambia con cada invalidación, para no guardar lo que se leyó de la base de datos antes de ella
+    private final AtomicLong generacion = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public ProductosCache(@Value("${productos.cache.max-size:10000}") int maxSize,
+                          @Value("${productos.cache.ttl:60000}") long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.productos = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entrada> eldest) {
+                if (size() > ProductosCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Producto de la caché o, si no está o ha caducado, el que devuelve loader (que se guarda si existe)
+     *
+     * @param id     Id del producto
+     * @param loader Carga el producto de la base de datos
+     * @return El producto o vacío si no existe
+     */
+    public Optional<ProductoDTO> get(Long id, Function<Long, Optional<ProductoDTO>> loader) {
+        synchronized (productos) {
+            Entrada entrada = productos.get(id);
+            if (entrada != null) {
+                if (!entrada.isExpired(ttlMillis)) {
+                    hits.incrementAndGet();
+                    return Optional.of(entrada.producto);
+                }
+                productos.remove(id);
+                expirations.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        // La consulta va fuera del bloqueo, para no parar al resto de lecturas mientras tanto
+        long antes = generacion.get();
+        Optional<ProductoDTO> producto = loader.apply(id);
+        producto.ifPresent(p -> {
+            synchronized (productos) {
+                if (generacion.get() == antes) {
+                    productos.put(id, new Entrada(p));
+                }
+            }
+        });
+        return producto;
+    }
+
+    /**
+     * Varios productos a la vez: los que están en la caché salen de ella y los demás se cargan todos juntos
+     * con una sola llamada a loader (que se guardan los que existen)
+     *
+     * @param ids    Ids de los productos, sin repetidos
+     * @param loader Carga de la base de datos los productos de los ids que faltan
+     * @return Los productos que existen por id
+     */
+    public Map<Long, ProductoDTO> getAll(Collection<Long> ids, Function<Collection<Long>, Map<Long, ProductoDTO>> loader) {
+        Map<Long, ProductoDTO> encontrados = new HashMap<>();
+        List<Long> faltan = new ArrayList<>();
+        long antes;
+        synchronized (productos) {
+            for (Long id : ids) {
+                Entrada entrada = productos.get(id);
+                if (entrada != null && !entrada.isExpired(ttlMillis)) {
+                    encontrados.put(id, entrada.producto);
+                    continue;
+                }
+                if (entrada != null) {
+                    productos.remove(id);
+                    expirations.incrementAndGet();
+                }
+                faltan.add(id);
+            }
+            antes = generacion.get();
+        }
+        hits.addAndGet(encontrados.size());
+        misses.addAndGet(faltan.size());
+        if (faltan.isEmpty()) {
+            return encontrados;
+        }
+        Map<Long, ProductoDTO> cargados = loader.apply(faltan);
+        synchronized (productos) {
+            if (generacion.get() == antes) {
+                cargados.forEach((id, p) -> productos.put(id, new Entrada(p)));
+            }
+        }
+        encontrados.putAll(cargados);
+        return encontrados;
+    }
+
+    // Quita el producto (se ha modificado o borrado)
+    public void invalidate(Long id) {
+        synchronized (productos) {
+            generacion.incrementAndGet();
+            if (productos.remove(id) != null) {
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    // Escritura de ProductosService: el producto ha cambiado o se ha borrado
+    @EventListener
+    @Order(0)
+    public void cambio(ProductoCambioDTO cambio) {
+        invalidate(cambio.getId());
+    }
+
+    // Vacía la caché
+    public void clear() {
+        synchronized (productos) {
+            generacion.incrementAndGet();
+            productos.clear();
+        }
+    }
+
+    // Estadísticas para dimensionar la caché
+    public ProductosCacheStatsDTO stats() {
+        long h = hits.get();
+        long m = misses.get();
+        int size;
+        synchronized (productos) {
+            size = productos.size();
+        }
+        return ProductosCacheStatsDTO.builder()
+                .size(size)
+                .maxSize(maxSize)
+                .ttl(ttlMillis)
+                .hits(h)
+                .misses(m)
+                .hitRate(h + m == 0 ? 0.0 : (double) h / (h + m))
+                .evictions(evictions.get())
+                .expirations(expirations.get())
+                .invalidations(invalidations.get())
+                .build();
+    }
+
+    private static class Entrada {
+        private final ProductoDTO producto;
+        private final long timestamp = System.currentTimeMillis();
+
+        private Entrada(ProductoDTO producto) {
+            this.producto = producto;
+        }
+
+        private boolean isExpired(long ttlMillis) {
+            return System.currentTimeMillis() - timestamp > ttlMillis;
+        }
+    }
+}
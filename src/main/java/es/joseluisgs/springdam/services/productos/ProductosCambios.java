@@ -0,0 +1,230 @@
+package es.joseluisgs.springdam.services.productos;
+
+import es.joseluisgs.springdam.dto.productos.ProductoCambioDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Canal de cambios de productos por SSE (GET /rest/productos/changes/stream) para que los clientes y las cachés
+ * sepan qué ha cambiado sin sondear. El id de cada evento es la revisión de la escritura (ver ProductosRevisiones),
+ * que sale de la base de datos: no vuelve a empezar al reiniciar la aplicación y es la misma que usa la
+ * sincronización (GET /rest/productos/sync). Los cambios que publica ProductosService (cuando se ha confirmado
+ * la transacción) se guardan en un anillo con los últimos (tamaño buffer), cada uno en la posición de su revisión.
+ * Cada suscriptor solo guarda hasta qué revisión ha recibido.
+ * <p>
+ * Los envíos los hacen unos pocos hilos, con un tiempo máximo por envío (timeoutEnvio, ver ProductosSseEnvios):
+ * a un cliente que no lee se le cierra la conexión sin que los demás dejen de recibir. A un suscriptor que va por detrás se le manda solo el último cambio
+ * de cada producto de los que tiene pendientes (se juntan). Si al anillo le falta alguna de las revisiones que tiene
+ * pendientes, recibe un evento "recargar": tiene que volver a leer los productos y seguir desde ahí (o pedir
+ * a sync desde la revisión que lleva). Pasa si se ha quedado tan atrás que el anillo ya no las tiene, si vuelve
+ * con un Last-Event-ID de antes de arrancar la aplicación o que no conocemos, o si las ha escrito otra instancia.
+ */
+@Slf4j
+@Component
+public class ProductosCambios {
+    public static final String RECARGAR = "recargar";
+
+    private final ProductosRevisiones productosRevisiones;
+    private final Cambio[] anillo;
+    private final long timeout;
+    private final ProductosSseEnvios envios;
+    private final Set<Suscriptor> suscriptores = ConcurrentHashMap.newKeySet();
+    // Revisión del último cambio (al arrancar, la última de la base de datos)
+    private long ultimo = 0;
+
+    public ProductosCambios(ProductosRevisiones productosRevisiones,
+                            @Value("${productos.cambios.buffer:4096}") int buffer,
+                            @Value("${productos.cambios.timeout:3600000}") long timeout,
+                            @Value("${productos.cambios.hilos:2}") int hilos,
+                            @Value("${productos.cambios.timeout-envio:10000}") long timeoutEnvio) {
+        this.productosRevisiones = productosRevisiones;
+        this.anillo = new Cambio[buffer];
+        this.timeout = timeout;
+        this.envios = new ProductosSseEnvios("cambios-productos", hilos, timeoutEnvio);
+    }
+
+    // Lo escrito antes de arrancar ya no está en el anillo: quien vuelva con una revisión anterior, a recargar
+    @EventListener(ApplicationReadyEvent.class)
+    public void arrancar() {
+        long ultima = productosRevisiones.ultima();
+        synchronized (anillo) {
+            ultimo = Math.max(ultimo, ultima);
+        }
+    }
+
+    @PreDestroy
+    public void cerrar() {
+        envios.cerrar();
+    }
+
+    /**
+     * Publica un cambio a los suscriptores. Si hay una transacción en curso, cuando se confirme
+     *
+     * @param cambio Cambio de un producto
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void publicar(ProductoCambioDTO cambio) {
+        synchronized (anillo) {
+            // Llegan en orden de revisión (ver ProductosRevisiones): uno anterior ya no se puede enviar en su sitio
+            if (cambio.getRevision() == null || cambio.getRevision() <= ultimo) {
+                return;
+            }
+            ultimo = cambio.getRevision();
+            anillo[(int) (ultimo % anillo.length)] = new Cambio(ultimo, cambio);
+        }
+        suscriptores.forEach(Suscriptor::programar);
+    }
+
+    /**
+     * Nueva suscripción a los cambios
+     *
+     * @param desde Id del último evento recibido (Last-Event-ID) para seguir desde ahí o null para los nuevos
+     * @return Conexión SSE
+     */
+    public SseEmitter suscribir(Long desde) {
+        SseEmitter emitter = new SseEmitter(timeout);
+        suscribir(desde, emitter);
+        return emitter;
+    }
+
+    /**
+     * Nueva suscripción a los cambios por una conexión ya creada
+     *
+     * @param desde   Id del último evento recibido (Last-Event-ID) para seguir desde ahí o null para los nuevos
+     * @param emitter Conexión SSE
+     */
+    public void suscribir(Long desde, SseEmitter emitter) {
+        Suscriptor suscriptor;
+        synchronized (anillo) {
+            suscriptor = new Suscriptor(emitter, desde == null ? ultimo : desde);
+        }
+        suscriptores.add(suscriptor);
+        emitter.onCompletion(() -> suscriptores.remove(suscriptor));
+        emitter.onTimeout(() -> suscriptores.remove(suscriptor));
+        emitter.onError(e -> suscriptores.remove(suscriptor));
+        suscriptor.programar();
+    }
+
+    // Número de suscriptores
+    public int suscriptores() {
+        return suscriptores.size();
+    }
+
+    // Cambio con su revisión
+    private static class Cambio {
+        private final long id;
+        private final ProductoCambioDTO cambio;
+
+        private Cambio(long id, ProductoCambioDTO cambio) {
+            this.id = id;
+            this.cambio = cambio;
+        }
+    }
+
+    private class Suscriptor {
+        private final SseEmitter emitter;
+        // Revisión del último cambio enviado
+        private long enviado;
+        private final AtomicBoolean enviando = new AtomicBoolean();
+
+        private Suscriptor(SseEmitter emitter, long enviado) {
+            this.emitter = emitter;
+            this.enviado = enviado;
+        }
+
+        private void programar() {
+            if (enviando.compareAndSet(false, true)) {
+                try {
+                    envios.execute(this::vaciar);
+                } catch (RejectedExecutionException e) {
+                    enviando.set(false);
+                }
+            }
+        }
+
+        private void vaciar() {
+            try {
+                for (List<Cambio> pendientes = pendientes(); pendientes != null; pendientes = pendientes()) {
+                    if (pendientes.isEmpty()) {
+                        // Falta alguno en el anillo (o el id no es de los nuestros): a leer los productos de nuevo
+                        envios.enviar(emitter, SseEmitter.event().id(String.valueOf(enviado)).name(RECARGAR).data(RECARGAR),
+                                () -> suscriptores.remove(this));
+                        continue;
+                    }
+                    for (Cambio cambio : juntar(pendientes)) {
+                        envios.enviar(emitter, SseEmitter.event()
+                                .id(String.valueOf(cambio.id))
+                                .name(cambio.cambio.getTipo())
+                                .data(cambio.cambio, MediaType.APPLICATION_JSON), () -> suscriptores.remove(this));
+                    }
+                }
+            } catch (IOException | IllegalStateException e) {
+                // El cliente se ha ido o no lee
+                suscriptores.remove(this);
+                return;
+            } finally {
+                enviando.set(false);
+            }
+            // Lo que se haya publicado después de mirar los pendientes por última vez
+            if (hayPendientes()) {
+                programar();
+            }
+        }
+
+        private boolean hayPendientes() {
+            synchronized (anillo) {
+                return enviado != ultimo;
+            }
+        }
+
+        // Cambios que faltan por enviar, vacío si ya no se pueden enviar o null si no hay
+        private List<Cambio> pendientes() {
+            synchronized (anillo) {
+                if (enviado == ultimo) {
+                    return null;
+                }
+                long desde = enviado + 1;
+                // Se ha quedado atrás o el id no es de los nuestros (por ejemplo del futuro)
+                boolean perdidos = desde <= ultimo - anillo.length || enviado > ultimo || enviado < 0;
+                List<Cambio> pendientes = new ArrayList<>();
+                for (long id = desde; !perdidos && id <= ultimo; id++) {
+                    Cambio cambio = anillo[(int) (id % anillo.length)];
+                    // Sin esa revisión en su sitio: de antes de arrancar o escrita por otra instancia
+                    perdidos = cambio == null || cambio.id != id;
+                    pendientes.add(cambio);
+                }
+                enviado = ultimo;
+                return perdidos ? List.of() : pendientes;
+            }
+        }
+    }
+
+    // El último cambio de cada producto, en el orden en que se hicieron
+    private static List<Cambio> juntar(List<Cambio> cambios) {
+        if (cambios.size() == 1) {
+            return cambios;
+        }
+        Set<Long> vistos = new HashSet<>();
+        List<Cambio> ultimos = new ArrayList<>();
+        for (int i = cambios.size() - 1; i >= 0; i--) {
+            if (vistos.add(cambios.get(i).cambio.getId())) {
+                ultimos.add(cambios.get(i));
+            }
+        }
+        Collections.reverse(ultimos);
+        return ultimos;
+    }
+}
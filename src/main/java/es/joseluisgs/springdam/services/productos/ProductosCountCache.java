@@ -0,0 +1,141 @@
+package es.joseluisgs.springdam.services.productos;
+
+import es.joseluisgs.springdam.repositories.productos.ProductosFiltro;
+import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import es.joseluisgs.springdam.repositories.productos.ProductosSpecifications;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Total aproximado de productos por filtro para el listado con count=cached.
+ * Guarda el resultado del count de cada filtro y lo da por bueno durante un tiempo (ttl).
+ * Cuando caduca se sigue devolviendo el valor anterior mientras se recalcula en segundo plano,
+ * así ninguna petición espera por el count salvo la primera de cada filtro.
+ * <p>
+ * Los recálculos van a sus propios hilos con una cola limitada: si se llena, ese total se recalcula
+ * en otra petición. Se guardan como mucho maxFiltros, y al llegar se olvida el menos usado.
+ */
+@Component
+public class ProductosCountCache {
+    private final ProductosRepository productosRepository;
+    private final long ttlMillis;
+    private final int maxFiltros;
+    // En orden de acceso: el primero es el menos usado
+    private final LinkedHashMap<String, Total> totales;
+    private final ExecutorService recalculos;
+
+    public ProductosCountCache(ProductosRepository productosRepository,
+                               @Value("${productos.count-cache.ttl:30000}") long ttlMillis,
+                               @Value("${productos.count-cache.max-filtros:1000}") int maxFiltros,
+                               @Value("${productos.count-cache.hilos:2}") int hilos,
+                               @Value("${productos.count-cache.cola:100}") int cola) {
+        this.productosRepository = productosRepository;
+        this.ttlMillis = ttlMillis;
+        this.maxFiltros = maxFiltros;
+        this.totales = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Total> eldest) {
+                return size() > ProductosCountCache.this.maxFiltros;
+            }
+        };
+        AtomicInteger numero = new AtomicInteger();
+        this.recalculos = new ThreadPoolExecutor(hilos, hilos, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(cola), r -> {
+            Thread hilo = new Thread(r, "count-productos-" + numero.incrementAndGet());
+            hilo.setDaemon(true);
+            return hilo;
+        });
+    }
+
+    @PreDestroy
+    public void cerrar() {
+        recalculos.shutdownNow();
+    }
+
+    /**
+     * Número (aproximado) de productos que cumplen los filtros del listado
+     *
+     * @param filtro Filtros del listado
+     * @return Total guardado o recién calculado
+     */
+    public long count(ProductosFiltro filtro) {
+        String key = filtro.toKey();
+        Total total = get(key);
+        if (total == null) {
+            // Nunca lo hemos calculado: no queda otra que esperar por él
+            total = new Total(productosRepository.count(ProductosSpecifications.of(filtro)));
+            put(key, total);
+        } else if (total.isExpired(ttlMillis) && total.refreshing.compareAndSet(false, true)) {
+            // Caducado: devolvemos el que tenemos y lo refrescamos en segundo plano (solo una vez a la vez)
+            Total caducado = total;
+            try {
+                CompletableFuture.supplyAsync(() -> productosRepository.count(ProductosSpecifications.of(filtro)),
+                                recalculos)
+                        .whenComplete((value, ex) -> {
+                            if (ex == null) {
+                                put(key, new Total(value));
+                            } else {
+                                remove(key, caducado);
+                            }
+                        });
+            } catch (RejectedExecutionException e) {
+                // Cola llena: lo intentará la siguiente petición
+                caducado.refreshing.set(false);
+            }
+        }
+        return total.value;
+    }
+
+    // Olvida todos los totales
+    public void clear() {
+        synchronized (totales) {
+            totales.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (totales) {
+            return totales.size();
+        }
+    }
+
+    private Total get(String key) {
+        synchronized (totales) {
+            return totales.get(key);
+        }
+    }
+
+    private void put(String key, Total total) {
+        synchronized (totales) {
+            totales.put(key, total);
+        }
+    }
+
+    // Solo si sigue siendo ese: puede que ya se haya vuelto a calcular
+    private void remove(String key, Total total) {
+        synchronized (totales) {
+            totales.remove(key, total);
+        }
+    }
+
+    private static class Total {
+        private final long value;
+        private final long timestamp = System.currentTimeMillis();
+        private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+        private Total(long value) {
+            this.value = value;
+        }
+
+        private boolean isExpired(long ttlMillis) {
+            return System.currentTimeMillis() - timestamp > ttlMillis;
+        }
+    }
+}
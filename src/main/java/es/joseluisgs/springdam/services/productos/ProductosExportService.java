@@ -0,0 +1,126 @@
+package es.joseluisgs.springdam.services.productos;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.repositories.productos.ProductosCampos;
+import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.StringJoiner;
+import java.util.stream.Stream;
+
+/**
+ * Exporta el catálogo completo recorriéndolo con un cursor de la base de datos (streamDTO)
+ * y escribiendo cada producto en la salida según se lee. La consulta construye directamente los DTO
+ * con las columnas pedidas, así que no se crean entidades y la memoria no crece con el tamaño del catálogo.
+ * No usa ProductosFragmentos: recorrer todo el catálogo guardando fragmentos echaría de esa caché (acotada)
+ * los productos que piden los listados, y cada producto se serializa una sola vez igualmente.
+ */
+@Service
+@RequiredArgsConstructor
+public class ProductosExportService {
+    // Cada cuántos productos mandamos lo escrito al cliente
+    private static final int FLUSH_SIZE = 100;
+
+    private final ProductosRepository productosRepository;
+    private final ProductosJson productosJson;
+
+    /**
+     * Escribe todos los productos en formato NDJSON (un ProductoDTO en JSON por línea)
+     *
+     * @param out    Salida donde escribir, no se cierra
+     * @param campos Campos de cada producto
+     */
+    @Transactional(readOnly = true)
+    public void exportNdjson(OutputStream out, ProductosCampos campos) throws IOException {
+        Writer writer = writer(out);
+        ObjectWriter json = productosJson.writer(campos);
+        export(writer, campos, producto -> {
+            writer.write(json.writeValueAsString(producto));
+            writer.write('\n');
+        });
+    }
+
+    /**
+     * Escribe todos los productos en formato CSV con cabecera
+     *
+     * @param out    Salida donde escribir, no se cierra
+     * @param campos Columnas del CSV
+     */
+    @Transactional(readOnly = true)
+    public void exportCsv(OutputStream out, ProductosCampos campos) throws IOException {
+        Writer writer = writer(out);
+        writer.write(String.join(",", campos.getCampos()) + "\n");
+        // La cabecera sale ya, sin esperar a la primera fila
+        writer.flush();
+        export(writer, campos, producto -> {
+            StringJoiner fila = new StringJoiner(",", "", "\n");
+            for (String campo : campos.getCampos()) {
+                fila.add(csv(valor(producto, campo)));
+            }
+            writer.write(fila.toString());
+        });
+    }
+
+    private void export(Writer writer, ProductosCampos campos, ProductoWriter productoWriter) throws IOException {
+        try (Stream<ProductoDTO> productos = productosRepository.streamDTO(campos)) {
+            Iterator<ProductoDTO> iterator = productos.iterator();
+            int escritos = 0;
+            while (iterator.hasNext()) {
+                productoWriter.write(iterator.next());
+                // El primero sale enseguida para que el cliente empiece a recibir, luego por bloques
+                if (++escritos == 1 || escritos % FLUSH_SIZE == 0) {
+                    writer.flush();
+                }
+            }
+        }
+        writer.flush();
+    }
+
+    private Writer writer(OutputStream out) {
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    private static Object valor(ProductoDTO producto, String campo) {
+        switch (campo) {
+            case "id":
+                return producto.getId();
+            case "nombre":
+                return producto.getNombre();
+            case "precio":
+                return producto.getPrecio();
+            case "stock":
+                return producto.getStock();
+            case "imagen":
+                return producto.getImagen();
+            default:
+                return producto.getCreatedAt();
+        }
+    }
+
+    // Campo de texto en CSV: entre comillas si hace falta y doblando las comillas que tenga
+    private String csv(Object value) {
+        if (value == null) {
+            return "";
+        }
+        String text = value.toString();
+        if (text.contains(",") || text.contains("\"") || text.contains("\n") || text.contains("\r")) {
+            return "\"" + text.replace("\"", "\"\"") + "\"";
+        }
+        return text;
+    }
+
+    @FunctionalInterface
+    private interface ProductoWriter {
+        void write(ProductoDTO producto) throws IOException;
+    }
+}
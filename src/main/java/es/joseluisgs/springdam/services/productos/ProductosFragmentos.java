@@ -0,0 +1,205 @@
+package es.joseluisgs.springdam.services.productos;
+
+import com.fasterxml.jackson.core.io.SerializedString;
+import es.joseluisgs.springdam.dto.productos.ProductoCambioDTO;
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Caché de los productos ya serializados en JSON (con todos los campos) para el listado. Cada producto se guarda
+ * como un Fragmento: el DTO con su JSON en UTF-8, que ProductosJson copia tal cual en la respuesta en vez de
+ * volver a serializarlo. Si la página sale de los índices en memoria (ids), los productos que están aquí
+ * ni siquiera se leen de la base de datos.
+ * <p>
+ * Igual que ProductosCache: LRU limitada en número de productos, con ttl, y las escrituras de ProductosService
+ * invalidan el producto. No se guarda lo que se leyó antes de una invalidación (generación), así que un fragmento
+ * nunca es de una versión anterior a la última escritura.
+ */
+@Component
+public class ProductosFragmentos {
+    private final ProductosJson productosJson;
+    private final int maxSize;
+    private final long ttlMillis;
+    // En orden de acceso: el primero es el menos usado
+    private final LinkedHashMap<Long, Entrada> fragmentos;
+    // Cambia con cada invalidación, para no guardar lo que se leyó de la base de datos antes de ella
+    private final AtomicLong generacion = new AtomicLong();
+
+    public ProductosFragmentos(ProductosJson productosJson,
+                               @Value("${productos.fragmentos.max-size:10000}") int maxSize,
+                               @Value("${productos.fragmentos.ttl:60000}") long ttlMillis) {
+        this.productosJson = productosJson;
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.fragmentos = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entrada> eldest) {
+                return size() > ProductosFragmentos.this.maxSize;
+            }
+        };
+    }
+
+    // Generación actual: se pasa a envolver con lo que se lea de la base de datos a partir de ahora
+    public long generacion() {
+        return generacion.get();
+    }
+
+    /**
+     * Productos por id: los que están aquí salen ya serializados y los demás se cargan todos juntos
+     * con una sola llamada a loader y se guardan
+     *
+     * @param ids    Ids de los productos
+     * @param loader Carga de la base de datos los productos de los ids que faltan
+     * @return Los productos que existen (Fragmento), en el mismo orden que los ids
+     */
+    public List<ProductoDTO> getAll(long[] ids, Function<long[], Map<Long, ProductoDTO>> loader) {
+        Map<Long, ProductoDTO> encontrados = new HashMap<>();
+        long[] faltan = new long[ids.length];
+        int nFaltan = 0;
+        long antes;
+        synchronized (fragmentos) {
+            for (long id : ids) {
+                Fragmento fragmento = get(id);
+                if (fragmento != null) {
+                    encontrados.put(id, fragmento);
+                } else {
+                    faltan[nFaltan++] = id;
+                }
+            }
+            antes = generacion.get();
+        }
+        if (nFaltan > 0) {
+            List<ProductoDTO> cargados = new ArrayList<>(loader.apply(Arrays.copyOf(faltan, nFaltan)).values());
+            for (ProductoDTO producto : envolver(cargados, antes)) {
+                encontrados.put(producto.getId(), producto);
+            }
+        }
+        List<ProductoDTO> productos = new ArrayList<>(encontrados.size());
+        for (long id : ids) {
+            ProductoDTO producto = encontrados.get(id);
+            if (producto != null) {
+                productos.add(producto);
+            }
+        }
+        return productos;
+    }
+
+    /**
+     * Cambia cada producto por su Fragmento: el que está aquí o uno nuevo, que se guarda
+     *
+     * @param productos Productos leídos de la base de datos con todos los campos
+     * @param antes     Generación de antes de leerlos (ver generacion)
+     * @return Los productos (Fragmento) en el mismo orden
+     */
+    public List<ProductoDTO> envolver(List<ProductoDTO> productos, long antes) {
+        List<ProductoDTO> envueltos = new ArrayList<>(productos.size());
+        boolean faltan = false;
+        synchronized (fragmentos) {
+            for (ProductoDTO producto : productos) {
+                Fragmento fragmento = producto instanceof Fragmento ? (Fragmento) producto : get(producto.getId());
+                envueltos.add(fragmento);
+                faltan |= fragmento == null;
+            }
+        }
+        if (!faltan) {
+            return envueltos;
+        }
+        // Los que faltan se serializan fuera del bloqueo
+        List<Fragmento> nuevos = new ArrayList<>();
+        for (int i = 0; i < envueltos.size(); i++) {
+            if (envueltos.get(i) == null) {
+                Fragmento fragmento = new Fragmento(productos.get(i), productosJson.fragmento(productos.get(i)));
+                envueltos.set(i, fragmento);
+                nuevos.add(fragmento);
+            }
+        }
+        synchronized (fragmentos) {
+            if (generacion.get() == antes) {
+                nuevos.forEach(f -> fragmentos.put(f.getId(), new Entrada(f)));
+            }
+        }
+        return envueltos;
+    }
+
+    // Quita el producto (se ha modificado o borrado)
+    public void invalidate(Long id) {
+        synchronized (fragmentos) {
+            generacion.incrementAndGet();
+            fragmentos.remove(id);
+        }
+    }
+
+    // Escritura de ProductosService: el producto ha cambiado o se ha borrado. Después de la caché y los índices
+    // de productos (Order 0), de los que también salen productos para envolver: lo leído de ellos con la
+    // generación anterior ya no se guarda
+    @EventListener
+    @Order(1)
+    public void cambio(ProductoCambioDTO cambio) {
+        invalidate(cambio.getId());
+    }
+
+    // Vacía la caché
+    public void clear() {
+        synchronized (fragmentos) {
+            generacion.incrementAndGet();
+            fragmentos.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (fragmentos) {
+            return fragmentos.size();
+        }
+    }
+
+    // El fragmento si está y no ha caducado. Con el bloqueo cogido
+    private Fragmento get(long id) {
+        Entrada entrada = fragmentos.get(id);
+        if (entrada == null) {
+            return null;
+        }
+        if (entrada.isExpired(ttlMillis)) {
+            fragmentos.remove(id);
+            return null;
+        }
+        return entrada.fragmento;
+    }
+
+    /**
+     * Producto con su JSON. Fuera del JSON con todos los campos (CBOR, fields=...) se serializa como cualquier
+     * ProductoDTO. No se debe modificar: es el mismo objeto para todas las respuestas
+     */
+    static class Fragmento extends ProductoDTO {
+        private final SerializedString json;
+
+        private Fragmento(ProductoDTO producto, SerializedString json) {
+            super(producto.getId(), producto.getNombre(), producto.getPrecio(), producto.getStock(),
+                    producto.getImagen(), producto.getCreatedAt());
+            this.json = json;
+        }
+
+        SerializedString json() {
+            return json;
+        }
+    }
+
+    private static class Entrada {
+        private final Fragmento fragmento;
+        private final long cargado = System.currentTimeMillis();
+
+        private Entrada(Fragmento fragmento) {
+            this.fragmento = fragmento;
+        }
+
+        private boolean isExpired(long ttlMillis) {
+            return System.currentTimeMillis() - cargado > ttlMillis;
+        }
+    }
+}
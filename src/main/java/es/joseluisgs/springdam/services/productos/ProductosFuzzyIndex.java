@@ -0,0 +1,188 @@
+package es.joseluisgs.springdam.services.productos;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Diccionario con las palabras de los nombres de los productos para la búsqueda con errores (fuzzy).
+ * Las palabras están en un trie y se recorre con un autómata de Levenshtein: en cada letra llevamos la fila
+ * de distancias de edición entre el texto buscado y la palabra hasta esa letra, y en cuanto todas pasan
+ * de la distancia máxima no seguimos por esa rama. Así "ternra" encuentra "ternera" sin mirar el resto.
+ * <p>
+ * La distancia máxima depende de lo larga que sea cada palabra buscada (ver maxDistancia): con palabras
+ * muy cortas cualquier error ya es otra palabra.
+ */
+@Component
+public class ProductosFuzzyIndex extends ProductosIndex<ProductosFuzzyIndex.Diccionario> {
+
+    @Override
+    protected Diccionario crear() {
+        return new Diccionario();
+    }
+
+    @Override
+    protected void put(Diccionario diccionario, int slot, ProductoDTO producto) {
+        diccionario.put(slot, producto.getId(), producto.getNombre());
+    }
+
+    @Override
+    protected void remove(Diccionario diccionario, int slot, long id) {
+        diccionario.remove(slot);
+    }
+
+    /**
+     * Productos cuyo nombre tiene, para cada palabra buscada, alguna palabra a poca distancia de edición.
+     * Ordenados por la suma de las distancias, después por nombre y por id
+     *
+     * @param nombre Texto buscado
+     * @return Ids ordenados del más parecido al menos o null si el índice no está cargado
+     */
+    public long[] search(String nombre) {
+        List<String> palabras = palabras(nombre);
+        return read(diccionario -> diccionario.search(palabras));
+    }
+
+    /**
+     * Número de nodos del diccionario
+     *
+     * @return Nodos o null si el índice no está cargado
+     */
+    public Integer nodos() {
+        return read(diccionario -> diccionario.raiz.nodos());
+    }
+
+    // Errores que permitimos en una palabra según su longitud
+    static int maxDistancia(String palabra) {
+        if (palabra.length() <= 2) {
+            return 0;
+        }
+        return palabra.length() <= 5 ? 1 : 2;
+    }
+
+    // Palabras del texto en minúsculas
+    private static List<String> palabras(String texto) {
+        List<String> palabras = new ArrayList<>();
+        for (String palabra : texto.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!palabra.isEmpty()) {
+                palabras.add(palabra);
+            }
+        }
+        return palabras;
+    }
+
+    static class Diccionario {
+        private final ProductosTrieNodo raiz = new ProductosTrieNodo();
+        // Por hueco: id y nombre de cada producto (null si no hay), para ordenar y para poder quitarlo
+        private long[] ids = new long[0];
+        private String[] nombres = new String[0];
+
+        private void put(int slot, long id, String nombre) {
+            remove(slot);
+            if (nombre == null) {
+                return;
+            }
+            ids = ProductosSlots.asegurar(ids, slot, 0);
+            nombres = ProductosSlots.asegurar(nombres, slot);
+            ids[slot] = id;
+            nombres[slot] = nombre;
+            for (String palabra : new HashSet<>(palabras(nombre))) {
+                raiz.insertar(palabra).addSlot(slot);
+            }
+        }
+
+        private void remove(int slot) {
+            if (slot >= nombres.length || nombres[slot] == null) {
+                return;
+            }
+            for (String palabra : new HashSet<>(palabras(nombres[slot]))) {
+                raiz.removeSlot(palabra, 0, slot);
+            }
+            nombres[slot] = null;
+        }
+
+        private long[] search(List<String> palabras) {
+            if (palabras.isEmpty()) {
+                return new long[0];
+            }
+            // Distancia total de cada producto (por su hueco): tiene que estar cerca de todas las palabras buscadas
+            Map<Integer, Integer> distancias = null;
+            for (String palabra : palabras) {
+                Map<Integer, Integer> cercanos = new HashMap<>();
+                int[] fila = new int[palabra.length() + 1];
+                for (int i = 0; i < fila.length; i++) {
+                    fila[i] = i;
+                }
+                for (int i = 0; i < raiz.letras.length; i++) {
+                    buscar(raiz.hijos[i], raiz.letras[i], palabra, fila, maxDistancia(palabra), cercanos);
+                }
+                if (distancias == null) {
+                    distancias = cercanos;
+                } else {
+                    Map<Integer, Integer> anteriores = distancias;
+                    distancias = new HashMap<>();
+                    for (Map.Entry<Integer, Integer> e : cercanos.entrySet()) {
+                        Integer anterior = anteriores.get(e.getKey());
+                        if (anterior != null) {
+                            distancias.put(e.getKey(), anterior + e.getValue());
+                        }
+                    }
+                }
+                if (distancias.isEmpty()) {
+                    return new long[0];
+                }
+            }
+            Map<Integer, Integer> resultado = distancias;
+            return resultado.keySet().stream()
+                    .sorted(Comparator.<Integer>comparingInt(resultado::get)
+                            .thenComparing(slot -> nombres[slot])
+                            .thenComparingLong(slot -> ids[slot]))
+                    .mapToLong(slot -> ids[slot])
+                    .toArray();
+        }
+
+        // Los pasos del autómata por la arista que llega al nodo (su primera letra y el resto): fila de distancias
+        // de la palabra buscada contra el camino hasta cada letra
+        private static void buscar(ProductosTrieNodo nodo, char letra, String palabra, int[] anterior, int max,
+                                   Map<Integer, Integer> cercanos) {
+            int[] fila = paso(anterior, letra, palabra);
+            for (int j = 0; j < nodo.resto.length(); j++) {
+                // Si ya nos pasamos en todas las posiciones, por aquí no hay nada
+                if (minimo(fila) > max) {
+                    return;
+                }
+                fila = paso(fila, nodo.resto.charAt(j), palabra);
+            }
+            int distancia = fila[fila.length - 1];
+            if (distancia <= max) {
+                for (int i = 0; i < nodo.numSlots; i++) {
+                    cercanos.merge(nodo.slots[i], distancia, Math::min);
+                }
+            }
+            if (minimo(fila) <= max) {
+                for (int i = 0; i < nodo.letras.length; i++) {
+                    buscar(nodo.hijos[i], nodo.letras[i], palabra, fila, max, cercanos);
+                }
+            }
+        }
+
+        private static int[] paso(int[] anterior, char letra, String palabra) {
+            int[] fila = new int[anterior.length];
+            fila[0] = anterior[0] + 1;
+            for (int i = 1; i < fila.length; i++) {
+                int coste = palabra.charAt(i - 1) == letra ? 0 : 1;
+                fila[i] = Math.min(Math.min(fila[i - 1] + 1, anterior[i] + 1), anterior[i - 1] + coste);
+            }
+            return fila;
+        }
+
+        private static int minimo(int[] fila) {
+            int minimo = fila[0];
+            for (int distancia : fila) {
+                minimo = Math.min(minimo, distancia);
+            }
+            return minimo;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package es.joseluisgs.springdam.services.productos;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Base de los índices en memoria de productos. Cada índice guarda sus datos (D) y solo dice cómo se
+ * añade y se quita un producto; aquí está lo común: el bloqueo, la carga completa (ver ProductosIndices)
+ * y las escrituras que llegan mientras se carga, que se aplican también sobre los datos nuevos.
+ * Mientras no está cargado no contesta (null) y el servicio tira de SQL.
+ * <p>
+ * Cada producto tiene un hueco (ver ProductosSlots) compartido por todos los índices: lo que un índice necesita
+ * recordar de un producto (su precio, su nombre...) lo guarda en arrays por hueco, no en mapas por id.
+ *
+ * @param <D> Datos del índice
+ */
+public abstract class ProductosIndex<D> {
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private D datos = crear();
+    private List<Consumer<D>> pendientes;
+    private volatile boolean listo = false;
+    private ProductosSlots slots;
+
+    // Datos vacíos
+    protected abstract D crear();
+
+    // Añade o actualiza el producto del hueco. Lo que hubiese antes en el hueco es del mismo producto
+    protected abstract void put(D datos, int slot, ProductoDTO producto);
+
+    // Quita el producto del hueco, si está
+    protected abstract void remove(D datos, int slot, long id);
+
+    // Producto leído en la carga completa. Por defecto como cualquier otro, pero un índice puede ir
+    // acumulándolos y ordenarlos de una vez al final (cargado) en vez de colocarlos uno a uno
+    protected void cargar(D datos, int slot, ProductoDTO producto) {
+        put(datos, slot, producto);
+    }
+
+    // Fin de la carga completa, antes de aplicar las escrituras que han llegado mientras tanto
+    protected void cargado(D datos) {
+    }
+
+    // Añade o actualiza un producto
+    public void put(ProductoDTO producto) {
+        int slot = slots.slot(producto.getId());
+        write(d -> put(d, slot, producto));
+    }
+
+    // Quita un producto. Su hueco lo libera ProductosIndices cuando lo han quitado todos los índices
+    public void remove(Long id) {
+        int slot = slots.get(id);
+        if (slot >= 0) {
+            write(d -> remove(d, slot, id));
+        }
+    }
+
+    // Huecos de los productos, los pone ProductosIndices
+    void usar(ProductosSlots slots) {
+        this.slots = slots;
+    }
+
+    /**
+     * Hueco de un producto, para las consultas que parten de ids. El hueco puede haber pasado ya a otro producto
+     * (o no estar aún en estos datos): quien lo use tiene que comprobar que en sus datos el hueco es de ese id
+     *
+     * @param id Id del producto
+     * @return Hueco o -1 si no tiene
+     */
+    protected int slot(long id) {
+        return slots == null ? -1 : slots.get(id);
+    }
+
+    public boolean isListo() {
+        return listo;
+    }
+
+    /**
+     * Consulta sobre los datos del índice
+     *
+     * @param consulta Consulta
+     * @return Lo que devuelve la consulta o null si el índice no está cargado
+     */
+    protected <R> R read(Function<D, R> consulta) {
+        if (!listo) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            return listo ? consulta.apply(datos) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Cambio de los datos que no viene de una escritura de productos (por ejemplo completarlos con lo leído
+     * de la base de datos). No se aplica si el índice no está cargado ni se repite sobre una carga en curso,
+     * que ya lee todos los productos
+     *
+     * @param actualizacion Cambio
+     */
+    protected void actualizar(Consumer<D> actualizacion) {
+        lock.writeLock().lock();
+        try {
+            if (listo && pendientes == null) {
+                actualizacion.accept(datos);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void write(Consumer<D> escritura) {
+        lock.writeLock().lock();
+        try {
+            escritura.accept(datos);
+            if (pendientes != null) {
+                pendientes.add(escritura);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Empieza una carga completa: hasta que termine el índice no contesta
+    Carga cargar() {
+        lock.writeLock().lock();
+        try {
+            listo = false;
+            pendientes = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return new Carga(crear());
+    }
+
+    // Carga completa en curso: se añaden los productos leídos y al terminar sustituye a los datos anteriores
+    class Carga {
+        private final D nuevos;
+
+        private Carga(D nuevos) {
+            this.nuevos = nuevos;
+        }
+
+        void add(int slot, ProductoDTO producto) {
+            cargar(nuevos, slot, producto);
+        }
+
+        void terminar() {
+            cargado(nuevos);
+            lock.writeLock().lock();
+            try {
+                pendientes.forEach(escritura -> escritura.accept(nuevos));
+                pendientes = null;
+                datos = nuevos;
+                listo = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void cancelar() {
+            lock.writeLock().lock();
+            try {
+                pendientes = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+}
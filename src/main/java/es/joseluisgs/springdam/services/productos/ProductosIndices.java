@@ -0,0 +1,138 @@
+package es.joseluisgs.springdam.services.productos;
+
+import es.joseluisgs.springdam.dto.productos.ProductoCambioDTO;
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Todos los índices en memoria de productos (los ProductosIndex). Los carga al arrancar recorriendo
+ * la tabla una sola vez para todos y les pasa las escrituras de ProductosService (escucha su ProductoCambioDTO),
+ * así que las escrituras tienen que pasar por el servicio.
+ * <p>
+ * También lleva el hueco de cada producto en los índices (ProductosSlots), el único mapa por id que hay:
+ * lo comparten todos los índices.
+ */
+@Slf4j
+@Component
+public class ProductosIndices {
+    private final ProductosRepository productosRepository;
+    private final List<ProductosIndex<?>> indices;
+    private final boolean enabled;
+    private final ProductosSlots slots = new ProductosSlots();
+    // Para que una carga completa no se cruce con las escrituras al repartir y liberar los huecos
+    private final Object escrituras = new Object();
+    // Productos escritos durante la carga completa en curso (null si no hay ninguna)
+    private Set<Long> escritosEnCarga;
+
+    public ProductosIndices(ProductosRepository productosRepository, List<ProductosIndex<?>> indices,
+                            @Value("${productos.indices.enabled:true}") boolean enabled) {
+        this.productosRepository = productosRepository;
+        this.indices = indices;
+        this.enabled = enabled;
+        indices.forEach(indice -> indice.usar(slots));
+    }
+
+    /**
+     * Carga los índices con todos los productos de la base de datos. Se llama al arrancar y se puede
+     * volver a llamar si se han escrito productos sin pasar por ProductosService.
+     * Mientras se cargan, las búsquedas van por SQL
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void rebuild() {
+        if (!enabled) {
+            return;
+        }
+        List<ProductosIndex<?>.Carga> cargas = new ArrayList<>();
+        synchronized (escrituras) {
+            indices.forEach(indice -> cargas.add(indice.cargar()));
+            escritosEnCarga = new HashSet<>();
+        }
+        // Huecos de los productos leídos: los demás son de productos que ya no están
+        BitSet vistos = new BitSet();
+        int total = 0;
+        try (Stream<ProductoDTO> productos = productosRepository.streamDTO()) {
+            for (var it = productos.iterator(); it.hasNext(); ) {
+                ProductoDTO producto = it.next();
+                int slot;
+                synchronized (escrituras) {
+                    // Lo que se ha escrito mientras tanto manda (la lectura puede ser de antes): lo aplican
+                    // los índices al terminar, y si se ha borrado su hueco puede ser ya de otro producto
+                    if (escritosEnCarga.contains(producto.getId())) {
+                        continue;
+                    }
+                    slot = slots.slot(producto.getId());
+                }
+                vistos.set(slot);
+                cargas.forEach(carga -> carga.add(slot, producto));
+                total++;
+            }
+        } catch (RuntimeException e) {
+            // Sin índices todo sigue funcionando, solo que por SQL
+            log.warn("No se han podido cargar los índices de productos: " + e.getMessage());
+            synchronized (escrituras) {
+                cargas.forEach(ProductosIndex.Carga::cancelar);
+                escritosEnCarga = null;
+            }
+            return;
+        }
+        synchronized (escrituras) {
+            cargas.forEach(ProductosIndex.Carga::terminar);
+            escritosEnCarga.forEach(id -> {
+                int slot = slots.get(id);
+                if (slot >= 0) {
+                    vistos.set(slot);
+                }
+            });
+            slots.retener(vistos);
+            escritosEnCarga = null;
+        }
+        log.info("Índices de productos cargados: " + total + " productos");
+    }
+
+    // Escritura de ProductosService
+    @EventListener
+    @Order(0)
+    public void cambio(ProductoCambioDTO cambio) {
+        if (ProductoCambioDTO.BORRADO.equals(cambio.getTipo())) {
+            remove(cambio.getId());
+        } else {
+            put(cambio.getProducto());
+        }
+    }
+
+    // Producto insertado o actualizado
+    public void put(ProductoDTO dto) {
+        synchronized (escrituras) {
+            if (escritosEnCarga != null) {
+                escritosEnCarga.add(dto.getId());
+            }
+            indices.forEach(indice -> indice.put(dto));
+        }
+    }
+
+    // Producto borrado: su hueco queda libre cuando lo han quitado todos los índices
+    public void remove(Long id) {
+        synchronized (escrituras) {
+            if (escritosEnCarga != null) {
+                escritosEnCarga.add(id);
+            }
+            indices.forEach(indice -> indice.remove(id));
+            slots.free(id);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package es.joseluisgs.springdam.services.productos;
+
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.repositories.productos.ProductosCampos;
+import es.joseluisgs.springdam.services.productos.ProductosFragmentos.Fragmento;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.stereotype.Component;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializa los productos con solo los campos pedidos (fields=). Las vistas de Jackson (@JsonView) son
+ * conjuntos fijos de campos, así que para cualquier combinación usamos un filtro de propiedades.
+ * El filtro se pone en ProductoDTO con un mixin en una copia del ObjectMapper de Spring: el resto de
+ * respuestas no lo tienen y siguen saliendo con todos los campos.
+ * <p>
+ * Las respuestas que ya van serializadas (el listado, que se guarda en caché) no pasan por los conversores
+ * de Spring, así que el formato (JSON, CBOR o Smile, ver JacksonConfig) lo negociamos aquí con el Accept.
+ * En JSON con todos los campos, los productos de ProductosFragmentos se copian ya serializados.
+ */
+@Component
+public class ProductosJson {
+    public static final MediaType APPLICATION_SMILE = MediaType.valueOf("application/x-jackson-smile");
+
+    private static final String FILTRO = "productoCampos";
+
+    // Por formato, en orden de preferencia: el primero es el de por defecto
+    private final Map<MediaType, ObjectMapper> mappers = new LinkedHashMap<>();
+    private final Map<MediaType, ObjectMapper> filtrados = new LinkedHashMap<>();
+    // El de Spring, sin los fragmentos
+    private final ObjectMapper json;
+
+    public ProductosJson(ObjectMapper objectMapper, MappingJackson2CborHttpMessageConverter cbor,
+                         MappingJackson2SmileHttpMessageConverter smile) {
+        mappers.put(MediaType.APPLICATION_JSON, objectMapper);
+        mappers.put(MediaType.APPLICATION_CBOR, cbor.getObjectMapper());
+        mappers.put(APPLICATION_SMILE, smile.getObjectMapper());
+        mappers.forEach((formato, mapper) -> filtrados.put(formato, mapper.copy().addMixIn(ProductoDTO.class, CamposMixin.class)));
+        // Solo el JSON con todos los campos copia los fragmentos ya serializados (ver ProductosFragmentos)
+        mappers.put(MediaType.APPLICATION_JSON, objectMapper.copy()
+                .registerModule(new SimpleModule().addSerializer(Fragmento.class, new FragmentoSerializer())));
+        json = objectMapper;
+    }
+
+    /**
+     * JSON de un producto con todos los campos, para guardarlo en ProductosFragmentos
+     *
+     * @param producto Producto
+     * @return JSON en UTF-8 (ya calculado)
+     */
+    public SerializedString fragmento(ProductoDTO producto) {
+        try {
+            SerializedString fragmento = new SerializedString(json.writeValueAsString(producto));
+            fragmento.asUnquotedUTF8();
+            return fragmento;
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Error al serializar el producto", e);
+        }
+    }
+
+    /**
+     * Writer JSON para los productos, o para lo que los contenga (páginas, listas...)
+     *
+     * @param campos Campos de ProductoDTO a escribir
+     * @return Writer con todos los campos o solo con los pedidos
+     */
+    public ObjectWriter writer(ProductosCampos campos) {
+        return writer(campos, MediaType.APPLICATION_JSON);
+    }
+
+    /**
+     * Writer en un formato
+     *
+     * @param campos  Campos de ProductoDTO a escribir
+     * @param formato JSON, CBOR o Smile (ver formato)
+     * @return Writer con todos los campos o solo con los pedidos
+     */
+    public ObjectWriter writer(ProductosCampos campos, MediaType formato) {
+        if (campos.isTodos()) {
+            return mappers.get(formato).writer();
+        }
+        return filtrados.get(formato).writer(new SimpleFilterProvider()
+                .addFilter(FILTRO, SimpleBeanPropertyFilter.filterOutAllExcept(campos.getCampos())));
+    }
+
+    /**
+     * Formato de la respuesta según la cabecera Accept, como la negociación de contenido de Spring:
+     * el primer formato que acepta el cliente, por especificidad y calidad (q=)
+     *
+     * @param accept Cabecera Accept o null
+     * @return JSON, CBOR o Smile. JSON si no hay cabecera
+     * @throws HttpMediaTypeNotAcceptableException Si no acepta ninguno o la cabecera no es correcta (406, como
+     *                                             en el resto de respuestas)
+     */
+    public MediaType formato(String accept) throws HttpMediaTypeNotAcceptableException {
+        if (accept == null || accept.isBlank()) {
+            return MediaType.APPLICATION_JSON;
+        }
+        List<MediaType> aceptados;
+        try {
+            aceptados = MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            throw new HttpMediaTypeNotAcceptableException("Cabecera Accept incorrecta: " + e.getMessage());
+        }
+        MediaType.sortBySpecificityAndQuality(aceptados);
+        for (MediaType aceptado : aceptados) {
+            for (MediaType formato : mappers.keySet()) {
+                if (aceptado.isCompatibleWith(formato)) {
+                    return formato;
+                }
+            }
+        }
+        throw new HttpMediaTypeNotAcceptableException(new ArrayList<>(mappers.keySet()));
+    }
+
+    @JsonFilter(FILTRO)
+    private interface CamposMixin {
+    }
+
+    // Escribe los bytes del fragmento tal cual, sin pasar por las propiedades del producto
+    private static class FragmentoSerializer extends StdSerializer<Fragmento> {
+        private FragmentoSerializer() {
+            super(Fragmento.class);
+        }
+
+        @Override
+        public void serialize(Fragmento fragmento, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeRawValue(fragmento.json());
+        }
+    }
+}
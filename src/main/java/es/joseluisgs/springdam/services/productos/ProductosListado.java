@@ -0,0 +1,335 @@
+package es.joseluisgs.springdam.services.productos;
+
+import es.joseluisgs.springdam.dto.productos.ListProductoPageDTO;
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.models.Producto;
+import es.joseluisgs.springdam.repositories.productos.ProductosCampos;
+import es.joseluisgs.springdam.repositories.productos.ProductosCursor;
+import es.joseluisgs.springdam.repositories.productos.ProductosFiltro;
+import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import es.joseluisgs.springdam.repositories.productos.ProductosSpecifications;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cómo se saca cada página del listado de productos (ver ProductosService.listado): de los índices en memoria
+ * con el total exacto, con un Slice sin count, por cursor, de la búsqueda con errores o con la consulta paginada
+ * de siempre. También las búsquedas por nombre y por ids que usa el resto del servicio, que van por los mismos índices.
+ */
+@Component
+public class ProductosListado {
+    private static final ProductosCampos SOLO_ID = ProductosCampos.of("id");
+
+    private final ProductosRepository productosRepository;
+    private final ProductosCountCache productosCountCache;
+    private final ProductosNombreIndex productosNombreIndex;
+    private final ProductosFuzzyIndex productosFuzzyIndex;
+    private final ProductosPrecioIndex productosPrecioIndex;
+    private final ProductosBitmapIndex productosBitmapIndex;
+    private final ProductosOrdenIndex productosOrdenIndex;
+    private final ProductosFragmentos productosFragmentos;
+    // A partir de cuántos productos encontrados en el índice de nombres no merece la pena el IN y buscamos con LIKE
+    private final int maxIdsNombre;
+
+    public ProductosListado(ProductosRepository productosRepository, ProductosCountCache productosCountCache,
+                            ProductosNombreIndex productosNombreIndex, ProductosFuzzyIndex productosFuzzyIndex,
+                            ProductosPrecioIndex productosPrecioIndex, ProductosBitmapIndex productosBitmapIndex,
+                            ProductosOrdenIndex productosOrdenIndex, ProductosFragmentos productosFragmentos,
+                            @Value("${productos.nombre-index.max-ids:1000}") int maxIdsNombre) {
+        this.productosRepository = productosRepository;
+        this.productosCountCache = productosCountCache;
+        this.productosNombreIndex = productosNombreIndex;
+        this.productosFuzzyIndex = productosFuzzyIndex;
+        this.productosPrecioIndex = productosPrecioIndex;
+        this.productosBitmapIndex = productosBitmapIndex;
+        this.productosOrdenIndex = productosOrdenIndex;
+        this.productosFragmentos = productosFragmentos;
+        this.maxIdsNombre = maxIdsNombre;
+    }
+
+    /**
+     * Página del listado (los parámetros son los de ProductosService.listado)
+     *
+     * @param campos     Campos a leer (el resto queda a null)
+     * @param fragmentos Si los productos que salen por ids de los índices se buscan primero en ProductosFragmentos
+     * @return Página de productos
+     * @throws IllegalArgumentException Si algún parámetro no es correcto
+     */
+    public ListProductoPageDTO listado(ProductosFiltro filtro, int page, int size, String sort, String after, String count,
+                                      ProductosCampos campos, boolean fragmentos) {
+        if (filtro.isFuzzy() && filtro.getNombre() != null) {
+            long[] ids = productosFuzzyIndex.search(filtro.getNombre());
+            // Si el diccionario todavía no está cargado, la búsqueda normal
+            if (ids != null) {
+                return listadoFuzzy(filtro, ids, page, size, after, campos, fragmentos);
+            }
+        }
+        // Nombre, precio y stock se resuelven con los índices en memoria: candidatos y, si no se filtra por fecha
+        // ni por nombre (que decide el LIKE con la collation de la base de datos), total exacto
+        ProductosBitmap candidatos = null;
+        Long total = null;
+        if (!filtro.hasFiltros()) {
+            Integer todos = productosOrdenIndex.count();
+            total = todos != null ? todos.longValue() : null;
+        } else if (isSoloPrecio(filtro)) {
+            // El índice de precios lo cuenta con dos búsquedas binarias
+            Integer enRango = productosPrecioIndex.count(filtro.getPrecio(), filtro.getPrecioMax());
+            total = enRango != null ? enRango.longValue() : null;
+        }
+        if (filtro.hasFiltros() && !(isSoloPrecio(filtro) && sort.equals("precio"))) {
+            candidatos = productosBitmapIndex.filter(filtro);
+            if (candidatos != null && total == null && !filtro.hasFiltrosFecha() && filtro.getNombre() == null) {
+                total = (long) candidatos.cardinality();
+            }
+        }
+        long[] ids = candidatos != null && candidatos.cardinality() <= maxIdsNombre ? candidatos.toArray() : null;
+        Specification<Producto> spec = ProductosSpecifications.of(filtro, candidatos(filtro.getNombre(), ids));
+        if (after != null) {
+            return listadoCursor(spec, size, sort, after, campos);
+        }
+        Pageable paging = PageRequest.of(page, size, ProductosSpecifications.sort(sort));
+        if (total != null) {
+            return listadoIndices(filtro, candidatos, spec, paging, sort, total, count, campos, fragmentos);
+        }
+        if (!count.equals("true")) {
+            return listadoSlice(filtro, spec, paging, count, campos);
+        }
+        Page<ProductoDTO> pagedResult = productosRepository.findDTOPage(spec, paging, campos);
+        return ListProductoPageDTO.builder()
+                .data(pagedResult.getContent())
+                .totalPages(pagedResult.getTotalPages())
+                .totalElements(pagedResult.getTotalElements())
+                .currentPage(pagedResult.getNumber())
+                .hasNext(pagedResult.hasNext())
+                .sort(pagedResult.getSort().toString())
+                .build();
+    }
+
+    // Solo se filtra por precio
+    private static boolean isSoloPrecio(ProductosFiltro filtro) {
+        return filtro.getNombre() == null && filtro.hasFiltroPrecio() && !filtro.hasFiltrosStockOFecha();
+    }
+
+    /**
+     * Listado cuyo total exacto ya sabemos por los índices en memoria, así que no hace falta el count.
+     * Los ids de la página también salen de ellos y solo leemos sus productos por la clave primaria:
+     * si solo se filtra por precio y se ordena por precio, del índice de precios; si no, del orden
+     * precalculado del campo (ProductosOrdenIndex), entero o quedándonos con los candidatos.
+     * Por nombre la página la ordena la base de datos, con su collation (ver ProductosOrdenIndex).
+     */
+    private ListProductoPageDTO listadoIndices(ProductosFiltro filtro, ProductosBitmap candidatos, Specification<Producto> spec,
+                                              Pageable paging, String sort, long total, String count,
+                                              ProductosCampos campos, boolean fragmentos) {
+        long[] ids = null;
+        if (isSoloPrecio(filtro) && sort.equals("precio")) {
+            ids = productosPrecioIndex.ids(filtro.getPrecio(), filtro.getPrecioMax(), paging.getOffset(), paging.getPageSize());
+        } else if (candidatos != null || !filtro.hasFiltros()) {
+            ids = productosOrdenIndex.ids(sort, candidatos, paging.getOffset(), paging.getPageSize());
+        }
+        List<ProductoDTO> productos = ids != null
+                ? findDTOByIds(ids, campos, fragmentos)
+                : productosRepository.findDTOSlice(spec, paging, campos).getContent();
+        int totalPages = (int) Math.ceil((double) total / paging.getPageSize());
+        ListProductoPageDTO.ListProductoPageDTOBuilder listProductoPageDTO = ListProductoPageDTO.builder()
+                .data(productos)
+                .currentPage(paging.getPageNumber())
+                .hasNext(paging.getPageNumber() + 1 < totalPages)
+                .sort(paging.getSort().toString());
+        switch (count) {
+            case "false":
+                break;
+            case "true":
+            case "cached":
+                listProductoPageDTO.totalElements(total).totalPages(totalPages);
+                break;
+            default:
+                throw new IllegalArgumentException("Modo de count incorrecto: " + count);
+        }
+        return listProductoPageDTO.build();
+    }
+
+    /**
+     * Filtro por nombre (contiene, sin distinguir mayúsculas). Si el índice de trigramas puede contestar,
+     * la consulta va por la clave primaria con los ids que ha encontrado (o no se hace si no hay ninguno)
+     * y el LIKE se queda solo para comprobar esos pocos productos. El índice no distingue tildes, así que sus ids
+     * incluyen todos los que encuentra el LIKE con la collation de la base de datos y es el LIKE el que decide.
+     * Si no puede (texto corto, índice cargándose) o encuentra demasiados, el LIKE de siempre.
+     */
+    Specification<Producto> nombreContiene(String nombre) {
+        if (nombre == null) {
+            return null;
+        }
+        long[] ids = productosNombreIndex.search(nombre);
+        if (ids == null || ids.length > maxIdsNombre) {
+            return ProductosSpecifications.nombreContiene(nombre);
+        }
+        return ProductosSpecifications.idIn(ids).and(ProductosSpecifications.nombreContiene(nombre));
+    }
+
+    // Ids de los productos cuyo nombre contiene el texto según la base de datos: los candidatos del índice de nombres
+    // comprobados con el LIKE (solo se lee el id). null si el índice no puede contestar o encuentra demasiados
+    long[] idsNombre(String nombre) {
+        long[] ids = productosNombreIndex.search(nombre);
+        if (ids == null || ids.length > maxIdsNombre) {
+            return null;
+        }
+        if (ids.length == 0) {
+            return ids;
+        }
+        return productosRepository.findDTO(ProductosSpecifications.idIn(ids).and(ProductosSpecifications.nombreContiene(nombre)),
+                        Sort.unsorted(), SOLO_ID).stream()
+                .mapToLong(ProductoDTO::getId)
+                .sorted()
+                .toArray();
+    }
+
+    // Lo mismo en el listado con los ids que ha encontrado el índice de bitmaps (null si no ha podido contestar),
+    // que ya cumplen también los filtros de precio y stock
+    private Specification<Producto> candidatos(String nombre, long[] ids) {
+        Specification<Producto> like = nombre == null ? null : ProductosSpecifications.nombreContiene(nombre);
+        if (ids == null) {
+            return like;
+        }
+        return ProductosSpecifications.idIn(ids).and(like);
+    }
+
+    /**
+     * Listado sin count: Spring Data haría un SELECT count(*) por cada Page, que con filtros LIKE cuesta
+     * tanto como la propia consulta. Con un Slice solo pedimos una fila de más para saber si hay página siguiente.
+     * En modo cached el total sale de ProductosCountCache, que lo recalcula cada cierto tiempo por filtro.
+     * Solo se usa si los índices en memoria no saben el total exacto (ver listadoIndices).
+     */
+    private ListProductoPageDTO listadoSlice(ProductosFiltro filtro, Specification<Producto> spec, Pageable paging, String count,
+                                            ProductosCampos campos) {
+        Slice<ProductoDTO> slice = productosRepository.findDTOSlice(spec, paging, campos);
+        ListProductoPageDTO.ListProductoPageDTOBuilder listProductoPageDTO = ListProductoPageDTO.builder()
+                .data(slice.getContent())
+                .currentPage(slice.getNumber())
+                .hasNext(slice.hasNext())
+                .sort(slice.getSort().toString());
+        switch (count) {
+            case "false":
+                break;
+            case "cached":
+                long total = productosCountCache.count(filtro);
+                listProductoPageDTO.totalElements(total)
+                        .totalPages((int) Math.ceil((double) total / paging.getPageSize()));
+                break;
+            default:
+                throw new IllegalArgumentException("Modo de count incorrecto: " + count);
+        }
+        return listProductoPageDTO.build();
+    }
+
+    /**
+     * Listado de la búsqueda con errores: los ids ya vienen ordenados por parecido del diccionario en memoria,
+     * así que la página se corta aquí y de la base de datos solo leemos sus productos por la clave primaria.
+     * Si hay más filtros, se aplican en la base de datos sobre esos ids (por bloques, con IN) antes de paginar.
+     * El total es exacto y no necesita count.
+     */
+    private ListProductoPageDTO listadoFuzzy(ProductosFiltro filtro, long[] ids, int page, int size, String after,
+                                            ProductosCampos campos, boolean fragmentos) {
+        if (after != null) {
+            throw new IllegalArgumentException("La búsqueda con errores no admite paginación por cursor");
+        }
+        if (page < 0 || size < 1) {
+            throw new IllegalArgumentException("Página o tamaño de página incorrectos");
+        }
+        List<ProductoDTO> productos;
+        int total;
+        if (!filtro.hasFiltrosSinNombre()) {
+            // Solo el nombre: la página son los ids que tocan
+            total = ids.length;
+            int desde = (int) Math.min((long) page * size, total);
+            productos = findDTOByIds(Arrays.copyOfRange(ids, desde, Math.min(desde + size, total)), campos, fragmentos);
+        } else {
+            List<ProductoDTO> filtrados = findDTOByIds(ids, ProductosSpecifications.of(filtro, null), campos);
+            total = filtrados.size();
+            int desde = (int) Math.min((long) page * size, total);
+            productos = filtrados.subList(desde, Math.min(desde + size, total));
+        }
+        int totalPages = (int) Math.ceil((double) total / size);
+        return ListProductoPageDTO.builder()
+                .data(productos)
+                .currentPage(page)
+                .totalElements((long) total)
+                .totalPages(totalPages)
+                .hasNext(page + 1 < totalPages)
+                .sort("distancia: ASC,nombre: ASC,id: ASC")
+                .build();
+    }
+
+    // Productos con esos ids que cumplen los filtros (o todos si es null), en el mismo orden que los ids
+    private List<ProductoDTO> findDTOByIds(long[] ids, Specification<Producto> filtros, ProductosCampos campos) {
+        Map<Long, ProductoDTO> encontrados = findDTOMapByIds(ids, filtros, campos);
+        List<ProductoDTO> productos = new ArrayList<>(encontrados.size());
+        for (long id : ids) {
+            ProductoDTO producto = encontrados.get(id);
+            if (producto != null) {
+                productos.add(producto);
+            }
+        }
+        return productos;
+    }
+
+    // Los de esos ids sin más filtros, de ProductosFragmentos los que estén si se piden fragmentos
+    private List<ProductoDTO> findDTOByIds(long[] ids, ProductosCampos campos, boolean fragmentos) {
+        if (!fragmentos) {
+            return findDTOByIds(ids, null, campos);
+        }
+        return productosFragmentos.getAll(ids, faltan -> findDTOMapByIds(faltan, null, campos));
+    }
+
+    // Productos por id, con un IN de como mucho maxIdsNombre ids por consulta
+    Map<Long, ProductoDTO> findDTOMapByIds(long[] ids, Specification<Producto> filtros, ProductosCampos campos) {
+        Map<Long, ProductoDTO> encontrados = new HashMap<>();
+        for (int desde = 0; desde < ids.length; desde += maxIdsNombre) {
+            long[] bloque = Arrays.copyOfRange(ids, desde, Math.min(desde + maxIdsNombre, ids.length));
+            productosRepository.findDTO(ProductosSpecifications.idIn(bloque).and(filtros), Sort.unsorted(), campos)
+                    .forEach(p -> encontrados.put(p.getId(), p));
+        }
+        return encontrados;
+    }
+
+    /**
+     * Paginación por cursor (keyset): en vez de saltar page * size filas con OFFSET, pedimos las que van
+     * detrás del último producto devuelto y no contamos el total, así que todas las páginas cuestan igual.
+     * Pedimos una fila de más para saber si hay página siguiente.
+     */
+    private ListProductoPageDTO listadoCursor(Specification<Producto> spec, int size, String sort, String after,
+                                             ProductosCampos campos) {
+        if (size < 1) {
+            throw new IllegalArgumentException("El tamaño de página debe ser mayor o igual que 1");
+        }
+        ProductosCursor cursor = after.isEmpty() ? null : ProductosCursor.decode(after);
+        // El cursor manda sobre el parámetro sort, porque se generó con ese orden
+        String sortField = cursor != null ? cursor.getSort() : sort;
+        // El campo de ordenación hace falta para el siguiente cursor aunque no se haya pedido (no sale en el JSON)
+        List<ProductoDTO> productos = productosRepository.findDTO(
+                spec.and(ProductosSpecifications.after(cursor)), ProductosSpecifications.sort(sortField), size + 1,
+                campos.con(sortField));
+        String nextCursor = null;
+        if (productos.size() > size) {
+            productos = productos.subList(0, size);
+            nextCursor = ProductosCursor.of(sortField, productos.get(size - 1)).encode();
+        }
+        return ListProductoPageDTO.builder()
+                .data(productos)
+                .sort(sortField + ": ASC")
+                .hasNext(nextCursor != null)
+                .nextCursor(nextCursor)
+                .build();
+    }
+}
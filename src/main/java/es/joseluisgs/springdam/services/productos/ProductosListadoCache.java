@@ -0,0 +1,105 @@
+package es.joseluisgs.springdam.services.productos;
+
+import es.joseluisgs.springdam.dto.productos.ProductoCambioDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Caché de las respuestas del listado ya serializadas a JSON, por consulta normalizada.
+ * <p>
+ * No caduca por tiempo: cada escritura en productos sube la versión de la tabla y todas las páginas
+ * guardadas dejan de valer a la vez, así nunca devolvemos un listado anterior a una escritura.
+ * El límite es de bytes (lo que ocupa el JSON), no de páginas, porque una página de 1000 productos
+ * no ocupa lo mismo que una de 10. Cuando se pasa se van las usadas hace más tiempo (LRU).
+ */
+@Component
+public class ProductosListadoCache {
+    private final long maxBytes;
+    // En orden de acceso: la primera es la menos usada
+    private final LinkedHashMap<String, Pagina> paginas = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong version = new AtomicLong();
+    private long bytes = 0;
+
+    public ProductosListadoCache(@Value("${productos.listado-cache.max-bytes:8388608}") long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Respuesta guardada para la consulta o, si no está, la que devuelve loader (que se guarda)
+     *
+     * @param key    Consulta normalizada
+     * @param loader Hace la consulta y la serializa
+     * @return JSON de la respuesta
+     */
+    public byte[] get(String key, Supplier<byte[]> loader) {
+        long versionConsulta = version.get();
+        synchronized (paginas) {
+            Pagina pagina = paginas.get(key);
+            if (pagina != null && pagina.version == versionConsulta) {
+                return pagina.json;
+            }
+        }
+        byte[] json = loader.get();
+        // Las que no caben ni solas no se guardan, echarían a todas las demás
+        if (json.length <= maxBytes) {
+            synchronized (paginas) {
+                // Si ha habido una escritura mientras consultábamos, lo leído puede no estar ya bien
+                if (version.get() == versionConsulta) {
+                    Pagina anterior = paginas.put(key, new Pagina(versionConsulta, json));
+                    bytes += json.length - (anterior != null ? anterior.json.length : 0);
+                    evict();
+                }
+            }
+        }
+        return json;
+    }
+
+    // Nueva versión de la tabla de productos: ninguna página guardada vale ya
+    public void invalidate() {
+        synchronized (paginas) {
+            version.incrementAndGet();
+            paginas.clear();
+            bytes = 0;
+        }
+    }
+
+    // Escritura de ProductosService. Después de las cachés y los índices de productos (Order 0) y de los
+    // fragmentos (Order 1), de los que salen las páginas: una consulta que empiece tras la invalidación ya los ve actualizados
+    @EventListener
+    @Order(2)
+    public void cambio(ProductoCambioDTO cambio) {
+        invalidate();
+    }
+
+    // Bytes que ocupan las páginas guardadas
+    public long getBytes() {
+        synchronized (paginas) {
+            return bytes;
+        }
+    }
+
+    private void evict() {
+        Iterator<Pagina> it = paginas.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().json.length;
+            it.remove();
+        }
+    }
+
+    private static class Pagina {
+        private final long version;
+        private final byte[] json;
+
+        private Pagina(long version, byte[] json) {
+            this.version = version;
+            this.json = json;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package es.joseluisgs.springdam.services.productos;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Índice invertido de trigramas sobre el nombre de los productos para las búsquedas por nombre (contiene).
+ * Un lower(nombre) like '%x%' no puede usar ningún índice de la base de datos y recorre la tabla entera.
+ * Aquí guardamos, para cada trigrama (tres caracteres seguidos) de los nombres normalizados, los productos
+ * que lo tienen. Los productos que contienen un texto tienen todos sus trigramas, así que basta con cruzar
+ * esas listas y comprobar el nombre de los que quedan.
+ * <p>
+ * Lo cargan y lo mantienen al día ProductosIndices. Si el texto tiene menos de tres caracteres
+ * no contesta (null) y se busca con SQL como siempre.
+ * <p>
+ * Los nombres y el texto buscado se comparan sin mayúsculas ni tildes (ver normalizar), como la collation
+ * de MySQL en producción. Así los ids son siempre los que encontraría el LIKE de la base de datos o alguno
+ * más, nunca menos, y es el LIKE el que decide (ver ProductosService).
+ */
+@Component
+public class ProductosNombreIndex extends ProductosIndex<ProductosNombreIndex.Datos> {
+    private static final Pattern MARCAS = Pattern.compile("\\p{M}+");
+
+    /**
+     * Texto en minúsculas y sin tildes ni otras marcas (Café y CAFE quedan en cafe), como compara la
+     * collation de la base de datos. Lo usan todos los índices que buscan por el nombre
+     *
+     * @param texto Texto
+     * @return Texto normalizado
+     */
+    static String normalizar(String texto) {
+        String sinMarcas = MARCAS.matcher(Normalizer.normalize(texto, Normalizer.Form.NFD)).replaceAll("");
+        return sinMarcas.toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    protected Datos crear() {
+        return new Datos();
+    }
+
+    @Override
+    protected void put(Datos datos, int slot, ProductoDTO producto) {
+        datos.put(slot, producto.getId(), producto.getNombre());
+    }
+
+    @Override
+    protected void remove(Datos datos, int slot, long id) {
+        datos.remove(slot);
+    }
+
+    /**
+     * Ids de los productos cuyo nombre contiene el texto, sin distinguir mayúsculas ni tildes
+     *
+     * @param nombre Texto a buscar
+     * @return Ids ordenados de menor a mayor o null si el índice no puede contestar
+     */
+    public long[] search(String nombre) {
+        if (nombre == null) {
+            return null;
+        }
+        String texto = normalizar(nombre);
+        if (texto.length() < Datos.N) {
+            return null;
+        }
+        return read(datos -> datos.search(texto));
+    }
+
+    /**
+     * El índice en sí. Cada producto es un documento (doc) numerado según se añade, por eso las listas de
+     * cada trigrama están siempre ordenadas. Al actualizar o borrar un producto su doc se marca como
+     * borrado y cuando hay demasiados se compacta. El doc de cada producto está en un array por hueco
+     * (ver ProductosSlots).
+     */
+    static class Datos {
+        private static final int N = 3;
+
+        // Doc de cada hueco (-1 si no tiene) y hueco de cada doc
+        private int[] docs = new int[0];
+        private int[] slots = new int[1024];
+        private final Map<Long, Postings> trigramas = new HashMap<>();
+        private long[] ids = new long[1024];
+        private String[] nombres = new String[1024];
+        private final BitSet borrados = new BitSet();
+        private int numDocs = 0;
+
+        private void put(int slot, long id, String nombre) {
+            remove(slot);
+            if (nombre == null) {
+                return;
+            }
+            add(slot, id, normalizar(nombre));
+        }
+
+        private void add(int slot, long id, String texto) {
+            if (numDocs == ids.length) {
+                ids = Arrays.copyOf(ids, numDocs * 2);
+                nombres = Arrays.copyOf(nombres, numDocs * 2);
+                slots = Arrays.copyOf(slots, numDocs * 2);
+            }
+            int doc = numDocs++;
+            ids[doc] = id;
+            nombres[doc] = texto;
+            slots[doc] = slot;
+            docs = ProductosSlots.asegurar(docs, slot, -1);
+            docs[slot] = doc;
+            for (long trigrama : trigramas(texto)) {
+                trigramas.computeIfAbsent(trigrama, t -> new Postings()).add(doc);
+            }
+        }
+
+        private void remove(int slot) {
+            int doc = slot < docs.length ? docs[slot] : -1;
+            if (doc >= 0) {
+                docs[slot] = -1;
+                borrados.set(doc);
+                nombres[doc] = null;
+                // Si más de la mitad están borrados lo rehacemos solo con los que quedan
+                if (numDocs > 1024 && borrados.cardinality() > numDocs / 2) {
+                    compact();
+                }
+            }
+        }
+
+        private void compact() {
+            Datos nuevos = new Datos();
+            for (int doc = 0; doc < numDocs; doc++) {
+                if (!borrados.get(doc)) {
+                    nuevos.add(slots[doc], ids[doc], nombres[doc]);
+                }
+            }
+            docs = nuevos.docs;
+            slots = nuevos.slots;
+            trigramas.clear();
+            trigramas.putAll(nuevos.trigramas);
+            ids = nuevos.ids;
+            nombres = nuevos.nombres;
+            borrados.clear();
+            numDocs = nuevos.numDocs;
+        }
+
+        private long[] search(String texto) {
+            Set<Long> claves = trigramas(texto);
+            Postings[] listas = new Postings[claves.size()];
+            int i = 0;
+            for (long trigrama : claves) {
+                listas[i] = trigramas.get(trigrama);
+                if (listas[i] == null) {
+                    // Ningún nombre tiene ese trigrama
+                    return new long[0];
+                }
+                i++;
+            }
+            // Empezamos por la lista más corta, el resto solo se consultan con búsqueda binaria
+            Arrays.sort(listas, Comparator.comparingInt(p -> p.size));
+            long[] resultado = new long[Math.min(listas[0].size, 16)];
+            int total = 0;
+            for (int j = 0; j < listas[0].size; j++) {
+                int doc = listas[0].docs[j];
+                if (borrados.get(doc) || !contieneEnTodas(listas, doc) || !nombres[doc].contains(texto)) {
+                    continue;
+                }
+                if (total == resultado.length) {
+                    resultado = Arrays.copyOf(resultado, total * 2);
+                }
+                resultado[total++] = ids[doc];
+            }
+            resultado = Arrays.copyOf(resultado, total);
+            Arrays.sort(resultado);
+            return resultado;
+        }
+
+        private static boolean contieneEnTodas(Postings[] listas, int doc) {
+            for (int i = 1; i < listas.length; i++) {
+                if (Arrays.binarySearch(listas[i].docs, 0, listas[i].size, doc) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Trigramas distintos del texto, cada uno empaquetado en un long (16 bits por carácter)
+        private static Set<Long> trigramas(String texto) {
+            Set<Long> claves = new HashSet<>();
+            for (int i = 0; i + N <= texto.length(); i++) {
+                claves.add(((long) texto.charAt(i) << 32) | ((long) texto.charAt(i + 1) << 16) | texto.charAt(i + 2));
+            }
+            return claves;
+        }
+    }
+
+    // Lista de docs ordenada, en un array de int para no tener un Integer por cada entrada
+    private static class Postings {
+        private int[] docs = new int[4];
+        private int size = 0;
+
+        private void add(int doc) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package es.joseluisgs.springdam.services.productos;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.repositories.productos.ProductosSpecifications;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.function.LongToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Los productos ya ordenados por los campos por los que se puede ordenar el listado (id, precio, stock
+ * y createdAt, y después por id, como ProductosSpecifications.sort): un array de ids por campo.
+ * Una página de cualquier orden es un trozo de ese array y sus productos se leen por la clave primaria,
+ * así que las páginas profundas no obligan a la base de datos a ordenar todos los productos.
+ * <p>
+ * Cada escritura quita y vuelve a colocar el producto en cada orden con búsqueda binaria sobre sus claves, que
+ * se guardan junto a los ids y por hueco (ver ProductosSlots); en la carga completa se añaden todos y se ordenan
+ * una vez. Los nulos van primero, como los ordenan H2 y MySQL.
+ * <p>
+ * El nombre no está: la base de datos lo ordena según su collation (en MySQL sin distinguir mayúsculas ni acentos)
+ * y las páginas que salen por SQL (sin count, por cursor, mientras se carga el índice) tienen que seguir el mismo
+ * orden que las de aquí, o al cambiar de una a otra se saltarían o repetirían productos.
+ */
+@Component
+public class ProductosOrdenIndex extends ProductosIndex<ProductosOrdenIndex.Ordenes> {
+    // Con menos candidatos que size / POCOS los ordenamos; con más recorremos el orden completo
+    private static final int POCOS = 20;
+
+    // Ninguno en el hueco
+    private static final long NINGUNO = Long.MIN_VALUE;
+
+    // Clave por la que se ordena cada campo, un long que se compara como el campo (y después el id).
+    // Sin valor, la menor posible: los nulos van primero
+    private static final Map<String, ToLongFunction<ProductoDTO>> CLAVES = Map.of(
+            "id", ProductoDTO::getId,
+            "precio", producto -> clave(producto.getPrecio()),
+            "stock", producto -> producto.getStock() == null ? Long.MIN_VALUE : producto.getStock(),
+            "createdAt", producto -> clave(producto.getCreatedAt())
+    );
+
+    // Los bits de un double ordenados como el double (los negativos con los bits invertidos)
+    private static long clave(Double precio) {
+        if (precio == null) {
+            return Long.MIN_VALUE;
+        }
+        long bits = Double.doubleToLongBits(precio + 0.0);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    // En nanosegundos (UTC) para no guardar un LocalDateTime por producto
+    private static long clave(String createdAt) {
+        if (createdAt == null) {
+            return Long.MIN_VALUE;
+        }
+        LocalDateTime fecha = LocalDateTime.parse(createdAt);
+        return fecha.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + fecha.getNano();
+    }
+
+    @Override
+    protected Ordenes crear() {
+        return new Ordenes();
+    }
+
+    @Override
+    protected void put(Ordenes ordenes, int slot, ProductoDTO producto) {
+        ordenes.put(slot, producto);
+    }
+
+    @Override
+    protected void remove(Ordenes ordenes, int slot, long id) {
+        ordenes.remove(slot);
+    }
+
+    @Override
+    protected void cargar(Ordenes ordenes, int slot, ProductoDTO producto) {
+        ordenes.append(slot, producto);
+    }
+
+    @Override
+    protected void cargado(Ordenes ordenes) {
+        ordenes.sort();
+    }
+
+    /**
+     * Número de productos
+     *
+     * @return Número de productos o null si el índice no está cargado
+     */
+    public Integer count() {
+        return read(ordenes -> ordenes.size);
+    }
+
+    /**
+     * Ids de una página de productos en el orden del campo
+     *
+     * @param campo      Campo de ordenación (ver ProductosSpecifications.SORT_FIELDS)
+     * @param candidatos Productos de entre los que sacar la página o null para todos
+     * @param offset     Primer producto de la página
+     * @param limit      Tamaño de la página
+     * @return Ids en orden o null si el índice no está cargado o no tiene el orden del campo (nombre)
+     * @throws IllegalArgumentException Si no se puede ordenar por el campo
+     */
+    public long[] ids(String campo, ProductosBitmap candidatos, long offset, int limit) {
+        ProductosSpecifications.checkSort(campo);
+        if (!CLAVES.containsKey(campo)) {
+            return null;
+        }
+        return read(ordenes -> ordenes.ids(campo, candidatos, offset, limit, this::slot));
+    }
+
+    static class Ordenes {
+        // Id del producto de cada hueco (NINGUNO si no hay)
+        private long[] ids = new long[0];
+        private int size = 0;
+        private final Map<String, Orden> ordenes = new HashMap<>();
+
+        private Ordenes() {
+            CLAVES.forEach((campo, clave) -> ordenes.put(campo, new Orden(clave)));
+        }
+
+        private void put(int slot, ProductoDTO producto) {
+            remove(slot);
+            ids = ProductosSlots.asegurar(ids, slot, NINGUNO);
+            ids[slot] = producto.getId();
+            size++;
+            ordenes.values().forEach(orden -> orden.insert(slot, producto));
+        }
+
+        private void remove(int slot) {
+            if (slot < ids.length && ids[slot] != NINGUNO) {
+                long id = ids[slot];
+                ordenes.values().forEach(orden -> orden.remove(slot, id));
+                ids[slot] = NINGUNO;
+                size--;
+            }
+        }
+
+        // Sin ordenar, solo en la carga
+        private void append(int slot, ProductoDTO producto) {
+            ids = ProductosSlots.asegurar(ids, slot, NINGUNO);
+            ids[slot] = producto.getId();
+            size++;
+            ordenes.values().forEach(orden -> orden.append(slot, producto));
+        }
+
+        private void sort() {
+            ordenes.values().forEach(Orden::sort);
+        }
+
+        private long[] ids(String campo, ProductosBitmap candidatos, long offset, int limit, LongToIntFunction slotDe) {
+            Orden orden = ordenes.get(campo);
+            if (candidatos == null) {
+                int desde = (int) Math.min(offset, orden.size);
+                return Arrays.copyOfRange(orden.ids, desde, Math.min(desde + limit, orden.size));
+            }
+            if ((long) candidatos.cardinality() * POCOS < orden.size) {
+                // Pocos: los ordenamos a ellos por sus claves, que están en su hueco
+                int[] slots = Arrays.stream(candidatos.toArray())
+                        .mapToInt(id -> {
+                            int slot = slotDe.applyAsInt(id);
+                            return slot >= 0 && slot < ids.length && ids[slot] == id ? slot : -1;
+                        })
+                        .filter(slot -> slot >= 0)
+                        .toArray();
+                Integer[] seleccion = new Integer[slots.length];
+                for (int i = 0; i < slots.length; i++) {
+                    seleccion[i] = slots[i];
+                }
+                Arrays.sort(seleccion, Comparator.<Integer>comparingLong(slot -> orden.porSlot[slot]).thenComparingLong(slot -> ids[slot]));
+                int desde = (int) Math.min(offset, seleccion.length);
+                return Arrays.stream(seleccion, desde, Math.min(desde + limit, seleccion.length)).mapToLong(slot -> ids[slot]).toArray();
+            }
+            // Muchos: recorremos el orden quedándonos con los que están entre los candidatos
+            long[] pagina = new long[limit];
+            int n = 0;
+            long saltados = 0;
+            for (int i = 0; i < orden.size && n < limit; i++) {
+                if (candidatos.contains(orden.ids[i]) && saltados++ >= offset) {
+                    pagina[n++] = orden.ids[i];
+                }
+            }
+            return Arrays.copyOf(pagina, n);
+        }
+    }
+
+    // Ids ordenados por un campo: arrays paralelos de primitivos (clave e id) ordenados por clave y después por id
+    private static class Orden {
+        private final ToLongFunction<ProductoDTO> clave;
+        // Clave de cada producto por hueco, para encontrarlo al quitarlo
+        private long[] porSlot = new long[0];
+        private long[] claves = new long[1024];
+        private long[] ids = new long[1024];
+        private int size = 0;
+
+        private Orden(ToLongFunction<ProductoDTO> clave) {
+            this.clave = clave;
+        }
+
+        private void insert(int slot, ProductoDTO producto) {
+            crecer(slot);
+            long nueva = clave.applyAsLong(producto);
+            int pos = posicion(nueva, producto.getId());
+            System.arraycopy(claves, pos, claves, pos + 1, size - pos);
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            claves[pos] = nueva;
+            ids[pos] = producto.getId();
+            porSlot[slot] = nueva;
+            size++;
+        }
+
+        private void remove(int slot, long id) {
+            int pos = posicion(porSlot[slot], id);
+            if (pos < size && ids[pos] == id) {
+                System.arraycopy(claves, pos + 1, claves, pos, size - pos - 1);
+                System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+                size--;
+            }
+        }
+
+        // Sin ordenar, solo en la carga
+        private void append(int slot, ProductoDTO producto) {
+            crecer(slot);
+            porSlot[slot] = clave.applyAsLong(producto);
+            claves[size] = porSlot[slot];
+            ids[size] = producto.getId();
+            size++;
+        }
+
+        private void sort() {
+            Integer[] orden = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                orden[i] = i;
+            }
+            Arrays.sort(orden, Comparator.<Integer>comparingLong(i -> claves[i]).thenComparingLong(i -> ids[i]));
+            long[] nuevasClaves = new long[claves.length];
+            long[] nuevosIds = new long[ids.length];
+            for (int i = 0; i < size; i++) {
+                nuevasClaves[i] = claves[orden[i]];
+                nuevosIds[i] = ids[orden[i]];
+            }
+            claves = nuevasClaves;
+            ids = nuevosIds;
+        }
+
+        private void crecer(int slot) {
+            porSlot = ProductosSlots.asegurar(porSlot, slot, NINGUNO);
+            if (size == ids.length) {
+                claves = Arrays.copyOf(claves, size * 2);
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+        }
+
+        // Primera posición con (clave, id) mayor o igual que el dado
+        private int posicion(long buscada, long id) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (claves[mid] < buscada || (claves[mid] == buscada && ids[mid] < id)) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package es.joseluisgs.springdam.services.productos;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Índice de precios: dos arrays paralelos de primitivos (precio e id) ordenados por precio y después por id,
+ * que es justo el orden del listado con sort=precio. Un rango de precios [min, max] son dos búsquedas
+ * binarias, así que sabemos cuántos productos hay en el rango y cuáles son los de cualquier página
+ * sin ir a la base de datos.
+ * <p>
+ * Cada escritura coloca o quita el producto en su sitio desplazando el resto (System.arraycopy); en la carga
+ * completa se añaden todos al final y se ordenan una vez. Para quitar un producto se busca su (precio, id):
+ * el precio de cada producto está en un array por hueco (ver ProductosSlots).
+ */
+@Component
+public class ProductosPrecioIndex extends ProductosIndex<ProductosPrecioIndex.Precios> {
+
+    @Override
+    protected Precios crear() {
+        return new Precios();
+    }
+
+    @Override
+    protected void put(Precios precios, int slot, ProductoDTO producto) {
+        precios.put(slot, producto.getId(), producto.getPrecio());
+    }
+
+    @Override
+    protected void remove(Precios precios, int slot, long id) {
+        precios.remove(slot, id);
+    }
+
+    @Override
+    protected void cargar(Precios precios, int slot, ProductoDTO producto) {
+        precios.append(slot, producto.getId(), producto.getPrecio());
+    }
+
+    @Override
+    protected void cargado(Precios precios) {
+        precios.sort();
+    }
+
+    /**
+     * Número de productos con el precio en el rango
+     *
+     * @param min Precio mínimo (incluido) o null
+     * @param max Precio máximo (incluido) o null
+     * @return Número de productos o null si el índice no está cargado
+     */
+    public Integer count(Double min, Double max) {
+        return read(precios -> Math.max(0, precios.hasta(max) - precios.desde(min)));
+    }
+
+    /**
+     * Ids de una página de los productos con el precio en el rango, en orden de precio y de id
+     *
+     * @param min    Precio mínimo (incluido) o null
+     * @param max    Precio máximo (incluido) o null
+     * @param offset Primer producto de la página
+     * @param limit  Tamaño de la página
+     * @return Ids o null si el índice no está cargado
+     */
+    public long[] ids(Double min, Double max, long offset, int limit) {
+        return read(precios -> {
+            int desde = (int) Math.min(precios.desde(min) + offset, Integer.MAX_VALUE);
+            int hasta = Math.min(precios.hasta(max), (int) Math.min((long) desde + limit, Integer.MAX_VALUE));
+            return desde >= hasta ? new long[0] : Arrays.copyOfRange(precios.ids, desde, hasta);
+        });
+    }
+
+    static class Precios {
+        private double[] precios = new double[1024];
+        private long[] ids = new long[1024];
+        private int size = 0;
+        // Precio de cada producto por hueco (NaN si no está), para encontrarlo al quitarlo
+        private double[] precioDe = new double[0];
+
+        private void put(int slot, long id, Double precio) {
+            remove(slot, id);
+            if (precio == null) {
+                return;
+            }
+            crecer(slot);
+            int pos = posicion(precio, id);
+            System.arraycopy(precios, pos, precios, pos + 1, size - pos);
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            precios[pos] = precio;
+            ids[pos] = id;
+            size++;
+            precioDe[slot] = precio;
+        }
+
+        private void remove(int slot, long id) {
+            if (slot >= precioDe.length || Double.isNaN(precioDe[slot])) {
+                return;
+            }
+            int pos = posicion(precioDe[slot], id);
+            System.arraycopy(precios, pos + 1, precios, pos, size - pos - 1);
+            System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+            size--;
+            precioDe[slot] = Double.NaN;
+        }
+
+        // Sin ordenar, solo en la carga
+        private void append(int slot, long id, Double precio) {
+            if (precio == null) {
+                return;
+            }
+            crecer(slot);
+            precios[size] = precio;
+            ids[size] = id;
+            size++;
+            precioDe[slot] = precio;
+        }
+
+        private void sort() {
+            Integer[] orden = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                orden[i] = i;
+            }
+            Arrays.sort(orden, Comparator.<Integer>comparingDouble(i -> precios[i]).thenComparingLong(i -> ids[i]));
+            double[] nuevosPrecios = new double[precios.length];
+            long[] nuevosIds = new long[ids.length];
+            for (int i = 0; i < size; i++) {
+                nuevosPrecios[i] = precios[orden[i]];
+                nuevosIds[i] = ids[orden[i]];
+            }
+            precios = nuevosPrecios;
+            ids = nuevosIds;
+        }
+
+        private void crecer(int slot) {
+            precioDe = ProductosSlots.asegurar(precioDe, slot, Double.NaN);
+            if (size == precios.length) {
+                precios = Arrays.copyOf(precios, size * 2);
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+        }
+
+        // Primera posición con (precio, id) mayor o igual que el dado
+        private int posicion(double precio, long id) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = Double.compare(precios[mid], precio);
+                if (cmp < 0 || (cmp == 0 && ids[mid] < id)) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        // Primera posición con precio >= min
+        private int desde(Double min) {
+            return min == null ? 0 : posicion(min, Long.MIN_VALUE);
+        }
+
+        // Primera posición con precio > max
+        private int hasta(Double max) {
+            if (max == null) {
+                return size;
+            }
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (Double.compare(precios[mid], max) <= 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+}
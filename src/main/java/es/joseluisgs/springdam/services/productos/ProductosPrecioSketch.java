@@ -0,0 +1,152 @@
+package es.joseluisgs.springdam.services.productos;
+
+import java.util.Arrays;
+
+/**
+ * Resumen de una distribución de precios para calcular percentiles sin guardar los precios (al estilo de DDSketch).
+ * Los precios se cuentan en cajas de tamaño creciente: la caja i tiene los precios entre gamma^(i-1) y gamma^i,
+ * así que cualquier percentil sale con un error relativo de como mucho ERROR (un 1 %) y de 1 céntimo a un millón
+ * hay menos de 1.000 cajas. A diferencia de t-digest o KLL, quitar un precio es restar uno a su caja,
+ * que es lo que necesitamos cuando se borra o se cambia un producto. Dos resúmenes se juntan sumando cajas.
+ * <p>
+ * Los precios menores o iguales que MINIMO (y los negativos) van a una caja aparte.
+ * No es thread-safe: lo protege el índice que lo usa (ver ProductosPrecioSketches).
+ */
+public class ProductosPrecioSketch {
+    public static final double ERROR = 0.01;
+    private static final double GAMMA = (1 + ERROR) / (1 - ERROR);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    private static final double MINIMO = 0.001;
+
+    private long ceros = 0;
+    // Cajas de la offset a la offset + cajas.length - 1
+    private long[] cajas = new long[0];
+    private int offset = 0;
+    private long count = 0;
+
+    public void add(double precio) {
+        if (precio <= MINIMO) {
+            ceros++;
+        } else {
+            int i = caja(precio);
+            crecer(i);
+            cajas[i - offset]++;
+        }
+        count++;
+    }
+
+    // Quita un precio que se añadió antes
+    public void remove(double precio) {
+        if (precio <= MINIMO) {
+            if (ceros > 0) {
+                ceros--;
+                count--;
+            }
+            return;
+        }
+        int i = caja(precio) - offset;
+        if (i >= 0 && i < cajas.length && cajas[i] > 0) {
+            cajas[i]--;
+            count--;
+        }
+    }
+
+    public long count() {
+        return count;
+    }
+
+    // Suma este resumen con otro, en uno nuevo
+    public ProductosPrecioSketch merge(ProductosPrecioSketch otro) {
+        ProductosPrecioSketch resultado = new ProductosPrecioSketch();
+        resultado.add(this);
+        resultado.add(otro);
+        return resultado;
+    }
+
+    private void add(ProductosPrecioSketch otro) {
+        ceros += otro.ceros;
+        count += otro.count;
+        if (otro.cajas.length > 0) {
+            crecer(otro.offset);
+            crecer(otro.offset + otro.cajas.length - 1);
+            for (int i = 0; i < otro.cajas.length; i++) {
+                cajas[otro.offset + i - offset] += otro.cajas[i];
+            }
+        }
+    }
+
+    /**
+     * Percentil aproximado
+     *
+     * @param q Entre 0 y 1 (0.5 es la mediana)
+     * @return Precio o null si no hay ninguno
+     */
+    public Double quantile(double q) {
+        if (count == 0) {
+            return null;
+        }
+        // Posición (empezando en 0) del precio que buscamos entre todos ordenados
+        long rango = (long) Math.floor(q * (count - 1));
+        long acumulado = ceros;
+        if (rango < acumulado) {
+            return 0.0;
+        }
+        for (int i = 0; i < cajas.length; i++) {
+            acumulado += cajas[i];
+            if (rango < acumulado) {
+                return valor(i + offset);
+            }
+        }
+        return valor(offset + cajas.length - 1);
+    }
+
+    /**
+     * Número aproximado de precios en [desde, hasta): se cuentan las cajas cuyo valor está en el rango
+     *
+     * @param desde Límite inferior o null
+     * @param hasta Límite superior o null
+     * @return Número de precios
+     */
+    public long count(Double desde, Double hasta) {
+        long total = (desde == null || desde <= 0) && (hasta == null || hasta > 0) ? ceros : 0;
+        for (int i = 0; i < cajas.length; i++) {
+            double valor = valor(i + offset);
+            if ((desde == null || valor >= desde) && (hasta == null || valor < hasta)) {
+                total += cajas[i];
+            }
+        }
+        return total;
+    }
+
+    // Memoria aproximada en bytes
+    public long memoria() {
+        return 16 + 8 + 16 + cajas.length * 8L + 4 + 8;
+    }
+
+    private static int caja(double precio) {
+        return (int) Math.ceil(Math.log(precio) / LOG_GAMMA);
+    }
+
+    // Valor de la caja: el que está a la misma distancia relativa de sus dos extremos
+    private static double valor(int caja) {
+        return 2 * Math.pow(GAMMA, caja) / (GAMMA + 1);
+    }
+
+    // Amplía las cajas para que quepa la i
+    private void crecer(int i) {
+        if (cajas.length == 0) {
+            cajas = new long[8];
+            offset = i - 4;
+            return;
+        }
+        if (i < offset) {
+            int nuevas = Math.max(offset - i, cajas.length);
+            long[] ampliadas = new long[cajas.length + nuevas];
+            System.arraycopy(cajas, 0, ampliadas, nuevas, cajas.length);
+            cajas = ampliadas;
+            offset -= nuevas;
+        } else if (i >= offset + cajas.length) {
+            cajas = Arrays.copyOf(cajas, Math.max(i - offset + 1, cajas.length * 2));
+        }
+    }
+}
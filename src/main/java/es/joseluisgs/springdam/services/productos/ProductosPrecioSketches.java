@@ -0,0 +1,68 @@
+package es.joseluisgs.springdam.services.productos;
+
+import java.util.*;
+
+/**
+ * Resúmenes de la distribución de precios (ver ProductosPrecioSketch): uno de todos los productos y uno por cada
+ * palabra de los nombres, para preguntar por los percentiles de precio de los productos que tienen una palabra
+ * ("vino") sin recorrer la tabla. Los resúmenes de palabras distintas no se pueden juntar para buscar por varias:
+ * un producto con las dos contaría dos veces.
+ * <p>
+ * Solo cuentan las palabras de al menos MIN_PALABRA letras (sin números, que en los nombres suelen ser
+ * referencias y harían un resumen por producto). Cada resumen ocupa como mucho unos pocos KB, así que la memoria
+ * depende del vocabulario, no del número de productos: el precio y el nombre anteriores de cada producto, que hacen
+ * falta para quitarlo, no se guardan aquí sino que los pasa ProductosStatsIndex, que ya los tiene.
+ * No es thread-safe: lo protege ProductosStatsIndex.
+ */
+public class ProductosPrecioSketches {
+    private static final int MIN_PALABRA = 3;
+
+    private final ProductosPrecioSketch todos = new ProductosPrecioSketch();
+    private final Map<String, ProductosPrecioSketch> porPalabra = new HashMap<>();
+
+    // Palabras del nombre sin mayúsculas ni tildes (ProductosNombreIndex.normalizar) que tienen resumen
+    public static Set<String> palabras(String nombre) {
+        Set<String> palabras = new HashSet<>();
+        if (nombre != null) {
+            for (String palabra : ProductosNombreIndex.normalizar(nombre).split("[^\\p{L}]+")) {
+                if (palabra.length() >= MIN_PALABRA) {
+                    palabras.add(palabra);
+                }
+            }
+        }
+        return palabras;
+    }
+
+    // Producto con precio
+    void add(double precio, String nombre) {
+        todos.add(precio);
+        for (String palabra : palabras(nombre)) {
+            porPalabra.computeIfAbsent(palabra, p -> new ProductosPrecioSketch()).add(precio);
+        }
+    }
+
+    // Quita un producto con el precio y el nombre con los que se añadió
+    void remove(double precio, String nombre) {
+        todos.remove(precio);
+        for (String palabra : palabras(nombre)) {
+            ProductosPrecioSketch sketch = porPalabra.get(palabra);
+            if (sketch != null) {
+                sketch.remove(precio);
+                if (sketch.count() == 0) {
+                    porPalabra.remove(palabra);
+                }
+            }
+        }
+    }
+
+    /**
+     * Resumen de los precios de los productos que tienen la palabra
+     *
+     * @param palabra Palabra del nombre normalizada (ver palabras) o null para todos los productos
+     * @return Copia del resumen, para usarla fuera del bloqueo
+     */
+    ProductosPrecioSketch sketch(String palabra) {
+        ProductosPrecioSketch sketch = palabra == null ? todos : porPalabra.get(palabra);
+        return new ProductosPrecioSketch().merge(sketch != null ? sketch : new ProductosPrecioSketch());
+    }
+}
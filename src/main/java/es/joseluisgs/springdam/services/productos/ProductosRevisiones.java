@@ -0,0 +1,236 @@
+package es.joseluisgs.springdam.services.productos;
+
+import es.joseluisgs.springdam.models.RevisionProductos;
+import es.joseluisgs.springdam.repositories.productos.ProductosBorradosRepository;
+import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import es.joseluisgs.springdam.repositories.productos.RevisionProductosRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * Revisiones de los productos para la sincronización de los clientes (GET /rest/productos/sync): un número que
+ * crece con cada escritura de ProductosService y se guarda en el producto o en la marca de su borrado
+ * (ProductoBorrado). Un cliente pide lo escrito después de la última revisión que tiene.
+ * <p>
+ * Las revisiones salen de la base de datos (RevisionProductos): cada escritura bloquea la fila del contador,
+ * la incrementa y escribe en la misma transacción, así que aunque haya varias instancias de la aplicación las
+ * revisiones no se repiten y se confirman en su orden: un cliente que ya ha leído hasta la r no se puede perder
+ * una menor que se confirme después. Las columnas de revision son únicas, si alguna se repitiese la escritura falla.
+ * La primera vez el contador empieza en la mayor revisión que haya en la base de datos.
+ * <p>
+ * El bloqueo de la fila hace que las escrituras de productos vayan de una en una en todas las instancias.
+ * Dentro de una instancia además se toma un bloqueo propio, y los dos solo mientras se reserva la revisión y se
+ * confirma la escritura. Lo que hay que hacer después con lo escrito (ver confirmada: avisar a las cachés y a los
+ * índices en memoria) va a una cola en el orden en que se confirman y se hace ya sin los bloqueos, de uno en uno
+ * y en ese orden, así que los índices reciben las escrituras en orden sin que la siguiente tenga que esperar por
+ * ellos. Los índices de cada instancia solo ven sus propias escrituras: con varias instancias hay que recargarlos
+ * (ProductosIndices.rebuild) para ver las de las demás.
+ * <p>
+ * Las marcas de borrado no se guardan para siempre: pasados retencionBorrados días se quitan (podarBorrados,
+ * cada hora) y el contador recuerda la mayor revisión quitada (borradosHasta). Un cliente que no se ha
+ * sincronizado desde antes tiene que volver a empezar (ver ProductosService.sync).
+ */
+@Slf4j
+@Component
+public class ProductosRevisiones {
+    private static final long PERIODO_PODA_HORAS = 1;
+
+    private final ProductosRepository productosRepository;
+    private final ProductosBorradosRepository productosBorradosRepository;
+    private final RevisionProductosRepository revisionProductosRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Lo que falta por hacer de las escrituras confirmadas, en el orden en que se han confirmado (con lock)
+    private final Queue<Runnable> confirmadas = new ArrayDeque<>();
+    // Quien vacía la cola: de uno en uno para que no se adelanten
+    private final Object avisos = new Object();
+    // Días que se guardan las marcas de borrado (0 o menos: siempre)
+    private final int retencionBorrados;
+    private final ScheduledExecutorService poda;
+    // Si ya sabemos que existe la fila del contador
+    private boolean contador = false;
+
+    public ProductosRevisiones(ProductosRepository productosRepository, ProductosBorradosRepository productosBorradosRepository,
+                               RevisionProductosRepository revisionProductosRepository, TransactionTemplate transactionTemplate,
+                               @Value("${productos.sync.retencion-borrados:30}") int retencionBorrados) {
+        this.productosRepository = productosRepository;
+        this.productosBorradosRepository = productosBorradosRepository;
+        this.revisionProductosRepository = revisionProductosRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.retencionBorrados = retencionBorrados;
+        this.poda = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, "poda-borrados");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+    }
+
+    // La poda empieza cuando la aplicación ya está arrancada (con las tablas creadas)
+    @EventListener(ApplicationReadyEvent.class)
+    public void arrancar() {
+        if (retencionBorrados > 0) {
+            poda.scheduleWithFixedDelay(() -> {
+                try {
+                    podarBorrados();
+                } catch (RuntimeException e) {
+                    log.warn("No se han podido quitar las marcas de borrado antiguas: " + e.getMessage());
+                }
+            }, PERIODO_PODA_HORAS, PERIODO_PODA_HORAS, TimeUnit.HOURS);
+        }
+    }
+
+    @PreDestroy
+    public void cerrar() {
+        poda.shutdownNow();
+    }
+
+    /**
+     * Hace una escritura con la siguiente revisión sin nada que hacer después (ver escribir)
+     *
+     * @param escritura Escritura, recibe la revisión
+     * @return Lo que devuelve la escritura
+     */
+    public <T> T escribir(LongFunction<T> escritura) {
+        return escribir(escritura, resultado -> {
+        });
+    }
+
+    /**
+     * Hace una escritura con la siguiente revisión, en una transacción con el contador de revisiones
+     *
+     * @param escritura  Escritura, recibe la revisión
+     * @param confirmada Lo que hay que hacer con lo escrito una vez confirmado (actualizar los índices en memoria...),
+     *                   en el orden de las revisiones. Cuando escribir termina ya está hecho
+     * @return Lo que devuelve la escritura
+     */
+    public <T> T escribir(LongFunction<T> escritura, Consumer<T> confirmada) {
+        T resultado;
+        lock.lock();
+        try {
+            crearContador();
+            // Si falla no se ha confirmado nada, tampoco el contador, y la revisión se vuelve a usar
+            resultado = transactionTemplate.execute(status -> escritura.apply(siguiente()));
+            confirmadas.add(() -> confirmada.accept(resultado));
+        } finally {
+            lock.unlock();
+        }
+        avisar();
+        return resultado;
+    }
+
+    /**
+     * Quita las marcas de borrado de hace más de retencionBorrados días y apunta en el contador la mayor revisión
+     * quitada (borradosHasta), en la misma transacción. Se hace cada hora; también se puede llamar a mano
+     */
+    public void podarBorrados() {
+        if (retencionBorrados <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            crearContador();
+        } finally {
+            lock.unlock();
+        }
+        LocalDateTime limite = LocalDateTime.now().minusDays(retencionBorrados);
+        transactionTemplate.executeWithoutResult(status -> {
+            Long hasta = productosBorradosRepository.maxRevisionAntesDe(limite);
+            if (hasta == null) {
+                return;
+            }
+            // Con la fila bloqueada, como las escrituras: la marca y borradosHasta cambian a la vez para todos
+            RevisionProductos revision = revisionProductosRepository.findForUpdateById(RevisionProductos.ID)
+                    .orElseThrow(() -> new IllegalStateException("No existe el contador de revisiones de productos"));
+            int quitadas = productosBorradosRepository.deleteHastaRevision(hasta);
+            revision.setBorradosHasta(Math.max(valor(revision.getBorradosHasta()), hasta));
+            log.info("Marcas de borrado quitadas: " + quitadas + " (hasta la revisión " + hasta + ")");
+        });
+    }
+
+    /**
+     * Última revisión confirmada
+     *
+     * @return Revisión o 0 si todavía no hay ninguna
+     */
+    public long ultima() {
+        return revisionProductosRepository.findById(RevisionProductos.ID)
+                .map(revision -> valor(revision.getUltima()))
+                .orElseGet(() -> Math.max(valor(productosRepository.maxRevision()), valor(productosBorradosRepository.maxRevision())));
+    }
+
+    /**
+     * Mayor revisión cuyas marcas de borrado ya se han quitado (ver podarBorrados)
+     *
+     * @return Revisión o 0 si no se ha quitado ninguna
+     */
+    public long borradosHasta() {
+        return revisionProductosRepository.findById(RevisionProductos.ID)
+                .map(revision -> valor(revision.getBorradosHasta()))
+                .orElse(0L);
+    }
+
+    // Hace lo pendiente de las escrituras confirmadas, en orden. Un fallo no impide avisar de las siguientes
+    private void avisar() {
+        synchronized (avisos) {
+            for (Runnable aviso = siguienteAviso(); aviso != null; aviso = siguienteAviso()) {
+                try {
+                    aviso.run();
+                } catch (RuntimeException e) {
+                    log.warn("Error al avisar de una escritura de productos: " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private Runnable siguienteAviso() {
+        lock.lock();
+        try {
+            return confirmadas.poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Dentro de la transacción de la escritura: la fila queda bloqueada hasta que se confirme
+    private long siguiente() {
+        RevisionProductos revision = revisionProductosRepository.findForUpdateById(RevisionProductos.ID)
+                .orElseThrow(() -> new IllegalStateException("No existe el contador de revisiones de productos"));
+        revision.setUltima(revision.getUltima() + 1);
+        return revision.getUltima();
+    }
+
+    private void crearContador() {
+        if (contador || revisionProductosRepository.existsById(RevisionProductos.ID)) {
+            contador = true;
+            return;
+        }
+        long ultima = Math.max(valor(productosRepository.maxRevision()), valor(productosBorradosRepository.maxRevision()));
+        try {
+            transactionTemplate.execute(status ->
+                    revisionProductosRepository.saveAndFlush(new RevisionProductos(RevisionProductos.ID, ultima, 0L)));
+        } catch (DataIntegrityViolationException e) {
+            // La ha creado otra instancia a la vez
+        }
+        contador = true;
+    }
+
+    private static long valor(Long revision) {
+        return revision == null ? 0 : revision;
+    }
+}
@@ -0,0 +1,640 @@
+package es.joseluisgs.springdam.services.productos;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import es.joseluisgs.springdam.dto.productos.ListProductoPageDTO;
+import es.joseluisgs.springdam.dto.productos.ProductoBatchDTO;
+import es.joseluisgs.springdam.dto.productos.ProductoCambioDTO;
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.dto.productos.ProductoSuggestDTO;
+import es.joseluisgs.springdam.dto.productos.ProductosBitmapIndexStatsDTO;
+import es.joseluisgs.springdam.dto.productos.ProductosCacheStatsDTO;
+import es.joseluisgs.springdam.dto.productos.ProductosPrecioQuantilesDTO;
+import es.joseluisgs.springdam.dto.productos.ProductosRangoDTO;
+import es.joseluisgs.springdam.dto.productos.ProductosStatsDTO;
+import es.joseluisgs.springdam.dto.productos.ProductosSyncDTO;
+import es.joseluisgs.springdam.models.Producto;
+import es.joseluisgs.springdam.models.ProductoBorrado;
+import es.joseluisgs.springdam.repositories.productos.ProductosBorradosRepository;
+import es.joseluisgs.springdam.repositories.productos.ProductosCampos;
+import es.joseluisgs.springdam.repositories.productos.ProductosFiltro;
+import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import es.joseluisgs.springdam.repositories.productos.ProductosSpecifications;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Consultas de productos compartidas por los controladores de productos (con y sin autenticación).
+ * Las lecturas usan proyecciones del repositorio que devuelven ProductoDTO directamente, sin cargar
+ * entidades en el contexto de persistencia (ni sus copias para el dirty checking) ni pasar por el mapper.
+ */
+@Service
+public class ProductosService {
+    private static final int MAX_SUGGEST = 50;
+
+    private final ProductosRepository productosRepository;
+    private final ProductosListado productosListado;
+    private final ProductosCache productosCache;
+    private final ProductosListadoCache productosListadoCache;
+    private final ProductosSuggestIndex productosSuggestIndex;
+    private final ProductosBitmapIndex productosBitmapIndex;
+    private final ProductosStatsIndex productosStatsIndex;
+    private final ProductosTopIndex productosTopIndex;
+    private final ProductosStockAlertas productosStockAlertas;
+    private final ProductosCambios productosCambios;
+    private final ProductosRevisiones productosRevisiones;
+    private final ProductosBorradosRepository productosBorradosRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ProductosJson productosJson;
+    private final ProductosFragmentos productosFragmentos;
+    // Máximo de cambios por petición de sincronización
+    private final int maxSync;
+    // Máximo de ids por petición de varios productos
+    private final int maxBatch;
+
+    public ProductosService(ProductosRepository productosRepository, ProductosListado productosListado,
+                            ProductosCache productosCache, ProductosListadoCache productosListadoCache,
+                            ProductosSuggestIndex productosSuggestIndex, ProductosBitmapIndex productosBitmapIndex,
+                            ProductosStatsIndex productosStatsIndex, ProductosTopIndex productosTopIndex,
+                            ProductosStockAlertas productosStockAlertas, ProductosCambios productosCambios,
+                            ApplicationEventPublisher eventPublisher, ProductosRevisiones productosRevisiones,
+                            ProductosBorradosRepository productosBorradosRepository,
+                            ProductosJson productosJson, ProductosFragmentos productosFragmentos,
+                            @Value("${productos.sync.max-limit:5000}") int maxSync,
+                            @Value("${productos.batch.max-ids:1000}") int maxBatch) {
+        this.productosRepository = productosRepository;
+        this.productosListado = productosListado;
+        this.productosCache = productosCache;
+        this.productosListadoCache = productosListadoCache;
+        this.productosSuggestIndex = productosSuggestIndex;
+        this.productosBitmapIndex = productosBitmapIndex;
+        this.productosStatsIndex = productosStatsIndex;
+        this.productosTopIndex = productosTopIndex;
+        this.productosStockAlertas = productosStockAlertas;
+        this.productosCambios = productosCambios;
+        this.eventPublisher = eventPublisher;
+        this.productosRevisiones = productosRevisiones;
+        this.productosBorradosRepository = productosBorradosRepository;
+        this.productosJson = productosJson;
+        this.productosFragmentos = productosFragmentos;
+        this.maxSync = maxSync;
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * Todos los productos, opcionalmente los que contienen un nombre y como mucho limit
+     *
+     * @param nombre Nombre a buscar (contiene, sin distinguir mayúsculas) o null
+     * @param limit  Número máximo de productos o null para todos. El LIMIT se aplica en la consulta
+     * @return Lista de productos
+     */
+    public List<ProductoDTO> findAll(String nombre, Integer limit) {
+        Specification<Producto> spec = productosListado.nombreContiene(nombre);
+        if (limit != null) {
+            return productosRepository.findDTO(spec, Sort.unsorted(), limit);
+        }
+        return productosRepository.findDTO(spec, Sort.unsorted());
+    }
+
+    /**
+     * Como findAll, ya serializado en el formato indicado. En JSON cada producto sale ya serializado
+     * de ProductosFragmentos (ver envolver)
+     *
+     * @param nombre  Nombre a buscar (contiene, sin distinguir mayúsculas) o null
+     * @param limit   Número máximo de productos o null para todos
+     * @param formato JSON, CBOR o Smile (ver formato)
+     * @return Lista de productos serializada o vacío si no hay ninguno
+     */
+    public Optional<byte[]> findAllJson(String nombre, Integer limit, MediaType formato) {
+        long antes = productosFragmentos.generacion();
+        List<ProductoDTO> productos = findAll(nombre, limit);
+        if (productos.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(serializar(envolver(productos, antes, formato), ProductosCampos.TODOS, formato));
+    }
+
+    /**
+     * Como findAll, pero la consulta solo lee los campos pedidos (el resto queda a null)
+     *
+     * @param nombre Nombre a buscar (contiene, sin distinguir mayúsculas) o null
+     * @param limit  Número máximo de productos o null para todos
+     * @param campos Campos a leer
+     * @return Lista de productos
+     */
+    public List<ProductoDTO> findAll(String nombre, Integer limit, ProductosCampos campos) {
+        if (campos.isTodos()) {
+            return findAll(nombre, limit);
+        }
+        Specification<Producto> spec = productosListado.nombreContiene(nombre);
+        if (limit != null) {
+            return productosRepository.findDTO(spec, Sort.unsorted(), limit, campos);
+        }
+        return productosRepository.findDTO(spec, Sort.unsorted(), campos);
+    }
+
+    /**
+     * Productos (o lo que los contenga) en JSON con solo los campos pedidos (ver ProductosJson)
+     *
+     * @param valor  Lo que hay que serializar
+     * @param campos Campos de los productos
+     * @return JSON
+     */
+    public byte[] toJson(Object valor, ProductosCampos campos) {
+        return serializar(valor, campos, MediaType.APPLICATION_JSON);
+    }
+
+    /**
+     * Como toJson, en el formato indicado
+     *
+     * @param valor   Lo que hay que serializar
+     * @param campos  Campos de los productos
+     * @param formato JSON, CBOR o Smile (ver formato)
+     * @return Contenido serializado
+     */
+    public byte[] serializar(Object valor, ProductosCampos campos, MediaType formato) {
+        try {
+            return productosJson.writer(campos, formato).writeValueAsBytes(valor);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Error al serializar los productos", e);
+        }
+    }
+
+    /**
+     * Formato de las respuestas ya serializadas según la cabecera Accept (ver ProductosJson)
+     *
+     * @param accept Cabecera Accept o null
+     * @return JSON, CBOR o Smile
+     * @throws HttpMediaTypeNotAcceptableException Si no acepta ninguno o la cabecera no es correcta
+     */
+    public MediaType formato(String accept) throws HttpMediaTypeNotAcceptableException {
+        return productosJson.formato(accept);
+    }
+
+    // En JSON, los productos (con todos los campos, leídos después de la generación antes) cambiados por su
+    // Fragmento: solo se serializan los que no están en ProductosFragmentos. En otro formato no sirven de nada
+    private List<ProductoDTO> envolver(List<ProductoDTO> productos, long antes, MediaType formato) {
+        if (!formato.equals(MediaType.APPLICATION_JSON)) {
+            return productos;
+        }
+        return productosFragmentos.envolver(productos, antes);
+    }
+
+    /**
+     * Producto por id. Primero se busca en la caché de productos (ver ProductosCache)
+     *
+     * @param id Id del producto
+     * @return El producto o vacío si no existe
+     */
+    public Optional<ProductoDTO> findById(Long id) {
+        return productosCache.get(id, productosRepository::findDTOById);
+    }
+
+    /**
+     * Varios productos por id. Los que están en la caché de productos salen de ella y el resto se leen
+     * todos juntos con IN (ver ProductosListado.findDTOMapByIds), en vez de una consulta por producto
+     *
+     * @param ids Ids de los productos
+     * @return Un resultado por id, en el mismo orden, con el producto o marcado como no encontrado
+     * @throws IllegalArgumentException Si no hay ids, alguno es nulo o hay más de maxBatch
+     */
+    public List<ProductoBatchDTO> findAllById(List<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            throw new IllegalArgumentException("Hay que indicar algún id");
+        }
+        if (ids.size() > maxBatch) {
+            throw new IllegalArgumentException("Como mucho se pueden pedir " + maxBatch + " productos");
+        }
+        if (ids.contains(null)) {
+            throw new IllegalArgumentException("Los ids no pueden ser nulos");
+        }
+        Map<Long, ProductoDTO> encontrados = productosCache.getAll(new LinkedHashSet<>(ids),
+                faltan -> productosListado.findDTOMapByIds(faltan.stream().mapToLong(Long::longValue).toArray(), null, ProductosCampos.TODOS));
+        List<ProductoBatchDTO> productos = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            ProductoDTO producto = encontrados.get(id);
+            productos.add(ProductoBatchDTO.builder()
+                    .id(id)
+                    .encontrado(producto != null)
+                    .producto(producto)
+                    .build());
+        }
+        return productos;
+    }
+
+    /**
+     * Como findAllById, ya serializado en el formato indicado. En JSON cada producto encontrado sale ya
+     * serializado de ProductosFragmentos (ver envolver)
+     *
+     * @param ids     Ids de los productos
+     * @param formato JSON, CBOR o Smile (ver formato)
+     * @return Resultados serializados
+     * @throws IllegalArgumentException Si no hay ids, alguno es nulo o hay más de maxBatch
+     */
+    public byte[] findAllByIdJson(List<Long> ids, MediaType formato) {
+        long antes = productosFragmentos.generacion();
+        List<ProductoBatchDTO> productos = findAllById(ids);
+        List<ProductoDTO> encontrados = productos.stream()
+                .filter(ProductoBatchDTO::isEncontrado)
+                .map(ProductoBatchDTO::getProducto)
+                .collect(Collectors.toList());
+        Iterator<ProductoDTO> envueltos = envolver(encontrados, antes, formato).iterator();
+        productos.stream()
+                .filter(ProductoBatchDTO::isEncontrado)
+                .forEach(producto -> producto.setProducto(envueltos.next()));
+        return serializar(productos, ProductosCampos.TODOS, formato);
+    }
+
+    /**
+     * Autocompletado: productos con alguna palabra del nombre que empieza por el texto, en orden alfabético.
+     * Sale del trie de ProductosSuggestIndex; si todavía no está cargado, de la base de datos con el mismo criterio
+     * (ProductosSpecifications.palabraEmpieza)
+     *
+     * @param q     Texto escrito hasta ahora
+     * @param limit Número máximo de sugerencias
+     * @return Sugerencias
+     * @throws IllegalArgumentException Si el texto está vacío o el límite no es correcto
+     */
+    public List<ProductoSuggestDTO> suggest(String q, int limit) {
+        if (q == null || q.isBlank()) {
+            throw new IllegalArgumentException("El texto a completar no puede estar vacío");
+        }
+        if (limit < 1 || limit > MAX_SUGGEST) {
+            throw new IllegalArgumentException("El número de sugerencias debe estar entre 1 y " + MAX_SUGGEST);
+        }
+        List<ProductoSuggestDTO> sugerencias = productosSuggestIndex.suggest(q, limit);
+        if (sugerencias != null) {
+            return sugerencias;
+        }
+        return productosRepository.findDTO(ProductosSpecifications.palabraEmpieza(q), Sort.by("nombre", "id"), limit)
+                .stream()
+                .map(p -> new ProductoSuggestDTO(p.getId(), p.getNombre()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Inserta o actualiza un producto con una nueva revisión (ver ProductosRevisiones). Una vez confirmada la escritura
+     * y antes de la siguiente publica el cambio (ProductoCambioDTO), y con él cada parte lo quita de su caché
+     * (ProductosCache, ProductosFragmentos, ProductosListadoCache), actualiza sus índices en memoria (ProductosIndices)
+     * y lo manda por el canal de cambios (ProductosCambios). Así les llegan las escrituras en el mismo orden en que
+     * se confirman (si no, una más antigua podría pisar a otra más nueva o devolver a los índices un producto ya borrado)
+     *
+     * @param producto Producto a guardar. No se modifica: el guardado es el que se devuelve
+     * @return El producto guardado
+     */
+    public Producto save(Producto producto) {
+        boolean nuevo = producto.getId() == null;
+        Long revisionAnterior = producto.getRevision();
+        LocalDateTime updatedAtAnterior = producto.getUpdatedAt();
+        try {
+            // Se guarda una copia con la revisión nueva, el producto que nos pasan no se toca (ni coge un id si es nuevo)
+            return productosRevisiones.escribir(revision -> productosRepository.save(producto.toBuilder()
+                    .revision(revision)
+                    .updatedAt(LocalDateTime.now())
+                    .build()), productoGuardado -> eventPublisher.publishEvent(ProductoCambioDTO.builder()
+                    .tipo(nuevo ? ProductoCambioDTO.CREADO : ProductoCambioDTO.ACTUALIZADO)
+                    .id(productoGuardado.getId())
+                    .revision(productoGuardado.getRevision())
+                    .producto(toDTO(productoGuardado))
+                    .build()));
+        } catch (RuntimeException e) {
+            // Salvo si está en el contexto de persistencia: el save le copia el estado de la copia, y si no se ha
+            // confirmado tiene que quedar como estaba
+            producto.setRevision(revisionAnterior);
+            producto.setUpdatedAt(updatedAtAnterior);
+            throw e;
+        }
+    }
+
+    /**
+     * Borra un producto dejando su marca de borrado con una nueva revisión (ver ProductosRevisiones)
+     * y, como save, publica el cambio antes de la siguiente escritura
+     *
+     * @param producto Producto a borrar
+     */
+    public void delete(Producto producto) {
+        productosRevisiones.escribir(revision -> {
+            ProductoBorrado borrado = productosBorradosRepository.save(new ProductoBorrado(producto.getId(), revision, LocalDateTime.now()));
+            productosRepository.delete(producto);
+            return borrado;
+        }, borrado -> eventPublisher.publishEvent(ProductoCambioDTO.builder()
+                .tipo(ProductoCambioDTO.BORRADO)
+                .id(borrado.getId())
+                .revision(borrado.getRevision())
+                .build()));
+    }
+
+    /**
+     * Productos creados, actualizados y borrados después de una revisión, para que los clientes se sincronicen
+     * sin descargar todo el catálogo. Sale de las consultas por el índice de revision de los productos y de
+     * las marcas de borrado, así que cuesta lo que haya cambiado, no lo que haya en el catálogo.
+     * Las marcas de borrado se guardan unos días (productos.sync.retencion-borrados, ver ProductosRevisiones):
+     * si ya se han quitado algunas posteriores a since, el cliente se puede haber perdido borrados y la respuesta
+     * solo dice que recargue (recargar), es decir, que tire lo que tiene y vuelva a pedir desde 0
+     *
+     * @param since Última revisión que tiene el cliente (0 para todo lo escrito por la aplicación)
+     * @param limit Máximo de cambios
+     * @return Cambios en orden de revisión y la revisión desde la que seguir
+     * @throws IllegalArgumentException Si algún parámetro no es correcto
+     */
+    public ProductosSyncDTO sync(long since, int limit) {
+        if (since < 0) {
+            throw new IllegalArgumentException("La revisión no puede ser negativa");
+        }
+        if (limit < 1 || limit > maxSync) {
+            throw new IllegalArgumentException("El número de cambios tiene que estar entre 1 y " + maxSync);
+        }
+        // Uno más de cada para saber si hay más
+        Pageable pagina = PageRequest.of(0, limit + 1);
+        List<Producto> cambiados = productosRepository.findByRevisionGreaterThanOrderByRevision(since, pagina);
+        List<ProductoBorrado> borrados = productosBorradosRepository.findByRevisionGreaterThanOrderByRevision(since, pagina);
+        // Después de leer las marcas: si se ha podado mientras tanto, lo vemos aquí
+        if (since > 0 && since < productosRevisiones.borradosHasta()) {
+            return ProductosSyncDTO.builder()
+                    .revision(0)
+                    .recargar(true)
+                    .productos(List.of())
+                    .borrados(List.of())
+                    .build();
+        }
+        List<ProductoDTO> productos = new ArrayList<>();
+        List<Long> ids = new ArrayList<>();
+        long revision = since;
+        int i = 0;
+        int j = 0;
+        // Juntamos las dos listas por revisión hasta el límite
+        while (i + j < limit && (i < cambiados.size() || j < borrados.size())) {
+            if (j == borrados.size() || (i < cambiados.size() && cambiados.get(i).getRevision() < borrados.get(j).getRevision())) {
+                Producto producto = cambiados.get(i++);
+                productos.add(toDTO(producto));
+                revision = producto.getRevision();
+            } else {
+                ProductoBorrado borrado = borrados.get(j++);
+                ids.add(borrado.getId());
+                revision = borrado.getRevision();
+            }
+        }
+        return ProductosSyncDTO.builder()
+                .revision(revision)
+                .hayMas(i < cambiados.size() || j < borrados.size())
+                .productos(productos)
+                .borrados(ids)
+                .build();
+    }
+
+    private static ProductoDTO toDTO(Producto producto) {
+        return new ProductoDTO(producto.getId(), producto.getNombre(), producto.getPrecio(), producto.getStock(),
+                producto.getImagen(), producto.getCreatedAt());
+    }
+
+    // Estadísticas de la caché de productos por id
+    public ProductosCacheStatsDTO cacheStats() {
+        return productosCache.stats();
+    }
+
+    // Tamaño del índice de bitmaps de los filtros del listado
+    public ProductosBitmapIndexStatsDTO bitmapIndexStats() {
+        return productosBitmapIndex.stats();
+    }
+
+    /**
+     * Estadísticas del inventario: unidades, valor del stock, precios y stock mínimo, máximo y medio y, si se piden,
+     * productos por rango de precio. Salen de la copia por columnas en memoria (ProductosStatsIndex); mientras
+     * se carga, de la consulta del listado. Con filtro por nombre, los productos que se miran son los que
+     * encuentra la base de datos con su collation (ver ProductosListado.idsNombre); si no los puede dar, también de la consulta
+     *
+     * @param filtro Filtros, los mismos que en el listado
+     * @param rangos Límites de los rangos de precio, de menor a mayor (o vacío)
+     * @return Estadísticas
+     * @throws IllegalArgumentException Si los límites no están ordenados
+     */
+    public ProductosStatsDTO stats(ProductosFiltro filtro, List<Double> rangos) {
+        double[] limites = limites(rangos);
+        ProductosStatsDTO stats = null;
+        if (filtro.getNombre() == null) {
+            stats = productosStatsIndex.stats(filtro, limites, null);
+        } else {
+            long[] ids = productosListado.idsNombre(filtro.getNombre());
+            if (ids != null) {
+                stats = productosStatsIndex.stats(filtro, limites, ids);
+            }
+        }
+        if (stats != null) {
+            return stats;
+        }
+        ProductosStatsIndex.Acumulado acumulado = new ProductosStatsIndex.Acumulado(limites);
+        productosRepository.findDTO(ProductosSpecifications.of(filtro, productosListado.nombreContiene(filtro.getNombre())), Sort.unsorted())
+                .forEach(p -> acumulado.add(p.getPrecio(), p.getStock()));
+        return acumulado.toDTO();
+    }
+
+    /**
+     * Percentiles e histograma aproximados de los precios, de todos los productos o de los que tienen una palabra
+     * en el nombre. Salen de los resúmenes en memoria (ProductosPrecioSketches, en ProductosStatsIndex) sin recorrer la tabla;
+     * mientras se cargan, de los productos que contienen la palabra
+     *
+     * @param nombre    Palabra del nombre (al menos tres letras) o null para todos
+     * @param quantiles Percentiles entre 0 y 1
+     * @param rangos    Límites de los rangos del histograma, de menor a mayor (o vacío)
+     * @return Percentiles e histograma
+     * @throws IllegalArgumentException Si algún parámetro no es correcto
+     */
+    public ProductosPrecioQuantilesDTO precioQuantiles(String nombre, List<Double> quantiles, List<Double> rangos) {
+        double[] limites = limites(rangos);
+        if (quantiles.isEmpty() || quantiles.stream().anyMatch(q -> q == null || q < 0 || q > 1)) {
+            throw new IllegalArgumentException("Los percentiles tienen que estar entre 0 y 1");
+        }
+        String palabra = null;
+        if (nombre != null) {
+            Set<String> palabras = ProductosPrecioSketches.palabras(nombre);
+            if (palabras.size() != 1) {
+                throw new IllegalArgumentException("Se busca por una sola palabra del nombre de al menos tres letras");
+            }
+            palabra = palabras.iterator().next();
+        }
+        ProductosPrecioSketch sketch = productosStatsIndex.sketch(palabra);
+        if (sketch == null) {
+            String buscada = palabra;
+            ProductosPrecioSketch cargando = new ProductosPrecioSketch();
+            productosRepository.findDTO(ProductosSpecifications.nombreContiene(buscada), Sort.unsorted()).stream()
+                    .filter(p -> p.getPrecio() != null)
+                    .filter(p -> buscada == null || ProductosPrecioSketches.palabras(p.getNombre()).contains(buscada))
+                    .forEach(p -> cargando.add(p.getPrecio()));
+            sketch = cargando;
+        }
+        Map<String, Double> valores = new LinkedHashMap<>();
+        for (Double q : quantiles) {
+            valores.put(String.valueOf(q), sketch.quantile(q));
+        }
+        List<ProductosRangoDTO> histograma = new ArrayList<>();
+        for (int i = 0; limites.length > 0 && i <= limites.length; i++) {
+            Double desde = i == 0 ? null : limites[i - 1];
+            Double hasta = i == limites.length ? null : limites[i];
+            histograma.add(ProductosRangoDTO.builder().desde(desde).hasta(hasta).productos(sketch.count(desde, hasta)).build());
+        }
+        return ProductosPrecioQuantilesDTO.builder()
+                .productos(sketch.count())
+                .error(ProductosPrecioSketch.ERROR)
+                .quantiles(valores)
+                .histograma(histograma)
+                .build();
+    }
+
+    /**
+     * Los primeros productos por precio o stock (los más baratos, los que menos stock tienen...).
+     * Salen de los conjuntos ordenados en memoria (ProductosTopIndex); si no están cargados o no tienen
+     * suficientes, de la base de datos, y con ellos se completan
+     *
+     * @param campo Campo: precio o stock
+     * @param orden asc o desc
+     * @param n     Número de productos, como mucho el máximo del índice
+     * @return Productos en orden, sin los que no tienen valor en el campo
+     * @throws IllegalArgumentException Si algún parámetro no es correcto
+     */
+    public List<ProductoDTO> top(String campo, String orden, int n) {
+        if (!ProductosTopIndex.CAMPOS.contains(campo)) {
+            throw new IllegalArgumentException("Solo se puede pedir el top por: " + String.join(", ", ProductosTopIndex.CAMPOS));
+        }
+        if (!orden.equals("asc") && !orden.equals("desc")) {
+            throw new IllegalArgumentException("El orden tiene que ser asc o desc");
+        }
+        if (n < 1 || n > productosTopIndex.getMaxN()) {
+            throw new IllegalArgumentException("El número de productos tiene que estar entre 1 y " + productosTopIndex.getMaxN());
+        }
+        boolean desc = orden.equals("desc");
+        List<ProductoDTO> top = productosTopIndex.top(campo, desc, n);
+        if (top != null) {
+            return top;
+        }
+        Long version = productosTopIndex.version();
+        Sort sort = Sort.by(desc ? Sort.Direction.DESC : Sort.Direction.ASC, campo).and(Sort.by("id"));
+        List<ProductoDTO> productos = productosRepository.findDTO(ProductosSpecifications.noNulo(campo), sort,
+                version == null ? n : productosTopIndex.getCapacidad());
+        if (version != null) {
+            productosTopIndex.rellenar(campo, desc, productos, version);
+        }
+        return productos.subList(0, Math.min(n, productos.size()));
+    }
+
+    /**
+     * Como top, ya serializado en el formato indicado. En JSON cada producto sale ya serializado
+     * de ProductosFragmentos (ver envolver)
+     *
+     * @param campo   Campo: precio o stock
+     * @param orden   asc o desc
+     * @param n       Número de productos, como mucho el máximo del índice
+     * @param formato JSON, CBOR o Smile (ver formato)
+     * @return Productos en orden, serializados
+     * @throws IllegalArgumentException Si algún parámetro no es correcto
+     */
+    public byte[] topJson(String campo, String orden, int n, MediaType formato) {
+        long antes = productosFragmentos.generacion();
+        return serializar(envolver(top(campo, orden, n), antes, formato), ProductosCampos.TODOS, formato);
+    }
+
+    /**
+     * Suscripción por SSE a los avisos de stock: cuando un producto baja del umbral, vuelve a él o se borra
+     * estando por debajo (ver ProductosStockAlertas)
+     *
+     * @param umbral Stock por debajo del cual se avisa
+     * @return Conexión SSE
+     * @throws IllegalArgumentException Si el umbral es negativo
+     */
+    public SseEmitter alertasStock(int umbral) {
+        return productosStockAlertas.suscribir(umbral);
+    }
+
+    /**
+     * Suscripción por SSE al canal de cambios de productos (ver ProductosCambios)
+     *
+     * @param desde Id del último evento recibido (cabecera Last-Event-ID) o null para recibir solo los nuevos
+     * @return Conexión SSE
+     */
+    public SseEmitter cambios(Long desde) {
+        return productosCambios.suscribir(desde);
+    }
+
+    // Límites de los rangos de precio, comprobando que van de menor a mayor
+    private static double[] limites(List<Double> rangos) {
+        double[] limites = rangos.stream().mapToDouble(Double::doubleValue).toArray();
+        for (int i = 1; i < limites.length; i++) {
+            if (limites[i] <= limites[i - 1]) {
+                throw new IllegalArgumentException("Los rangos de precio tienen que ir de menor a mayor");
+            }
+        }
+        return limites;
+    }
+
+    /**
+     * El listado ya serializado. Las consultas repetidas salen de ProductosListadoCache sin tocar la base de datos
+     * ni volver a serializar, hasta que haya una escritura en productos. En JSON con todos los campos, cada producto
+     * sale ya serializado de ProductosFragmentos, así que una escritura solo obliga a serializar ese producto.
+     * Los parámetros son los de listado
+     *
+     * @param formato JSON, CBOR o Smile (ver formato)
+     * @return ListProductoPageDTO serializado
+     * @throws IllegalArgumentException Si algún parámetro no es correcto
+     */
+    public byte[] listadoJson(ProductosFiltro filtro, int page, int size, String sort, String after, String count,
+                              ProductosCampos campos, MediaType formato) {
+        String key = filtro.toKey() + "|" + page + "|" + size + "|" + sort + "|" + after + "|" + count + "|" + campos.toKey()
+                + "|" + formato;
+        return productosListadoCache.get(key, () -> {
+            if (!campos.isTodos() || !formato.equals(MediaType.APPLICATION_JSON)) {
+                return serializar(listado(filtro, page, size, sort, after, count, campos), campos, formato);
+            }
+            long antes = productosFragmentos.generacion();
+            ListProductoPageDTO listado = productosListado.listado(filtro, page, size, sort, after, count, campos, true);
+            listado.setData(productosFragmentos.envolver(listado.getData(), antes));
+            return serializar(listado, campos, formato);
+        });
+    }
+
+    /**
+     * Listado paginado, filtrado y ordenado. Todos los filtros se combinan en una única consulta
+     * (ver ProductosSpecifications) y se ordena siempre por el campo pedido y después por id.
+     * Cada manera de sacar la página (índices en memoria, Slice, cursor...) está en ProductosListado.
+     *
+     * @param filtro Filtros, los que son null no se aplican
+     * @param page   Número de página (se ignora al paginar por cursor)
+     * @param size   Tamaño de página
+     * @param sort   Campo de ordenación (id, nombre, precio, stock o createdAt)
+     * @param after  Si no es null paginamos por cursor: vacío para la primera página o el nextCursor anterior
+     * @param count  true: total exacto. false: sin count, solo hasNext. cached: total aproximado por filtro
+     * @return Página de productos
+     * @throws IllegalArgumentException Si algún parámetro no es correcto
+     */
+    public ListProductoPageDTO listado(ProductosFiltro filtro, int page, int size, String sort, String after, String count) {
+        return listado(filtro, page, size, sort, after, count, ProductosCampos.TODOS);
+    }
+
+    /**
+     * Listado leyendo solo algunos campos de los productos (el resto queda a null)
+     *
+     * @param campos Campos a leer. Los demás parámetros son los de listado
+     * @return Página de productos
+     * @throws IllegalArgumentException Si algún parámetro no es correcto
+     */
+    public ListProductoPageDTO listado(ProductosFiltro filtro, int page, int size, String sort, String after, String count,
+                                      ProductosCampos campos) {
+        return productosListado.listado(filtro, page, size, sort, after, count, campos, false);
+    }
+}
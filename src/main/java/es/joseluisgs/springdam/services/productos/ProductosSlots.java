@@ -0,0 +1,195 @@
+package es.joseluisgs.springdam.services.productos;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Hueco (slot) de cada producto en los índices en memoria, compartido por todos (ver ProductosIndices).
+ * Cada índice guarda lo que necesita de un producto en arrays de primitivos en la posición de su hueco,
+ * en vez de tener cada uno su mapa de id a valores con un Long y un objeto por producto.
+ * <p>
+ * Es una tabla hash de direccionamiento abierto de long a int (sin objetos por entrada). Un producto conserva
+ * su hueco mientras exista; los huecos de los borrados se reutilizan, así los arrays de los índices
+ * no crecen más que el catálogo. Es thread-safe.
+ */
+class ProductosSlots {
+    private static final int LIBRE = -1;
+
+    // Tabla: id y su hueco (LIBRE si la posición está vacía)
+    private long[] claves = new long[2048];
+    private int[] valores = new int[2048];
+    private int size = 0;
+    // Huecos asignados alguna vez (los índices dimensionan sus arrays con esto) y huecos libres para reutilizar
+    private int capacidad = 0;
+    private int[] libres = new int[64];
+    private int numLibres = 0;
+
+    ProductosSlots() {
+        Arrays.fill(valores, LIBRE);
+    }
+
+    /**
+     * Hueco del producto, asignándole uno si no lo tiene
+     *
+     * @param id Id del producto
+     * @return Hueco
+     */
+    synchronized int slot(long id) {
+        int pos = posicion(id);
+        if (valores[pos] != LIBRE) {
+            return valores[pos];
+        }
+        int slot = numLibres > 0 ? libres[--numLibres] : capacidad++;
+        claves[pos] = id;
+        valores[pos] = slot;
+        size++;
+        if (size * 2 > claves.length) {
+            crecer();
+        }
+        return slot;
+    }
+
+    /**
+     * Hueco del producto
+     *
+     * @param id Id del producto
+     * @return Hueco o -1 si no tiene
+     */
+    synchronized int get(long id) {
+        return valores[posicion(id)];
+    }
+
+    /**
+     * Libera el hueco del producto (se ha borrado), para otro producto
+     *
+     * @param id Id del producto
+     */
+    synchronized void free(long id) {
+        int pos = posicion(id);
+        if (valores[pos] == LIBRE) {
+            return;
+        }
+        liberar(valores[pos]);
+        borrar(pos);
+    }
+
+    /**
+     * Libera los huecos de todos los productos menos los indicados (tras una carga completa,
+     * los de productos que ya no están en la base de datos)
+     *
+     * @param conservar Huecos que siguen en uso
+     */
+    synchronized void retener(BitSet conservar) {
+        int pos = 0;
+        while (pos < claves.length) {
+            if (valores[pos] != LIBRE && !conservar.get(valores[pos])) {
+                liberar(valores[pos]);
+                // Al borrar puede llegar aquí otra entrada: volvemos a mirar la misma posición
+                borrar(pos);
+            } else {
+                pos++;
+            }
+        }
+    }
+
+    // Número de huecos asignados alguna vez: todos los huecos son menores
+    synchronized int capacidad() {
+        return capacidad;
+    }
+
+    // Arrays por hueco de los índices: los amplían cuando les llega un hueco que no cabe, rellenando con el valor vacío
+
+    static long[] asegurar(long[] array, int slot, long vacio) {
+        if (slot < array.length) {
+            return array;
+        }
+        int anterior = array.length;
+        long[] nuevo = Arrays.copyOf(array, longitud(anterior, slot));
+        Arrays.fill(nuevo, anterior, nuevo.length, vacio);
+        return nuevo;
+    }
+
+    static int[] asegurar(int[] array, int slot, int vacio) {
+        if (slot < array.length) {
+            return array;
+        }
+        int anterior = array.length;
+        int[] nuevo = Arrays.copyOf(array, longitud(anterior, slot));
+        Arrays.fill(nuevo, anterior, nuevo.length, vacio);
+        return nuevo;
+    }
+
+    static double[] asegurar(double[] array, int slot, double vacio) {
+        if (slot < array.length) {
+            return array;
+        }
+        int anterior = array.length;
+        double[] nuevo = Arrays.copyOf(array, longitud(anterior, slot));
+        Arrays.fill(nuevo, anterior, nuevo.length, vacio);
+        return nuevo;
+    }
+
+    static <T> T[] asegurar(T[] array, int slot) {
+        return slot < array.length ? array : Arrays.copyOf(array, longitud(array.length, slot));
+    }
+
+    private static int longitud(int longitud, int slot) {
+        return Math.max(slot + 1, Math.max(16, longitud * 2));
+    }
+
+    private void liberar(int slot) {
+        if (numLibres == libres.length) {
+            libres = Arrays.copyOf(libres, numLibres * 2);
+        }
+        libres[numLibres++] = slot;
+    }
+
+    // Posición del id en la tabla o la vacía donde iría (sondeo lineal)
+    private int posicion(long id) {
+        int mascara = claves.length - 1;
+        int pos = hash(id) & mascara;
+        while (valores[pos] != LIBRE && claves[pos] != id) {
+            pos = (pos + 1) & mascara;
+        }
+        return pos;
+    }
+
+    // Borrado con desplazamiento hacia atrás: las entradas que venían detrás ocupan el hueco si les corresponde
+    private void borrar(int pos) {
+        int mascara = claves.length - 1;
+        valores[pos] = LIBRE;
+        size--;
+        int siguiente = (pos + 1) & mascara;
+        while (valores[siguiente] != LIBRE) {
+            int ideal = hash(claves[siguiente]) & mascara;
+            // Se mueve si su posición ideal no está entre el hueco (excluido) y donde está
+            if (((siguiente - ideal) & mascara) >= ((siguiente - pos) & mascara)) {
+                claves[pos] = claves[siguiente];
+                valores[pos] = valores[siguiente];
+                valores[siguiente] = LIBRE;
+                pos = siguiente;
+            }
+            siguiente = (siguiente + 1) & mascara;
+        }
+    }
+
+    private void crecer() {
+        long[] anterioresClaves = claves;
+        int[] anterioresValores = valores;
+        claves = new long[anterioresClaves.length * 2];
+        valores = new int[anterioresValores.length * 2];
+        Arrays.fill(valores, LIBRE);
+        for (int i = 0; i < anterioresClaves.length; i++) {
+            if (anterioresValores[i] != LIBRE) {
+                int pos = posicion(anterioresClaves[i]);
+                claves[pos] = anterioresClaves[i];
+                valores[pos] = anterioresValores[i];
+            }
+        }
+    }
+
+    private static int hash(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,181 @@
+package es.joseluisgs.springdam.services.productos;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hilos que hacen los envíos por SSE de ProductosStockAlertas y ProductosCambios. emitter.send es una escritura
+ * bloqueante: a un cliente que no lee se le llena la ventana TCP y el hilo se queda esperando, así que con
+ * unos pocos hilos bastaría un par de clientes así para que nadie más recibiese nada.
+ * <p>
+ * Por eso cada operación sobre una conexión tiene un tiempo máximo (timeout). Un vigilante repasa las que están
+ * en curso y, si alguna lo ha pasado, interrumpe a su hilo, avisa al suscriptor (que se quita y deja de recibir)
+ * y da por perdido el hilo (puede que la escritura no haga caso de la interrupción): el pool crece en uno para que los demás suscriptores sigan recibiendo, y vuelve a su
+ * tamaño cuando la escritura termina por fin (el contenedor la corta como muy tarde al cerrar la conexión).
+ * Así un cliente lento retrasa a los demás como mucho timeout y solo ocupa un hilo.
+ */
+@Slf4j
+class ProductosSseEnvios {
+    private final int hilos;
+    private final long timeout;
+    private final ThreadPoolExecutor envios;
+    private final ScheduledExecutorService vigilante;
+    private final Map<Operacion, Boolean> enCurso = new ConcurrentHashMap<>();
+    // Hilos atascados en una escritura que ya hemos dado por perdida
+    private int perdidos = 0;
+
+    /**
+     * @param nombre  Nombre de los hilos
+     * @param hilos   Hilos para los envíos
+     * @param timeout Tiempo máximo de cada operación sobre una conexión, en milisegundos
+     */
+    ProductosSseEnvios(String nombre, int hilos, long timeout) {
+        this.hilos = hilos;
+        this.timeout = timeout;
+        AtomicInteger numero = new AtomicInteger();
+        this.envios = new ThreadPoolExecutor(hilos, hilos, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread hilo = new Thread(r, nombre + "-" + numero.incrementAndGet());
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        this.vigilante = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, nombre + "-vigilante");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        long periodo = Math.max(1, timeout / 4);
+        vigilante.scheduleWithFixedDelay(this::vigilar, periodo, periodo, TimeUnit.MILLISECONDS);
+    }
+
+    void cerrar() {
+        vigilante.shutdownNow();
+        envios.shutdownNow();
+    }
+
+    /**
+     * Programa un vaciado de la cola de un suscriptor
+     *
+     * @param tarea Tarea
+     * @throws RejectedExecutionException Si ya se ha cerrado
+     */
+    void execute(Runnable tarea) {
+        envios.execute(tarea);
+    }
+
+    /**
+     * Envía un evento con el tiempo máximo. Se llama desde las tareas de execute
+     *
+     * @param emitter   Conexión
+     * @param evento    Evento
+     * @param alExpirar Se llama (desde el vigilante) si el envío pasa del tiempo máximo
+     * @throws IOException Si el cliente se ha ido o el envío ha pasado del tiempo máximo
+     */
+    void enviar(SseEmitter emitter, SseEmitter.SseEventBuilder evento, Runnable alExpirar) throws IOException {
+        Operacion operacion = new Operacion(alExpirar);
+        enCurso.put(operacion, Boolean.TRUE);
+        try {
+            emitter.send(evento);
+        } finally {
+            terminar(operacion);
+        }
+    }
+
+    /**
+     * Cierra la conexión en uno de los hilos de envío y con el tiempo máximo: complete espera a que
+     * termine el envío en curso, así que quien cierra (una escritura de productos) no se queda esperando
+     *
+     * @param emitter Conexión
+     */
+    void completar(SseEmitter emitter) {
+        try {
+            envios.execute(() -> {
+                Operacion operacion = new Operacion(() -> {
+                });
+                enCurso.put(operacion, Boolean.TRUE);
+                try {
+                    emitter.complete();
+                } catch (RuntimeException e) {
+                    // Ya estaba cerrada
+                } finally {
+                    try {
+                        terminar(operacion);
+                    } catch (IOException e) {
+                        // Se ha dado por perdida, no queda nada que hacer
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Cerrando la aplicación
+        }
+    }
+
+    private void terminar(Operacion operacion) throws IOException {
+        enCurso.remove(operacion);
+        boolean expirada;
+        synchronized (operacion) {
+            operacion.terminada = true;
+            expirada = operacion.expirada;
+        }
+        if (expirada) {
+            // La interrupción del vigilante ya no hace falta y no debe llegarle a la siguiente tarea del hilo
+            Thread.interrupted();
+            ajustar(-1);
+            throw new IOException("Envío cancelado: más de " + timeout + " ms sin poder escribir");
+        }
+    }
+
+    private void vigilar() {
+        long ahora = System.nanoTime();
+        for (Operacion operacion : enCurso.keySet()) {
+            if (ahora - operacion.inicio < TimeUnit.MILLISECONDS.toNanos(timeout)) {
+                continue;
+            }
+            synchronized (operacion) {
+                if (operacion.terminada || operacion.expirada) {
+                    continue;
+                }
+                operacion.expirada = true;
+                operacion.hilo.interrupt();
+            }
+            enCurso.remove(operacion);
+            log.warn("Una conexión SSE lleva más de {} ms sin poder escribir: se cierra", timeout);
+            try {
+                operacion.alExpirar.run();
+            } catch (RuntimeException e) {
+                log.warn("Error al quitar una conexión SSE: " + e.getMessage());
+            }
+            ajustar(1);
+        }
+    }
+
+    // Un hilo más (o menos) por cada hilo perdido para que los envíos sigan teniendo los mismos
+    private synchronized void ajustar(int cambio) {
+        perdidos += cambio;
+        int total = hilos + perdidos;
+        if (cambio > 0) {
+            envios.setMaximumPoolSize(total);
+            envios.setCorePoolSize(total);
+        } else {
+            envios.setCorePoolSize(total);
+            envios.setMaximumPoolSize(total);
+        }
+    }
+
+    // Operación en curso sobre una conexión, en el hilo que la llama
+    private static class Operacion {
+        private final Thread hilo = Thread.currentThread();
+        private final long inicio = System.nanoTime();
+        private final Runnable alExpirar;
+        private boolean terminada = false;
+        private boolean expirada = false;
+
+        private Operacion(Runnable alExpirar) {
+            this.alExpirar = alExpirar;
+        }
+    }
+}
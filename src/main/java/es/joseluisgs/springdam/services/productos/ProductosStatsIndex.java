@@ -0,0 +1,270 @@
+package es.joseluisgs.springdam.services.productos;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.dto.productos.ProductosRangoDTO;
+import es.joseluisgs.springdam.dto.productos.ProductosStatsDTO;
+import es.joseluisgs.springdam.repositories.productos.ProductosFiltro;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.function.IntPredicate;
+import java.util.function.LongToIntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Copia por columnas de los productos para las estadísticas del inventario: un array de primitivos por campo
+ * (precio, stock, fecha de creación) y el nombre normalizado, con cada producto en la misma posición de todos.
+ * Agregar millones de productos es recorrer esos arrays en paralelo, sin objetos por producto ni base de datos.
+ * <p>
+ * Cada producto está en la posición de su hueco (ver ProductosSlots). El hueco de un borrado queda vacío hasta
+ * que lo ocupa el siguiente producto nuevo, así que los arrays están casi llenos y el recorrido se salta los vacíos.
+ * Los filtros son los del listado; si ya se saben los ids de los productos por nombre (ver ProductosService.stats),
+ * solo se miran esos y el nombre no se vuelve a comprobar. Si no, el nombre se compara sin mayúsculas ni tildes
+ * (ProductosNombreIndex.normalizar).
+ * <p>
+ * También mantiene los resúmenes de precios por palabra del nombre (ProductosPrecioSketches): para quitar
+ * un producto de ellos hacen falta su precio y su nombre anteriores, que ya están en las columnas.
+ */
+@Component
+public class ProductosStatsIndex extends ProductosIndex<ProductosStatsIndex.Columnas> {
+    // Precio nulo (no entra en las estadísticas de precio ni en los rangos)
+    private static final double SIN_PRECIO = Double.NaN;
+    private static final int SIN_STOCK = Integer.MIN_VALUE;
+    private static final long SIN_FECHA = Long.MIN_VALUE;
+    // Ninguno en el hueco
+    private static final long NINGUNO = Long.MIN_VALUE;
+
+    @Override
+    protected Columnas crear() {
+        return new Columnas();
+    }
+
+    @Override
+    protected void put(Columnas columnas, int slot, ProductoDTO producto) {
+        columnas.put(slot, producto);
+    }
+
+    @Override
+    protected void remove(Columnas columnas, int slot, long id) {
+        columnas.remove(slot);
+    }
+
+    /**
+     * Estadísticas de los productos que cumplen los filtros
+     *
+     * @param filtro  Filtros del listado (fuzzy no se tiene en cuenta: el nombre es siempre contiene)
+     * @param limites Límites de los rangos de precio, ordenados de menor a mayor
+     * @param ids     Ids de los productos cuyo nombre contiene el buscado (ya comprobados) o null para mirar todos
+     * @return Estadísticas o null si el índice no está cargado
+     */
+    public ProductosStatsDTO stats(ProductosFiltro filtro, double[] limites, long[] ids) {
+        return read(columnas -> columnas.stats(filtro, limites, ids, this::slot));
+    }
+
+    /**
+     * Resumen de los precios de los productos que tienen la palabra
+     *
+     * @param palabra Palabra del nombre normalizada (ver ProductosPrecioSketches.palabras) o null para todos
+     * @return Copia del resumen o null si el índice no está cargado
+     */
+    public ProductosPrecioSketch sketch(String palabra) {
+        return read(columnas -> columnas.sketches.sketch(palabra));
+    }
+
+    // Nanosegundos (UTC) de la fecha, para compararla como un long
+    private static long nanos(LocalDateTime fecha) {
+        return fecha.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + fecha.getNano();
+    }
+
+    static class Columnas {
+        // Por hueco: id (NINGUNO si está vacío), nombre normalizado, precio, stock y fecha
+        private long[] ids = new long[0];
+        private String[] nombres = new String[0];
+        private double[] precios = new double[0];
+        private int[] stocks = new int[0];
+        private long[] fechas = new long[0];
+        private final ProductosPrecioSketches sketches = new ProductosPrecioSketches();
+
+        private void put(int slot, ProductoDTO producto) {
+            if (slot >= ids.length) {
+                ids = ProductosSlots.asegurar(ids, slot, NINGUNO);
+                nombres = Arrays.copyOf(nombres, ids.length);
+                precios = Arrays.copyOf(precios, ids.length);
+                stocks = Arrays.copyOf(stocks, ids.length);
+                fechas = Arrays.copyOf(fechas, ids.length);
+            } else if (ids[slot] != NINGUNO) {
+                quitarSketch(slot);
+            }
+            ids[slot] = producto.getId();
+            nombres[slot] = producto.getNombre() == null ? null : ProductosNombreIndex.normalizar(producto.getNombre());
+            precios[slot] = producto.getPrecio() == null ? SIN_PRECIO : producto.getPrecio();
+            stocks[slot] = producto.getStock() == null ? SIN_STOCK : producto.getStock();
+            fechas[slot] = producto.getCreatedAt() == null ? SIN_FECHA : nanos(LocalDateTime.parse(producto.getCreatedAt()));
+            if (!Double.isNaN(precios[slot])) {
+                sketches.add(precios[slot], nombres[slot]);
+            }
+        }
+
+        private void quitarSketch(int slot) {
+            if (!Double.isNaN(precios[slot])) {
+                sketches.remove(precios[slot], nombres[slot]);
+            }
+        }
+
+        private void remove(int slot) {
+            if (slot >= ids.length || ids[slot] == NINGUNO) {
+                return;
+            }
+            quitarSketch(slot);
+            ids[slot] = NINGUNO;
+            nombres[slot] = null;
+        }
+
+        private ProductosStatsDTO stats(ProductosFiltro filtro, double[] limites, long[] idsNombre, LongToIntFunction slotDe) {
+            IntPredicate cumple = filtro(filtro, idsNombre == null);
+            IntStream posiciones = idsNombre == null
+                    ? IntStream.range(0, ids.length).parallel().filter(slot -> ids[slot] != NINGUNO)
+                    : Arrays.stream(idsNombre).mapToInt(id -> posicion(id, slotDe)).filter(slot -> slot >= 0);
+            Acumulado total = posiciones
+                    .filter(cumple)
+                    .collect(() -> new Acumulado(limites), (a, pos) -> a.add(precios[pos], stocks[pos]), Acumulado::merge);
+            return total.toDTO();
+        }
+
+        // Hueco del producto en estas columnas o -1
+        private int posicion(long id, LongToIntFunction slotDe) {
+            int slot = slotDe.applyAsInt(id);
+            return slot >= 0 && slot < ids.length && ids[slot] == id ? slot : -1;
+        }
+
+        private IntPredicate filtro(ProductosFiltro filtro, boolean porNombre) {
+            String nombre = filtro.getNombre() == null || !porNombre ? null : ProductosNombreIndex.normalizar(filtro.getNombre());
+            Double precioMin = filtro.getPrecio();
+            Double precioMax = filtro.getPrecioMax();
+            Integer stockMin = filtro.getStockMin();
+            Integer stockMax = filtro.getStockMax();
+            long desde = filtro.getCreatedAtDesde() == null ? SIN_FECHA : nanos(filtro.getCreatedAtDesde());
+            long hasta = filtro.getCreatedAtHasta() == null ? Long.MAX_VALUE : nanos(filtro.getCreatedAtHasta());
+            boolean hayFechas = filtro.getCreatedAtDesde() != null || filtro.getCreatedAtHasta() != null;
+            // Como en SQL, un valor nulo no cumple ninguna condición sobre él (NaN ya da false al comparar)
+            return pos -> (nombre == null || (nombres[pos] != null && nombres[pos].contains(nombre)))
+                    && (precioMin == null || precios[pos] >= precioMin)
+                    && (precioMax == null || precios[pos] <= precioMax)
+                    && (stockMin == null || (stocks[pos] != SIN_STOCK && stocks[pos] >= stockMin))
+                    && (stockMax == null || (stocks[pos] != SIN_STOCK && stocks[pos] <= stockMax))
+                    && (!hayFechas || (fechas[pos] != SIN_FECHA && fechas[pos] >= desde && fechas[pos] <= hasta));
+        }
+    }
+
+    /**
+     * Lo que se va acumulando de cada producto. Cada hilo del recorrido en paralelo tiene el suyo
+     * y al final se juntan (merge). También lo usa el servicio mientras el índice se carga
+     */
+    static class Acumulado {
+        private final double[] limites;
+        private long productos;
+        private long stockTotal;
+        private double valorStock;
+        private long agotados;
+        private long conPrecio;
+        private double sumaPrecios;
+        private double precioMin = Double.POSITIVE_INFINITY;
+        private double precioMax = Double.NEGATIVE_INFINITY;
+        private long conStock;
+        private int stockMin = Integer.MAX_VALUE;
+        private int stockMax = Integer.MIN_VALUE;
+        // Por rango: productos, stock y valor
+        private final long[] rangoProductos;
+        private final long[] rangoStock;
+        private final double[] rangoValor;
+
+        Acumulado(double[] limites) {
+            this.limites = limites;
+            this.rangoProductos = new long[limites.length + 1];
+            this.rangoStock = new long[limites.length + 1];
+            this.rangoValor = new double[limites.length + 1];
+        }
+
+        void add(Double precio, Integer stock) {
+            add(precio == null ? SIN_PRECIO : precio, stock == null ? SIN_STOCK : stock);
+        }
+
+        private void add(double precio, int stock) {
+            productos++;
+            boolean hayPrecio = !Double.isNaN(precio);
+            boolean hayStock = stock != SIN_STOCK;
+            if (hayStock) {
+                conStock++;
+                stockTotal += stock;
+                stockMin = Math.min(stockMin, stock);
+                stockMax = Math.max(stockMax, stock);
+                if (stock == 0) {
+                    agotados++;
+                }
+            }
+            if (hayPrecio) {
+                conPrecio++;
+                sumaPrecios += precio;
+                precioMin = Math.min(precioMin, precio);
+                precioMax = Math.max(precioMax, precio);
+                double valor = hayStock ? precio * stock : 0;
+                valorStock += valor;
+                // Rango: número de límites menores o iguales que el precio
+                int i = Arrays.binarySearch(limites, precio);
+                int rango = i >= 0 ? i + 1 : -i - 1;
+                rangoProductos[rango]++;
+                rangoStock[rango] += hayStock ? stock : 0;
+                rangoValor[rango] += valor;
+            }
+        }
+
+        void merge(Acumulado otro) {
+            productos += otro.productos;
+            stockTotal += otro.stockTotal;
+            valorStock += otro.valorStock;
+            agotados += otro.agotados;
+            conPrecio += otro.conPrecio;
+            sumaPrecios += otro.sumaPrecios;
+            precioMin = Math.min(precioMin, otro.precioMin);
+            precioMax = Math.max(precioMax, otro.precioMax);
+            conStock += otro.conStock;
+            stockMin = Math.min(stockMin, otro.stockMin);
+            stockMax = Math.max(stockMax, otro.stockMax);
+            for (int i = 0; i < rangoProductos.length; i++) {
+                rangoProductos[i] += otro.rangoProductos[i];
+                rangoStock[i] += otro.rangoStock[i];
+                rangoValor[i] += otro.rangoValor[i];
+            }
+        }
+
+        ProductosStatsDTO toDTO() {
+            List<ProductosRangoDTO> rangos = new ArrayList<>();
+            if (limites.length > 0) {
+                for (int i = 0; i < rangoProductos.length; i++) {
+                    rangos.add(ProductosRangoDTO.builder()
+                            .desde(i == 0 ? null : limites[i - 1])
+                            .hasta(i == limites.length ? null : limites[i])
+                            .productos(rangoProductos[i])
+                            .stockTotal(rangoStock[i])
+                            .valorStock(rangoValor[i])
+                            .build());
+                }
+            }
+            return ProductosStatsDTO.builder()
+                    .productos(productos)
+                    .stockTotal(stockTotal)
+                    .valorStock(valorStock)
+                    .agotados(agotados)
+                    .precioMin(conPrecio > 0 ? precioMin : null)
+                    .precioMax(conPrecio > 0 ? precioMax : null)
+                    .precioMedio(conPrecio > 0 ? sumaPrecios / conPrecio : null)
+                    .stockMin(conStock > 0 ? stockMin : null)
+                    .stockMax(conStock > 0 ? stockMax : null)
+                    .stockMedio(conStock > 0 ? (double) stockTotal / conStock : null)
+                    .rangos(rangos)
+                    .build();
+        }
+    }
+}
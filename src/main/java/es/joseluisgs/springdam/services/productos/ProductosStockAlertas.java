@@ -0,0 +1,245 @@
+package es.joseluisgs.springdam.services.productos;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.dto.productos.ProductoStockAlertaDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Avisos por SSE (GET /rest/productos/alerts/stock) cuando el stock de un producto cruza el umbral de un suscriptor.
+ * Guarda el stock de cada producto (por su hueco) para saber de dónde viene cada escritura y a los suscriptores
+ * ordenados por umbral: un cambio de stock de a a b solo afecta a los umbrales entre los dos, que salen de un subMap,
+ * así que una escritura no recorre a todos los suscriptores.
+ * <p>
+ * Cada suscriptor tiene una cola acotada (maxPendientes) y los envíos los hacen unos pocos hilos, no la escritura
+ * ni un hilo por conexión. Si un cliente no lee y se le llena la cola, o un envío tarda más de timeoutEnvio
+ * (ver ProductosSseEnvios), se le cierra la conexión (al volver a conectarse puede consultar el listado)
+ * sin que los demás suscriptores dejen de recibir. Mientras se carga el índice no hay avisos.
+ */
+@Slf4j
+@Component
+public class ProductosStockAlertas extends ProductosIndex<ProductosStockAlertas.Stocks> {
+    private final int maxPendientes;
+    private final long timeout;
+    private final ProductosSseEnvios envios;
+    private final ConcurrentSkipListMap<Integer, Set<Suscriptor>> porUmbral = new ConcurrentSkipListMap<>();
+    // Para que cada escritura vea el stock que dejó la anterior
+    private final Object escrituras = new Object();
+
+    public ProductosStockAlertas(@Value("${productos.alertas.max-pendientes:256}") int maxPendientes,
+                                 @Value("${productos.alertas.timeout:3600000}") long timeout,
+                                 @Value("${productos.alertas.hilos:2}") int hilos,
+                                 @Value("${productos.alertas.timeout-envio:10000}") long timeoutEnvio) {
+        this.maxPendientes = maxPendientes;
+        this.timeout = timeout;
+        this.envios = new ProductosSseEnvios("alertas-stock", hilos, timeoutEnvio);
+    }
+
+    @PreDestroy
+    public void cerrar() {
+        envios.cerrar();
+    }
+
+    @Override
+    protected Stocks crear() {
+        return new Stocks();
+    }
+
+    @Override
+    protected void put(Stocks stocks, int slot, ProductoDTO producto) {
+        stocks.put(slot, producto.getStock());
+    }
+
+    @Override
+    protected void remove(Stocks stocks, int slot, long id) {
+        stocks.put(slot, null);
+    }
+
+    @Override
+    public void put(ProductoDTO producto) {
+        synchronized (escrituras) {
+            boolean listo = isListo();
+            Integer anterior = read(stocks -> stocks.get(slot(producto.getId())));
+            super.put(producto);
+            if (listo) {
+                avisar(producto.getId(), producto.getNombre(), anterior, producto.getStock());
+            }
+        }
+    }
+
+    @Override
+    public void remove(Long id) {
+        synchronized (escrituras) {
+            boolean listo = isListo();
+            Integer anterior = read(stocks -> stocks.get(slot(id)));
+            super.remove(id);
+            if (listo) {
+                avisar(id, null, anterior, null);
+            }
+        }
+    }
+
+    /**
+     * Nueva suscripción a los avisos de un umbral
+     *
+     * @param umbral Stock por debajo del cual se avisa
+     * @return Conexión SSE
+     * @throws IllegalArgumentException Si el umbral es negativo
+     */
+    public SseEmitter suscribir(int umbral) {
+        SseEmitter emitter = new SseEmitter(timeout);
+        suscribir(umbral, emitter);
+        return emitter;
+    }
+
+    /**
+     * Nueva suscripción a los avisos de un umbral por una conexión ya creada
+     *
+     * @param umbral  Stock por debajo del cual se avisa
+     * @param emitter Conexión SSE
+     * @throws IllegalArgumentException Si el umbral es negativo
+     */
+    public void suscribir(int umbral, SseEmitter emitter) {
+        if (umbral < 0) {
+            throw new IllegalArgumentException("El umbral de stock no puede ser negativo");
+        }
+        Suscriptor suscriptor = new Suscriptor(umbral, emitter);
+        porUmbral.computeIfAbsent(umbral, u -> ConcurrentHashMap.newKeySet()).add(suscriptor);
+        emitter.onCompletion(() -> quitar(suscriptor));
+        emitter.onTimeout(() -> quitar(suscriptor));
+        emitter.onError(e -> quitar(suscriptor));
+    }
+
+    // Número de suscriptores
+    public int suscriptores() {
+        return porUmbral.values().stream().mapToInt(Set::size).sum();
+    }
+
+    private void quitar(Suscriptor suscriptor) {
+        porUmbral.computeIfPresent(suscriptor.umbral, (u, suscriptores) -> {
+            suscriptores.remove(suscriptor);
+            return suscriptores.isEmpty() ? null : suscriptores;
+        });
+    }
+
+    // Avisa a los umbrales que ha cruzado el stock al pasar de anterior a stock (null: no existía o se ha borrado)
+    private void avisar(Long id, String nombre, Integer anterior, Integer stock) {
+        if (anterior == null && stock == null || porUmbral.isEmpty()) {
+            return;
+        }
+        String tipo;
+        NavigableMap<Integer, Set<Suscriptor>> umbrales;
+        if (anterior == null) {
+            // Nuevo: está por debajo de los umbrales mayores que su stock
+            tipo = "bajo";
+            umbrales = porUmbral.tailMap(stock, false);
+        } else if (stock == null) {
+            // Borrado: solo interesa a los que lo tenían por debajo
+            tipo = "borrado";
+            umbrales = porUmbral.tailMap(anterior, false);
+        } else if (stock < anterior) {
+            tipo = "bajo";
+            umbrales = porUmbral.subMap(stock, false, anterior, true);
+        } else if (stock > anterior) {
+            tipo = "recuperado";
+            umbrales = porUmbral.subMap(anterior, false, stock, true);
+        } else {
+            return;
+        }
+        umbrales.forEach((umbral, suscriptores) -> {
+            ProductoStockAlertaDTO alerta = ProductoStockAlertaDTO.builder()
+                    .tipo(tipo)
+                    .id(id)
+                    .nombre(nombre)
+                    .stock(stock)
+                    .stockAnterior(anterior)
+                    .umbral(umbral)
+                    .build();
+            suscriptores.forEach(suscriptor -> suscriptor.enviar(alerta));
+        });
+    }
+
+    // Stock de cada producto por hueco (ver ProductosSlots), SIN_STOCK si no tiene
+    static class Stocks {
+        private static final int SIN_STOCK = Integer.MIN_VALUE;
+        private int[] stocks = new int[0];
+
+        private void put(int slot, Integer stock) {
+            stocks = ProductosSlots.asegurar(stocks, slot, SIN_STOCK);
+            stocks[slot] = stock == null ? SIN_STOCK : stock;
+        }
+
+        private Integer get(int slot) {
+            return slot < 0 || slot >= stocks.length || stocks[slot] == SIN_STOCK ? null : stocks[slot];
+        }
+    }
+
+    private class Suscriptor {
+        private final int umbral;
+        private final SseEmitter emitter;
+        private final BlockingQueue<ProductoStockAlertaDTO> pendientes;
+        // Si ya hay un envío en marcha o programado para este suscriptor
+        private final AtomicBoolean enviando = new AtomicBoolean();
+
+        private Suscriptor(int umbral, SseEmitter emitter) {
+            this.umbral = umbral;
+            this.emitter = emitter;
+            this.pendientes = new ArrayBlockingQueue<>(maxPendientes);
+        }
+
+        private void enviar(ProductoStockAlertaDTO alerta) {
+            if (!pendientes.offer(alerta)) {
+                log.warn("Cerramos una suscripción a los avisos de stock que no lee ({} avisos pendientes)", maxPendientes);
+                descartar();
+                // En los hilos de envío: si hay un envío atascado, complete lo esperaría
+                envios.completar(emitter);
+                return;
+            }
+            programar();
+        }
+
+        private void programar() {
+            if (enviando.compareAndSet(false, true)) {
+                try {
+                    envios.execute(this::vaciar);
+                } catch (RejectedExecutionException e) {
+                    enviando.set(false);
+                }
+            }
+        }
+
+        private void vaciar() {
+            try {
+                for (ProductoStockAlertaDTO alerta = pendientes.poll(); alerta != null; alerta = pendientes.poll()) {
+                    envios.enviar(emitter, SseEmitter.event().name(alerta.getTipo()).data(alerta, MediaType.APPLICATION_JSON),
+                            this::descartar);
+                }
+            } catch (IOException | IllegalStateException e) {
+                // El cliente se ha ido o no lee
+                descartar();
+            } finally {
+                enviando.set(false);
+            }
+            // Lo que haya llegado después del último poll
+            if (!pendientes.isEmpty()) {
+                programar();
+            }
+        }
+
+        // Deja de recibir avisos
+        private void descartar() {
+            quitar(this);
+            pendientes.clear();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package es.joseluisgs.springdam.services.productos;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.dto.productos.ProductoSuggestDTO;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Trie con los nombres de los productos en minúsculas para el autocompletado (suggest).
+ * Cada nombre se añade una vez por cada palabra, desde esa palabra hasta el final, así "nar" sugiere
+ * "Zumo de Naranja". Las sugerencias de un prefijo son los nombres del subárbol de su nodo, que se recorre
+ * en orden alfabético hasta tener las que se piden: el coste depende del prefijo y de k, no del catálogo.
+ * <p>
+ * Los nodos (ProductosTrieNodo) guardan los hijos en arrays ordenados en vez de en mapas y el trie está comprimido:
+ * lo que queda de un nombre desde que ya no lo comparte con otro es una sola arista, no un nodo por letra.
+ */
+@Component
+public class ProductosSuggestIndex extends ProductosIndex<ProductosSuggestIndex.Trie> {
+
+    @Override
+    protected Trie crear() {
+        return new Trie();
+    }
+
+    @Override
+    protected void put(Trie trie, int slot, ProductoDTO producto) {
+        trie.put(slot, producto.getId(), producto.getNombre());
+    }
+
+    @Override
+    protected void remove(Trie trie, int slot, long id) {
+        trie.remove(slot);
+    }
+
+    /**
+     * Productos con alguna palabra del nombre que empieza por el prefijo, en orden alfabético
+     * del nombre desde esa palabra
+     *
+     * @param prefijo Prefijo, sin distinguir mayúsculas
+     * @param k       Número máximo de sugerencias
+     * @return Sugerencias o null si el índice no está cargado
+     */
+    public List<ProductoSuggestDTO> suggest(String prefijo, int k) {
+        String texto = prefijo.toLowerCase(Locale.ROOT);
+        return read(trie -> trie.suggest(texto, k));
+    }
+
+    /**
+     * Número de nodos del trie
+     *
+     * @return Nodos o null si el índice no está cargado
+     */
+    public Integer nodos() {
+        return read(trie -> trie.raiz.nodos());
+    }
+
+    static class Trie {
+        private final ProductosTrieNodo raiz = new ProductosTrieNodo();
+        // Por hueco: id y nombre original de cada producto (null si no hay), para devolverlo y para poder quitarlo
+        private long[] ids = new long[0];
+        private String[] nombres = new String[0];
+
+        private void put(int slot, long id, String nombre) {
+            remove(slot);
+            if (nombre == null) {
+                return;
+            }
+            ids = ProductosSlots.asegurar(ids, slot, 0);
+            nombres = ProductosSlots.asegurar(nombres, slot);
+            ids[slot] = id;
+            nombres[slot] = nombre;
+            for (String clave : claves(nombre)) {
+                raiz.insertar(clave).addSlot(slot);
+            }
+        }
+
+        private void remove(int slot) {
+            if (slot >= nombres.length || nombres[slot] == null) {
+                return;
+            }
+            for (String clave : claves(nombres[slot])) {
+                raiz.removeSlot(clave, 0, slot);
+            }
+            nombres[slot] = null;
+        }
+
+        private List<ProductoSuggestDTO> suggest(String prefijo, int k) {
+            ProductosTrieNodo nodo = raiz.buscar(prefijo);
+            // Un mismo producto puede salir por varias palabras, lo contamos una vez
+            Set<Integer> slots = new LinkedHashSet<>();
+            if (nodo != null) {
+                recoger(nodo, slots, k);
+            }
+            List<ProductoSuggestDTO> sugerencias = new ArrayList<>(slots.size());
+            for (int slot : slots) {
+                sugerencias.add(new ProductoSuggestDTO(ids[slot], nombres[slot]));
+            }
+            return sugerencias;
+        }
+
+        // Recorrido en profundidad en orden alfabético hasta tener k productos
+        private static void recoger(ProductosTrieNodo nodo, Set<Integer> slots, int k) {
+            for (int i = 0; i < nodo.numSlots && slots.size() < k; i++) {
+                slots.add(nodo.slots[i]);
+            }
+            for (int i = 0; i < nodo.letras.length && slots.size() < k; i++) {
+                recoger(nodo.hijos[i], slots, k);
+            }
+        }
+
+        // El nombre en minúsculas desde el principio de cada palabra
+        private static Set<String> claves(String nombre) {
+            String texto = nombre.toLowerCase(Locale.ROOT);
+            Set<String> claves = new LinkedHashSet<>();
+            for (int i = 0; i < texto.length(); i++) {
+                if (!Character.isWhitespace(texto.charAt(i)) && (i == 0 || Character.isWhitespace(texto.charAt(i - 1)))) {
+                    claves.add(texto.substring(i));
+                }
+            }
+            return claves;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package es.joseluisgs.springdam.services.productos;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Los productos más baratos, más caros y con menos o más stock, ya ordenados, para los "top" que se consultan
+ * cada pocos segundos (GET /rest/productos/top). Por cada campo y sentido hay un conjunto ordenado acotado
+ * (capacidad = 2 * maxN) con los mejores productos, que se actualiza en cada escritura: un producto entra si
+ * mejora al último y sale el que se pasa de la capacidad. Leer los N primeros es recorrer N, sin SQL.
+ * <p>
+ * El conjunto siempre tiene los m mejores productos (m menor o igual que la capacidad). Si se borran muchos
+ * de los de arriba puede quedarse con menos de los que se piden: entonces no contesta, el servicio lee los
+ * mejores de la base de datos y los vuelve a completar (rellenar), salvo que haya habido escrituras mientras.
+ * Los productos sin valor en el campo no entran, como en SQL no se comparan.
+ */
+@Component
+public class ProductosTopIndex extends ProductosIndex<ProductosTopIndex.Tops> {
+    public static final Set<String> CAMPOS = Set.of("precio", "stock");
+
+    private static final Map<String, Function<ProductoDTO, Comparable<?>>> VALORES = Map.of(
+            "precio", ProductoDTO::getPrecio,
+            "stock", ProductoDTO::getStock
+    );
+
+    private final int maxN;
+    private final int capacidad;
+
+    public ProductosTopIndex(@Value("${productos.top.max-n:100}") int maxN) {
+        this.maxN = maxN;
+        this.capacidad = maxN * 2;
+    }
+
+    @Override
+    protected Tops crear() {
+        return new Tops();
+    }
+
+    @Override
+    protected void put(Tops tops, int slot, ProductoDTO producto) {
+        tops.put(producto);
+    }
+
+    @Override
+    protected void remove(Tops tops, int slot, long id) {
+        tops.remove(id);
+    }
+
+    public int getMaxN() {
+        return maxN;
+    }
+
+    public int getCapacidad() {
+        return capacidad;
+    }
+
+    /**
+     * Los n primeros productos por el campo (y después por id)
+     *
+     * @param campo Campo (ver CAMPOS)
+     * @param desc  De mayor a menor
+     * @param n     Número de productos
+     * @return Productos o null si el índice no está cargado o no tiene suficientes
+     */
+    public List<ProductoDTO> top(String campo, boolean desc, int n) {
+        return read(tops -> tops.top(campo, desc, n));
+    }
+
+    /**
+     * Número de escrituras, para saber si los productos leídos de la base de datos siguen valiendo (ver rellenar)
+     *
+     * @return Versión o null si el índice no está cargado
+     */
+    public Long version() {
+        return read(tops -> tops.version);
+    }
+
+    /**
+     * Completa el conjunto con los mejores productos leídos de la base de datos
+     *
+     * @param campo     Campo (ver CAMPOS)
+     * @param desc      De mayor a menor
+     * @param productos Los primeros productos con valor en el campo, en orden, como mucho la capacidad
+     * @param version   Versión (ver version) antes de leerlos. Si ha cambiado no se hace nada
+     */
+    public void rellenar(String campo, boolean desc, List<ProductoDTO> productos, long version) {
+        actualizar(tops -> {
+            if (tops.version == version) {
+                tops.tops.get(clave(campo, desc)).rellenar(productos);
+            }
+        });
+    }
+
+    private static String clave(String campo, boolean desc) {
+        return campo + (desc ? ",desc" : ",asc");
+    }
+
+    // Por el valor del campo y después por id, como ProductosSpecifications.sort. De mayor a menor solo cambia el valor
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Comparator<ProductoDTO> comparador(String campo, boolean desc) {
+        Comparator<ProductoDTO> porValor = Comparator.comparing(p -> (Comparable) VALORES.get(campo).apply(p));
+        return (desc ? porValor.reversed() : porValor).thenComparing(ProductoDTO::getId);
+    }
+
+    private static ProductoDTO copia(ProductoDTO producto) {
+        return new ProductoDTO(producto.getId(), producto.getNombre(), producto.getPrecio(), producto.getStock(),
+                producto.getImagen(), producto.getCreatedAt());
+    }
+
+    class Tops {
+        private final Map<String, Top> tops = new HashMap<>();
+        // Productos con valor en cada campo, para saber si un conjunto los tiene todos
+        private final Map<String, ProductosBitmap> conValor = new HashMap<>();
+        private long version = 0;
+
+        private Tops() {
+            for (String campo : CAMPOS) {
+                tops.put(clave(campo, false), new Top(comparador(campo, false)));
+                tops.put(clave(campo, true), new Top(comparador(campo, true)));
+                conValor.put(campo, new ProductosBitmap());
+            }
+        }
+
+        private void put(ProductoDTO producto) {
+            remove(producto.getId());
+            for (String campo : CAMPOS) {
+                if (VALORES.get(campo).apply(producto) == null) {
+                    continue;
+                }
+                ProductosBitmap todos = conValor.get(campo);
+                for (boolean desc : new boolean[]{false, true}) {
+                    Top top = tops.get(clave(campo, desc));
+                    top.offer(producto, top.size() == todos.cardinality());
+                }
+                todos.add(producto.getId());
+            }
+        }
+
+        private void remove(long id) {
+            version++;
+            tops.values().forEach(top -> top.remove(id));
+            conValor.values().forEach(todos -> todos.remove(id));
+        }
+
+        private List<ProductoDTO> top(String campo, boolean desc, int n) {
+            Top top = tops.get(clave(campo, desc));
+            if (top.size() < n && top.size() < conValor.get(campo).cardinality()) {
+                return null;
+            }
+            return top.primeros(n);
+        }
+    }
+
+    // Los mejores productos de un campo y sentido
+    private class Top {
+        private final TreeSet<ProductoDTO> ordenados;
+
+        private Top(Comparator<ProductoDTO> comparador) {
+            this.ordenados = new TreeSet<>(comparador);
+        }
+
+        private int size() {
+            return ordenados.size();
+        }
+
+        // Entra si están todos (completo) o si es mejor que el último; si sobra, sale el último
+        private void offer(ProductoDTO producto, boolean completo) {
+            if (!completo && (ordenados.isEmpty() || ordenados.comparator().compare(producto, ordenados.last()) > 0)) {
+                return;
+            }
+            guardar(producto);
+            if (ordenados.size() > capacidad) {
+                ordenados.pollLast();
+            }
+        }
+
+        // Como mucho la capacidad: lo buscamos recorriéndolos en vez de tener un mapa por id
+        private void remove(long id) {
+            ordenados.removeIf(producto -> producto.getId() == id);
+        }
+
+        private void rellenar(List<ProductoDTO> productos) {
+            ordenados.clear();
+            for (ProductoDTO producto : productos.subList(0, Math.min(productos.size(), capacidad))) {
+                guardar(producto);
+            }
+        }
+
+        // Guardamos una copia: si alguien cambiase el producto, el conjunto dejaría de estar ordenado
+        private void guardar(ProductoDTO producto) {
+            ProductoDTO copia = copia(producto);
+            ordenados.add(copia);
+        }
+
+        private List<ProductoDTO> primeros(int n) {
+            List<ProductoDTO> primeros = new ArrayList<>(Math.min(n, ordenados.size()));
+            Iterator<ProductoDTO> it = ordenados.iterator();
+            while (primeros.size() < n && it.hasNext()) {
+                primeros.add(copia(it.next()));
+            }
+            return primeros;
+        }
+    }
+}
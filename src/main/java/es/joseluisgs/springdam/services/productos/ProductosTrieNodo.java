@@ -0,0 +1,205 @@
+package es.joseluisgs.springdam.services.productos;
+
+import java.util.Arrays;
+
+/**
+ * Nodo de los tries de nombres (ver ProductosSuggestIndex y ProductosFuzzyIndex). Guarda los hijos
+ * en arrays ordenados en vez de en mapas, para que ocupen poco, y los productos cuya clave termina aquí
+ * por su hueco (ver ProductosSlots): el índice tiene el id y el nombre de cada hueco.
+ * <p>
+ * Es un trie comprimido (radix): una cadena de nodos con un solo hijo y sin productos es una sola arista con
+ * varias letras. La primera letra de cada arista está en letras del padre (para buscar el hijo) y el resto en
+ * el hijo. Las claves que solo tiene un producto (el final de un nombre) son un nodo en vez de uno por letra.
+ * Al insertar se parte la arista donde se separan las claves y al quitar se vuelve a unir.
+ * No es thread-safe: lo protege el índice que lo usa.
+ */
+class ProductosTrieNodo {
+    private static final char[] SIN_LETRAS = new char[0];
+    private static final ProductosTrieNodo[] SIN_HIJOS = new ProductosTrieNodo[0];
+    private static final int[] SIN_SLOTS = new int[0];
+
+    // Letras de la arista que llega a este nodo después de la primera
+    String resto = "";
+    // Primera letra de la arista de cada hijo, ordenadas, y el hijo de cada una
+    char[] letras = SIN_LETRAS;
+    ProductosTrieNodo[] hijos = SIN_HIJOS;
+    // Huecos de los productos cuya clave termina aquí
+    int[] slots = SIN_SLOTS;
+    int numSlots = 0;
+
+    ProductosTrieNodo() {
+    }
+
+    private ProductosTrieNodo(String resto) {
+        this.resto = resto;
+    }
+
+    /**
+     * Nodo donde termina la clave, creándolo si hace falta
+     *
+     * @param clave Clave
+     * @return Nodo de la clave
+     */
+    ProductosTrieNodo insertar(String clave) {
+        ProductosTrieNodo nodo = this;
+        int pos = 0;
+        while (pos < clave.length()) {
+            int i = Arrays.binarySearch(nodo.letras, clave.charAt(pos));
+            if (i < 0) {
+                // Nada empieza por aquí: el resto de la clave es una sola arista
+                ProductosTrieNodo hoja = new ProductosTrieNodo(clave.substring(pos + 1));
+                nodo.insertHijo(-i - 1, clave.charAt(pos), hoja);
+                return hoja;
+            }
+            ProductosTrieNodo hijo = nodo.hijos[i];
+            int comunes = comunes(hijo.resto, clave, pos + 1);
+            if (comunes < hijo.resto.length()) {
+                // La clave termina o se separa a mitad de la arista
+                hijo = hijo.partir(comunes);
+                nodo.hijos[i] = hijo;
+            }
+            nodo = hijo;
+            pos += 1 + comunes;
+        }
+        return nodo;
+    }
+
+    /**
+     * Nodo con todas las claves que empiezan por el prefijo debajo (el prefijo puede terminar a mitad de su arista)
+     *
+     * @param prefijo Prefijo
+     * @return Nodo o null si ninguna clave empieza por el prefijo
+     */
+    ProductosTrieNodo buscar(String prefijo) {
+        ProductosTrieNodo nodo = this;
+        int pos = 0;
+        while (pos < prefijo.length()) {
+            int i = Arrays.binarySearch(nodo.letras, prefijo.charAt(pos));
+            if (i < 0) {
+                return null;
+            }
+            ProductosTrieNodo hijo = nodo.hijos[i];
+            int comunes = comunes(hijo.resto, prefijo, pos + 1);
+            if (pos + 1 + comunes == prefijo.length()) {
+                return hijo;
+            }
+            if (comunes < hijo.resto.length()) {
+                return null;
+            }
+            nodo = hijo;
+            pos += 1 + comunes;
+        }
+        return nodo;
+    }
+
+    void addSlot(int slot) {
+        if (numSlots == slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(1, numSlots * 2));
+        }
+        slots[numSlots++] = slot;
+    }
+
+    /**
+     * Quita el producto de la clave, poda los nodos del camino que se quedan sin productos ni hijos y une
+     * las aristas que se quedan con un solo hijo, para que los cambios de nombre y los borrados no vayan
+     * dejando ramas muertas que luego se recorren
+     *
+     * @param clave Clave del producto
+     * @param desde Posición de la clave que corresponde a los hijos de este nodo
+     * @param slot  Hueco del producto
+     * @return true si este nodo también se ha quedado vacío
+     */
+    boolean removeSlot(String clave, int desde, int slot) {
+        if (desde == clave.length()) {
+            removeSlot(slot);
+        } else {
+            int i = Arrays.binarySearch(letras, clave.charAt(desde));
+            if (i >= 0 && clave.startsWith(hijos[i].resto, desde + 1)) {
+                ProductosTrieNodo hijo = hijos[i];
+                if (hijo.removeSlot(clave, desde + 1 + hijo.resto.length(), slot)) {
+                    removeHijo(i);
+                } else if (hijo.numSlots == 0 && hijo.letras.length == 1) {
+                    hijos[i] = hijo.unir();
+                }
+            }
+        }
+        return numSlots == 0 && letras.length == 0;
+    }
+
+    // Número de nodos desde este, contándolo
+    int nodos() {
+        int nodos = 1;
+        for (ProductosTrieNodo hijo : hijos) {
+            nodos += hijo.nodos();
+        }
+        return nodos;
+    }
+
+    // Letras de resto que coinciden con la clave desde la posición
+    private static int comunes(String resto, String clave, int desde) {
+        int n = Math.min(resto.length(), clave.length() - desde);
+        int i = 0;
+        while (i < n && resto.charAt(i) == clave.charAt(desde + i)) {
+            i++;
+        }
+        return i;
+    }
+
+    // Parte la arista que llega a este nodo después de n letras del resto: devuelve el nodo nuevo, padre de este
+    private ProductosTrieNodo partir(int n) {
+        ProductosTrieNodo medio = new ProductosTrieNodo(resto.substring(0, n));
+        medio.letras = new char[]{resto.charAt(n)};
+        medio.hijos = new ProductosTrieNodo[]{this};
+        resto = resto.substring(n + 1);
+        return medio;
+    }
+
+    // Sin productos y con un solo hijo: su arista y la del hijo pasan a ser una. Devuelve el hijo
+    private ProductosTrieNodo unir() {
+        ProductosTrieNodo hijo = hijos[0];
+        hijo.resto = resto + letras[0] + hijo.resto;
+        return hijo;
+    }
+
+    private void insertHijo(int pos, char letra, ProductosTrieNodo hijo) {
+        char[] nuevasLetras = new char[letras.length + 1];
+        ProductosTrieNodo[] nuevosHijos = new ProductosTrieNodo[hijos.length + 1];
+        System.arraycopy(letras, 0, nuevasLetras, 0, pos);
+        System.arraycopy(hijos, 0, nuevosHijos, 0, pos);
+        nuevasLetras[pos] = letra;
+        nuevosHijos[pos] = hijo;
+        System.arraycopy(letras, pos, nuevasLetras, pos + 1, letras.length - pos);
+        System.arraycopy(hijos, pos, nuevosHijos, pos + 1, hijos.length - pos);
+        letras = nuevasLetras;
+        hijos = nuevosHijos;
+    }
+
+    private void removeSlot(int slot) {
+        for (int i = 0; i < numSlots; i++) {
+            if (slots[i] == slot) {
+                System.arraycopy(slots, i + 1, slots, i, numSlots - i - 1);
+                numSlots--;
+                break;
+            }
+        }
+        if (numSlots == 0) {
+            slots = SIN_SLOTS;
+        }
+    }
+
+    private void removeHijo(int i) {
+        if (letras.length == 1) {
+            letras = SIN_LETRAS;
+            hijos = SIN_HIJOS;
+            return;
+        }
+        char[] nuevasLetras = new char[letras.length - 1];
+        ProductosTrieNodo[] nuevosHijos = new ProductosTrieNodo[hijos.length - 1];
+        System.arraycopy(letras, 0, nuevasLetras, 0, i);
+        System.arraycopy(hijos, 0, nuevosHijos, 0, i);
+        System.arraycopy(letras, i + 1, nuevasLetras, i, letras.length - i - 1);
+        System.arraycopy(hijos, i + 1, nuevosHijos, i, hijos.length - i - 1);
+        letras = nuevasLetras;
+        hijos = nuevosHijos;
+    }
+}
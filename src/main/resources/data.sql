@@ -1,26 +1,26 @@
 /* Productos */
-insert into PRODUCTO (id, nombre, precio, stock, created_at, imagen)
-values (NEXTVAL('hibernate_sequence'), 'Zumo de Naranja', 9.5, 25, NOW(), 'https://api.lorem.space/image?w=150&h=180');
-insert into PRODUCTO (id, nombre, precio, stock, created_at, imagen)
-values (NEXTVAL('hibernate_sequence'), 'Ternera', 17.50, 10, NOW(), 'https://api.lorem.space/image?w=150&h=180');
-insert into PRODUCTO (id, nombre, precio, stock, created_at, imagen)
-values (NEXTVAL('hibernate_sequence'), 'Vino', 11.25, 15, NOW(), 'https://api.lorem.space/image?w=150&h=180');
-insert into PRODUCTO (id, nombre, precio, stock, created_at, imagen)
-values (NEXTVAL('hibernate_sequence'), 'Pan', 1.50, 20, NOW(), 'https://api.lorem.space/image?w=150&h=180');
-insert into PRODUCTO (id, nombre, precio, stock, created_at, imagen)
-values (NEXTVAL('hibernate_sequence'), 'Queso', 7.50, 18, NOW(), 'https://api.lorem.space/image?w=150&h=180');
-insert into PRODUCTO (id, nombre, precio, stock, created_at, imagen)
-values (NEXTVAL('hibernate_sequence'), 'Atun', 5.80, 8, NOW(), 'https://api.lorem.space/image?w=150&h=180');
-insert into PRODUCTO (id, nombre, precio, stock, created_at, imagen)
-values (NEXTVAL('hibernate_sequence'), 'Tomates', 6.50, 15, NOW(), 'https://api.lorem.space/image?w=150&h=180');
-insert into PRODUCTO (id, nombre, precio, stock, created_at, imagen)
-values (NEXTVAL('hibernate_sequence'), 'Coca Cola', 0.75, 50, NOW(), 'https://api.lorem.space/image?w=150&h=180');
-insert into PRODUCTO (id, nombre, precio, stock, created_at, imagen)
-values (NEXTVAL('hibernate_sequence'), 'Arroz', 1, 15, NOW(), 'https://api.lorem.space/image?w=150&h=180');
-insert into PRODUCTO (id, nombre, precio, stock, created_at, imagen)
-values (NEXTVAL('hibernate_sequence'), 'Lechuga', 3.00, 10, NOW(), 'https://api.lorem.space/image?w=150&h=180');
-insert into PRODUCTO (id, nombre, precio, stock, created_at, imagen)
-values (NEXTVAL('hibernate_sequence'), 'Cerveza', 0.50, 50, NOW(), 'https://api.lorem.space/image?w=150&h=180');
+insert into PRODUCTO (id, nombre, precio, stock, created_at, imagen, updated_at, revision)
+values (NEXTVAL('hibernate_sequence'), 'Zumo de Naranja', 9.5, 25, NOW(), 'https://api.lorem.space/image?w=150&h=180', NOW(), 1);
+insert into PRODUCTO (id, nombre, precio, stock, created_at, imagen, updated_at, revision)
+values (NEXTVAL('hibernate_sequence'), 'Ternera', 17.50, 10, NOW(), 'https://api.lorem.space/image?w=150&h=180', NOW(), 2);
+insert into PRODUCTO (id, nombre, precio, stock, created_at, imagen, updated_at, revision)
+values (NEXTVAL('hibernate_sequence'), 'Vino', 11.25, 15, NOW(), 'https://api.lorem.space/image?w=150&h=180', NOW(), 3);
+insert into PRODUCTO (id, nombre, precio, stock, created_at, imagen, updated_at, revision)
+values (NEXTVAL('hibernate_sequence'), 'Pan', 1.50, 20, NOW(), 'https://api.lorem.space/image?w=150&h=180', NOW(), 4);
+insert into PRODUCTO (id, nombre, precio, stock, created_at, imagen, updated_at, revision)
+values (NEXTVAL('hibernate_sequence'), 'Queso', 7.50, 18, NOW(), 'https://api.lorem.space/image?w=150&h=180', NOW(), 5);
+insert into PRODUCTO (id, nombre, precio, stock, created_at, imagen, updated_at, revision)
+values (NEXTVAL('hibernate_sequence'), 'Atun', 5.80, 8, NOW(), 'https://api.lorem.space/image?w=150&h=180', NOW(), 6);
+insert into PRODUCTO (id, nombre, precio, stock, created_at, imagen, updated_at, revision)
+values (NEXTVAL('hibernate_sequence'), 'Tomates', 6.50, 15, NOW(), 'https://api.lorem.space/image?w=150&h=180', NOW(), 7);
+insert into PRODUCTO (id, nombre, precio, stock, created_at, imagen, updated_at, revision)
+values (NEXTVAL('hibernate_sequence'), 'Coca Cola', 0.75, 50, NOW(), 'https://api.lorem.space/image?w=150&h=180', NOW(), 8);
+insert into PRODUCTO (id, nombre, precio, stock, created_at, imagen, updated_at, revision)
+values (NEXTVAL('hibernate_sequence'), 'Arroz', 1, 15, NOW(), 'https://api.lorem.space/image?w=150&h=180', NOW(), 9);
+insert into PRODUCTO (id, nombre, precio, stock, created_at, imagen, updated_at, revision)
+values (NEXTVAL('hibernate_sequence'), 'Lechuga', 3.00, 10, NOW(), 'https://api.lorem.space/image?w=150&h=180', NOW(), 10);
+insert into PRODUCTO (id, nombre, precio, stock, created_at, imagen, updated_at, revision)
+values (NEXTVAL('hibernate_sequence'), 'Cerveza', 0.50, 50, NOW(), 'https://api.lorem.space/image?w=150&h=180', NOW(), 11);
 
 -- Contraseña: Admin1
 insert into usuarios (id, full_name, email, username, password, avatar, created_at, last_password_change_at)
@@ -0,0 +1,85 @@
+package es.joseluisgs.springdam.benchmarks;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+// Utilidades comunes de los benchmarks: cargar muchos productos y medir tiempo y memoria
+public final class BenchmarkData {
+    private static final String[] NOMBRES = {
+            "Zumo de Naranja", "Ternera", "Vino", "Pan", "Queso", "Atun", "Tomates",
+            "Coca Cola", "Arroz", "Lechuga", "Cerveza", "Aceite", "Leche", "Huevos"
+    };
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Inserta productos sintéticos por lotes con JDBC (sin pasar por JPA para que sea rápido)
+     *
+     * @param jdbcTemplate JdbcTemplate de la base de datos de prueba
+     * @param total        Número de productos a insertar
+     */
+    public static void insertProductos(JdbcTemplate jdbcTemplate, int total) {
+        Random random = new Random(42);
+        int lote = 5_000;
+        for (int i = 0; i < total; i += lote) {
+            List<Object[]> filas = new ArrayList<>(lote);
+            for (int j = i; j < Math.min(total, i + lote); j++) {
+                filas.add(new Object[]{
+                        NOMBRES[random.nextInt(NOMBRES.length)] + " " + j,
+                        Math.round(random.nextDouble() * 10_000) / 100.0,
+                        random.nextInt(500),
+                        "https://api.lorem.space/image?w=150&h=180"
+                });
+            }
+            jdbcTemplate.batchUpdate("insert into PRODUCTO (id, nombre, precio, stock, created_at, imagen) " +
+                    "values (NEXTVAL('hibernate_sequence'), ?, ?, ?, NOW(), ?)", filas);
+        }
+    }
+
+    /**
+     * Ejecuta la operación varias veces y devuelve la media de tiempo (ms) y de memoria reservada (bytes)
+     * por el hilo en cada ejecución. Las primeras ejecuciones se descartan como calentamiento
+     */
+    public static Resultado medir(String nombre, int calentamiento, int repeticiones, Supplier<?> operacion) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long hilo = Thread.currentThread().getId();
+        for (int i = 0; i < calentamiento; i++) {
+            operacion.get();
+        }
+        long tiempo = 0;
+        long memoria = 0;
+        for (int i = 0; i < repeticiones; i++) {
+            long bytes = threads.getThreadAllocatedBytes(hilo);
+            long inicio = System.nanoTime();
+            operacion.get();
+            tiempo += System.nanoTime() - inicio;
+            memoria += threads.getThreadAllocatedBytes(hilo) - bytes;
+        }
+        Resultado resultado = new Resultado(nombre, tiempo / repeticiones / 1_000_000.0, memoria / repeticiones);
+        System.out.println(resultado);
+        return resultado;
+    }
+
+    public static class Resultado {
+        public final String nombre;
+        public final double milisegundos;
+        public final long bytes;
+
+        Resultado(String nombre, double milisegundos, long bytes) {
+            this.nombre = nombre;
+            this.milisegundos = milisegundos;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[Benchmark] %-45s %10.3f ms %,15d bytes", nombre, milisegundos, bytes);
+        }
+    }
+}
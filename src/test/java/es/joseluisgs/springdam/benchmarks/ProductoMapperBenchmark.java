@@ -0,0 +1,69 @@
+package es.joseluisgs.springdam.benchmarks;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.mappers.ProductoMapper;
+import es.joseluisgs.springdam.models.Producto;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.modelmapper.ModelMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// Benchmark JMH del mapper de productos antes (ModelMapper) y después (a mano) con listas de 10, 1000 y 100000
+// Con el profiler de GC sale también la memoria reservada por operación (gc.alloc.rate.norm)
+// No se ejecuta con el resto de test, hay que pedirlo:
+// mvn test -DskipTests=false -Dbenchmark=true -Dtest=ProductoMapperBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(0)
+public class ProductoMapperBenchmark {
+    @Param({"10", "1000", "100000"})
+    private int size;
+
+    private List<Producto> productos;
+    private ModelMapper modelMapper;
+    private ProductoMapper productoMapper;
+
+    @Setup
+    public void setUp() {
+        productos = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            productos.add(new Producto((long) i, "Producto " + i, i / 100.0, i % 500,
+                    "https://api.lorem.space/image?w=150&h=180", LocalDateTime.now(), null, null));
+        }
+        modelMapper = new ModelMapper();
+        productoMapper = new ProductoMapper();
+    }
+
+    // Lo que hacía ProductoMapper.toDTO(List) antes
+    @Benchmark
+    public List<ProductoDTO> modelMapper() {
+        return productos.stream().map(p -> modelMapper.map(p, ProductoDTO.class)).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<ProductoDTO> productoMapper() {
+        return productoMapper.toDTO(productos);
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void benchmark() throws Exception {
+        // Sin fork: surefire no deja el classpath en java.class.path para lanzar otra JVM
+        new Runner(new OptionsBuilder()
+                .include(ProductoMapperBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,73 @@
+package es.joseluisgs.springdam.benchmarks;
+
+import es.joseluisgs.springdam.controllers.productos.ProductosRestController;
+import es.joseluisgs.springdam.mappers.ProductoMapper;
+import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Benchmark de GET /rest/productos/?limit=10 antes (leer toda la tabla y hacer subList) y después (LIMIT en la consulta)
+// No se ejecuta con el resto de test, hay que pedirlo:
+// mvn test -DskipTests=false -Dbenchmark=true -Dtest=ProductosFindAllBenchmark [-Dbenchmark.productos=200000]
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+public class ProductosFindAllBenchmark {
+    private static final int LIMIT = 10;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private ProductosRepository productosRepository;
+    @Autowired
+    private ProductoMapper productoMapper;
+    @Autowired
+    private ProductosRestController productosRestController;
+
+    @BeforeAll
+    void setUp() {
+        BenchmarkData.insertProductos(jdbcTemplate, Integer.getInteger("benchmark.productos", 200_000));
+    }
+
+    @Test
+    void findAllLimit() {
+        // Lo que hacía el controlador antes: toda la tabla a memoria y luego subList
+        var antes = BenchmarkData.medir("findAll + subList (antes)", 3, 10, () ->
+                productoMapper.toDTO(productosRepository.findAll().subList(0, LIMIT)));
+
+        var despues = BenchmarkData.medir("findAll con LIMIT en la consulta (después)", 3, 10, () ->
+                findAll(Optional.empty()));
+
+        var antesNombre = BenchmarkData.medir("findAll?nombre + subList (antes)", 3, 10, () ->
+                productoMapper.toDTO(productosRepository.findByNombreContainsIgnoreCase("vino").subList(0, LIMIT)));
+
+        var despuesNombre = BenchmarkData.medir("findAll?nombre con LIMIT (después)", 3, 10, () ->
+                findAll(Optional.of("vino")));
+
+        assertTrue(despues.bytes < antes.bytes);
+        assertTrue(despuesNombre.bytes < antesNombre.bytes);
+    }
+
+    // GET /rest/productos/?limit=LIMIT, con la respuesta ya serializada en JSON
+    private byte[] findAll(Optional<String> nombre) {
+        try {
+            return productosRestController.findAll(Optional.of(String.valueOf(LIMIT)), nombre, null).getBody();
+        } catch (HttpMediaTypeNotAcceptableException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package es.joseluisgs.springdam.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import es.joseluisgs.springdam.dto.productos.ListProductoPageDTO;
+import es.joseluisgs.springdam.repositories.productos.ProductosCampos;
+import es.joseluisgs.springdam.repositories.productos.ProductosFiltro;
+import es.joseluisgs.springdam.services.productos.ProductosJson;
+import es.joseluisgs.springdam.services.productos.ProductosService;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Benchmark de páginas del listado de 10, 100 y 1.000 productos en JSON (antes) y en CBOR y Smile (después):
+// tamaño de la respuesta y tiempo de serializar (servidor) y de leerla (cliente).
+// No se ejecuta con el resto de test, hay que pedirlo:
+// mvn test -DskipTests=false -Dbenchmark=true -Dtest=ProductosFormatosBenchmark
+@SpringBootTest(properties = {"spring.jpa.show-sql=false", "productos.indices.enabled=false"})
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+public class ProductosFormatosBenchmark {
+    private static final int[] TAMANOS = {10, 100, 1_000};
+    private static final int OPERACIONES = 100_000;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private ProductosService productosService;
+    @Autowired
+    private ProductosJson productosJson;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private MappingJackson2CborHttpMessageConverter cbor;
+    @Autowired
+    private MappingJackson2SmileHttpMessageConverter smile;
+
+    private final Map<MediaType, ObjectMapper> lectores = new LinkedHashMap<>();
+
+    @BeforeAll
+    void setUp() {
+        BenchmarkData.insertProductos(jdbcTemplate, 1_000);
+        lectores.put(MediaType.APPLICATION_JSON, objectMapper);
+        lectores.put(MediaType.APPLICATION_CBOR, cbor.getObjectMapper());
+        lectores.put(ProductosJson.APPLICATION_SMILE, smile.getObjectMapper());
+    }
+
+    @Test
+    void formatos() {
+        for (int tamano : TAMANOS) {
+            ListProductoPageDTO pagina = productosService.listado(new ProductosFiltro(), 0, tamano, "id", null, "false");
+            // Más repeticiones cuanto más pequeña es la página, para que todas tarden algo parecido
+            int repeticiones = OPERACIONES / tamano;
+            Map<MediaType, Integer> bytes = new LinkedHashMap<>();
+            Map<MediaType, Double> escritura = new LinkedHashMap<>();
+            for (Map.Entry<MediaType, ObjectMapper> formato : lectores.entrySet()) {
+                byte[] contenido = productosService.serializar(pagina, ProductosCampos.TODOS, formato.getKey());
+                bytes.put(formato.getKey(), contenido.length);
+                String nombre = tamano + " productos " + formato.getKey().getSubtype();
+                escritura.put(formato.getKey(), BenchmarkData.medir(nombre + " serializar", repeticiones / 10, repeticiones, () ->
+                        productosService.serializar(pagina, ProductosCampos.TODOS, formato.getKey())).milisegundos);
+                BenchmarkData.medir(nombre + " leer", repeticiones / 10, repeticiones, () -> leer(formato.getValue(), contenido));
+                System.out.printf("[Benchmark] %d productos %s: %,d bytes%n", tamano, formato.getKey().getSubtype(), contenido.length);
+            }
+            int json = bytes.get(MediaType.APPLICATION_JSON);
+            assertTrue(bytes.get(MediaType.APPLICATION_CBOR) < json);
+            assertTrue(bytes.get(ProductosJson.APPLICATION_SMILE) < json);
+            if (tamano == 1_000) {
+                assertTrue(escritura.get(ProductosJson.APPLICATION_SMILE) < escritura.get(MediaType.APPLICATION_JSON));
+            }
+        }
+    }
+
+    private Object leer(ObjectMapper mapper, byte[] contenido) {
+        try {
+            return mapper.readTree(contenido);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
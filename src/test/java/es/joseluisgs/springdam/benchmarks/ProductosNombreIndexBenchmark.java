@@ -0,0 +1,94 @@
+package es.joseluisgs.springdam.benchmarks;
+
+import es.joseluisgs.springdam.repositories.productos.ProductosFiltro;
+import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import es.joseluisgs.springdam.repositories.productos.ProductosSpecifications;
+import es.joseluisgs.springdam.services.productos.ProductosIndices;
+import es.joseluisgs.springdam.services.productos.ProductosService;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Benchmark de la búsqueda por nombre (contiene) con LIKE (antes) y con el índice de trigramas (después)
+// y del autocompletado con el trie sobre un millón de productos. No se ejecuta con el resto de test, hay que pedirlo:
+// mvn test -DskipTests=false -Dbenchmark=true -Dtest=ProductosNombreIndexBenchmark -DargLine=-Xmx3g [-Dbenchmark.productos=1000000]
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+public class ProductosNombreIndexBenchmark {
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private ProductosRepository productosRepository;
+    @Autowired
+    private ProductosService productosService;
+    @Autowired
+    private ProductosIndices productosIndices;
+
+    @BeforeAll
+    void setUp() {
+        BenchmarkData.insertProductos(jdbcTemplate, Integer.getInteger("benchmark.productos", 1_000_000));
+        // Los hemos insertado sin pasar por el servicio
+        var inicio = System.nanoTime();
+        productosIndices.rebuild();
+        System.out.printf("[Benchmark] carga de los índices: %d ms%n", (System.nanoTime() - inicio) / 1_000_000);
+    }
+
+    @Test
+    void findAll() {
+        // Pocos resultados, ninguno y muchos (en este último el índice no sirve y se usa el LIKE)
+        for (String nombre : new String[]{"45678", "vino 9999", "queso azul", "vino"}) {
+            var antes = BenchmarkData.medir("findAll?nombre=" + nombre + " LIKE (antes)", 2, 5, () ->
+                    productosRepository.findDTO(ProductosSpecifications.nombreContiene(nombre), Sort.unsorted()));
+
+            var despues = BenchmarkData.medir("findAll?nombre=" + nombre + " índice (después)", 2, 5, () ->
+                    productosService.findAll(nombre, null));
+
+            assertEquals(productosRepository.findDTO(ProductosSpecifications.nombreContiene(nombre), Sort.unsorted()).size(),
+                    productosService.findAll(nombre, null).size());
+            if (!nombre.equals("vino")) {
+                assertTrue(despues.milisegundos < antes.milisegundos);
+            }
+        }
+    }
+
+    @Test
+    void listado() {
+        var filtro = ProductosFiltro.builder().nombre("45678").build();
+
+        var antes = BenchmarkData.medir("listado?nombre=45678 LIKE (antes)", 2, 5, () ->
+                productosRepository.findDTOPage(ProductosSpecifications.of(filtro),
+                        PageRequest.of(0, 10, ProductosSpecifications.sort("nombre"))));
+
+        var despues = BenchmarkData.medir("listado?nombre=45678 índice (después)", 2, 5, () ->
+                productosService.listado(filtro, 0, 10, "nombre", null, "true"));
+
+        assertTrue(despues.milisegundos < antes.milisegundos);
+    }
+
+    @Test
+    void suggest() {
+        // Lo que hacía la app al escribir: findAll?nombre=...&limit=10 con LIKE
+        var antes = BenchmarkData.medir("findAll?nombre=ternera 12&limit=10 (antes)", 2, 5, () ->
+                productosRepository.findDTO(ProductosSpecifications.nombreContiene("ternera 12"), Sort.unsorted(), 10));
+
+        var despues = BenchmarkData.medir("suggest?q=ternera 12 trie (después)", 100, 1_000, () ->
+                productosService.suggest("ternera 12", 10));
+
+        assertEquals(10, productosService.suggest("ternera 12", 10).size());
+        assertTrue(despues.milisegundos < antes.milisegundos);
+    }
+}
@@ -0,0 +1,82 @@
+package es.joseluisgs.springdam.benchmarks;
+
+import es.joseluisgs.springdam.mappers.ProductoMapper;
+import es.joseluisgs.springdam.repositories.productos.ProductosFiltro;
+import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import es.joseluisgs.springdam.repositories.productos.ProductosSpecifications;
+import es.joseluisgs.springdam.services.productos.ProductosService;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Benchmark de las lecturas de productos antes (entidades + ModelMapper) y después (proyecciones a ProductoDTO)
+// No se ejecuta con el resto de test, hay que pedirlo:
+// mvn test -DskipTests=false -Dbenchmark=true -Dtest=ProductosProjectionBenchmark [-Dbenchmark.productos=200000]
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+public class ProductosProjectionBenchmark {
+    private static final int LIMIT = 1_000;
+    private static final int PAGE_SIZE = 50;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private ProductosRepository productosRepository;
+    @Autowired
+    private ProductoMapper productoMapper;
+    @Autowired
+    private ProductosService productosService;
+
+    @BeforeAll
+    void setUp() {
+        BenchmarkData.insertProductos(jdbcTemplate, Integer.getInteger("benchmark.productos", 200_000));
+    }
+
+    @Test
+    void findAll() {
+        var antes = BenchmarkData.medir("findAll entidades + mapper (antes)", 3, 10, () ->
+                productoMapper.toDTO(productosRepository.findAll(PageRequest.of(0, LIMIT)).getContent()));
+
+        var despues = BenchmarkData.medir("findAll proyección DTO (después)", 3, 10, () ->
+                productosService.findAll(null, LIMIT));
+
+        assertTrue(despues.bytes < antes.bytes);
+    }
+
+    @Test
+    void findById() {
+        var antes = BenchmarkData.medir("findById entidad + mapper (antes)", 100, 1_000, () ->
+                productosRepository.findById(1L).map(productoMapper::toDTO));
+
+        var despues = BenchmarkData.medir("findById proyección DTO (después)", 100, 1_000, () ->
+                productosService.findById(1L));
+
+        assertTrue(despues.bytes < antes.bytes);
+    }
+
+    @Test
+    void listado() {
+        var filtro = ProductosFiltro.builder().nombre("vino").precioMax(50.0).build();
+
+        var antes = BenchmarkData.medir("listado entidades + mapper (antes)", 3, 20, () ->
+                productoMapper.toDTO(productosRepository.findAll(ProductosSpecifications.of(filtro),
+                        PageRequest.of(10, PAGE_SIZE, ProductosSpecifications.sort("precio"))).getContent()));
+
+        var despues = BenchmarkData.medir("listado proyección DTO (después)", 3, 20, () ->
+                productosService.listado(filtro, 10, PAGE_SIZE, "precio", null, "true"));
+
+        assertTrue(despues.bytes < antes.bytes);
+    }
+}
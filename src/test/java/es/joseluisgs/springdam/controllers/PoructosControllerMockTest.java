@@ -1,5 +1,6 @@
 package es.joseluisgs.springdam.controllers;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import es.joseluisgs.springdam.controllers.productos.ProductosRestController;
 import es.joseluisgs.springdam.dto.productos.CreateProductoDTO;
 import es.joseluisgs.springdam.dto.productos.ProductoDTO;
@@ -8,10 +9,12 @@ import es.joseluisgs.springdam.errors.productos.ProductoNotFoundException;
 import es.joseluisgs.springdam.mappers.ProductoMapper;
 import es.joseluisgs.springdam.models.Producto;
 import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import es.joseluisgs.springdam.services.productos.ProductosCache;
+import es.joseluisgs.springdam.services.productos.ProductosFragmentos;
 import es.joseluisgs.springdam.services.uploads.StorageService;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Order;
 import org.junit.jupiter.api.Test;
-import org.mockito.InjectMocks;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -43,34 +46,52 @@ public class PoructosControllerMockTest {
             .stock(10)
             .build();
     // SUT: System Under Test
-    @InjectMocks
-    private ProductosRestController productosController;
+    // Lo sacamos del contexto para que use el servicio de productos real con los mocks
+    private final ProductosRestController productosController;
+
+    @Autowired
+    private ProductosCache productosCache;
+    @Autowired
+    private ProductosFragmentos productosFragmentos;
+
+    @Autowired
+    private ObjectMapper objectMapper;
 
     // Debemos decir como va a ser la inyección!!!!
     @Autowired
-    public PoructosControllerMockTest(ProductosRepository productosRepository, StorageService storageService, ProductoMapper productoMapper) {
+    public PoructosControllerMockTest(ProductosRepository productosRepository, StorageService storageService, ProductoMapper productoMapper,
+                                      ProductosRestController productosController) {
         this.productosRepository = productosRepository;
         this.storageService = storageService;
         this.productoMapper = productoMapper;
+        this.productosController = productosController;
+    }
+
+    // Los mocks se reinician en cada test, las cachés de productos también
+    @BeforeEach
+    void setUp() {
+        productosCache.clear();
+        productosFragmentos.clear();
     }
 
     @Test
-    void getAllTestMock() {
+    void getAllTestMock() throws Exception {
         var dto = ProductoDTO.builder()
+                .id(producto.getId())
                 .nombre(producto.getNombre())
                 .precio(producto.getPrecio())
                 .stock(producto.getStock())
                 .build();
 
-        Mockito.when(productosRepository.findAll())
-                .thenReturn(List.of(producto));
-
-        Mockito.when(productoMapper.toDTO(List.of(producto))).thenReturn(List.of(dto));
+        // La consulta ya devuelve los DTO, no pasamos por el mapper
+        Mockito.when(productosRepository.findDTO(Mockito.any(), Mockito.any()))
+                .thenReturn(List.of(dto));
 
         var response = productosController.findAll(
-                java.util.Optional.empty(), java.util.Optional.empty()
+                java.util.Optional.empty(), java.util.Optional.empty(), null
         );
-        var res = response.getBody();
+        // La respuesta ya va serializada
+        var res = List.of(objectMapper.readValue(response.getBody(), ProductoDTO[].class));
 
         assertAll(
                 () -> assertEquals(HttpStatus.OK.value(), response.getStatusCode().value()),
@@ -81,17 +102,45 @@ public class PoructosControllerMockTest {
     }
 
     @Test
-    void getByIdTestMock() {
+    void getAllLimitTestMock() throws Exception {
         var dto = ProductoDTO.builder()
+                .id(producto.getId())
                 .nombre(producto.getNombre())
                 .precio(producto.getPrecio())
                 .stock(producto.getStock())
                 .build();
 
-        Mockito.when(productosRepository.findById(1L))
-                .thenReturn(Optional.of(producto));
+        // Con límite no se debe leer la tabla entera
+        Mockito.when(productosRepository.findDTO(Mockito.any(), Mockito.any(), Mockito.eq(1)))
+                .thenReturn(List.of(dto));
 
-        Mockito.when(productoMapper.toDTO(producto)).thenReturn(dto);
+        var response = productosController.findAll(
+                Optional.of("1"), Optional.empty(), null
+        );
+        var res = List.of(objectMapper.readValue(response.getBody(), ProductoDTO[].class));
+
+        assertAll(
+                () -> assertEquals(HttpStatus.OK.value(), response.getStatusCode().value()),
+                () -> assertEquals(1, res.size()),
+                () -> assertEquals(res.get(0).getNombre(), producto.getNombre())
+        );
+
+        Mockito.verify(productosRepository, Mockito.times(1)).findDTO(Mockito.any(), Mockito.any(), Mockito.eq(1));
+        Mockito.verify(productosRepository, Mockito.never()).findAll();
+        Mockito.verify(productoMapper, Mockito.never()).toDTO(Mockito.anyList());
+    }
+
+    @Test
+    void getByIdTestMock() {
+        var dto = ProductoDTO.builder()
+                .id(producto.getId())
+                .nombre(producto.getNombre())
+                .precio(producto.getPrecio())
+                .stock(producto.getStock())
+                .build();
+
+        Mockito.when(productosRepository.findDTOById(1L))
+                .thenReturn(Optional.of(dto));
 
         var response = productosController.findById(1L);
         var res = response.getBody();
@@ -103,13 +152,13 @@ public class PoructosControllerMockTest {
                 () -> assertEquals(res.getStock(), producto.getStock())
         );
 
-        Mockito.verify(productosRepository, Mockito.times(1)).findById(1L);
-        Mockito.verify(productoMapper, Mockito.times(1)).toDTO(producto);
+        Mockito.verify(productosRepository, Mockito.times(1)).findDTOById(1L);
+        Mockito.verify(productoMapper, Mockito.never()).toDTO(producto);
     }
 
     @Test
     void findByIdException() {
-        Mockito.when(productosRepository.findById(1L)).thenReturn(Optional.empty());
+        Mockito.when(productosRepository.findDTOById(1L)).thenReturn(Optional.empty());
 
         Exception ex = assertThrows(ProductoNotFoundException.class, () -> {
             productosController.findById(1L);
@@ -118,7 +167,7 @@ public class PoructosControllerMockTest {
         assertTrue(ex.getMessage().contains("producto"));
 
         Mockito.verify(productosRepository, Mockito.times(1))
-                .findById(1L);
+                .findDTOById(1L);
     }
 
     @Test
@@ -131,12 +180,14 @@ public class PoructosControllerMockTest {
                 .build();
 
         var dto = ProductoDTO.builder()
+                .id(producto.getId())
                 .nombre(producto.getNombre())
                 .precio(producto.getPrecio())
                 .stock(producto.getStock())
                 .build();
 
-        Mockito.when(productosRepository.save(producto))
+        // El servicio guarda una copia del producto con su revisión
+        Mockito.when(productosRepository.save(Mockito.any(Producto.class)))
                 .thenReturn(producto);
 
         Mockito.when(productoMapper.fromDTO(createDto))
@@ -155,7 +206,7 @@ public class PoructosControllerMockTest {
         );
 
         Mockito.verify(productosRepository, Mockito.times(1))
-                .save(producto);
+                .save(Mockito.any(Producto.class));
         Mockito.verify(productoMapper, Mockito.times(1))
                 .fromDTO(createDto);
         Mockito.verify(productoMapper, Mockito.times(1))
@@ -244,6 +295,7 @@ public class PoructosControllerMockTest {
     @Order(4)
     void updateTestMock() {
         var dto = ProductoDTO.builder()
+                .id(producto.getId())
                 .nombre(producto.getNombre())
                 .precio(producto.getPrecio())
                 .stock(producto.getStock())
@@ -252,7 +304,8 @@ public class PoructosControllerMockTest {
         Mockito.when(productosRepository.findById(1L))
                 .thenReturn(java.util.Optional.of(producto));
 
-        Mockito.when(productosRepository.save(producto))
+        // El servicio guarda una copia del producto con su revisión
+        Mockito.when(productosRepository.save(Mockito.any(Producto.class)))
                 .thenReturn(producto);
 
         Mockito.when(productoMapper.toDTO(producto)).thenReturn(dto);
@@ -270,7 +323,7 @@ public class PoructosControllerMockTest {
         Mockito.verify(productosRepository, Mockito.times(1))
                 .findById(1L);
         Mockito.verify(productosRepository, Mockito.times(1))
-                .save(producto);
+                .save(Mockito.any(Producto.class));
         Mockito.verify(productoMapper, Mockito.times(1))
                 .toDTO(producto);
     }
@@ -279,6 +332,7 @@ public class PoructosControllerMockTest {
     @Order(5)
     void deleteTestMock() {
         var dto = ProductoDTO.builder()
+                .id(producto.getId())
                 .nombre(producto.getNombre())
                 .precio(producto.getPrecio())
                 .stock(producto.getStock())
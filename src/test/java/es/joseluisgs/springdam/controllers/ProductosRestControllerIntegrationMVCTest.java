@@ -1,9 +1,15 @@
 package es.joseluisgs.springdam.controllers;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
 import es.joseluisgs.springdam.dto.productos.CreateProductoDTO;
 import es.joseluisgs.springdam.dto.productos.ProductoDTO;
 import es.joseluisgs.springdam.models.Producto;
+import es.joseluisgs.springdam.models.ProductoBorrado;
+import es.joseluisgs.springdam.repositories.productos.ProductosBorradosRepository;
+import es.joseluisgs.springdam.services.productos.ProductosFragmentos;
+import es.joseluisgs.springdam.services.productos.ProductosRevisiones;
 import org.junit.jupiter.api.MethodOrderer;
 import org.junit.jupiter.api.Order;
 import org.junit.jupiter.api.Test;
@@ -15,19 +21,32 @@ import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMock
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.json.JacksonTester;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 // https://www.baeldung.com/integration-testing-in-spring
@@ -56,6 +75,12 @@ public class ProductosRestControllerIntegrationMVCTest {
     private JacksonTester<CreateProductoDTO> jsonCreateProductoDTO;
     @Autowired
     private JacksonTester<ProductoDTO> jsonProductoDTO;
+    @Autowired
+    private ProductosBorradosRepository productosBorradosRepository;
+    @Autowired
+    private ProductosRevisiones productosRevisiones;
+    @Autowired
+    private ProductosFragmentos productosFragmentos;
 
     @Test
     @Order(1)
@@ -253,4 +278,751 @@ public class ProductosRestControllerIntegrationMVCTest {
                 .andExpect(jsonPath("$.stock", is(producto.getStock())))
                 .andReturn();
     }
+
+    @Test
+    @Order(11)
+    public void listadoCursorTest() throws Exception {
+        var total = mapper.readTree(mockMvc.perform(get("/rest/productos/all")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andReturn().getResponse().getContentAsString()).get("totalElements").asLong();
+
+        // Recorremos todas las páginas siguiendo el cursor: empezamos con after vacío
+        var leidos = new ArrayList<Double>();
+        var after = "";
+        do {
+            var response = mockMvc.perform(get("/rest/productos/all?size=4&sort=precio&after=" + after)
+                            .accept(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.sort", is("precio: ASC")))
+                    .andReturn().getResponse();
+            var page = mapper.readTree(response.getContentAsString());
+            page.get("data").forEach(p -> leidos.add(p.get("precio").asDouble()));
+            after = page.get("nextCursor").isNull() ? null : page.get("nextCursor").asText();
+        } while (after != null);
+
+        var ordenados = new ArrayList<>(leidos);
+        ordenados.sort(Double::compareTo);
+        assertAll(
+                () -> assertEquals(total, leidos.size()),
+                () -> assertEquals(ordenados, leidos)
+        );
+    }
+
+    @Test
+    @Order(12)
+    public void listadoCursorBadRequestTest() throws Exception {
+        mockMvc.perform(get("/rest/productos/all?after=noesuncursor")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Order(13)
+    public void exportTest() throws Exception {
+        // La respuesta se escribe en streaming de forma asíncrona
+        var result = mockMvc.perform(get("/rest/productos/export?format=csv"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        var response = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andReturn().getResponse();
+
+        var lineas = response.getContentAsString().split("\n");
+        assertAll(
+                () -> assertEquals("id,nombre,precio,stock,imagen,createdAt", lineas[0]),
+                () -> assertTrue(lineas[1].startsWith(producto.getId() + "," + producto.getNombre() + "," + producto.getPrecio())),
+                () -> assertTrue(response.getContentType().startsWith("text/csv"))
+        );
+    }
+
+    @Test
+    @Order(14)
+    public void exportBadRequestTest() throws Exception {
+        mockMvc.perform(get("/rest/productos/export?format=xml"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Order(15)
+    public void listadoSinCountTest() throws Exception {
+        mockMvc.perform(get("/rest/productos/all?size=2&count=false")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.length()", is(2)))
+                .andExpect(jsonPath("$.hasNext", is(true)))
+                .andExpect(jsonPath("$.totalElements").doesNotExist());
+    }
+
+    @Test
+    @Order(16)
+    public void listadoCountCachedTest() throws Exception {
+        var total = mapper.readTree(mockMvc.perform(get("/rest/productos/all?nombre=o")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andReturn().getResponse().getContentAsString()).get("totalElements").asInt();
+
+        mockMvc.perform(get("/rest/productos/all?nombre=o&count=cached")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements", is(total)));
+    }
+
+    @Test
+    @Order(17)
+    public void listadoFiltrosTest() throws Exception {
+        var response = mockMvc.perform(get("/rest/productos/all?precio=5&precioMax=10&stockMax=20&sort=precio")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.sort", is("precio: ASC,id: ASC")))
+                .andReturn().getResponse();
+
+        var data = mapper.readTree(response.getContentAsString()).get("data");
+        var precios = new ArrayList<Double>();
+        data.forEach(p -> {
+            precios.add(p.get("precio").asDouble());
+            assertTrue(p.get("stock").asInt() <= 20);
+        });
+        var ordenados = new ArrayList<>(precios);
+        ordenados.sort(Double::compareTo);
+        assertAll(
+                () -> assertFalse(precios.isEmpty()),
+                () -> assertTrue(precios.stream().allMatch(p -> p >= 5 && p <= 10)),
+                () -> assertEquals(ordenados, precios)
+        );
+    }
+
+    @Test
+    @Order(18)
+    public void listadoSortNoPermitidoTest() throws Exception {
+        mockMvc.perform(get("/rest/productos/all?sort=imagen")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Order(19)
+    public void findByIdCacheTest() throws Exception {
+        // La segunda lectura sale de la caché
+        mockMvc.perform(get("/rest/productos/" + producto.getId())).andExpect(status().isOk());
+        mockMvc.perform(get("/rest/productos/" + producto.getId())).andExpect(status().isOk());
+        var stats = mapper.readTree(mockMvc.perform(get("/rest/productos/cache/stats"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString());
+        assertAll(
+                () -> assertTrue(stats.get("hits").asLong() >= 1),
+                () -> assertTrue(stats.get("misses").asLong() >= 1),
+                () -> assertTrue(stats.get("size").asInt() >= 1)
+        );
+
+        // Al actualizar se invalida y leemos el producto modificado
+        var productoDTO = ProductoDTO.builder()
+                .nombre("Zumo de Manzana")
+                .precio(producto.getPrecio())
+                .stock(producto.getStock())
+                .build();
+        mockMvc.perform(put("/rest/productos/" + producto.getId())
+                        .content(jsonProductoDTO.write(productoDTO).getJson())
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/rest/productos/" + producto.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.nombre", is("Zumo de Manzana")));
+
+        // Y al borrar ya no está
+        mockMvc.perform(delete("/rest/productos/" + producto.getId())).andExpect(status().isOk());
+        mockMvc.perform(get("/rest/productos/" + producto.getId())).andExpect(status().isNotFound());
+    }
+
+    @Test
+    @Order(20)
+    public void listadoCacheTest() throws Exception {
+        var url = "/rest/productos/all?nombre=zumo&size=100";
+        var total = mapper.readTree(mockMvc.perform(get(url))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString()).get("totalElements").asInt();
+
+        // Lo mismo desde la caché
+        mockMvc.perform(get(url))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.totalElements", is(total)));
+
+        // Una escritura invalida todas las páginas guardadas
+        var createDto = CreateProductoDTO.builder()
+                .nombre("Zumo de Piña")
+                .precio(12.5)
+                .stock(15)
+                .build();
+        mockMvc.perform(post("/rest/productos/")
+                        .content(jsonCreateProductoDTO.write(createDto).getJson())
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get(url))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements", is(total + 1)));
+    }
+
+    @Test
+    @Order(21)
+    public void suggestTest() throws Exception {
+        mockMvc.perform(get("/rest/productos/suggest?q=zum"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].nombre", is(producto.getNombre())))
+                .andExpect(jsonPath("$[0].id", is(producto.getId().intValue())));
+
+        // Los productos nuevos se sugieren nada más crearlos
+        var createDto = CreateProductoDTO.builder()
+                .nombre("Zumbador")
+                .precio(12.5)
+                .stock(15)
+                .build();
+        mockMvc.perform(post("/rest/productos/")
+                        .content(jsonCreateProductoDTO.write(createDto).getJson())
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/rest/productos/suggest?q=zum&limit=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()", is(1)))
+                .andExpect(jsonPath("$[0].nombre", is("Zumbador")));
+    }
+
+    @Test
+    @Order(22)
+    public void suggestBadRequestTest() throws Exception {
+        mockMvc.perform(get("/rest/productos/suggest?q=zum&limit=0"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Order(23)
+    public void listadoFuzzyTest() throws Exception {
+        mockMvc.perform(get("/rest/productos/all?nombre=Ternra&fuzzy=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements", is(1)))
+                .andExpect(jsonPath("$.data[0].nombre", is("Ternera")));
+
+        // Sin fuzzy no hay ninguno
+        mockMvc.perform(get("/rest/productos/all?nombre=Ternra"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements", is(0)));
+
+        // Con más filtros
+        mockMvc.perform(get("/rest/productos/all?nombre=zumo naranxa&fuzzy=1&precioMax=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements", is(0)));
+        mockMvc.perform(get("/rest/productos/all?nombre=zumo naranxa&fuzzy=1&precio=1&size=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements", is(1)))
+                .andExpect(jsonPath("$.hasNext", is(false)))
+                .andExpect(jsonPath("$.data[0].nombre", is(producto.getNombre())));
+    }
+
+    @Test
+    @Order(24)
+    public void listadoFuzzyCursorTest() throws Exception {
+        mockMvc.perform(get("/rest/productos/all?nombre=Ternra&fuzzy=1&after="))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Order(25)
+    public void listadoPrecioIndexTest() throws Exception {
+        // Entre 5.5 y 10 hay 5 productos: Init2 (5.55), Atun (5.8), Tomates (6.5), Queso (7.5) y Zumo de Naranja (9.5)
+        mockMvc.perform(get("/rest/productos/all?precio=5.5&precioMax=10&sort=precio&page=1&size=2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements", is(5)))
+                .andExpect(jsonPath("$.totalPages", is(3)))
+                .andExpect(jsonPath("$.hasNext", is(true)))
+                .andExpect(jsonPath("$.data[0].nombre", is("Tomates")))
+                .andExpect(jsonPath("$.data[1].nombre", is("Queso")));
+
+        // El índice se actualiza con cada escritura
+        mockMvc.perform(post("/rest/productos/")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(jsonCreateProductoDTO.write(CreateProductoDTO.builder()
+                                .nombre("Aceite").precio(10.0).stock(10).build()).getJson()))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/rest/productos/all?precio=5.5&precioMax=10&sort=precio&page=2&size=2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements", is(6)))
+                .andExpect(jsonPath("$.hasNext", is(false)))
+                .andExpect(jsonPath("$.data[1].nombre", is("Aceite")));
+
+        // Con nombre el total sale de cruzar los dos índices
+        mockMvc.perform(get("/rest/productos/all?nombre=zumo&precio=9"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements", is(1)));
+        mockMvc.perform(get("/rest/productos/all?nombre=zumo&precioMax=9"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements", is(0)));
+
+        // Lo mismo que por SQL
+        assertListadoComoSql("precio=5.5&precioMax=10&sort=precio", 1, 2);
+        assertListadoComoSql("precio=1&precioMax=9.5&sort=precio", 2, 3);
+    }
+
+    @Test
+    @Order(26)
+    public void listadoBitmapIndexTest() throws Exception {
+        // Stock entre 15 y 20: Vino (15), Pan (20), Queso (18), Tomates (15) y Arroz (15). Con nombre y precio solo Vino
+        mockMvc.perform(get("/rest/productos/all?stockMin=15&stockMax=20"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements", is(5)));
+        mockMvc.perform(get("/rest/productos/all?nombre=vin&precio=10&stockMin=15&stockMax=20"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements", is(1)))
+                .andExpect(jsonPath("$.data[0].nombre", is("Vino")));
+
+        // Lo mismo que por SQL
+        assertListadoComoSql("stockMin=15&stockMax=20&sort=precio", 1, 2);
+        assertListadoComoSql("nombre=a&precio=1&stockMax=20&sort=stock", 0, 3);
+
+        mockMvc.perform(get("/rest/productos/bitmap/stats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.cargado", is(true)))
+                .andExpect(jsonPath("$.productos", is(13)));
+    }
+
+    @Test
+    @Order(27)
+    public void listadoOrdenIndexTest() throws Exception {
+        // Sin filtros, por precio: Cerveza (0.5), Coca Cola (0.75), Arroz (1), Pan (1.5), Init (1.5), Lechuga (3)...
+        mockMvc.perform(get("/rest/productos/all?sort=precio&page=1&size=3"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements", is(13)))
+                .andExpect(jsonPath("$.data[0].nombre", is("Pan")))
+                .andExpect(jsonPath("$.data[1].nombre", is("Init")))
+                .andExpect(jsonPath("$.data[2].nombre", is("Lechuga")));
+
+        // Con filtros, por nombre: los de stock 15 son Arroz, Tomates y Vino
+        mockMvc.perform(get("/rest/productos/all?stockMin=15&stockMax=15&sort=nombre&page=1&size=2&count=false"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements").doesNotExist())
+                .andExpect(jsonPath("$.hasNext", is(false)))
+                .andExpect(jsonPath("$.data[0].nombre", is("Vino")));
+
+        // Lo mismo que por SQL, por cada orden precalculado
+        for (String sort : new String[]{"id", "precio", "stock", "createdAt"}) {
+            assertListadoComoSql("sort=" + sort, 2, 4);
+            assertListadoComoSql("stockMin=10&sort=" + sort, 1, 3);
+        }
+    }
+
+    @Test
+    @Order(28)
+    public void statsTest() throws Exception {
+        // Los 13 productos, 266 unidades en total
+        mockMvc.perform(get("/rest/productos/stats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.productos", is(13)))
+                .andExpect(jsonPath("$.stockTotal", is(266)))
+                .andExpect(jsonPath("$.precioMin", is(0.5)))
+                .andExpect(jsonPath("$.precioMax", is(17.5)));
+
+        // Con filtros del listado y rangos: Init2, Tomates, Queso y Zumo de Naranja por debajo de 10 y Vino por encima
+        mockMvc.perform(get("/rest/productos/stats?precio=5&stockMin=15&rangos=10"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.productos", is(5)))
+                .andExpect(jsonPath("$.rangos[0].productos", is(4)))
+                .andExpect(jsonPath("$.rangos[1].productos", is(1)));
+
+        // Los mismos productos que el listado por SQL con esos filtros
+        for (String filtros : new String[]{"precio=5&stockMin=15", "nombre=o&stockMax=20", "nombre=zumo", "precioMax=3"}) {
+            String stats = mockMvc.perform(get("/rest/productos/stats?" + filtros))
+                    .andReturn().getResponse().getContentAsString();
+            String listado = mockMvc.perform(get("/rest/productos/all?size=1000&after=&" + filtros))
+                    .andReturn().getResponse().getContentAsString();
+            assertEquals(mapper.readTree(listado).get("data").size(), mapper.readTree(stats).get("productos").asInt());
+        }
+
+        mockMvc.perform(get("/rest/productos/stats?rangos=10,5"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Order(29)
+    public void precioQuantilesTest() throws Exception {
+        // Precios de los 13 productos ordenados: la mediana es 5.55 (Init2) y el máximo 17.5 (Ternera), con un 1 % de error
+        mockMvc.perform(get("/rest/productos/stats/precio?quantiles=0.5,1&rangos=10"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.productos", is(13)))
+                .andExpect(jsonPath("$.quantiles['0.5']", closeTo(5.55, 0.06)))
+                .andExpect(jsonPath("$.quantiles['1.0']", closeTo(17.5, 0.18)))
+                .andExpect(jsonPath("$.histograma[0].productos", is(11)))
+                .andExpect(jsonPath("$.histograma[1].productos", is(2)));
+
+        // Por una palabra del nombre
+        mockMvc.perform(get("/rest/productos/stats/precio?nombre=zumo"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.productos", is(1)))
+                .andExpect(jsonPath("$.quantiles['0.5']", closeTo(9.5, 0.1)));
+
+        mockMvc.perform(get("/rest/productos/stats/precio?quantiles=2"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/rest/productos/stats/precio?nombre=zumo naranja"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Order(30)
+    public void topTest() throws Exception {
+        // Menos stock: Init (5), Atun (8) y Ternera (10, antes que Lechuga por id)
+        productosFragmentos.clear();
+        mockMvc.perform(get("/rest/productos/top?by=stock&n=3"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(3)))
+                .andExpect(jsonPath("$[0].nombre", is("Init")))
+                .andExpect(jsonPath("$[1].nombre", is("Atun")))
+                .andExpect(jsonPath("$[2].nombre", is("Ternera")));
+        // En JSON los productos salen de ProductosFragmentos
+        assertEquals(3, productosFragmentos.size());
+
+        mockMvc.perform(get("/rest/productos/top?by=precio&orden=desc&n=2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].nombre", is("Ternera")))
+                .andExpect(jsonPath("$[1].nombre", is("Vino")));
+
+        mockMvc.perform(get("/rest/productos/top?by=nombre"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/rest/productos/top?by=precio&n=0"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Order(31)
+    public void alertasStockTest() throws Exception {
+        MvcResult suscripcion = mockMvc.perform(get("/rest/productos/alerts/stock?threshold=12"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // Queso (id 5) baja de 18 a 11 y vuelve a 18
+        for (int stock : new int[]{11, 18}) {
+            mockMvc.perform(put("/rest/productos/5")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"nombre\": \"Queso\", \"precio\": 7.5, \"stock\": " + stock + "}"))
+                    .andExpect(status().isOk());
+        }
+
+        String eventos = "";
+        for (int i = 0; i < 200 && !eventos.contains("event:recuperado"); i++) {
+            Thread.sleep(10);
+            eventos = suscripcion.getResponse().getContentAsString();
+        }
+        assertTrue(eventos.contains("event:bajo"));
+        assertTrue(eventos.contains("\"nombre\":\"Queso\""));
+        assertTrue(eventos.contains("event:recuperado"));
+
+        mockMvc.perform(get("/rest/productos/alerts/stock?threshold=-1"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Order(32)
+    public void cambiosTest() throws Exception {
+        MvcResult suscripcion = mockMvc.perform(get("/rest/productos/changes/stream"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // Se crea un producto y se borra
+        String creado = mockMvc.perform(post("/rest/productos/")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"nombre\": \"Cambio\", \"precio\": 10, \"stock\": 10}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        Long id = jsonProductoDTO.parseObject(creado).getId();
+        mockMvc.perform(delete("/rest/productos/" + id))
+                .andExpect(status().isOk());
+
+        String eventos = "";
+        for (int i = 0; i < 200 && !eventos.contains("event:borrado"); i++) {
+            Thread.sleep(10);
+            eventos = suscripcion.getResponse().getContentAsString();
+        }
+        Matcher m = Pattern.compile("id:(\\d+)\nevent:creado").matcher(eventos);
+        assertTrue(m.find());
+        assertTrue(eventos.contains("\"nombre\":\"Cambio\""));
+        assertTrue(eventos.contains("event:borrado"));
+
+        // Volviendo con el id del evento de creación solo llega el borrado
+        MvcResult reanudada = mockMvc.perform(get("/rest/productos/changes/stream").header("Last-Event-ID", m.group(1)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String pendientes = "";
+        for (int i = 0; i < 200 && !pendientes.contains("event:borrado"); i++) {
+            Thread.sleep(10);
+            pendientes = reanudada.getResponse().getContentAsString();
+        }
+        assertTrue(pendientes.contains("event:borrado"));
+        assertFalse(pendientes.contains("event:creado"));
+    }
+
+    @Test
+    @Order(33)
+    public void syncTest() throws Exception {
+        // Desde el principio, de 5 en 5: los 5 primeros productos de data.sql y hay más
+        mockMvc.perform(get("/rest/productos/sync?limit=5"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.productos", hasSize(5)))
+                .andExpect(jsonPath("$.productos[0].nombre", is("Zumo de Naranja")))
+                .andExpect(jsonPath("$.revision", is(5)))
+                .andExpect(jsonPath("$.hayMas", is(true)));
+
+        // Revisión actual
+        String todo = mockMvc.perform(get("/rest/productos/sync?limit=5000"))
+                .andExpect(jsonPath("$.hayMas", is(false)))
+                .andReturn().getResponse().getContentAsString();
+        long revision = mapper.readTree(todo).get("revision").asLong();
+
+        // Se crea un producto, se actualiza Queso (id 5) y se borra el nuevo
+        String creado = mockMvc.perform(post("/rest/productos/")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"nombre\": \"Sync\", \"precio\": 10, \"stock\": 10}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        Long id = jsonProductoDTO.parseObject(creado).getId();
+        mockMvc.perform(put("/rest/productos/5")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"nombre\": \"Queso\", \"precio\": 7.5, \"stock\": 18}"))
+                .andExpect(status().isOk());
+        mockMvc.perform(delete("/rest/productos/" + id))
+                .andExpect(status().isOk());
+
+        // Solo lo que ha cambiado: el nuevo ya no está, pero sí su borrado
+        mockMvc.perform(get("/rest/productos/sync?since=" + revision))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.productos", hasSize(1)))
+                .andExpect(jsonPath("$.productos[0].nombre", is("Queso")))
+                .andExpect(jsonPath("$.borrados", hasSize(1)))
+                .andExpect(jsonPath("$.borrados[0]", is(id.intValue())))
+                .andExpect(jsonPath("$.revision", is((int) revision + 3)))
+                .andExpect(jsonPath("$.hayMas", is(false)))
+                .andExpect(jsonPath("$.recargar", is(false)));
+
+        // Pasada la retención se quita la marca del borrado: quien no la haya visto tiene que recargar
+        ProductoBorrado borrado = productosBorradosRepository.findById(id).orElseThrow();
+        borrado.setDeletedAt(LocalDateTime.now().minusDays(60));
+        productosBorradosRepository.save(borrado);
+        productosRevisiones.podarBorrados();
+        assertTrue(productosBorradosRepository.findById(id).isEmpty());
+        mockMvc.perform(get("/rest/productos/sync?since=" + revision))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.recargar", is(true)))
+                .andExpect(jsonPath("$.productos", hasSize(0)));
+        mockMvc.perform(get("/rest/productos/sync?since=" + (revision + 3)))
+                .andExpect(jsonPath("$.recargar", is(false)));
+        mockMvc.perform(get("/rest/productos/sync"))
+                .andExpect(jsonPath("$.recargar", is(false)));
+
+        mockMvc.perform(get("/rest/productos/sync?limit=0"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Order(34)
+    public void batchTest() throws Exception {
+        // En el orden pedido y con los que no existen marcados
+        productosFragmentos.clear();
+        mockMvc.perform(get("/rest/productos/batch?ids=5,999999,1,5"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(4)))
+                .andExpect(jsonPath("$[0].id", is(5)))
+                .andExpect(jsonPath("$[0].encontrado", is(true)))
+                .andExpect(jsonPath("$[0].producto.nombre", is("Queso")))
+                .andExpect(jsonPath("$[1].id", is(999999)))
+                .andExpect(jsonPath("$[1].encontrado", is(false)))
+                .andExpect(jsonPath("$[2].producto.nombre", is("Zumo de Naranja")))
+                .andExpect(jsonPath("$[3].producto.nombre", is("Queso")));
+        // Los encontrados salen de ProductosFragmentos
+        assertEquals(2, productosFragmentos.size());
+
+        mockMvc.perform(post("/rest/productos/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[3, 1]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].producto.nombre", is("Vino")))
+                .andExpect(jsonPath("$[1].producto.nombre", is("Zumo de Naranja")));
+
+        mockMvc.perform(post("/rest/productos/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[]"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Order(35)
+    public void fieldsTest() throws Exception {
+        // Solo los campos pedidos, y el id siempre
+        mockMvc.perform(get("/rest/productos/?fields=nombre&limit=2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].id").exists())
+                .andExpect(jsonPath("$[0].nombre").exists())
+                .andExpect(jsonPath("$[0].precio").doesNotExist())
+                .andExpect(jsonPath("$[0].imagen").doesNotExist());
+
+        // Vista compacta del listado. El cursor necesita el nombre, pero no sale si no se pide
+        String pagina = mockMvc.perform(get("/rest/productos/all?fields=lista&size=2&sort=stock&after="))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data", hasSize(2)))
+                .andExpect(jsonPath("$.data[0].nombre").exists())
+                .andExpect(jsonPath("$.data[0].precio").exists())
+                .andExpect(jsonPath("$.data[0].stock").doesNotExist())
+                .andExpect(jsonPath("$.data[0].createdAt").doesNotExist())
+                .andExpect(jsonPath("$.nextCursor").exists())
+                .andReturn().getResponse().getContentAsString();
+        String cursor = mapper.readTree(pagina).get("nextCursor").asText();
+        mockMvc.perform(get("/rest/productos/all?fields=lista&size=2&after=" + cursor))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data", hasSize(2)));
+
+        // Sin fields, todos
+        mockMvc.perform(get("/rest/productos/all?size=1"))
+                .andExpect(jsonPath("$.data[0].createdAt").exists());
+
+        var result = mockMvc.perform(get("/rest/productos/export?format=csv&fields=precio,nombre"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        var lineas = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString().split("\n");
+        assertAll(
+                () -> assertEquals("id,nombre,precio", lineas[0]),
+                () -> assertEquals(3, lineas[1].split(",").length)
+        );
+
+        mockMvc.perform(get("/rest/productos/all?fields=nombre,foo"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/rest/productos/export?fields=foo"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Order(36)
+    public void formatosBinariosTest() throws Exception {
+        var cbor = new CBORMapper();
+        var smile = new SmileMapper();
+
+        // Los mismos DTO en CBOR, ya serializados por ProductosJson
+        var response = mockMvc.perform(get("/rest/productos/?limit=2").accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andReturn().getResponse();
+        ProductoDTO[] productos = cbor.readValue(response.getContentAsByteArray(), ProductoDTO[].class);
+        assertAll(
+                () -> assertTrue(response.getContentType().startsWith("application/cbor")),
+                () -> assertTrue(response.getHeaders(HttpHeaders.VARY).contains(HttpHeaders.ACCEPT)),
+                () -> assertEquals(2, productos.length),
+                () -> assertNotNull(productos[0].getNombre())
+        );
+
+        // El listado ya serializado, en Smile (y en caché aparte del JSON)
+        mockMvc.perform(get("/rest/productos/all?size=2"))
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON));
+        var listado = mockMvc.perform(get("/rest/productos/all?size=2")
+                        .header(HttpHeaders.ACCEPT, "application/json;q=0.5, application/x-jackson-smile"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse();
+        var pagina = smile.readTree(listado.getContentAsByteArray());
+        assertAll(
+                () -> assertTrue(listado.getContentType().startsWith("application/x-jackson-smile")),
+                () -> assertEquals(2, pagina.get("data").size()),
+                () -> assertEquals(0, pagina.get("currentPage").asInt()),
+                () -> assertTrue(listado.getHeaders(HttpHeaders.VARY).contains(HttpHeaders.ACCEPT))
+        );
+
+        // Sin ninguno de nuestros formatos: 406, no JSON
+        mockMvc.perform(get("/rest/productos/all?size=2").accept(MediaType.APPLICATION_XML))
+                .andExpect(status().isNotAcceptable());
+        mockMvc.perform(get("/rest/productos/?fields=nombre&limit=2").accept(MediaType.APPLICATION_XML))
+                .andExpect(status().isNotAcceptable());
+        mockMvc.perform(get("/rest/productos/?fields=nombre&limit=2"))
+                .andExpect(status().isOk())
+                .andExpect(header().stringValues(HttpHeaders.VARY, hasItem(HttpHeaders.ACCEPT)));
+
+        // Usuarios: login con el cuerpo en CBOR y la respuesta en Smile
+        var login = mockMvc.perform(post("/rest/usuarios/login")
+                        .contentType(MediaType.APPLICATION_CBOR)
+                        .content(cbor.writeValueAsBytes(Map.of("username", "admin", "password", "Admin1")))
+                        .accept("application/x-jackson-smile"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse();
+        assertEquals("admin", smile.readTree(login.getContentAsByteArray()).get("username").asText());
+    }
+
+    @Test
+    @Order(37)
+    public void fragmentosTest() throws Exception {
+        // Los productos del listado en JSON salen de los fragmentos ya serializados: igual que sin ellos
+        String listado = mockMvc.perform(get("/rest/productos/all?size=5"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data", hasSize(5)))
+                .andExpect(jsonPath("$.data[4].nombre", is("Queso")))
+                .andReturn().getResponse().getContentAsString();
+        String queso = mockMvc.perform(get("/rest/productos/5"))
+                .andReturn().getResponse().getContentAsString();
+        var smile = mockMvc.perform(get("/rest/productos/all?size=5").accept("application/x-jackson-smile"))
+                .andReturn().getResponse().getContentAsByteArray();
+        assertAll(
+                () -> assertEquals(mapper.readTree(queso), mapper.readTree(listado).get("data").get(4)),
+                () -> assertEquals(mapper.readTree(listado).get("data"), new SmileMapper().readTree(smile).get("data"))
+        );
+
+        // Al modificarlo se vuelve a serializar
+        mockMvc.perform(put("/rest/productos/5")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"nombre\": \"Queso Curado\", \"precio\": 7.5, \"stock\": 18}"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/rest/productos/all?size=5"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data[4].nombre", is("Queso Curado")))
+                .andExpect(jsonPath("$.data[4].stock", is(18)));
+        mockMvc.perform(get("/rest/productos/all?nombre=curado"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data", hasSize(1)))
+                .andExpect(jsonPath("$.data[0].id", is(5)));
+    }
+
+    @Test
+    @Order(38)
+    public void ordenNombreTest() throws Exception {
+        for (String nombre : new String[]{"árbol", "Ábaco", "zanahoria", "ZUMO natural", "Ñame"}) {
+            mockMvc.perform(post("/rest/productos/")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"nombre\": \"" + nombre + "\", \"precio\": 1, \"stock\": 1}"))
+                    .andExpect(status().isOk());
+        }
+
+        // Con count (índices), sin count y por cursor, el mismo orden por nombre: el de la base de datos
+        List<String> ordenes = new ArrayList<>();
+        for (String params : new String[]{"count=true", "count=false", "after="}) {
+            String listado = mockMvc.perform(get("/rest/productos/all?size=100&sort=nombre&" + params))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString();
+            ordenes.add(mapper.readTree(listado).get("data").findValuesAsText("id").toString());
+        }
+        assertAll(
+                () -> assertEquals(ordenes.get(0), ordenes.get(1)),
+                () -> assertEquals(ordenes.get(0), ordenes.get(2))
+        );
+    }
+
+    // La página del listado que sale de los índices en memoria es la misma que la de la consulta SQL
+    // (la paginación por cursor siempre va por SQL): los mismos productos, en el mismo orden, y el mismo total
+    private void assertListadoComoSql(String params, int page, int size) throws Exception {
+        String cursor = mockMvc.perform(get("/rest/productos/all?size=1000&after=&" + params))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        List<String> sql = mapper.readTree(cursor).get("data").findValuesAsText("id");
+        String listado = mockMvc.perform(get("/rest/productos/all?count=true&page=" + page + "&size=" + size + "&" + params))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        var pagina = mapper.readTree(listado);
+        int desde = Math.min(page * size, sql.size());
+        assertAll(
+                () -> assertEquals(sql.subList(desde, Math.min(desde + size, sql.size())), pagina.get("data").findValuesAsText("id")),
+                () -> assertEquals(sql.size(), pagina.get("totalElements").asInt())
+        );
+    }
 }
@@ -6,7 +6,10 @@ import es.joseluisgs.springdam.dto.productos.ProductoDTO;
 import es.joseluisgs.springdam.mappers.ProductoMapper;
 import es.joseluisgs.springdam.models.Producto;
 import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import es.joseluisgs.springdam.services.productos.ProductosCache;
+import es.joseluisgs.springdam.services.productos.ProductosFragmentos;
 import es.joseluisgs.springdam.services.uploads.StorageService;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.MethodOrderer;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestMethodOrder;
@@ -50,6 +53,7 @@ public class ProductosRestControllerMockMVCTest {
             .stock(25)
             .build();
     private final ProductoDTO productoDTO = ProductoDTO.builder()
+            .id(producto.getId())
             .nombre(producto.getNombre())
             .precio(producto.getPrecio())
             .stock(producto.getStock())
@@ -61,6 +65,10 @@ public class ProductosRestControllerMockMVCTest {
     private JacksonTester<CreateProductoDTO> jsonCreateProductoDTO;
     @Autowired
     private JacksonTester<ProductoDTO> jsonProductoDTO;
+    @Autowired
+    private ProductosCache productosCache;
+    @Autowired
+    private ProductosFragmentos productosFragmentos;
 
     @Autowired
     public ProductosRestControllerMockMVCTest(ProductosRepository productosRepository, StorageService storageService, ProductoMapper productoMapper) {
@@ -70,13 +78,17 @@ public class ProductosRestControllerMockMVCTest {
     }
 
 
+    // Los mocks se reinician en cada test, las cachés de productos también
+    @BeforeEach
+    void setUp() {
+        productosCache.clear();
+        productosFragmentos.clear();
+    }
+
     @Test
     public void findAllTest() throws Exception {
 
-        Mockito.when(productosRepository.findAll())
-                .thenReturn(List.of(producto));
-
-        Mockito.when(productoMapper.toDTO(List.of(producto)))
+        Mockito.when(productosRepository.findDTO(Mockito.any(), Mockito.any()))
                 .thenReturn(List.of(productoDTO));
 
         mockMvc
@@ -91,16 +103,13 @@ public class ProductosRestControllerMockMVCTest {
                 .andExpect(jsonPath("$[0].stock", is(producto.getStock())))
                 .andReturn();
 
-        Mockito.verify(productosRepository, Mockito.times(1)).findAll();
-        Mockito.verify(productoMapper, Mockito.times(1)).toDTO(List.of(producto));
+        Mockito.verify(productosRepository, Mockito.times(1)).findDTO(Mockito.any(), Mockito.any());
     }
 
     @Test
     public void findByIdlTest() throws Exception {
-        Mockito.when(productosRepository.findById(producto.getId()))
-                .thenReturn(Optional.of(producto));
-
-        Mockito.when(productoMapper.toDTO(producto)).thenReturn(productoDTO);
+        Mockito.when(productosRepository.findDTOById(producto.getId()))
+                .thenReturn(Optional.of(productoDTO));
 
         mockMvc.perform(
                         get("/rest/productos/" + producto.getId())
@@ -112,20 +121,19 @@ public class ProductosRestControllerMockMVCTest {
                 .andExpect(jsonPath("$.stock", is(producto.getStock())))
                 .andReturn();
 
-        Mockito.verify(productosRepository, Mockito.times(1)).findById(producto.getId());
-        Mockito.verify(productoMapper, Mockito.times(1)).toDTO(producto);
+        Mockito.verify(productosRepository, Mockito.times(1)).findDTOById(producto.getId());
     }
 
     @Test
     void findByIdExceptionTest() throws Exception {
-        Mockito.when(productosRepository.findById(producto.getId()))
+        Mockito.when(productosRepository.findDTOById(producto.getId()))
                 .thenReturn(Optional.empty());
         mockMvc.perform(
                         get("/rest/productos/" + producto.getId())
                                 .contentType(MediaType.APPLICATION_JSON)
                                 .accept(MediaType.APPLICATION_JSON))
                 .andExpect(status().isNotFound());
-        Mockito.verify(productosRepository, Mockito.times(1)).findById(producto.getId());
+        Mockito.verify(productosRepository, Mockito.times(1)).findDTOById(producto.getId());
     }
 
     @Test
@@ -175,7 +183,8 @@ public class ProductosRestControllerMockMVCTest {
         Mockito.when(productosRepository.findById(producto.getId()))
                 .thenReturn(Optional.of(producto));
 
-        Mockito.when(productosRepository.save(producto))
+        // El servicio guarda una copia del producto con su revisión
+        Mockito.when(productosRepository.save(Mockito.any(Producto.class)))
                 .thenReturn(producto);
 
         Mockito.when(productoMapper.toDTO(producto)).thenReturn(productoDTO);
@@ -197,7 +206,7 @@ public class ProductosRestControllerMockMVCTest {
         Mockito.verify(productosRepository, Mockito.times(1))
                 .findById(producto.getId());
         Mockito.verify(productosRepository, Mockito.times(1))
-                .save(producto);
+                .save(Mockito.any(Producto.class));
         Mockito.verify(productoMapper, Mockito.times(1))
                 .toDTO(producto);
     }
@@ -229,7 +238,8 @@ public class ProductosRestControllerMockMVCTest {
                 .stock(producto.getStock())
                 .build();
 
-        Mockito.when(productosRepository.save(producto))
+        // El servicio guarda una copia del producto con su revisión
+        Mockito.when(productosRepository.save(Mockito.any(Producto.class)))
                 .thenReturn(producto);
 
         Mockito.when(productoMapper.toDTO(producto)).thenReturn(productoDTO);
@@ -251,7 +261,7 @@ public class ProductosRestControllerMockMVCTest {
                 .andReturn();
 
         Mockito.verify(productosRepository, Mockito.times(1))
-                .save(producto);
+                .save(Mockito.any(Producto.class));
         Mockito.verify(productoMapper, Mockito.times(1))
                 .toDTO(producto);
         Mockito.verify(productoMapper, Mockito.times(1))
@@ -0,0 +1,80 @@
+package es.joseluisgs.springdam.mappers;
+
+import es.joseluisgs.springdam.dto.productos.CreateProductoDTO;
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.models.Producto;
+import org.junit.jupiter.api.Test;
+import org.modelmapper.ModelMapper;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// El mapper a mano debe dar lo mismo que daba ModelMapper
+public class ProductoMapperTest {
+    private final ProductoMapper productoMapper = new ProductoMapper();
+    private final ModelMapper modelMapper = new ModelMapper();
+    private final Producto producto = Producto.builder()
+            .id(1L)
+            .nombre("Producto de prueba")
+            .precio(10.5)
+            .stock(10)
+            .imagen("https://api.lorem.space/image?w=150&h=180")
+            .createdAt(LocalDateTime.of(2022, 2, 1, 10, 30, 15, 123_000_000))
+            .build();
+
+    @Test
+    void toDTOTest() {
+        var esperado = modelMapper.map(producto, ProductoDTO.class);
+        var res = productoMapper.toDTO(producto);
+
+        assertAll(
+                () -> assertEquals(esperado.getId(), res.getId()),
+                () -> assertEquals(esperado.getNombre(), res.getNombre()),
+                () -> assertEquals(esperado.getPrecio(), res.getPrecio()),
+                () -> assertEquals(esperado.getStock(), res.getStock()),
+                () -> assertEquals(esperado.getImagen(), res.getImagen()),
+                () -> assertEquals(esperado.getCreatedAt(), res.getCreatedAt())
+        );
+    }
+
+    @Test
+    void toDTOListTest() {
+        var res = productoMapper.toDTO(List.of(producto, producto));
+        var list = productoMapper.toListDTO(List.of(producto));
+
+        assertAll(
+                () -> assertEquals(2, res.size()),
+                () -> assertEquals(producto.getNombre(), res.get(1).getNombre()),
+                () -> assertEquals(1, list.getData().size()),
+                () -> assertEquals(producto.getCreatedAt().toString(), list.getData().get(0).getCreatedAt())
+        );
+    }
+
+    @Test
+    void fromDTOTest() {
+        var res = productoMapper.fromDTO(productoMapper.toDTO(producto));
+
+        assertEquals(producto, res);
+    }
+
+    @Test
+    void fromCreateDTOTest() {
+        var createDto = CreateProductoDTO.builder()
+                .nombre(producto.getNombre())
+                .precio(producto.getPrecio())
+                .stock(producto.getStock())
+                .build();
+
+        var res = productoMapper.fromDTO(createDto);
+
+        assertAll(
+                () -> assertNull(res.getId()),
+                () -> assertEquals(producto.getNombre(), res.getNombre()),
+                () -> assertEquals(producto.getPrecio(), res.getPrecio()),
+                () -> assertEquals(producto.getStock(), res.getStock()),
+                () -> assertNotNull(res.getCreatedAt())
+        );
+    }
+}
@@ -1,7 +1,12 @@
 package es.joseluisgs.springdam.repositories;
 
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
 import es.joseluisgs.springdam.models.Producto;
+import es.joseluisgs.springdam.repositories.productos.ProductosCampos;
+import es.joseluisgs.springdam.repositories.productos.ProductosCursor;
+import es.joseluisgs.springdam.repositories.productos.ProductosFiltro;
 import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import es.joseluisgs.springdam.repositories.productos.ProductosSpecifications;
 import lombok.RequiredArgsConstructor;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -13,11 +18,18 @@ import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabas
 import org.springframework.boot.test.autoconfigure.orm.jpa.*;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.ImportResource;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.context.web.WebAppConfiguration;
 
 import javax.transaction.Transactional;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -47,6 +59,15 @@ public class ProductosRepositoryJPATest {
             .stock(10)
             .build();
 
+    @Test
+    public void revisionUnicaTest() {
+        // Dos escrituras con la misma revisión no pueden confirmarse (ver ProductosRevisiones)
+        productosRepository.saveAndFlush(Producto.builder().nombre("Uno").precio(1.0).stock(1).revision(1000L).build());
+
+        assertThrows(DataIntegrityViolationException.class, () -> productosRepository.saveAndFlush(
+                Producto.builder().nombre("Dos").precio(2.0).stock(2).revision(1000L).build()));
+    }
+
     @Test
     public void getAllTest() {
         entityManager.persist(producto);
@@ -92,6 +113,94 @@ public class ProductosRepositoryJPATest {
         );
     }
 
+    @Test
+    public void findAllSpecification() {
+        entityManager.persist(producto);
+        entityManager.flush();
+
+        var filtro = ProductosFiltro.builder()
+                .nombre("producto TEST")
+                .precio(5.0)
+                .precioMax(15.0)
+                .stockMin(10)
+                .build();
+        var found = productosRepository.findAll(ProductosSpecifications.of(filtro), ProductosSpecifications.sort("nombre"));
+        var none = productosRepository.findAll(ProductosSpecifications.of(ProductosFiltro.builder()
+                .nombre(producto.getNombre())
+                .stockMax(5)
+                .build()));
+        assertAll(
+                () -> assertEquals(1, found.size()),
+                () -> assertEquals(producto.getNombre(), found.get(0).getNombre()),
+                () -> assertTrue(none.isEmpty())
+        );
+    }
+
+    @Test
+    public void palabraEmpiezaTest() {
+        entityManager.persist(Producto.builder().nombre("Zumo de Kumquat").precio(2.0).stock(5).build());
+        entityManager.persist(Producto.builder().nombre("Mermelada Extrakumquat").precio(3.0).stock(5).build());
+        entityManager.persist(Producto.builder().nombre("Kumquats 100%").precio(4.0).stock(5).build());
+        entityManager.flush();
+
+        // Como el autocompletado: alguna palabra empieza por el texto, que puede seguir por las siguientes palabras
+        assertAll(
+                () -> assertEquals(List.of("Kumquats 100%", "Zumo de Kumquat"), nombres(ProductosSpecifications.palabraEmpieza("KUMQ"))),
+                () -> assertEquals(List.of("Zumo de Kumquat"), nombres(ProductosSpecifications.palabraEmpieza("de kumq"))),
+                () -> assertTrue(nombres(ProductosSpecifications.palabraEmpieza("trakumq")).isEmpty()),
+                () -> assertEquals(List.of("Kumquats 100%"), nombres(ProductosSpecifications.palabraEmpieza("100%")))
+        );
+    }
+
+    private List<String> nombres(Specification<Producto> spec) {
+        return productosRepository.findDTO(spec, Sort.by("nombre", "id"), 10).stream()
+                .map(ProductoDTO::getNombre)
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void cursorNulosTest() {
+        // Sin fecha de creación (el builder no la pone): los nulos van los primeros y el cursor tiene que pasar por ellos
+        Producto sinFecha1 = entityManager.persist(Producto.builder().nombre("Cursor Nulo").precio(1.0).stock(1).build());
+        Producto conFecha = entityManager.persist(Producto.builder().nombre("Cursor Nulo").precio(1.0).stock(1)
+                .createdAt(LocalDateTime.of(2020, 1, 1, 0, 0)).build());
+        Producto sinFecha2 = entityManager.persist(Producto.builder().nombre("Cursor Nulo").precio(1.0).stock(1).build());
+        entityManager.flush();
+
+        // De uno en uno, cada página detrás del cursor (codificado como se le da al cliente) de la anterior
+        Specification<Producto> spec = ProductosSpecifications.nombreContiene("cursor nulo");
+        List<Long> ids = new ArrayList<>();
+        ProductosCursor cursor = null;
+        for (int i = 0; i < 4; i++) {
+            List<ProductoDTO> pagina = productosRepository.findDTO(spec.and(ProductosSpecifications.after(cursor)),
+                    ProductosSpecifications.sort("createdAt"), 1);
+            if (pagina.isEmpty()) {
+                break;
+            }
+            ids.add(pagina.get(0).getId());
+            cursor = ProductosCursor.decode(ProductosCursor.of("createdAt", pagina.get(0)).encode());
+        }
+        assertEquals(List.of(sinFecha1.getId(), sinFecha2.getId(), conFecha.getId()), ids);
+    }
+
+    @Test
+    public void findDTOCampos() {
+        entityManager.persist(producto);
+        entityManager.flush();
+
+        // Solo se leen las columnas pedidas, el resto queda a null
+        var found = productosRepository.findDTO(ProductosSpecifications.nombreContiene("producto test"),
+                Sort.unsorted(), ProductosCampos.of("precio"));
+        assertAll(
+                () -> assertEquals(1, found.size()),
+                () -> assertEquals(producto.getId(), found.get(0).getId()),
+                () -> assertEquals(producto.getPrecio(), found.get(0).getPrecio()),
+                () -> assertNull(found.get(0).getNombre()),
+                () -> assertNull(found.get(0).getCreatedAt()),
+                () -> assertThrows(IllegalArgumentException.class, () -> ProductosCampos.of("precio,foo"))
+        );
+    }
+
     @Test
     public void save() {
         Producto saved = productosRepository.save(producto);
@@ -0,0 +1,104 @@
+package es.joseluisgs.springdam.services;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.repositories.productos.ProductosFiltro;
+import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import es.joseluisgs.springdam.services.productos.ProductosBitmapIndex;
+import es.joseluisgs.springdam.services.productos.ProductosIndices;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductosBitmapIndexTest {
+    private final ProductosRepository productosRepository = Mockito.mock(ProductosRepository.class);
+    private final ProductosBitmapIndex index = new ProductosBitmapIndex(1, 10);
+    private final ProductosIndices indices = new ProductosIndices(productosRepository, List.of(index), true);
+
+    @BeforeEach
+    void setUp() {
+        Mockito.when(productosRepository.streamDTO()).thenReturn(Stream.of(
+                ProductoDTO.builder().id(1L).nombre("Zumo de Naranja").precio(9.5).stock(25).build(),
+                ProductoDTO.builder().id(2L).nombre("Zumo de Manzana").precio(2.25).stock(8).build(),
+                ProductoDTO.builder().id(3L).nombre("Vino Tinto").precio(9.75).stock(30).build(),
+                ProductoDTO.builder().id(4L).nombre("Naranjas").precio(3.0).stock(50).build()
+        ));
+        indices.rebuild();
+    }
+
+    private long[] filter(ProductosFiltro filtro) {
+        return index.filter(filtro).toArray();
+    }
+
+    @Test
+    void filterTest() {
+        assertAll(
+                () -> assertArrayEquals(new long[]{1, 2}, filter(ProductosFiltro.builder().nombre("ZUMO").build())),
+                () -> assertArrayEquals(new long[]{1}, filter(ProductosFiltro.builder().nombre("zumo").precio(5.0).build())),
+                () -> assertArrayEquals(new long[]{2, 4}, filter(ProductosFiltro.builder().precioMax(5.0).build())),
+                () -> assertArrayEquals(new long[]{1, 4}, filter(ProductosFiltro.builder().nombre("naranja").stockMin(20).build())),
+                () -> assertArrayEquals(new long[0], filter(ProductosFiltro.builder().nombre("cerveza").build()))
+        );
+    }
+
+    @Test
+    void filterExtremosTest() {
+        // 9.5 y 9.75 están en el mismo tramo de precio y 25 y 30 en tramos distintos de stock
+        assertAll(
+                () -> assertArrayEquals(new long[]{1}, filter(ProductosFiltro.builder().precio(9.5).precioMax(9.6).build())),
+                () -> assertArrayEquals(new long[]{1, 3}, filter(ProductosFiltro.builder().precio(9.5).precioMax(9.75).build())),
+                () -> assertArrayEquals(new long[]{1, 3}, filter(ProductosFiltro.builder().stockMin(25).stockMax(30).build())),
+                () -> assertArrayEquals(new long[]{3}, filter(ProductosFiltro.builder().stockMin(26).stockMax(49).build())),
+                () -> assertArrayEquals(new long[0], filter(ProductosFiltro.builder().precio(10.0).precioMax(1.0).build()))
+        );
+    }
+
+    @Test
+    void filterSinTildesTest() {
+        index.put(ProductoDTO.builder().id(5L).nombre("Piña Colada").precio(4.0).stock(5).build());
+
+        // Candidatos sin distinguir tildes, como la collation de la base de datos
+        assertAll(
+                () -> assertArrayEquals(new long[]{5}, filter(ProductosFiltro.builder().nombre("pina").build())),
+                () -> assertArrayEquals(new long[]{5}, filter(ProductosFiltro.builder().nombre("PIÑA").precioMax(5.0).build()))
+        );
+    }
+
+    @Test
+    void noContestaTest() {
+        assertAll(
+                () -> assertNull(new ProductosBitmapIndex(1, 10).filter(ProductosFiltro.builder().precio(1.0).build())),
+                () -> assertNull(index.filter(ProductosFiltro.builder().nombre("zu").build())),
+                () -> assertNull(index.filter(new ProductosFiltro()))
+        );
+    }
+
+    @Test
+    void putRemoveTest() {
+        index.put(ProductoDTO.builder().id(2L).nombre("Zumo de Piña").precio(12.0).stock(5).build());
+        index.remove(1L);
+
+        assertAll(
+                () -> assertArrayEquals(new long[]{2}, filter(ProductosFiltro.builder().nombre("zumo").build())),
+                () -> assertArrayEquals(new long[0], filter(ProductosFiltro.builder().nombre("manzana").build())),
+                () -> assertArrayEquals(new long[]{2, 3}, filter(ProductosFiltro.builder().precio(9.6).build()))
+        );
+    }
+
+    @Test
+    void statsTest() {
+        var stats = index.stats();
+        assertAll(
+                () -> assertTrue(stats.isCargado()),
+                () -> assertEquals(4, stats.getProductos()),
+                () -> assertEquals(stats.getTrigramas() + stats.getTramosPrecio() + stats.getTramosStock(), stats.getBitmaps()),
+                () -> assertEquals(3, stats.getTramosPrecio()),
+                () -> assertTrue(stats.getBytes() > 0),
+                () -> assertFalse(new ProductosBitmapIndex(1, 10).stats().isCargado())
+        );
+    }
+}
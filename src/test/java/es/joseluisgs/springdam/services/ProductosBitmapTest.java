@@ -0,0 +1,74 @@
+package es.joseluisgs.springdam.services;
+
+import es.joseluisgs.springdam.services.productos.ProductosBitmap;
+import org.junit.jupiter.api.Test;
+
+import java.util.TreeSet;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductosBitmapTest {
+
+    private static ProductosBitmap of(long... ids) {
+        ProductosBitmap bitmap = new ProductosBitmap();
+        for (long id : ids) {
+            bitmap.add(id);
+        }
+        return bitmap;
+    }
+
+    @Test
+    void addRemoveTest() {
+        ProductosBitmap bitmap = of(5, 1, 70_000, 5, 3);
+        bitmap.remove(3);
+        bitmap.remove(99);
+
+        assertAll(
+                () -> assertArrayEquals(new long[]{1, 5, 70_000}, bitmap.toArray()),
+                () -> assertEquals(3, bitmap.cardinality()),
+                () -> assertTrue(bitmap.contains(70_000)),
+                () -> assertFalse(bitmap.contains(3))
+        );
+    }
+
+    @Test
+    void andOrTest() {
+        ProductosBitmap a = of(1, 2, 3, 70_000, 200_000);
+        ProductosBitmap b = of(2, 3, 4, 200_000, 300_000);
+
+        assertAll(
+                () -> assertArrayEquals(new long[]{2, 3, 200_000}, a.and(b).toArray()),
+                () -> assertArrayEquals(new long[]{1, 2, 3, 4, 70_000, 200_000, 300_000}, a.or(b).toArray()),
+                // No cambian los originales
+                () -> assertEquals(5, a.cardinality())
+        );
+    }
+
+    @Test
+    void contenedoresGrandesTest() {
+        // Los pares y los múltiplos de 3 hasta 100.000: pasan de array a mapa de bits
+        ProductosBitmap pares = new ProductosBitmap();
+        ProductosBitmap tercios = new ProductosBitmap();
+        LongStream.range(0, 100_000).filter(i -> i % 2 == 0).forEach(pares::add);
+        LongStream.range(0, 100_000).filter(i -> i % 3 == 0).forEach(tercios::add);
+        TreeSet<Long> union = new TreeSet<>();
+        LongStream.range(0, 100_000).filter(i -> i % 2 == 0 || i % 3 == 0).forEach(union::add);
+
+        assertAll(
+                () -> assertEquals(50_000, pares.cardinality()),
+                () -> assertEquals(16_667, pares.and(tercios).cardinality()),
+                () -> assertArrayEquals(union.stream().mapToLong(Long::longValue).toArray(), pares.or(tercios).toArray()),
+                () -> assertTrue(pares.memoria() < 50_000 * 2)
+        );
+
+        // Y vuelven a array al quitar casi todos
+        LongStream.range(0, 99_990).forEach(pares::remove);
+        assertArrayEquals(new long[]{99_990, 99_992, 99_994, 99_996, 99_998}, pares.toArray());
+    }
+
+    @Test
+    void filterTest() {
+        assertArrayEquals(new long[]{2, 70_000}, of(1, 2, 3, 70_000).filter(id -> id % 2 == 0).toArray());
+    }
+}
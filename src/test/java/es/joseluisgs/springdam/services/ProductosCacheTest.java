@@ -0,0 +1,144 @@
+package es.joseluisgs.springdam.services;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.services.productos.ProductosCache;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductosCacheTest {
+    private final AtomicInteger consultas = new AtomicInteger();
+
+    private Optional<ProductoDTO> load(Long id) {
+        consultas.incrementAndGet();
+        return id > 0 ? Optional.of(ProductoDTO.builder().id(id).nombre("Producto " + id).build()) : Optional.empty();
+    }
+
+    @Test
+    void hitMissTest() {
+        var cache = new ProductosCache(10, 60_000);
+
+        var primero = cache.get(1L, this::load);
+        var segundo = cache.get(1L, this::load);
+        var stats = cache.stats();
+
+        assertAll(
+                () -> assertEquals("Producto 1", primero.get().getNombre()),
+                () -> assertSame(primero.get(), segundo.get()),
+                () -> assertEquals(1, consultas.get()),
+                () -> assertEquals(1, stats.getHits()),
+                () -> assertEquals(1, stats.getMisses()),
+                () -> assertEquals(0.5, stats.getHitRate())
+        );
+    }
+
+    @Test
+    void noExisteTest() {
+        var cache = new ProductosCache(10, 60_000);
+
+        cache.get(-1L, this::load);
+        cache.get(-1L, this::load);
+
+        // Los que no existen no se guardan
+        assertAll(
+                () -> assertEquals(2, consultas.get()),
+                () -> assertEquals(0, cache.stats().getSize())
+        );
+    }
+
+    @Test
+    void evictionTest() {
+        var cache = new ProductosCache(2, 60_000);
+
+        cache.get(1L, this::load);
+        cache.get(2L, this::load);
+        cache.get(1L, this::load);
+        // Se va el 2, que es el usado hace más tiempo
+        cache.get(3L, this::load);
+        cache.get(1L, this::load);
+        var stats = cache.stats();
+
+        assertAll(
+                () -> assertEquals(2, stats.getSize()),
+                () -> assertEquals(1, stats.getEvictions()),
+                () -> assertEquals(2, stats.getHits()),
+                () -> assertEquals(3, consultas.get())
+        );
+    }
+
+    @Test
+    void ttlTest() throws InterruptedException {
+        var cache = new ProductosCache(10, 10);
+
+        cache.get(1L, this::load);
+        Thread.sleep(50);
+        cache.get(1L, this::load);
+
+        assertAll(
+                () -> assertEquals(2, consultas.get()),
+                () -> assertEquals(1, cache.stats().getExpirations())
+        );
+    }
+
+    @Test
+    void invalidateTest() {
+        var cache = new ProductosCache(10, 60_000);
+
+        cache.get(1L, this::load);
+        cache.invalidate(1L);
+        cache.get(1L, this::load);
+
+        assertAll(
+                () -> assertEquals(2, consultas.get()),
+                () -> assertEquals(1, cache.stats().getInvalidations())
+        );
+    }
+
+    @Test
+    void invalidateDuranteLaCargaTest() {
+        var cache = new ProductosCache(10, 60_000);
+
+        // Si se modifica mientras lo leemos, lo leído ya no vale y no se guarda
+        cache.get(1L, id -> {
+            cache.invalidate(id);
+            return load(id);
+        });
+
+        assertEquals(0, cache.stats().getSize());
+    }
+
+    @Test
+    void getAllTest() {
+        var cache = new ProductosCache(10, 60_000);
+        cache.get(1L, this::load);
+        consultas.set(0);
+
+        // El 1 está en la caché; el 2 y el -1 se piden juntos y el -1 no existe
+        var pedidos = new ArrayList<Long>();
+        Map<Long, ProductoDTO> productos = cache.getAll(List.of(1L, 2L, -1L), faltan -> {
+            pedidos.addAll(faltan);
+            Map<Long, ProductoDTO> cargados = new HashMap<>();
+            faltan.forEach(id -> load(id).ifPresent(p -> cargados.put(id, p)));
+            return cargados;
+        });
+
+        assertAll(
+                () -> assertEquals(List.of(2L, -1L), pedidos),
+                () -> assertEquals(2, productos.size()),
+                () -> assertEquals("Producto 2", productos.get(2L).getNombre()),
+                () -> assertFalse(productos.containsKey(-1L)),
+                () -> assertEquals(2, cache.stats().getSize()),
+                () -> assertEquals(1, cache.stats().getHits())
+        );
+
+        // Ya están los dos: no se llama a la carga
+        cache.getAll(List.of(1L, 2L), faltan -> fail("No debería cargar " + faltan));
+    }
+}
@@ -0,0 +1,218 @@
+package es.joseluisgs.springdam.services;
+
+import es.joseluisgs.springdam.dto.productos.ProductoCambioDTO;
+import es.joseluisgs.springdam.services.productos.ProductosCambios;
+import es.joseluisgs.springdam.services.productos.ProductosRevisiones;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ProductosCambiosTest {
+    private static final Pattern EVENTO = Pattern.compile("id:(\\d+)\\nevent:(\\w+)");
+
+    // Anillo de 4 cambios, arrancado sin ninguna revisión en la base de datos
+    private final ProductosCambios cambios = new ProductosCambios(revisiones(0), 4, 60_000, 1, 60_000);
+    // Revisión de la última escritura publicada
+    private long revision = 0;
+
+    // Conexión que se queda con "id evento" de cada envío en vez de escribirlo
+    private static class Capturados extends SseEmitter {
+        private final List<String> eventos = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            StringBuilder texto = new StringBuilder();
+            builder.build().stream().filter(d -> d.getData() instanceof String).forEach(d -> texto.append(d.getData()));
+            Matcher m = EVENTO.matcher(texto);
+            if (m.find()) {
+                eventos.add(m.group(1) + " " + m.group(2));
+            }
+        }
+
+        List<String> esperar(int n) throws InterruptedException {
+            for (int i = 0; i < 200 && eventos.size() < n; i++) {
+                Thread.sleep(10);
+            }
+            return List.copyOf(eventos);
+        }
+    }
+
+    private void publicar(String tipo, long id) {
+        cambios.publicar(cambio(tipo, id, ++revision));
+    }
+
+    private static ProductoCambioDTO cambio(String tipo, long id, long revision) {
+        return ProductoCambioDTO.builder().tipo(tipo).id(id).revision(revision).build();
+    }
+
+    // Revisiones con la última que hay en la base de datos al arrancar
+    private static ProductosRevisiones revisiones(long ultima) {
+        ProductosRevisiones revisiones = Mockito.mock(ProductosRevisiones.class);
+        Mockito.when(revisiones.ultima()).thenReturn(ultima);
+        return revisiones;
+    }
+
+    @AfterEach
+    void tearDown() {
+        cambios.cerrar();
+    }
+
+    @Test
+    void envioTest() throws InterruptedException {
+        publicar("creado", 1);
+        // Solo recibe los de después de suscribirse
+        var capturados = new Capturados();
+        cambios.suscribir(null, capturados);
+        publicar("actualizado", 1);
+        publicar("borrado", 2);
+
+        assertEquals(List.of("2 actualizado", "3 borrado"), capturados.esperar(2));
+    }
+
+    @Test
+    void lastEventIdTest() throws InterruptedException {
+        publicar("creado", 1);
+        publicar("creado", 2);
+        publicar("creado", 3);
+        var capturados = new Capturados();
+        cambios.suscribir(1L, capturados);
+
+        assertEquals(List.of("2 creado", "3 creado"), capturados.esperar(2));
+    }
+
+    @Test
+    void recargarTest() throws InterruptedException {
+        for (long id = 1; id <= 10; id++) {
+            publicar("creado", id);
+        }
+        // El 3 ya no está en el anillo y el 99 no lo conocemos
+        var atrasado = new Capturados();
+        var desconocido = new Capturados();
+        cambios.suscribir(2L, atrasado);
+        cambios.suscribir(99L, desconocido);
+
+        assertEquals(List.of("10 recargar"), atrasado.esperar(1));
+        assertEquals(List.of("10 recargar"), desconocido.esperar(1));
+    }
+
+    @Test
+    void reinicioTest() throws InterruptedException {
+        // Se reinicia la aplicación con la revisión 3 ya escrita: los ids de antes siguen siendo revisiones
+        var reiniciado = new ProductosCambios(revisiones(3), 4, 60_000, 1, 60_000);
+        try {
+            reiniciado.arrancar();
+            // Con el 2 se ha perdido el 3, que no está en el anillo. Con el 3 no se ha perdido nada
+            var antiguo = new Capturados();
+            var alDia = new Capturados();
+            reiniciado.suscribir(2L, antiguo);
+            reiniciado.suscribir(3L, alDia);
+            assertEquals(List.of("3 recargar"), antiguo.esperar(1));
+
+            reiniciado.publicar(cambio("creado", 7, 4));
+            assertEquals(List.of("4 creado"), alDia.esperar(1));
+            assertEquals(List.of("3 recargar", "4 creado"), antiguo.esperar(2));
+        } finally {
+            reiniciado.cerrar();
+        }
+
+        // Mientras estaba parada se han escrito la 4 y la 5: quien venga del 3 también tiene que recargar
+        var conEscrituras = new ProductosCambios(revisiones(5), 4, 60_000, 1, 60_000);
+        try {
+            conEscrituras.arrancar();
+            var capturados = new Capturados();
+            conEscrituras.suscribir(3L, capturados);
+            assertEquals(List.of("5 recargar"), capturados.esperar(1));
+        } finally {
+            conEscrituras.cerrar();
+        }
+    }
+
+    @Test
+    void huecoTest() throws InterruptedException {
+        // La revisión 3 la ha escrito otra instancia y aquí no se ha publicado
+        cambios.publicar(cambio("creado", 1, 1));
+        cambios.publicar(cambio("creado", 2, 2));
+        cambios.publicar(cambio("creado", 4, 4));
+        // Al que viene del 1 le falta la 3; el que viene del 3 solo tiene pendiente la 4
+        var antes = new Capturados();
+        var despues = new Capturados();
+        cambios.suscribir(1L, antes);
+        cambios.suscribir(3L, despues);
+
+        assertEquals(List.of("4 recargar"), antes.esperar(1));
+        assertEquals(List.of("4 creado"), despues.esperar(1));
+    }
+
+    @Test
+    void juntarTest() throws InterruptedException {
+        // El primer envío se queda esperando: mientras, llegan más cambios
+        var enviando = new CountDownLatch(1);
+        var seguir = new CountDownLatch(1);
+        var lento = new Capturados() {
+            @Override
+            public void send(SseEventBuilder builder) throws IOException {
+                super.send(builder);
+                enviando.countDown();
+                try {
+                    seguir.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        cambios.suscribir(null, lento);
+        publicar("actualizado", 1);
+        enviando.await();
+        publicar("actualizado", 2);
+        publicar("actualizado", 1);
+        publicar("borrado", 1);
+        seguir.countDown();
+
+        // Del producto 1 solo le llega el último
+        assertEquals(List.of("1 actualizado", "2 actualizado", "4 borrado"), lento.esperar(3));
+    }
+
+    @Test
+    void noLeeTest() throws InterruptedException {
+        // Un solo hilo de envío y 200 ms como mucho por envío
+        var rapidos = new ProductosCambios(revisiones(0), 4, 60_000, 1, 200);
+        // No lee nunca: el envío se queda bloqueado aunque se interrumpa el hilo, como una ventana TCP llena
+        var libre = new CountDownLatch(1);
+        var atascado = new SseEmitter() {
+            @Override
+            public void send(SseEventBuilder builder) {
+                while (libre.getCount() > 0) {
+                    try {
+                        libre.await();
+                    } catch (InterruptedException e) {
+                        // Sigue bloqueado
+                    }
+                }
+            }
+        };
+        var capturados = new Capturados();
+        try {
+            rapidos.suscribir(null, atascado);
+            rapidos.publicar(cambio("creado", 1, 1));
+            rapidos.suscribir(null, capturados);
+            rapidos.publicar(cambio("creado", 2, 2));
+
+            // El atascado tiene el único hilo, pero pasado el tiempo máximo se le quita y los demás siguen recibiendo
+            assertEquals(List.of("2 creado"), capturados.esperar(1));
+            assertEquals(1, rapidos.suscriptores());
+        } finally {
+            libre.countDown();
+            rapidos.cerrar();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package es.joseluisgs.springdam.services;
+
+import es.joseluisgs.springdam.repositories.productos.ProductosFiltro;
+import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import es.joseluisgs.springdam.services.productos.ProductosCountCache;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductosCountCacheTest {
+    private final ProductosRepository productosRepository = Mockito.mock(ProductosRepository.class);
+    private final AtomicInteger consultas = new AtomicInteger();
+    // Mientras esté a true, los count esperan a que se abra el cerrojo
+    private final AtomicBoolean bloquear = new AtomicBoolean();
+    private final AtomicInteger bloqueados = new AtomicInteger();
+    private final CountDownLatch cerrojo = new CountDownLatch(1);
+
+    ProductosCountCacheTest() {
+        // Cada count devuelve el número de consulta
+        Mockito.when(productosRepository.count(Mockito.<Specification>any())).thenAnswer(invocation -> {
+            if (bloquear.get()) {
+                bloqueados.incrementAndGet();
+                cerrojo.await();
+            }
+            return (long) consultas.incrementAndGet();
+        });
+    }
+
+    private static ProductosFiltro filtro(String nombre) {
+        return ProductosFiltro.builder().nombre(nombre).build();
+    }
+
+    private static void esperar(BooleanSupplier condicion) throws InterruptedException {
+        for (int i = 0; i < 200 && !condicion.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void lruTest() {
+        var cache = new ProductosCountCache(productosRepository, 60_000, 2, 1, 10);
+
+        cache.count(filtro("a"));
+        cache.count(filtro("b"));
+        cache.count(filtro("a"));
+        // Se olvida b, el menos usado, no todos
+        cache.count(filtro("c"));
+        long a = cache.count(filtro("a"));
+        cache.count(filtro("b"));
+
+        assertAll(
+                () -> assertEquals(1, a),
+                () -> assertEquals(4, consultas.get()),
+                () -> assertEquals(2, cache.size())
+        );
+        cache.cerrar();
+    }
+
+    @Test
+    void recalcularTest() throws InterruptedException {
+        var cache = new ProductosCountCache(productosRepository, 0, 10, 1, 10);
+
+        cache.count(filtro("a"));
+        Thread.sleep(5);
+        // Caducado: devuelve el anterior y lo recalcula en segundo plano
+        long anterior = cache.count(filtro("a"));
+        esperar(() -> consultas.get() == 2);
+
+        assertAll(
+                () -> assertEquals(1, anterior),
+                () -> assertEquals(2, consultas.get())
+        );
+        cache.cerrar();
+    }
+
+    @Test
+    void colaLlenaTest() throws InterruptedException {
+        // Un hilo y uno en cola
+        var cache = new ProductosCountCache(productosRepository, 0, 10, 1, 1);
+        cache.count(filtro("a"));
+        cache.count(filtro("b"));
+        cache.count(filtro("c"));
+        Thread.sleep(5);
+
+        bloquear.set(true);
+        cache.count(filtro("a"));
+        // El hilo ya está con a, así que b se queda en la cola
+        esperar(() -> bloqueados.get() == 1);
+        cache.count(filtro("b"));
+        // No caben más: se sigue devolviendo el anterior y no se pierde el recálculo
+        long c = cache.count(filtro("c"));
+        bloquear.set(false);
+        cerrojo.countDown();
+        esperar(() -> consultas.get() == 5);
+        cache.count(filtro("c"));
+        esperar(() -> consultas.get() == 6);
+
+        assertAll(
+                () -> assertEquals(3, c),
+                () -> assertEquals(6, consultas.get())
+        );
+        cache.cerrar();
+    }
+}
@@ -0,0 +1,120 @@
+package es.joseluisgs.springdam.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.repositories.productos.ProductosCampos;
+import es.joseluisgs.springdam.services.productos.ProductosFragmentos;
+import es.joseluisgs.springdam.services.productos.ProductosJson;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductosFragmentosTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ProductosJson productosJson = new ProductosJson(mapper, new MappingJackson2CborHttpMessageConverter(),
+            new MappingJackson2SmileHttpMessageConverter());
+    private final List<Long> cargados = new ArrayList<>();
+
+    private Map<Long, ProductoDTO> load(long[] ids) {
+        Map<Long, ProductoDTO> productos = new HashMap<>();
+        for (long id : ids) {
+            cargados.add(id);
+            if (id > 0) {
+                productos.put(id, producto(id, "Producto " + id));
+            }
+        }
+        return productos;
+    }
+
+    private static ProductoDTO producto(long id, String nombre) {
+        return ProductoDTO.builder().id(id).nombre(nombre).precio(1.5).stock(3).build();
+    }
+
+    @Test
+    void getAllTest() {
+        var fragmentos = new ProductosFragmentos(productosJson, 10, 60_000);
+
+        var primero = fragmentos.getAll(new long[]{3, -1, 1}, this::load);
+        cargados.clear();
+        var segundo = fragmentos.getAll(new long[]{1, 2, 3}, this::load);
+
+        // En el orden de los ids, sin los que no existen, y solo se carga el que falta
+        assertAll(
+                () -> assertEquals(List.of(3L, 1L), List.of(primero.get(0).getId(), primero.get(1).getId())),
+                () -> assertEquals(List.of(2L), cargados),
+                () -> assertEquals(3, segundo.size()),
+                () -> assertSame(primero.get(1), segundo.get(0)),
+                () -> assertEquals(3, fragmentos.size())
+        );
+    }
+
+    @Test
+    void jsonTest() throws Exception {
+        var fragmentos = new ProductosFragmentos(productosJson, 10, 60_000);
+        var productos = List.of(producto(1, "Vino \"tinto\""), producto(2, "Jamón"));
+
+        var envueltos = fragmentos.envolver(productos, fragmentos.generacion());
+
+        // El JSON con los fragmentos es el mismo que el de los DTO. Con otros campos o formatos son DTO normales
+        var cbor = new CBORMapper();
+        assertAll(
+                () -> assertEquals(mapper.writeValueAsString(productos),
+                        new String(productosJson.writer(ProductosCampos.TODOS).writeValueAsBytes(envueltos), StandardCharsets.UTF_8)),
+                () -> assertEquals("[{\"id\":1,\"nombre\":\"Vino \\\"tinto\\\"\"}]",
+                        new String(productosJson.writer(ProductosCampos.of("nombre")).writeValueAsBytes(envueltos.subList(0, 1)),
+                                StandardCharsets.UTF_8)),
+                () -> assertEquals(mapper.writeValueAsString(productos), cbor.readTree(
+                        productosJson.writer(ProductosCampos.TODOS, MediaType.APPLICATION_CBOR).writeValueAsBytes(envueltos)).toString())
+        );
+    }
+
+    @Test
+    void invalidateTest() {
+        var fragmentos = new ProductosFragmentos(productosJson, 10, 60_000);
+        fragmentos.getAll(new long[]{1}, this::load);
+
+        fragmentos.invalidate(1L);
+        cargados.clear();
+        var producto = fragmentos.getAll(new long[]{1}, this::load);
+
+        assertAll(
+                () -> assertEquals(List.of(1L), cargados),
+                () -> assertEquals("Producto 1", producto.get(0).getNombre())
+        );
+    }
+
+    @Test
+    void invalidateDuranteCargaTest() {
+        var fragmentos = new ProductosFragmentos(productosJson, 10, 60_000);
+
+        // Lo leído antes de una escritura no se guarda: podría ser la versión anterior
+        long antes = fragmentos.generacion();
+        fragmentos.invalidate(1L);
+        fragmentos.envolver(List.of(producto(1, "Viejo")), antes);
+        var producto = fragmentos.getAll(new long[]{1}, this::load);
+
+        assertAll(
+                () -> assertEquals(List.of(1L), cargados),
+                () -> assertEquals("Producto 1", producto.get(0).getNombre())
+        );
+    }
+
+    @Test
+    void evictionTest() {
+        var fragmentos = new ProductosFragmentos(productosJson, 2, 60_000);
+
+        fragmentos.getAll(new long[]{1, 2, 3}, this::load);
+
+        assertEquals(2, fragmentos.size());
+    }
+}
@@ -0,0 +1,81 @@
+package es.joseluisgs.springdam.services;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import es.joseluisgs.springdam.services.productos.ProductosFuzzyIndex;
+import es.joseluisgs.springdam.services.productos.ProductosIndices;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductosFuzzyIndexTest {
+    private final ProductosRepository productosRepository = Mockito.mock(ProductosRepository.class);
+    private final ProductosFuzzyIndex index = new ProductosFuzzyIndex();
+    private final ProductosIndices indices = new ProductosIndices(productosRepository, List.of(index), true);
+
+    @BeforeEach
+    void setUp() {
+        Mockito.when(productosRepository.streamDTO()).thenReturn(Stream.of(
+                ProductoDTO.builder().id(1L).nombre("Zumo de Naranja").build(),
+                ProductoDTO.builder().id(2L).nombre("Ternera").build(),
+                ProductoDTO.builder().id(3L).nombre("Queso").build(),
+                ProductoDTO.builder().id(4L).nombre("Queso de Cabra").build(),
+                ProductoDTO.builder().id(5L).nombre("Quesos").build()
+        ));
+        indices.rebuild();
+    }
+
+    @Test
+    void searchTest() {
+        assertAll(
+                () -> assertArrayEquals(new long[]{2}, index.search("Ternra")),
+                () -> assertArrayEquals(new long[]{1}, index.search("zumo naranxa")),
+                () -> assertArrayEquals(new long[0], index.search("cerveza"))
+        );
+    }
+
+    @Test
+    void searchOrdenTest() {
+        // Primero los de menos errores, después por nombre: "Queso" y "Queso de Cabra" a distancia 1, "Quesos" a 2
+        assertArrayEquals(new long[]{3, 4, 5}, index.search("Quesso"));
+    }
+
+    @Test
+    void searchPalabrasCortasTest() {
+        // Con palabras de dos letras no se admiten errores
+        assertAll(
+                () -> assertArrayEquals(new long[]{4, 1}, index.search("de")),
+                () -> assertArrayEquals(new long[0], index.search("da"))
+        );
+    }
+
+    @Test
+    void putRemoveTest() {
+        index.put(ProductoDTO.builder().id(2L).nombre("Ternasco").build());
+        index.remove(3L);
+
+        assertAll(
+                () -> assertArrayEquals(new long[]{2}, index.search("ternasko")),
+                () -> assertArrayEquals(new long[0], index.search("ternera")),
+                () -> assertArrayEquals(new long[]{4, 5}, index.search("quesso"))
+        );
+    }
+
+    @Test
+    void podaTest() {
+        int nodos = index.nodos();
+
+        // Renombrar muchas veces y borrar no deja ramas muertas
+        for (int i = 0; i < 100; i++) {
+            index.put(ProductoDTO.builder().id(99L).nombre("Temporal " + i).build());
+        }
+        index.remove(99L);
+
+        assertEquals(nodos, index.nodos());
+    }
+}
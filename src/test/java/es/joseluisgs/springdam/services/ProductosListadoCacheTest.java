@@ -0,0 +1,77 @@
+package es.joseluisgs.springdam.services;
+
+import es.joseluisgs.springdam.services.productos.ProductosListadoCache;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductosListadoCacheTest {
+    private final AtomicInteger consultas = new AtomicInteger();
+
+    private byte[] load(int bytes) {
+        consultas.incrementAndGet();
+        return new byte[bytes];
+    }
+
+    @Test
+    void hitTest() {
+        var cache = new ProductosListadoCache(1_000);
+
+        var primera = cache.get("a", () -> load(10));
+        var segunda = cache.get("a", () -> load(10));
+
+        assertAll(
+                () -> assertSame(primera, segunda),
+                () -> assertEquals(1, consultas.get()),
+                () -> assertEquals(10, cache.getBytes())
+        );
+    }
+
+    @Test
+    void invalidateTest() {
+        var cache = new ProductosListadoCache(1_000);
+
+        cache.get("a", () -> load(10));
+        cache.get("b", () -> load(10));
+        cache.invalidate();
+        cache.get("a", () -> load(10));
+        cache.get("b", () -> load(10));
+
+        assertEquals(4, consultas.get());
+    }
+
+    @Test
+    void maxBytesTest() {
+        var cache = new ProductosListadoCache(100);
+
+        cache.get("a", () -> load(40));
+        cache.get("b", () -> load(40));
+        cache.get("a", () -> load(40));
+        // No cabe: se va b, que es la usada hace más tiempo
+        cache.get("c", () -> load(40));
+        // Más grande que toda la caché: no se guarda
+        cache.get("d", () -> load(200));
+        cache.get("a", () -> load(40));
+        cache.get("c", () -> load(40));
+
+        assertAll(
+                () -> assertEquals(80, cache.getBytes()),
+                () -> assertEquals(4, consultas.get())
+        );
+    }
+
+    @Test
+    void invalidateDuranteLaConsultaTest() {
+        var cache = new ProductosListadoCache(1_000);
+
+        // Si hay una escritura mientras consultamos, lo leído no se guarda
+        cache.get("a", () -> {
+            cache.invalidate();
+            return load(10);
+        });
+
+        assertEquals(0, cache.getBytes());
+    }
+}
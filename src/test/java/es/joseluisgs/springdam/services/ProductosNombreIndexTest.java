@@ -0,0 +1,101 @@
+package es.joseluisgs.springdam.services;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import es.joseluisgs.springdam.services.productos.ProductosIndices;
+import es.joseluisgs.springdam.services.productos.ProductosNombreIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductosNombreIndexTest {
+    private final ProductosRepository productosRepository = Mockito.mock(ProductosRepository.class);
+    private final ProductosNombreIndex index = new ProductosNombreIndex();
+    private final ProductosIndices indices = new ProductosIndices(productosRepository, List.of(index), true);
+
+    @BeforeEach
+    void setUp() {
+        Mockito.when(productosRepository.streamDTO()).thenReturn(Stream.of(
+                ProductoDTO.builder().id(1L).nombre("Zumo de Naranja").build(),
+                ProductoDTO.builder().id(2L).nombre("Zumo de Manzana").build(),
+                ProductoDTO.builder().id(3L).nombre("Vino Tinto").build(),
+                ProductoDTO.builder().id(4L).nombre("Naranjas").build()
+        ));
+        indices.rebuild();
+    }
+
+    @Test
+    void searchTest() {
+        assertAll(
+                () -> assertArrayEquals(new long[]{1, 2}, index.search("zumo")),
+                () -> assertArrayEquals(new long[]{1, 4}, index.search("NARANJA")),
+                () -> assertArrayEquals(new long[]{2}, index.search("de manz")),
+                () -> assertArrayEquals(new long[0], index.search("cerveza"))
+        );
+    }
+
+    @Test
+    void searchSinTildesTest() {
+        index.put(ProductoDTO.builder().id(5L).nombre("Café Molido").build());
+        index.put(ProductoDTO.builder().id(6L).nombre("Cafetera").build());
+
+        // Como la collation de MySQL: sin distinguir tildes en el nombre ni en el texto buscado
+        assertAll(
+                () -> assertArrayEquals(new long[]{5, 6}, index.search("cafe")),
+                () -> assertArrayEquals(new long[]{5, 6}, index.search("CAFÉ")),
+                () -> assertArrayEquals(new long[]{5}, index.search("cafe mol"))
+        );
+    }
+
+    @Test
+    void searchVerificaTest() {
+        // "aran" y "nja" están en "Naranjas" pero no "arannja" seguido: los trigramas no bastan
+        assertArrayEquals(new long[0], index.search("arannja"));
+    }
+
+    @Test
+    void noCargadoTest() {
+        // Sin cargar no contesta y se busca con SQL
+        assertNull(new ProductosNombreIndex().search("zumo"));
+    }
+
+    @Test
+    void searchCortoTest() {
+        // Con menos de tres caracteres no puede contestar
+        assertNull(index.search("zu"));
+    }
+
+    @Test
+    void putRemoveTest() {
+        index.put(ProductoDTO.builder().id(5L).nombre("Zumo de Piña").build());
+        index.put(ProductoDTO.builder().id(3L).nombre("Zumo de Uva").build());
+        index.remove(1L);
+
+        assertAll(
+                () -> assertArrayEquals(new long[]{2, 3, 5}, index.search("zumo")),
+                () -> assertArrayEquals(new long[0], index.search("vino")),
+                () -> assertArrayEquals(new long[]{4}, index.search("naranja"))
+        );
+    }
+
+    @Test
+    void compactTest() {
+        for (long id = 10; id < 5_000; id++) {
+            index.put(ProductoDTO.builder().id(id).nombre("Producto " + id).build());
+        }
+        for (long id = 10; id < 4_000; id++) {
+            index.remove(id);
+        }
+
+        assertAll(
+                () -> assertArrayEquals(new long[]{4_999}, index.search("producto 4999")),
+                () -> assertArrayEquals(new long[0], index.search("producto 3999")),
+                () -> assertArrayEquals(new long[]{1, 2}, index.search("zumo"))
+        );
+    }
+}
@@ -0,0 +1,144 @@
+package es.joseluisgs.springdam.services;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import es.joseluisgs.springdam.services.productos.ProductosBitmap;
+import es.joseluisgs.springdam.services.productos.ProductosIndices;
+import es.joseluisgs.springdam.services.productos.ProductosOrdenIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductosOrdenIndexTest {
+    private final ProductosRepository productosRepository = Mockito.mock(ProductosRepository.class);
+    private final ProductosOrdenIndex index = new ProductosOrdenIndex();
+    private final ProductosIndices indices = new ProductosIndices(productosRepository, List.of(index), true);
+
+    @BeforeEach
+    void setUp() {
+        Mockito.when(productosRepository.streamDTO()).thenReturn(Stream.of(
+                ProductoDTO.builder().id(1L).nombre("Zumo").precio(9.5).stock(25).createdAt("2022-01-03T10:00").build(),
+                ProductoDTO.builder().id(2L).nombre("Pan").precio(1.5).stock(25).createdAt("2022-01-01T10:00:00.5").build(),
+                ProductoDTO.builder().id(3L).nombre("Arroz").precio(9.5).stock(10).createdAt("2022-01-02T10:00").build(),
+                ProductoDTO.builder().id(4L).nombre("Vino").precio(11.25).stock(5).build()
+        ));
+        indices.rebuild();
+    }
+
+    private static ProductosBitmap of(long... ids) {
+        ProductosBitmap bitmap = new ProductosBitmap();
+        LongStream.of(ids).forEach(bitmap::add);
+        return bitmap;
+    }
+
+    @Test
+    void idsTest() {
+        // Después de cada campo, por id. Sin fecha el primero
+        assertAll(
+                () -> assertArrayEquals(new long[]{1, 2, 3, 4}, index.ids("id", null, 0, 10)),
+                () -> assertArrayEquals(new long[]{2, 1, 3, 4}, index.ids("precio", null, 0, 10)),
+                () -> assertArrayEquals(new long[]{4, 3, 1, 2}, index.ids("stock", null, 0, 10)),
+                () -> assertArrayEquals(new long[]{4, 2, 3, 1}, index.ids("createdAt", null, 0, 10)),
+                () -> assertArrayEquals(new long[]{1, 3}, index.ids("precio", null, 1, 2)),
+                () -> assertArrayEquals(new long[0], index.ids("precio", null, 10, 2)),
+                () -> assertEquals(4, index.count())
+        );
+    }
+
+    @Test
+    void idsCandidatosTest() {
+        assertAll(
+                () -> assertArrayEquals(new long[]{4, 3}, index.ids("stock", of(4, 3), 0, 10)),
+                () -> assertArrayEquals(new long[]{3}, index.ids("stock", of(4, 3, 99), 1, 10))
+        );
+    }
+
+    @Test
+    void nombreTest() {
+        // El nombre lo ordena la base de datos con su collation (en MySQL "árbol" y "Arroz" van antes que "zumo")
+        index.put(ProductoDTO.builder().id(5L).nombre("árbol").precio(2.0).stock(1).build());
+        index.put(ProductoDTO.builder().id(6L).nombre("zumo").precio(3.0).stock(1).build());
+        index.put(ProductoDTO.builder().id(7L).nombre("Ñame").precio(4.0).stock(1).build());
+
+        assertAll(
+                () -> assertNull(index.ids("nombre", null, 0, 10)),
+                () -> assertNull(index.ids("nombre", of(3, 5, 6), 0, 10)),
+                () -> assertArrayEquals(new long[]{2, 5, 6, 7, 1, 3, 4}, index.ids("precio", null, 0, 10))
+        );
+    }
+
+    @Test
+    void idsCandidatosMuchosTest() {
+        // Con muchos candidatos se recorre el orden en vez de ordenarlos
+        for (long id = 10; id < 1_000; id++) {
+            index.put(ProductoDTO.builder().id(id).nombre("Producto " + id).precio(2_000.0 - id).stock(1).build());
+        }
+        ProductosBitmap pares = new ProductosBitmap();
+        LongStream.range(10, 1_000).filter(id -> id % 2 == 0).forEach(pares::add);
+
+        assertArrayEquals(new long[]{996, 994}, index.ids("precio", pares, 1, 2));
+    }
+
+    @Test
+    void putRemoveTest() {
+        index.put(ProductoDTO.builder().id(3L).nombre("Zanahoria").precio(0.5).stock(10).build());
+        index.remove(2L);
+
+        assertAll(
+                () -> assertArrayEquals(new long[]{4, 3, 1}, index.ids("stock", null, 0, 10)),
+                () -> assertArrayEquals(new long[]{3, 1, 4}, index.ids("precio", null, 0, 10)),
+                () -> assertEquals(3, index.count())
+        );
+    }
+
+    @Test
+    void huecoReutilizadoTest() {
+        // El borrado deja su hueco al siguiente producto nuevo. Con tantos productos los candidatos son pocos
+        // y se ordenan por las claves de su hueco
+        for (long id = 100; id < 200; id++) {
+            indices.put(ProductoDTO.builder().id(id).nombre("Producto " + id).precio(100.0).stock(1).build());
+        }
+        indices.remove(2L);
+        indices.put(ProductoDTO.builder().id(8L).nombre("Leche").precio(0.9).stock(30).build());
+
+        assertAll(
+                () -> assertArrayEquals(new long[]{8, 1, 3, 4}, index.ids("precio", null, 0, 4)),
+                () -> assertArrayEquals(new long[]{8, 3}, index.ids("precio", of(2, 3, 8), 0, 10)),
+                () -> assertArrayEquals(new long[]{3, 8}, index.ids("stock", of(2, 3, 8), 0, 10)),
+                () -> assertEquals(104, index.count())
+        );
+    }
+
+    @Test
+    void rebuildTest() {
+        // Los productos que ya no están en la base de datos desaparecen y sus huecos quedan libres
+        Mockito.when(productosRepository.streamDTO()).thenReturn(Stream.of(
+                ProductoDTO.builder().id(1L).nombre("Zumo").precio(9.5).stock(25).build(),
+                ProductoDTO.builder().id(9L).nombre("Agua").precio(0.5).stock(7).build()
+        ));
+        indices.rebuild();
+        indices.put(ProductoDTO.builder().id(10L).nombre("Sal").precio(0.7).stock(3).build());
+
+        assertAll(
+                () -> assertArrayEquals(new long[]{9, 10, 1}, index.ids("precio", null, 0, 10)),
+                () -> assertArrayEquals(new long[]{10, 9}, index.ids("stock", of(9, 10), 0, 10)),
+                () -> assertEquals(3, index.count())
+        );
+    }
+
+    @Test
+    void noCargadoTest() {
+        assertNull(new ProductosOrdenIndex().ids("id", null, 0, 10));
+    }
+
+    @Test
+    void campoIncorrectoTest() {
+        assertThrows(IllegalArgumentException.class, () -> index.ids("imagen", null, 0, 10));
+    }
+}
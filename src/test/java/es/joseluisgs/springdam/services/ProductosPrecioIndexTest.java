@@ -0,0 +1,85 @@
+package es.joseluisgs.springdam.services;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import es.joseluisgs.springdam.services.productos.ProductosIndices;
+import es.joseluisgs.springdam.services.productos.ProductosPrecioIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductosPrecioIndexTest {
+    private final ProductosRepository productosRepository = Mockito.mock(ProductosRepository.class);
+    private final ProductosPrecioIndex index = new ProductosPrecioIndex();
+    private final ProductosIndices indices = new ProductosIndices(productosRepository, List.of(index), true);
+
+    @BeforeEach
+    void setUp() {
+        Mockito.when(productosRepository.streamDTO()).thenReturn(Stream.of(
+                ProductoDTO.builder().id(1L).precio(9.5).build(),
+                ProductoDTO.builder().id(2L).precio(2.0).build(),
+                ProductoDTO.builder().id(3L).precio(9.5).build(),
+                ProductoDTO.builder().id(4L).precio(20.0).build(),
+                ProductoDTO.builder().id(5L).build()
+        ));
+        indices.rebuild();
+    }
+
+    @Test
+    void countTest() {
+        // Los extremos están incluidos y los productos sin precio no entran en ningún rango
+        assertAll(
+                () -> assertEquals(4, index.count(null, null)),
+                () -> assertEquals(3, index.count(9.5, null)),
+                () -> assertEquals(3, index.count(null, 9.5)),
+                () -> assertEquals(2, index.count(9.5, 9.5)),
+                () -> assertEquals(0, index.count(10.0, 19.0)),
+                () -> assertEquals(0, index.count(30.0, 1.0))
+        );
+    }
+
+    @Test
+    void idsTest() {
+        // En orden de precio y, a igual precio, de id
+        assertAll(
+                () -> assertArrayEquals(new long[]{2, 1, 3, 4}, index.ids(null, null, 0, 10)),
+                () -> assertArrayEquals(new long[]{3, 4}, index.ids(5.0, null, 1, 10)),
+                () -> assertArrayEquals(new long[]{1}, index.ids(5.0, 10.0, 0, 1)),
+                () -> assertArrayEquals(new long[0], index.ids(5.0, 10.0, 5, 10))
+        );
+    }
+
+    @Test
+    void noCargadoTest() {
+        assertNull(new ProductosPrecioIndex().count(1.0, 2.0));
+    }
+
+    @Test
+    void putRemoveTest() {
+        index.put(ProductoDTO.builder().id(2L).precio(15.0).build());
+        index.put(ProductoDTO.builder().id(6L).precio(9.5).build());
+        index.remove(1L);
+
+        assertAll(
+                () -> assertArrayEquals(new long[]{3, 6, 2, 4}, index.ids(null, null, 0, 10)),
+                () -> assertEquals(2, index.count(10.0, null))
+        );
+    }
+
+    @Test
+    void crecerTest() {
+        for (long id = 10; id < 3_000; id++) {
+            index.put(ProductoDTO.builder().id(id).precio((double) (id % 100)).build());
+        }
+
+        assertAll(
+                () -> assertEquals(30, index.count(50.0, 50.0)),
+                () -> assertArrayEquals(new long[]{50, 150}, index.ids(50.0, 50.0, 0, 2))
+        );
+    }
+}
@@ -0,0 +1,73 @@
+package es.joseluisgs.springdam.services;
+
+import es.joseluisgs.springdam.services.productos.ProductosPrecioSketch;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductosPrecioSketchTest {
+
+    @Test
+    void quantileTest() {
+        var sketch = new ProductosPrecioSketch();
+        var random = new Random(42);
+        var precios = new double[10_000];
+        for (int i = 0; i < precios.length; i++) {
+            precios[i] = 0.5 + random.nextDouble() * 1000;
+            sketch.add(precios[i]);
+        }
+        Arrays.sort(precios);
+
+        // Cada percentil con un error relativo de como mucho el 1 %
+        for (double q : new double[]{0, 0.1, 0.5, 0.9, 0.99, 1}) {
+            double exacto = precios[(int) Math.floor(q * (precios.length - 1))];
+            assertEquals(exacto, sketch.quantile(q), exacto * ProductosPrecioSketch.ERROR);
+        }
+        assertEquals(10_000, sketch.count());
+    }
+
+    @Test
+    void removeTest() {
+        var sketch = new ProductosPrecioSketch();
+        sketch.add(1.0);
+        sketch.add(100.0);
+        sketch.add(0.0);
+        sketch.remove(100.0);
+        // No estaba: no cambia nada
+        sketch.remove(5000.0);
+
+        assertAll(
+                () -> assertEquals(2, sketch.count()),
+                () -> assertEquals(0.0, sketch.quantile(0)),
+                () -> assertEquals(1.0, sketch.quantile(1), 0.01)
+        );
+    }
+
+    @Test
+    void vacioTest() {
+        assertNull(new ProductosPrecioSketch().quantile(0.5));
+    }
+
+    @Test
+    void mergeYCountTest() {
+        var a = new ProductosPrecioSketch();
+        var b = new ProductosPrecioSketch();
+        a.add(2.0);
+        a.add(8.0);
+        b.add(20.0);
+        b.add(2000.0);
+        var juntos = a.merge(b);
+
+        assertAll(
+                () -> assertEquals(4, juntos.count()),
+                () -> assertEquals(2, juntos.count(null, 10.0)),
+                () -> assertEquals(1, juntos.count(10.0, 100.0)),
+                () -> assertEquals(1, juntos.count(100.0, null)),
+                // Los originales no cambian
+                () -> assertEquals(2, a.count())
+        );
+    }
+}
@@ -0,0 +1,80 @@
+package es.joseluisgs.springdam.services;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import es.joseluisgs.springdam.services.productos.ProductosIndices;
+import es.joseluisgs.springdam.services.productos.ProductosPrecioSketches;
+import es.joseluisgs.springdam.services.productos.ProductosStatsIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductosPrecioSketchesTest {
+    private final ProductosRepository productosRepository = Mockito.mock(ProductosRepository.class);
+    private final ProductosStatsIndex index = new ProductosStatsIndex();
+    private final ProductosIndices indices = new ProductosIndices(productosRepository, List.of(index), true);
+
+    @BeforeEach
+    void setUp() {
+        Mockito.when(productosRepository.streamDTO()).thenReturn(Stream.of(
+                ProductoDTO.builder().id(1L).nombre("Zumo de Naranja").precio(10.0).build(),
+                ProductoDTO.builder().id(2L).nombre("Zumo de Manzana 2L").precio(2.0).build(),
+                ProductoDTO.builder().id(3L).nombre("Vino").precio(6.0).build()
+        ));
+        indices.rebuild();
+    }
+
+    @Test
+    void palabrasTest() {
+        assertEquals(Set.of("zumo", "manzana"), ProductosPrecioSketches.palabras("Zumo de Manzana 2L"));
+    }
+
+    @Test
+    void sketchTest() {
+        assertAll(
+                () -> assertEquals(3, index.sketch(null).count()),
+                () -> assertEquals(2, index.sketch("zumo").count()),
+                () -> assertEquals(2.0, index.sketch("zumo").quantile(0), 0.02),
+                () -> assertEquals(10.0, index.sketch("zumo").quantile(1), 0.1),
+                () -> assertEquals(0, index.sketch("cerveza").count())
+        );
+    }
+
+    @Test
+    void putYRemoveTest() {
+        // Cambia el nombre: sale de "zumo" y entra en "batido"
+        index.put(ProductoDTO.builder().id(2L).nombre("Batido de Manzana").precio(3.0).build());
+        index.remove(3L);
+
+        assertAll(
+                () -> assertEquals(2, index.sketch(null).count()),
+                () -> assertEquals(1, index.sketch("zumo").count()),
+                () -> assertEquals(1, index.sketch("batido").count()),
+                () -> assertEquals(0, index.sketch("vino").count())
+        );
+    }
+
+    @Test
+    void precioTest() {
+        // Cambia el precio: el anterior sale del resumen. Sin precio no cuenta
+        index.put(ProductoDTO.builder().id(1L).nombre("Zumo de Naranja").precio(4.0).build());
+        index.put(ProductoDTO.builder().id(3L).nombre("Vino").build());
+
+        assertAll(
+                () -> assertEquals(2, index.sketch(null).count()),
+                () -> assertEquals(4.0, index.sketch("zumo").quantile(1), 0.05),
+                () -> assertEquals(0, index.sketch("vino").count())
+        );
+    }
+
+    @Test
+    void noCargadoTest() {
+        assertNull(new ProductosStatsIndex().sketch(null));
+    }
+}
@@ -0,0 +1,117 @@
+package es.joseluisgs.springdam.services;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.repositories.productos.ProductosFiltro;
+import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import es.joseluisgs.springdam.services.productos.ProductosIndices;
+import es.joseluisgs.springdam.services.productos.ProductosStatsIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductosStatsIndexTest {
+    private static final double[] SIN_RANGOS = new double[0];
+
+    private final ProductosRepository productosRepository = Mockito.mock(ProductosRepository.class);
+    private final ProductosStatsIndex index = new ProductosStatsIndex();
+    private final ProductosIndices indices = new ProductosIndices(productosRepository, List.of(index), true);
+
+    @BeforeEach
+    void setUp() {
+        Mockito.when(productosRepository.streamDTO()).thenReturn(Stream.of(
+                ProductoDTO.builder().id(1L).nombre("Zumo de Naranja").precio(10.0).stock(5).createdAt("2022-01-01T10:00").build(),
+                ProductoDTO.builder().id(2L).nombre("Zumo de Manzana").precio(2.0).stock(0).createdAt("2022-01-02T10:00").build(),
+                ProductoDTO.builder().id(3L).nombre("Vino").precio(6.0).stock(10).createdAt("2022-01-03T10:00").build()
+        ));
+        indices.rebuild();
+    }
+
+    @Test
+    void statsTest() {
+        var stats = index.stats(new ProductosFiltro(), SIN_RANGOS, null);
+
+        assertAll(
+                () -> assertEquals(3, stats.getProductos()),
+                () -> assertEquals(15, stats.getStockTotal()),
+                () -> assertEquals(110.0, stats.getValorStock(), 1e-9),
+                () -> assertEquals(1, stats.getAgotados()),
+                () -> assertEquals(2.0, stats.getPrecioMin()),
+                () -> assertEquals(10.0, stats.getPrecioMax()),
+                () -> assertEquals(6.0, stats.getPrecioMedio(), 1e-9),
+                () -> assertEquals(0, stats.getStockMin()),
+                () -> assertEquals(10, stats.getStockMax()),
+                () -> assertEquals(5.0, stats.getStockMedio(), 1e-9),
+                () -> assertTrue(stats.getRangos().isEmpty())
+        );
+    }
+
+    @Test
+    void statsFiltroTest() {
+        var zumos = index.stats(ProductosFiltro.builder().nombre("ZUMO").stockMin(1).build(), SIN_RANGOS, null);
+        var fecha = index.stats(ProductosFiltro.builder().createdAtDesde(LocalDateTime.parse("2022-01-02T10:00")).build(), SIN_RANGOS, null);
+        var ninguno = index.stats(ProductosFiltro.builder().precio(100.0).build(), SIN_RANGOS, null);
+
+        assertAll(
+                () -> assertEquals(1, zumos.getProductos()),
+                () -> assertEquals(50.0, zumos.getValorStock(), 1e-9),
+                () -> assertEquals(2, fecha.getProductos()),
+                () -> assertEquals(0, ninguno.getProductos()),
+                () -> assertNull(ninguno.getPrecioMedio())
+        );
+    }
+
+    @Test
+    void statsIdsTest() {
+        // Con los ids por nombre ya comprobados en la base de datos solo se miran esos (y se siguen aplicando los demás
+        // filtros), sin volver a comprobar el nombre: la collation de la base de datos es la que decide
+        var stats = index.stats(ProductosFiltro.builder().nombre("zumo").build(), SIN_RANGOS, new long[]{1, 2, 99});
+        var comprobados = index.stats(ProductosFiltro.builder().nombre("zumo").stockMin(1).build(), SIN_RANGOS, new long[]{1, 3});
+        assertAll(
+                () -> assertEquals(2, stats.getProductos()),
+                () -> assertEquals(2, comprobados.getProductos())
+        );
+    }
+
+    @Test
+    void rangosTest() {
+        var rangos = index.stats(new ProductosFiltro(), new double[]{5, 10}, null).getRangos();
+
+        assertAll(
+                () -> assertEquals(3, rangos.size()),
+                () -> assertNull(rangos.get(0).getDesde()),
+                () -> assertEquals(1, rangos.get(0).getProductos()),
+                // 10 ya es del último: [desde, hasta)
+                () -> assertEquals(1, rangos.get(1).getProductos()),
+                () -> assertEquals(60.0, rangos.get(1).getValorStock(), 1e-9),
+                () -> assertEquals(1, rangos.get(2).getProductos()),
+                () -> assertNull(rangos.get(2).getHasta())
+        );
+    }
+
+    @Test
+    void putRemoveTest() {
+        index.put(ProductoDTO.builder().id(2L).nombre("Zumo de Manzana").precio(4.0).stock(20).build());
+        index.put(ProductoDTO.builder().id(4L).nombre("Pan").precio(1.0).stock(1).build());
+        index.remove(1L);
+        index.remove(99L);
+
+        var stats = index.stats(new ProductosFiltro(), SIN_RANGOS, null);
+        assertAll(
+                () -> assertEquals(3, stats.getProductos()),
+                () -> assertEquals(31, stats.getStockTotal()),
+                () -> assertEquals(1.0, stats.getPrecioMin()),
+                () -> assertEquals(0, stats.getAgotados())
+        );
+    }
+
+    @Test
+    void noCargadoTest() {
+        assertNull(new ProductosStatsIndex().stats(new ProductosFiltro(), SIN_RANGOS, null));
+    }
+}
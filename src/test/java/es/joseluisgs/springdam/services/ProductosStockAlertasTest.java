@@ -0,0 +1,157 @@
+package es.joseluisgs.springdam.services;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.dto.productos.ProductoStockAlertaDTO;
+import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import es.joseluisgs.springdam.services.productos.ProductosIndices;
+import es.joseluisgs.springdam.services.productos.ProductosStockAlertas;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductosStockAlertasTest {
+    private final ProductosRepository productosRepository = Mockito.mock(ProductosRepository.class);
+    private final ProductosStockAlertas alertas = new ProductosStockAlertas(2, 60_000, 1, 60_000);
+    private final ProductosIndices indices = new ProductosIndices(productosRepository, List.of(alertas), true);
+
+    // Conexión que se queda con los avisos en vez de escribirlos
+    private static class Capturados extends SseEmitter {
+        private final List<ProductoStockAlertaDTO> alertas = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            builder.build().stream()
+                    .filter(d -> d.getData() instanceof ProductoStockAlertaDTO)
+                    .forEach(d -> alertas.add((ProductoStockAlertaDTO) d.getData()));
+        }
+
+        private List<String> esperar(int n) throws InterruptedException {
+            for (int i = 0; i < 200 && alertas.size() < n; i++) {
+                Thread.sleep(10);
+            }
+            return alertas.stream().map(a -> a.getTipo() + " " + a.getId()).collect(Collectors.toList());
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        Mockito.when(productosRepository.streamDTO()).thenReturn(Stream.of(
+                ProductoDTO.builder().id(1L).nombre("Vino").stock(20).build(),
+                ProductoDTO.builder().id(2L).nombre("Pan").stock(5).build()
+        ));
+        indices.rebuild();
+    }
+
+    @AfterEach
+    void tearDown() {
+        alertas.cerrar();
+    }
+
+    @Test
+    void cruzaUmbralTest() throws InterruptedException {
+        var diez = new Capturados();
+        var cien = new Capturados();
+        alertas.suscribir(10, diez);
+        alertas.suscribir(100, cien);
+
+        // Baja de 20 a 8: cruza el 10 pero no el 100 (ya estaba por debajo)
+        alertas.put(ProductoDTO.builder().id(1L).nombre("Vino").stock(8).build());
+        // Sube de 5 a 15: vuelve al 10
+        alertas.put(ProductoDTO.builder().id(2L).nombre("Pan").stock(15).build());
+        // Sin cruzar nada
+        alertas.put(ProductoDTO.builder().id(2L).nombre("Pan").stock(16).build());
+
+        assertEquals(List.of("bajo 1", "recuperado 2"), diez.esperar(2));
+        assertEquals(8, diez.alertas.get(0).getStock());
+        assertEquals(20, diez.alertas.get(0).getStockAnterior());
+        assertTrue(cien.esperar(1).isEmpty());
+    }
+
+    @Test
+    void nuevoYBorradoTest() throws InterruptedException {
+        var diez = new Capturados();
+        alertas.suscribir(10, diez);
+
+        alertas.put(ProductoDTO.builder().id(3L).nombre("Queso").stock(3).build());
+        alertas.remove(2L);
+        // Estaba por encima: no interesa
+        alertas.remove(1L);
+
+        assertEquals(List.of("bajo 3", "borrado 2"), diez.esperar(2));
+    }
+
+    @Test
+    void colaLlenaTest() {
+        // No lee: el primer envío se queda bloqueado y la cola (2) se llena
+        var lento = new SseEmitter() {
+            @Override
+            public void send(SseEventBuilder builder) {
+                try {
+                    Thread.sleep(60_000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        alertas.suscribir(100, lento);
+        for (int i = 0; i < 10; i++) {
+            alertas.put(ProductoDTO.builder().id(1L).nombre("Vino").stock(i % 2 == 0 ? 200 : 20).build());
+        }
+
+        assertEquals(0, alertas.suscriptores());
+    }
+
+    @Test
+    void noLeeTest() throws InterruptedException {
+        // Un solo hilo de envío y 200 ms como mucho por envío
+        var rapidas = new ProductosStockAlertas(256, 60_000, 1, 200);
+        Mockito.when(productosRepository.streamDTO()).thenReturn(Stream.of(
+                ProductoDTO.builder().id(1L).nombre("Vino").stock(20).build()
+        ));
+        new ProductosIndices(productosRepository, List.of(rapidas), true).rebuild();
+        // No lee nunca: el envío se queda bloqueado aunque se interrumpa el hilo, como una ventana TCP llena
+        var libre = new CountDownLatch(1);
+        var atascado = new SseEmitter() {
+            @Override
+            public void send(SseEventBuilder builder) {
+                while (libre.getCount() > 0) {
+                    try {
+                        libre.await();
+                    } catch (InterruptedException e) {
+                        // Sigue bloqueado
+                    }
+                }
+            }
+        };
+        var capturados = new Capturados();
+        try {
+            rapidas.suscribir(100, atascado);
+            rapidas.put(ProductoDTO.builder().id(3L).nombre("Queso").stock(1).build());
+            rapidas.suscribir(100, capturados);
+            rapidas.put(ProductoDTO.builder().id(4L).nombre("Pan").stock(1).build());
+
+            // El atascado tiene el único hilo, pero pasado el tiempo máximo se le quita y los demás siguen recibiendo
+            assertEquals(List.of("bajo 4"), capturados.esperar(1));
+            assertEquals(1, rapidas.suscriptores());
+        } finally {
+            libre.countDown();
+            rapidas.cerrar();
+        }
+    }
+
+    @Test
+    void umbralNegativoTest() {
+        assertThrows(IllegalArgumentException.class, () -> alertas.suscribir(-1));
+    }
+}
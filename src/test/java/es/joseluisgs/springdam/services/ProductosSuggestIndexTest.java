@@ -0,0 +1,100 @@
+package es.joseluisgs.springdam.services;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.dto.productos.ProductoSuggestDTO;
+import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import es.joseluisgs.springdam.services.productos.ProductosIndices;
+import es.joseluisgs.springdam.services.productos.ProductosSuggestIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductosSuggestIndexTest {
+    private final ProductosRepository productosRepository = Mockito.mock(ProductosRepository.class);
+    private final ProductosSuggestIndex index = new ProductosSuggestIndex();
+    private final ProductosIndices indices = new ProductosIndices(productosRepository, List.of(index), true);
+
+    @BeforeEach
+    void setUp() {
+        Mockito.when(productosRepository.streamDTO()).thenReturn(Stream.of(
+                ProductoDTO.builder().id(1L).nombre("Zumo de Naranja").build(),
+                ProductoDTO.builder().id(2L).nombre("Zumo de Manzana").build(),
+                ProductoDTO.builder().id(3L).nombre("Vino Tinto").build(),
+                ProductoDTO.builder().id(4L).nombre("Naranjas").build()
+        ));
+        indices.rebuild();
+    }
+
+    private List<Long> ids(List<ProductoSuggestDTO> sugerencias) {
+        return sugerencias.stream().map(ProductoSuggestDTO::getId).collect(Collectors.toList());
+    }
+
+    @Test
+    void suggestTest() {
+        var sugerencias = index.suggest("ZUMO DE", 10);
+
+        assertAll(
+                // En orden alfabético: "zumo de manzana" antes que "zumo de naranja"
+                () -> assertEquals(List.of(2L, 1L), ids(sugerencias)),
+                () -> assertEquals("Zumo de Manzana", sugerencias.get(0).getNombre()),
+                // Por cualquier palabra del nombre, en orden desde esa palabra: "naranja" antes que "naranjas"
+                () -> assertEquals(List.of(1L, 4L), ids(index.suggest("nar", 10))),
+                () -> assertEquals(List.of(3L), ids(index.suggest("tin", 10))),
+                () -> assertTrue(index.suggest("cerveza", 10).isEmpty())
+        );
+    }
+
+    @Test
+    void suggestMitadAristaTest() {
+        // El final de cada nombre es una sola arista: el prefijo puede terminar o separarse a mitad de ella
+        assertAll(
+                () -> assertEquals(List.of(2L), ids(index.suggest("zumo de manz", 10))),
+                () -> assertEquals(List.of(1L, 4L), ids(index.suggest("naranja", 10))),
+                () -> assertTrue(index.suggest("zumo de manzanas", 10).isEmpty()),
+                () -> assertTrue(index.suggest("zumo de mx", 10).isEmpty())
+        );
+    }
+
+    @Test
+    void suggestLimitTest() {
+        assertEquals(List.of(2L), ids(index.suggest("z", 1)));
+    }
+
+    @Test
+    void putRemoveTest() {
+        index.put(ProductoDTO.builder().id(5L).nombre("Zumo de Piña").build());
+        index.put(ProductoDTO.builder().id(1L).nombre("Vino Blanco").build());
+        index.remove(2L);
+
+        assertAll(
+                () -> assertEquals(List.of(5L), ids(index.suggest("zumo", 10))),
+                () -> assertEquals(List.of(1L, 3L), ids(index.suggest("vino", 10))),
+                () -> assertEquals(List.of(4L), ids(index.suggest("naranja", 10)))
+        );
+    }
+
+    @Test
+    void podaTest() {
+        int nodos = index.nodos();
+
+        // Renombrar muchas veces y borrar no deja ramas muertas
+        for (int i = 0; i < 100; i++) {
+            index.put(ProductoDTO.builder().id(5L).nombre("Producto temporal " + i).build());
+        }
+        index.remove(5L);
+        index.put(ProductoDTO.builder().id(3L).nombre("Vino Blanco").build());
+        index.put(ProductoDTO.builder().id(3L).nombre("Vino Tinto").build());
+
+        assertAll(
+                () -> assertEquals(nodos, index.nodos()),
+                () -> assertEquals(List.of(3L), ids(index.suggest("vino", 10))),
+                () -> assertTrue(index.suggest("producto", 10).isEmpty())
+        );
+    }
+}
@@ -0,0 +1,94 @@
+package es.joseluisgs.springdam.services;
+
+import es.joseluisgs.springdam.dto.productos.ProductoDTO;
+import es.joseluisgs.springdam.repositories.productos.ProductosRepository;
+import es.joseluisgs.springdam.services.productos.ProductosIndices;
+import es.joseluisgs.springdam.services.productos.ProductosTopIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductosTopIndexTest {
+    private final ProductosRepository productosRepository = Mockito.mock(ProductosRepository.class);
+    // Como mucho 2 productos por petición: cada conjunto guarda 4
+    private final ProductosTopIndex index = new ProductosTopIndex(2);
+    private final ProductosIndices indices = new ProductosIndices(productosRepository, List.of(index), true);
+
+    @BeforeEach
+    void setUp() {
+        // Precio = id, stock = 10 - id. El 6 no tiene precio
+        Mockito.when(productosRepository.streamDTO()).thenReturn(LongStream.rangeClosed(1, 6).mapToObj(id ->
+                ProductoDTO.builder().id(id).nombre("Producto " + id).precio(id == 6 ? null : (double) id).stock(10 - (int) id).build()));
+        indices.rebuild();
+    }
+
+    private List<Long> ids(List<ProductoDTO> productos) {
+        return productos == null ? null : productos.stream().map(ProductoDTO::getId).collect(Collectors.toList());
+    }
+
+    @Test
+    void topTest() {
+        assertAll(
+                () -> assertEquals(List.of(1L, 2L), ids(index.top("precio", false, 2))),
+                () -> assertEquals(List.of(5L, 4L), ids(index.top("precio", true, 2))),
+                () -> assertEquals(List.of(6L, 5L), ids(index.top("stock", false, 2))),
+                () -> assertEquals(List.of(1L, 2L), ids(index.top("stock", true, 2)))
+        );
+    }
+
+    @Test
+    void putTest() {
+        // Entra el nuevo más barato y uno que cambia de precio sale de arriba
+        index.put(ProductoDTO.builder().id(7L).nombre("Barato").precio(0.5).stock(100).build());
+        index.put(ProductoDTO.builder().id(1L).nombre("Producto 1").precio(50.0).stock(9).build());
+
+        assertAll(
+                () -> assertEquals(List.of(7L, 2L), ids(index.top("precio", false, 2))),
+                () -> assertEquals(List.of(1L, 5L), ids(index.top("precio", true, 2))),
+                () -> assertEquals(List.of(7L, 1L), ids(index.top("stock", true, 2)))
+        );
+    }
+
+    @Test
+    void sinSuficientesTest() {
+        // Se borran los 4 más baratos: el conjunto se queda vacío aunque queda el 5
+        LongStream.rangeClosed(1, 4).forEach(index::remove);
+        assertNull(index.top("precio", false, 1));
+
+        long version = index.version();
+        index.rellenar("precio", false, List.of(ProductoDTO.builder().id(5L).precio(5.0).build()), version);
+        assertEquals(List.of(5L), ids(index.top("precio", false, 2)));
+    }
+
+    @Test
+    void rellenarTrasEscrituraTest() {
+        LongStream.rangeClosed(1, 4).forEach(index::remove);
+        long version = index.version();
+        index.put(ProductoDTO.builder().id(8L).precio(8.0).stock(1).build());
+        // Lo leído de la base de datos ya no vale
+        index.rellenar("precio", false, List.of(ProductoDTO.builder().id(5L).precio(5.0).build()), version);
+
+        assertNull(index.top("precio", false, 1));
+    }
+
+    @Test
+    void todosTest() {
+        // Hay menos productos que los pedidos: se devuelven todos
+        var index = new ProductosTopIndex(10);
+        var indices = new ProductosIndices(productosRepository, List.of(index), true);
+        Mockito.when(productosRepository.streamDTO()).thenReturn(Stream.of(
+                ProductoDTO.builder().id(1L).precio(3.0).stock(1).build(),
+                ProductoDTO.builder().id(2L).precio(1.0).stock(1).build()
+        ));
+        indices.rebuild();
+
+        assertEquals(List.of(2L, 1L), ids(index.top("precio", false, 10)));
+    }
+}